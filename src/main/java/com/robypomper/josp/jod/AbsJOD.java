@@ -335,6 +335,7 @@ public abstract class AbsJOD implements JOD {
             history.startCloudSync();
             structure.startAutoRefresh();
             executor.activateAll();
+            comm.getActionDispatcher().start();
 
             try {
                 boolean startLocal = ((JODSettings_002) settings).getLocalEnabled();
@@ -398,6 +399,9 @@ public abstract class AbsJOD implements JOD {
                 log.warn(String.format("Error on disconnecting cloud communication of '%s' object because %s", objInfo.getObjId(), e.getMessage()), e);
             }
 
+            log.trace("JODCommunication discard pending actions' commands");
+            comm.getActionDispatcher().stop();
+
             log.trace("JODExecutor disable all workers");
             executor.deactivateAll();
 
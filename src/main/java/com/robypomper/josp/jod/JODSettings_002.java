@@ -20,6 +20,8 @@
 package com.robypomper.josp.jod;
 
 import com.robypomper.discovery.impl.Avahi;
+import com.robypomper.josp.jod.cache.ItemsStorage;
+import com.robypomper.josp.jod.comm.JODLocalClientQueue;
 import com.robypomper.josp.protocol.JOSPPerm;
 import com.robypomper.settings.DefaultSettings;
 
@@ -142,9 +144,102 @@ public class JODSettings_002 extends DefaultSettings implements JOD.Settings {
      */
     public static final String JODCOMM_LOCAL_KS_ALIAS    = "jod.comm.local.ks.alias";
     public static final String JODCOMM_LOCAL_KS_ALIAS_DEF = "";
+    /**
+     * Max number of messages waiting to be sent to each local client. Each
+     * local client has his own outbound queue and writer thread, so a slow
+     * client never delays messages sent to other clients.
+     * <p>
+     * Default `100`.
+     */
+    public static final String JODCOMM_LOCAL_QUEUE_SIZE = "jod.comm.local.queue_size";
+    public static final String JODCOMM_LOCAL_QUEUE_SIZE_DEF = "100";
+    /**
+     * Policy to apply when a local client's outbound queue is full: `drop_oldest`
+     * discards the oldest queued state update, `conflate` replaces the queued
+     * state update of the same component (otherwise discards the oldest state
+     * update) and `disconnect` discards all queued messages and disconnects
+     * the client. When the queue contains no state updates to discard, the
+     * client is disconnected.
+     * <p>
+     * Default `drop_oldest`.
+     */
+    public static final String JODCOMM_LOCAL_QUEUE_OVERFLOW = "jod.comm.local.queue_overflow";
+    public static final String JODCOMM_LOCAL_QUEUE_OVERFLOW_DEF = "drop_oldest";
+    /**
+     * Max time, in ms, to wait for the service's id and for the connection
+     * on each local connection's handshake. After that time, the connection
+     * is discharged.
+     * <p>
+     * Default `5000`.
+     */
+    public static final String JODCOMM_LOCAL_HANDSHAKE_TIMEOUT = "jod.comm.local.handshake_timeout";
+    public static final String JODCOMM_LOCAL_HANDSHAKE_TIMEOUT_DEF = "5000";
+    /**
+     * Max number of local connections' handshakes executed concurrently.
+     * Next connections wait for a running handshake to complete.
+     * <p>
+     * Default `8`.
+     */
+    public static final String JODCOMM_LOCAL_HANDSHAKE_THREADS = "jod.comm.local.handshake_threads";
+    public static final String JODCOMM_LOCAL_HANDSHAKE_THREADS_DEF = "8";
 
     public static final String JODCOMM_CLOUD_ENABLED = "jod.comm.cloud.enabled";
     public static final String JODCOMM_CLOUD_ENABLED_DEF = "true";
+    /**
+     * Max number of messages waiting to be sent to the cloud. As for local
+     * clients, the cloud link has his own outbound queue and writer thread.
+     * <p>
+     * Default `100`.
+     */
+    public static final String JODCOMM_CLOUD_QUEUE_SIZE = "jod.comm.cloud.queue_size";
+    public static final String JODCOMM_CLOUD_QUEUE_SIZE_DEF = "100";
+    /**
+     * Max number of components whose latest state update is kept while the
+     * cloud is disconnected. On reconnection, those updates are sent right
+     * after the object's info, structure and permissions. If `0`, state
+     * updates produced while disconnected are discarded.
+     * <p>
+     * Default `1000`.
+     */
+    public static final String JODCOMM_CLOUD_REPLAY_SIZE = "jod.comm.cloud.replay_size";
+    public static final String JODCOMM_CLOUD_REPLAY_SIZE_DEF = "1000";
+    /**
+     * If 'true' each local client and the cloud link keep at most one pending
+     * state update for each component: a newer update replaces the pending
+     * one. So slow consumers always converge to the latest states, using
+     * bounded memory. Otherwise, all intermediate updates are sent.
+     * <p>
+     * Default `false`.
+     */
+    public static final String JODCOMM_STATE_CONFLATION = "jod.comm.state_conflation";
+    public static final String JODCOMM_STATE_CONFLATION_DEF = "false";
+    /**
+     * Time, in ms, that each local client's and cloud's writer waits after
+     * a message is queued on an idle queue, before start sending. So, state
+     * updates produced together (like the ones of an action that changes
+     * many components) are conflated and sent as a single burst. If `0`,
+     * messages are sent as soon as possible.
+     * <p>
+     * Default `0`.
+     */
+    public static final String JODCOMM_BATCH_WINDOW = "jod.comm.batch_window";
+    public static final String JODCOMM_BATCH_WINDOW_DEF = "0";
+    /**
+     * Max number of actions' commands executed in parallel. Commands for the
+     * same component are always executed one at time, in the received order.
+     * <p>
+     * Default `4`.
+     */
+    public static final String JODCOMM_ACTIONS_WORKERS = "jod.comm.actions.workers";
+    public static final String JODCOMM_ACTIONS_WORKERS_DEF = "4";
+    /**
+     * Max number of actions' commands waiting to be executed. When reached,
+     * new commands are discarded.
+     * <p>
+     * Default `100`.
+     */
+    public static final String JODCOMM_ACTIONS_QUEUE_SIZE = "jod.comm.actions.queue_size";
+    public static final String JODCOMM_ACTIONS_QUEUE_SIZE_DEF = "100";
 
     /**
      * If 'true' the history file will be retained in memory and any access to
@@ -206,6 +301,178 @@ public class JODSettings_002 extends DefaultSettings implements JOD.Settings {
      */
     public static final String JODHISTORY_FILE_STATS_PATH = "jod.history.file_stats";
     public static final String JODHISTORY_FILE_STATS_PATH_DEF = "./cache/history.jst";
+    /**
+     * File path for history's rollups (statuses pre-aggregated by minute,
+     * hour and day).
+     */
+    public static final String JODHISTORY_FILE_ROLLUPS_PATH = "jod.history.file_rollups";
+    public static final String JODHISTORY_FILE_ROLLUPS_PATH_DEF = "./cache/history.jru";
+    /**
+     * Storage engine used for the history's items.
+     * <p>
+     * It must be one of the following values:
+     * - `{@link ItemsStorage#ENGINE_JSON}`: items are stored as a single JSON
+     *   array into the 'jod.history.file_array' file. Pages and cursors read all
+     *   items from the file, so it fits only small histories.
+     * - `{@link ItemsStorage#ENGINE_SEGMENTS}`: items are stored into
+     *   append-only binary segments named after the 'jod.history.file_array'
+     *   file. Each segment contains at most 'jod.history.file_release_size'
+     *   items and, when the history is full, the oldest segment is deleted.
+     * <p>
+     * If the engine is 'segments' and the 'jod.history.file_array' file
+     * exists, its items are migrated into the segments and the file is
+     * renamed with the '.migrated' suffix.
+     * <p>
+     * Default `segments`.
+     */
+    public static final String JODHISTORY_STORAGE_ENGINE = "jod.history.storage_engine";
+    public static final String JODHISTORY_STORAGE_ENGINE_DEF = ItemsStorage.ENGINE_SEGMENTS;
+    /**
+     * If 'true', and the 'jod.history.storage_engine' is 'segments', all
+     * segments except the latest one are compressed by the background
+     * compactor, so only if the 'jod.history.compaction_interval' is greater
+     * than 0. Compressed segments are decompressed transparently when history's
+     * items are read.
+     * <p>
+     * Default false.
+     */
+    public static final String JODHISTORY_STORAGE_COMPRESSION = "jod.history.storage_compression";
+    public static final String JODHISTORY_STORAGE_COMPRESSION_DEF = "false";
+    /**
+     * If 'true', and the 'jod.history.storage_engine' is 'segments', segments
+     * are read via memory mapped files, so concurrent requests share the OS's
+     * page cache instead of reading the files. On Windows, memory mapped
+     * segments can be deleted later than expected.
+     * <p>
+     * Default false.
+     */
+    public static final String JODHISTORY_STORAGE_MMAP = "jod.history.storage_mmap";
+    public static final String JODHISTORY_STORAGE_MMAP_DEF = "false";
+    /**
+     * If the 'jod.history.storage_engine' is 'segments', max size, in bytes,
+     * of the history's segments files. When exceeded, the oldest segments are
+     * deleted. If 0, the size is not limited.
+     * <p>
+     * Default 0.
+     */
+    public static final String JODHISTORY_STORAGE_MAX_BYTES = "jod.history.storage_max_bytes";
+    public static final String JODHISTORY_STORAGE_MAX_BYTES_DEF = "0";
+    /**
+     * If the 'jod.history.storage_engine' is 'segments', max age, in ms, of
+     * the stored statuses. Segments containing only older statuses are deleted.
+     * If 0, the age is not limited.
+     * <p>
+     * Default 0.
+     */
+    public static final String JODHISTORY_STORAGE_MAX_AGE = "jod.history.storage_max_age";
+    public static final String JODHISTORY_STORAGE_MAX_AGE_DEF = "0";
+    /**
+     * If the 'jod.history.storage_engine' is 'segments', time, in ms, between
+     * two runs of the background compactor, that deletes the segments
+     * exceeding the retention limits. The compactor runs also after each
+     * flush. If 0, the background compactor is disabled and the retention
+     * is applied by the flush itself.
+     * <p>
+     * Default 60000.
+     */
+    public static final String JODHISTORY_COMPACTION_INTERVAL = "jod.history.compaction_interval";
+    public static final String JODHISTORY_COMPACTION_INTERVAL_DEF = "60000";
+    /**
+     * Max time, in ms, between two writes of the history's stats file.
+     * <p>
+     * Stats are kept in memory and written on the file only when this
+     * interval is elapsed, when 'jod.history.stats_checkpoint_batch' changes
+     * are pending or on shutdown. If 0, the interval write is disabled.
+     * <p>
+     * Default 1000.
+     */
+    public static final String JODHISTORY_STATS_CHECKPOINT_INTERVAL = "jod.history.stats_checkpoint_interval";
+    public static final String JODHISTORY_STATS_CHECKPOINT_INTERVAL_DEF = "1000";
+    /**
+     * Number of history's stats changes that trigger a write of the stats
+     * file. If 1, the stats file is written on each change.
+     * <p>
+     * Default 100.
+     */
+    public static final String JODHISTORY_STATS_CHECKPOINT_BATCH = "jod.history.stats_checkpoint_batch";
+    public static final String JODHISTORY_STATS_CHECKPOINT_BATCH_DEF = "100";
+    /**
+     * Max number of statuses uploaded to the cloud with a single request.
+     * <p>
+     * Default 100.
+     */
+    public static final String JODHISTORY_SYNC_BATCH_SIZE = "jod.history.sync_batch_size";
+    public static final String JODHISTORY_SYNC_BATCH_SIZE_DEF = "100";
+    /**
+     * Time, in ms, that the cloud sync worker waits after a new status is
+     * registered, before start uploading. So more statuses are uploaded with
+     * a single request.
+     * <p>
+     * Default 500.
+     */
+    public static final String JODHISTORY_SYNC_LINGER_TIME = "jod.history.sync_linger_time";
+    public static final String JODHISTORY_SYNC_LINGER_TIME_DEF = "500";
+    /**
+     * Time, in ms, that the cloud sync worker waits after the first failed
+     * upload. On each consecutive failure, this time is doubled until
+     * 'jod.history.sync_backoff_max'.
+     * <p>
+     * Default 1000.
+     */
+    public static final String JODHISTORY_SYNC_BACKOFF_MIN = "jod.history.sync_backoff_min";
+    public static final String JODHISTORY_SYNC_BACKOFF_MIN_DEF = "1000";
+    /**
+     * Max time, in ms, that the cloud sync worker waits after a failed
+     * upload.
+     * <p>
+     * Default 60000.
+     */
+    public static final String JODHISTORY_SYNC_BACKOFF_MAX = "jod.history.sync_backoff_max";
+    public static final String JODHISTORY_SYNC_BACKOFF_MAX_DEF = "60000";
+    /**
+     * Max number of chunks, of 'jod.history.sync_batch_size' items, uploaded
+     * concurrently while uploading the history's backlog. Chunks are
+     * acknowledged in order, so the upload resumes from the first chunk not
+     * uploaded.
+     * <p>
+     * Default 2.
+     */
+    public static final String JODHISTORY_SYNC_MAX_IN_FLIGHT = "jod.history.sync_max_in_flight";
+    public static final String JODHISTORY_SYNC_MAX_IN_FLIGHT_DEF = "2";
+    /**
+     * Max number of statuses returned by a history request for a range state
+     * component, before serving it from the history's rollups.
+     * <p>
+     * When a request, by dates range or for all statuses, would return more
+     * statuses, it's served from the finest rollups (by minute, hour or day)
+     * that return at most this number of statuses. If 0, history requests are
+     * always served with the registered statuses.
+     * <p>
+     * Default 0.
+     */
+    public static final String JODHISTORY_ROLLUPS_MAX_POINTS = "jod.history.rollups_max_points";
+    public static final String JODHISTORY_ROLLUPS_MAX_POINTS_DEF = "0";
+    /**
+     * Max time, in ms, between two writes of the history's rollups file.
+     * <p>
+     * Rollups are written only if changed since latest write, so they are
+     * not rebuilt from the whole history file after a crash. If 0, rollups
+     * are written only when the history sync is stopped.
+     * <p>
+     * Default 60000.
+     */
+    public static final String JODHISTORY_ROLLUPS_CHECKPOINT_INTERVAL = "jod.history.rollups_checkpoint_interval";
+    public static final String JODHISTORY_ROLLUPS_CHECKPOINT_INTERVAL_DEF = "60000";
+    /**
+     * Max number of history requests' results kept in memory.
+     * <p>
+     * Cached results are discarded as soon as a status of the same component
+     * is added or removed from the history. If 0, results are not cached.
+     * <p>
+     * Default 32.
+     */
+    public static final String JODHISTORY_QUERY_CACHE_SIZE = "jod.history.query_cache_size";
+    public static final String JODHISTORY_QUERY_CACHE_SIZE_DEF = "32";
 
     /**
      * If 'true' the events file will be retained in memory and any access to
@@ -266,6 +533,148 @@ public class JODSettings_002 extends DefaultSettings implements JOD.Settings {
      */
     public static final String JODEVENTS_FILE_STATS_PATH = "jod.events.file_stats";
     public static final String JODEVENTS_FILE_STATS_PATH_DEF = "cache/events.jst";
+    /**
+     * Storage engine used for the event's items.
+     * <p>
+     * It must be one of the following values:
+     * - `{@link ItemsStorage#ENGINE_JSON}`: items are stored as a single JSON
+     *   array into the 'jod.events.file_array' file. Pages and cursors read all
+     *   items from the file, so it fits only small events files.
+     * - `{@link ItemsStorage#ENGINE_SEGMENTS}`: items are stored into
+     *   append-only binary segments named after the 'jod.events.file_array'
+     *   file. Each segment contains at most 'jod.events.file_release_size'
+     *   items and, when the events file is full, the oldest segment is deleted.
+     * <p>
+     * If the engine is 'segments' and the 'jod.events.file_array' file
+     * exists, its items are migrated into the segments and the file is
+     * renamed with the '.migrated' suffix.
+     * <p>
+     * Default `segments`.
+     */
+    public static final String JODEVENTS_STORAGE_ENGINE = "jod.events.storage_engine";
+    public static final String JODEVENTS_STORAGE_ENGINE_DEF = ItemsStorage.ENGINE_SEGMENTS;
+    /**
+     * If 'true', and the 'jod.events.storage_engine' is 'segments', all
+     * segments except the latest one are compressed by the background
+     * compactor, so only if the 'jod.events.compaction_interval' is greater
+     * than 0. Compressed segments are decompressed transparently when event's
+     * items are read.
+     * <p>
+     * Default false.
+     */
+    public static final String JODEVENTS_STORAGE_COMPRESSION = "jod.events.storage_compression";
+    public static final String JODEVENTS_STORAGE_COMPRESSION_DEF = "false";
+    /**
+     * If 'true', and the 'jod.events.storage_engine' is 'segments', segments
+     * are read via memory mapped files, so concurrent requests share the OS's
+     * page cache instead of reading the files. On Windows, memory mapped
+     * segments can be deleted later than expected.
+     * <p>
+     * Default false.
+     */
+    public static final String JODEVENTS_STORAGE_MMAP = "jod.events.storage_mmap";
+    public static final String JODEVENTS_STORAGE_MMAP_DEF = "false";
+    /**
+     * If the 'jod.events.storage_engine' is 'segments', max size, in bytes,
+     * of the events's segments files. When exceeded, the oldest segments are
+     * deleted. If 0, the size is not limited.
+     * <p>
+     * Default 0.
+     */
+    public static final String JODEVENTS_STORAGE_MAX_BYTES = "jod.events.storage_max_bytes";
+    public static final String JODEVENTS_STORAGE_MAX_BYTES_DEF = "0";
+    /**
+     * If the 'jod.events.storage_engine' is 'segments', max age, in ms, of
+     * the stored events. Segments containing only older events are deleted.
+     * If 0, the age is not limited.
+     * <p>
+     * Default 0.
+     */
+    public static final String JODEVENTS_STORAGE_MAX_AGE = "jod.events.storage_max_age";
+    public static final String JODEVENTS_STORAGE_MAX_AGE_DEF = "0";
+    /**
+     * If the 'jod.events.storage_engine' is 'segments', time, in ms, between
+     * two runs of the background compactor, that deletes the segments
+     * exceeding the retention limits. The compactor runs also after each
+     * flush. If 0, the background compactor is disabled and the retention
+     * is applied by the flush itself.
+     * <p>
+     * Default 60000.
+     */
+    public static final String JODEVENTS_COMPACTION_INTERVAL = "jod.events.compaction_interval";
+    public static final String JODEVENTS_COMPACTION_INTERVAL_DEF = "60000";
+    /**
+     * Max time, in ms, between two writes of the event's stats file.
+     * <p>
+     * Stats are kept in memory and written on the file only when this
+     * interval is elapsed, when 'jod.events.stats_checkpoint_batch' changes
+     * are pending or on shutdown. If 0, the interval write is disabled.
+     * <p>
+     * Default 1000.
+     */
+    public static final String JODEVENTS_STATS_CHECKPOINT_INTERVAL = "jod.events.stats_checkpoint_interval";
+    public static final String JODEVENTS_STATS_CHECKPOINT_INTERVAL_DEF = "1000";
+    /**
+     * Number of event's stats changes that trigger a write of the stats
+     * file. If 1, the stats file is written on each change.
+     * <p>
+     * Default 100.
+     */
+    public static final String JODEVENTS_STATS_CHECKPOINT_BATCH = "jod.events.stats_checkpoint_batch";
+    public static final String JODEVENTS_STATS_CHECKPOINT_BATCH_DEF = "100";
+    /**
+     * Max number of events uploaded to the cloud with a single request.
+     * <p>
+     * Default 100.
+     */
+    public static final String JODEVENTS_SYNC_BATCH_SIZE = "jod.events.sync_batch_size";
+    public static final String JODEVENTS_SYNC_BATCH_SIZE_DEF = "100";
+    /**
+     * Time, in ms, that the cloud sync worker waits after a new event is
+     * registered, before start uploading. So more events are uploaded with
+     * a single request.
+     * <p>
+     * Default 500.
+     */
+    public static final String JODEVENTS_SYNC_LINGER_TIME = "jod.events.sync_linger_time";
+    public static final String JODEVENTS_SYNC_LINGER_TIME_DEF = "500";
+    /**
+     * Time, in ms, that the cloud sync worker waits after the first failed
+     * upload. On each consecutive failure, this time is doubled until
+     * 'jod.events.sync_backoff_max'.
+     * <p>
+     * Default 1000.
+     */
+    public static final String JODEVENTS_SYNC_BACKOFF_MIN = "jod.events.sync_backoff_min";
+    public static final String JODEVENTS_SYNC_BACKOFF_MIN_DEF = "1000";
+    /**
+     * Max time, in ms, that the cloud sync worker waits after a failed
+     * upload.
+     * <p>
+     * Default 60000.
+     */
+    public static final String JODEVENTS_SYNC_BACKOFF_MAX = "jod.events.sync_backoff_max";
+    public static final String JODEVENTS_SYNC_BACKOFF_MAX_DEF = "60000";
+    /**
+     * Max number of chunks, of 'jod.events.sync_batch_size' items, uploaded
+     * concurrently while uploading the events's backlog. Chunks are
+     * acknowledged in order, so the upload resumes from the first chunk not
+     * uploaded.
+     * <p>
+     * Default 2.
+     */
+    public static final String JODEVENTS_SYNC_MAX_IN_FLIGHT = "jod.events.sync_max_in_flight";
+    public static final String JODEVENTS_SYNC_MAX_IN_FLIGHT_DEF = "2";
+    /**
+     * Max number of events requests' results kept in memory.
+     * <p>
+     * Cached results are discarded as soon as an event of the same type is
+     * added or removed from the events. If 0, results are not cached.
+     * <p>
+     * Default 32.
+     */
+    public static final String JODEVENTS_QUERY_CACHE_SIZE = "jod.events.query_cache_size";
+    public static final String JODEVENTS_QUERY_CACHE_SIZE_DEF = "32";
 
 
     //@formatter:on
@@ -457,10 +866,50 @@ public class JODSettings_002 extends DefaultSettings implements JOD.Settings {
         return getInt(JODCOMM_LOCAL_PORT, JODCOMM_LOCAL_PORT_DEF);
     }
 
+    public int getLocalQueueSize() {
+        return getInt(JODCOMM_LOCAL_QUEUE_SIZE, JODCOMM_LOCAL_QUEUE_SIZE_DEF);
+    }
+
+    public long getLocalHandshakeTimeout() {
+        return Long.parseLong(getString(JODCOMM_LOCAL_HANDSHAKE_TIMEOUT, JODCOMM_LOCAL_HANDSHAKE_TIMEOUT_DEF));
+    }
+
+    public int getLocalHandshakeThreads() {
+        return getInt(JODCOMM_LOCAL_HANDSHAKE_THREADS, JODCOMM_LOCAL_HANDSHAKE_THREADS_DEF);
+    }
+
+    public JODLocalClientQueue.OverflowPolicy getLocalQueueOverflow() {
+        return JODLocalClientQueue.OverflowPolicy.parse(getString(JODCOMM_LOCAL_QUEUE_OVERFLOW, JODCOMM_LOCAL_QUEUE_OVERFLOW_DEF));
+    }
+
     public boolean getCloudEnabled() {
         return getBoolean(JODCOMM_CLOUD_ENABLED, JODCOMM_CLOUD_ENABLED_DEF);
     }
 
+    public int getCloudQueueSize() {
+        return getInt(JODCOMM_CLOUD_QUEUE_SIZE, JODCOMM_CLOUD_QUEUE_SIZE_DEF);
+    }
+
+    public int getCloudReplaySize() {
+        return getInt(JODCOMM_CLOUD_REPLAY_SIZE, JODCOMM_CLOUD_REPLAY_SIZE_DEF);
+    }
+
+    public boolean getStateConflation() {
+        return getBoolean(JODCOMM_STATE_CONFLATION, JODCOMM_STATE_CONFLATION_DEF);
+    }
+
+    public long getBatchWindow() {
+        return Long.parseLong(getString(JODCOMM_BATCH_WINDOW, JODCOMM_BATCH_WINDOW_DEF));
+    }
+
+    public int getActionsWorkers() {
+        return getInt(JODCOMM_ACTIONS_WORKERS, JODCOMM_ACTIONS_WORKERS_DEF);
+    }
+
+    public int getActionsQueueSize() {
+        return getInt(JODCOMM_ACTIONS_QUEUE_SIZE, JODCOMM_ACTIONS_QUEUE_SIZE_DEF);
+    }
+
 
     // History
 
@@ -492,6 +941,74 @@ public class JODSettings_002 extends DefaultSettings implements JOD.Settings {
         return getFile(JODHISTORY_FILE_STATS_PATH, JODHISTORY_FILE_STATS_PATH_DEF);
     }
 
+    public File getHistoryFileRollupsPath() {
+        return getFile(JODHISTORY_FILE_ROLLUPS_PATH, JODHISTORY_FILE_ROLLUPS_PATH_DEF);
+    }
+
+    public String getHistoryStorageEngine() {
+        return getString(JODHISTORY_STORAGE_ENGINE, JODHISTORY_STORAGE_ENGINE_DEF);
+    }
+
+    public boolean getHistoryStorageCompression() {
+        return getBoolean(JODHISTORY_STORAGE_COMPRESSION, JODHISTORY_STORAGE_COMPRESSION_DEF);
+    }
+
+    public boolean getHistoryStorageMmap() {
+        return getBoolean(JODHISTORY_STORAGE_MMAP, JODHISTORY_STORAGE_MMAP_DEF);
+    }
+
+    public long getHistoryStorageMaxBytes() {
+        return Long.parseLong(getString(JODHISTORY_STORAGE_MAX_BYTES, JODHISTORY_STORAGE_MAX_BYTES_DEF));
+    }
+
+    public long getHistoryStorageMaxAge() {
+        return Long.parseLong(getString(JODHISTORY_STORAGE_MAX_AGE, JODHISTORY_STORAGE_MAX_AGE_DEF));
+    }
+
+    public long getHistoryCompactionInterval() {
+        return getInt(JODHISTORY_COMPACTION_INTERVAL, JODHISTORY_COMPACTION_INTERVAL_DEF);
+    }
+
+    public long getHistoryStatsCheckpointInterval() {
+        return getInt(JODHISTORY_STATS_CHECKPOINT_INTERVAL, JODHISTORY_STATS_CHECKPOINT_INTERVAL_DEF);
+    }
+
+    public int getHistoryStatsCheckpointBatch() {
+        return getInt(JODHISTORY_STATS_CHECKPOINT_BATCH, JODHISTORY_STATS_CHECKPOINT_BATCH_DEF);
+    }
+
+    public int getHistorySyncBatchSize() {
+        return getInt(JODHISTORY_SYNC_BATCH_SIZE, JODHISTORY_SYNC_BATCH_SIZE_DEF);
+    }
+
+    public long getHistorySyncLingerTime() {
+        return getInt(JODHISTORY_SYNC_LINGER_TIME, JODHISTORY_SYNC_LINGER_TIME_DEF);
+    }
+
+    public long getHistorySyncBackoffMin() {
+        return getInt(JODHISTORY_SYNC_BACKOFF_MIN, JODHISTORY_SYNC_BACKOFF_MIN_DEF);
+    }
+
+    public long getHistorySyncBackoffMax() {
+        return getInt(JODHISTORY_SYNC_BACKOFF_MAX, JODHISTORY_SYNC_BACKOFF_MAX_DEF);
+    }
+
+    public int getHistorySyncMaxInFlight() {
+        return getInt(JODHISTORY_SYNC_MAX_IN_FLIGHT, JODHISTORY_SYNC_MAX_IN_FLIGHT_DEF);
+    }
+
+    public int getHistoryRollupsMaxPoints() {
+        return getInt(JODHISTORY_ROLLUPS_MAX_POINTS, JODHISTORY_ROLLUPS_MAX_POINTS_DEF);
+    }
+
+    public long getHistoryRollupsCheckpointInterval() {
+        return getInt(JODHISTORY_ROLLUPS_CHECKPOINT_INTERVAL, JODHISTORY_ROLLUPS_CHECKPOINT_INTERVAL_DEF);
+    }
+
+    public int getHistoryQueryCacheSize() {
+        return getInt(JODHISTORY_QUERY_CACHE_SIZE, JODHISTORY_QUERY_CACHE_SIZE_DEF);
+    }
+
 
     // Events
 
@@ -523,4 +1040,60 @@ public class JODSettings_002 extends DefaultSettings implements JOD.Settings {
         return getFile(JODEVENTS_FILE_STATS_PATH, JODEVENTS_FILE_STATS_PATH_DEF);
     }
 
+    public String getEventsStorageEngine() {
+        return getString(JODEVENTS_STORAGE_ENGINE, JODEVENTS_STORAGE_ENGINE_DEF);
+    }
+
+    public boolean getEventsStorageCompression() {
+        return getBoolean(JODEVENTS_STORAGE_COMPRESSION, JODEVENTS_STORAGE_COMPRESSION_DEF);
+    }
+
+    public boolean getEventsStorageMmap() {
+        return getBoolean(JODEVENTS_STORAGE_MMAP, JODEVENTS_STORAGE_MMAP_DEF);
+    }
+
+    public long getEventsStorageMaxBytes() {
+        return Long.parseLong(getString(JODEVENTS_STORAGE_MAX_BYTES, JODEVENTS_STORAGE_MAX_BYTES_DEF));
+    }
+
+    public long getEventsStorageMaxAge() {
+        return Long.parseLong(getString(JODEVENTS_STORAGE_MAX_AGE, JODEVENTS_STORAGE_MAX_AGE_DEF));
+    }
+
+    public long getEventsCompactionInterval() {
+        return getInt(JODEVENTS_COMPACTION_INTERVAL, JODEVENTS_COMPACTION_INTERVAL_DEF);
+    }
+
+    public long getEventsStatsCheckpointInterval() {
+        return getInt(JODEVENTS_STATS_CHECKPOINT_INTERVAL, JODEVENTS_STATS_CHECKPOINT_INTERVAL_DEF);
+    }
+
+    public int getEventsStatsCheckpointBatch() {
+        return getInt(JODEVENTS_STATS_CHECKPOINT_BATCH, JODEVENTS_STATS_CHECKPOINT_BATCH_DEF);
+    }
+
+    public int getEventsSyncBatchSize() {
+        return getInt(JODEVENTS_SYNC_BATCH_SIZE, JODEVENTS_SYNC_BATCH_SIZE_DEF);
+    }
+
+    public long getEventsSyncLingerTime() {
+        return getInt(JODEVENTS_SYNC_LINGER_TIME, JODEVENTS_SYNC_LINGER_TIME_DEF);
+    }
+
+    public long getEventsSyncBackoffMin() {
+        return getInt(JODEVENTS_SYNC_BACKOFF_MIN, JODEVENTS_SYNC_BACKOFF_MIN_DEF);
+    }
+
+    public long getEventsSyncBackoffMax() {
+        return getInt(JODEVENTS_SYNC_BACKOFF_MAX, JODEVENTS_SYNC_BACKOFF_MAX_DEF);
+    }
+
+    public int getEventsSyncMaxInFlight() {
+        return getInt(JODEVENTS_SYNC_MAX_IN_FLIGHT, JODEVENTS_SYNC_MAX_IN_FLIGHT_DEF);
+    }
+
+    public int getEventsQueryCacheSize() {
+        return getInt(JODEVENTS_QUERY_CACHE_SIZE, JODEVENTS_QUERY_CACHE_SIZE_DEF);
+    }
+
 }
@@ -94,6 +94,7 @@ public class JOD_002 extends AbsJOD {
         JODExecutorMngr_002 executor = new JODExecutorMngr_002(settings, objInfo);
 
         JODHistory_002 history = new JODHistory_002(settings, jcpClient);
+        Events.registerJODStart("Local cache recovered", events.getRecoveryTime(), history.getRecoveryTime());
 
         JODStructure_002 structure = new JODStructure_002(objInfo, executor, history);
 
@@ -0,0 +1,35 @@
+/*******************************************************************************
+ * The John Object Daemon is the agent software to connect "objects"
+ * to an IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package com.robypomper.josp.jod.cache;
+
+import java.util.Iterator;
+
+
+/**
+ * Cursor on the items of an {@link ItemsStorage}.
+ * <p>
+ * Items are read from the storage while iterating the cursor, so the caller
+ * can stop the iteration as soon as it collected the items it needs. When
+ * an error occurs while reading the items, the iteration ends.
+ *
+ * @param <T> the type of stored items.
+ */
+public interface ItemsCursor<T> extends Iterator<T> {
+}
@@ -0,0 +1,233 @@
+/*******************************************************************************
+ * The John Object Daemon is the agent software to connect "objects"
+ * to an IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package com.robypomper.josp.jod.cache;
+
+import com.robypomper.java.JavaJSONArrayToFile;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+
+
+/**
+ * Storage engine used by the local cache to store events and statuses
+ * histories.
+ * <p>
+ * Implementations keep items ordered by their id (and then by their date),
+ * buffer the latest items in memory and flush them on the storage when the
+ * buffer is full. When the storage is full, the oldest items are removed.
+ * <p>
+ * Available implementations are:
+ * <ul>
+ *     <li>{@link JSONArrayStorage}: that wraps a {@link JavaJSONArrayToFile}
+ *     and stores all items as a single JSON array</li>
+ *     <li>{@link SegmentedLogStorage}: that stores items in append-only,
+ *     length-prefixed binary segments</li>
+ * </ul>
+ *
+ * @param <T> the type of stored items.
+ */
+public interface ItemsStorage<T> {
+
+    // Storage engines names
+
+    /**
+     * Name of the {@link JSONArrayStorage} engine.
+     */
+    String ENGINE_JSON = "json";
+
+    /**
+     * Name of the {@link SegmentedLogStorage} engine.
+     */
+    String ENGINE_SEGMENTS = "segments";
+
+
+    // Add items
+
+    /**
+     * Add given item to the memory buffer.
+     *
+     * @param value the item to add.
+     */
+    void append(T value);
+
+
+    // Get items
+
+    /**
+     * @return the number of items in the memory buffer.
+     */
+    long countBuffered();
+
+    /**
+     * @return the number of items flushed on the storage.
+     */
+    long countFile();
+
+    /**
+     * Return all items with id between given ids (both included).
+     *
+     * @param fromId the first item id, if null starts from the oldest item.
+     * @param toId   the last item id, if null ends with the latest item.
+     * @return the list of items ordered by id.
+     */
+    List<T> getById(Long fromId, Long toId) throws IOException;
+
+    /**
+     * Return all items accepted by given filter.
+     *
+     * @param filter the filter to apply.
+     * @return the list of accepted items ordered by id.
+     */
+    List<T> filterAll(JavaJSONArrayToFile.Filter<T> filter) throws IOException;
+
+    /**
+     * Return the latest <code>count</code> items accepted by given filter.
+     * <p>
+     * On errors, it returns an empty list.
+     *
+     * @param filter the filter to apply.
+     * @param count  the max number of items to return.
+     * @return the list of accepted items ordered by id.
+     */
+    List<T> tryLatest(JavaJSONArrayToFile.Filter<T> filter, long count);
+
+    /**
+     * Return the oldest <code>count</code> items accepted by given filter.
+     * <p>
+     * On errors, it returns an empty list.
+     *
+     * @param filter the filter to apply.
+     * @param count  the max number of items to return.
+     * @return the list of accepted items ordered by id.
+     */
+    List<T> tryAncient(JavaJSONArrayToFile.Filter<T> filter, long count);
+
+    /**
+     * Return the items accepted by given filter and with id between given ids
+     * (both included).
+     * <p>
+     * On errors, it returns an empty list.
+     *
+     * @param filter the filter to apply.
+     * @param fromId the first item id.
+     * @param toId   the last item id.
+     * @return the list of accepted items ordered by id.
+     */
+    List<T> tryById(JavaJSONArrayToFile.Filter<T> filter, long fromId, long toId);
+
+    /**
+     * Return the items accepted by given filter and with date between given
+     * dates (both included).
+     * <p>
+     * On errors, it returns an empty list.
+     *
+     * @param filter   the filter to apply.
+     * @param fromDate the first item date.
+     * @param toDate   the last item date.
+     * @return the list of accepted items ordered by id.
+     */
+    List<T> tryByDate(JavaJSONArrayToFile.Filter<T> filter, Date fromDate, Date toDate);
+
+    /**
+     * Return the items accepted by given filter and with given ids.
+     * <p>
+     * The <code>ids</code> list is used as a hint: implementations can use
+     * it to skip the items with other ids, without decoding them. So, the
+     * filter must accept only the items with given ids.
+     * <p>
+     * On errors, it returns an empty list.
+     *
+     * @param filter the filter to apply.
+     * @param ids    the items ids, ordered ASC.
+     * @return the list of accepted items ordered by id.
+     */
+    List<T> tryByIds(JavaJSONArrayToFile.Filter<T> filter, List<Long> ids);
+
+    /**
+     * Return the items accepted by given filter and contained in given page.
+     * Pages are counted from the oldest item.
+     * <p>
+     * On errors, it returns an empty list.
+     *
+     * @param filter   the filter to apply.
+     * @param pageNum  the page number, starting from 0.
+     * @param pageSize the number of items for each page.
+     * @return the list of accepted items ordered by id.
+     */
+    List<T> tryPage(JavaJSONArrayToFile.Filter<T> filter, int pageNum, int pageSize);
+
+    /**
+     * Open a cursor on the items accepted by given filter.
+     *
+     * @param filter      the filter to apply.
+     * @param latestFirst if true, the cursor returns the items from the latest
+     *                    to the oldest, otherwise from the oldest to the latest.
+     * @return the cursor on the accepted items.
+     */
+    ItemsCursor<T> openCursor(JavaJSONArrayToFile.Filter<T> filter, boolean latestFirst);
+
+
+    // Mngm methods
+
+    /**
+     * Flush all buffered items on the storage and empty the buffer.
+     */
+    void storeCache() throws IOException;
+
+    /**
+     * Register given observer to the storage's events.
+     *
+     * @param observer the observer to register.
+     */
+    void registerObserver(JavaJSONArrayToFile.Observer<T> observer);
+
+
+    // Observers
+
+    /**
+     * Observer notified with the ids range of the removed items, instead of
+     * the removed items.
+     * <p>
+     * Storages that remove whole files of items (like the
+     * {@link SegmentedLogStorage}) call the {@link #onRemovedRange(long, long, long, boolean)}
+     * method, so they don't read the removed items only to notify them. Other
+     * storages call the {@link JavaJSONArrayToFile.Observer#onRemoved(List, boolean)}
+     * method.
+     *
+     * @param <T> the type of stored items.
+     */
+    interface RangeObserver<T> extends JavaJSONArrayToFile.Observer<T> {
+
+        /**
+         * Called when the oldest items, with id between given ids (both
+         * included), are removed from the storage.
+         *
+         * @param fromId the id of the first removed item.
+         * @param toId   the id of the last removed item.
+         * @param count  the number of removed items.
+         * @param auto   true if the items were removed by the storage's
+         *               retention policies.
+         */
+        void onRemovedRange(long fromId, long toId, long count, boolean auto);
+
+    }
+
+}
@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * The John Object Daemon is the agent software to connect "objects"
+ * to an IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package com.robypomper.josp.jod.cache;
+
+import com.robypomper.java.JavaJSONArrayToFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+
+/**
+ * {@link ItemsStorage} implementation that wraps a {@link JavaJSONArrayToFile}.
+ * <p>
+ * It stores all items as a single JSON array on the data file. The
+ * {@link JavaJSONArrayToFile} can't be read partially, so pages and cursors
+ * read all items from the file. Use the {@link SegmentedLogStorage} (the
+ * default storage engine) for large histories. The
+ * {@link #migrate(JavaJSONArrayToFile, File, ItemsStorage)} method copies the
+ * items of this storage into another storage.
+ *
+ * @param <T> the type of stored items.
+ */
+public class JSONArrayStorage<T> implements ItemsStorage<T> {
+
+    // Class constants
+
+    /**
+     * Suffix added to the JSON array's file after the migration of his items.
+     */
+    public static final String MIGRATED_SUFFIX = ".migrated";
+
+
+    // Internal vars
+
+    private final JavaJSONArrayToFile<T, Long> array;
+
+
+    // Constructor
+
+    /**
+     * @param array the wrapped JSON array.
+     */
+    public JSONArrayStorage(JavaJSONArrayToFile<T, Long> array) {
+        this.array = array;
+    }
+
+
+    // Add items
+
+    @Override
+    public void append(T value) {
+        array.append(value);
+    }
+
+
+    // Get items
+
+    @Override
+    public long countBuffered() {
+        return array.countBuffered();
+    }
+
+    @Override
+    public long countFile() {
+        return array.countFile();
+    }
+
+    @Override
+    public List<T> getById(Long fromId, Long toId) throws IOException {
+        return array.getById(fromId, toId);
+    }
+
+    @Override
+    public List<T> filterAll(JavaJSONArrayToFile.Filter<T> filter) throws IOException {
+        return array.filterAll(filter);
+    }
+
+    @Override
+    public List<T> tryLatest(JavaJSONArrayToFile.Filter<T> filter, long count) {
+        return array.tryLatest(filter, (int) count);
+    }
+
+    @Override
+    public List<T> tryAncient(JavaJSONArrayToFile.Filter<T> filter, long count) {
+        return array.tryAncient(filter, (int) count);
+    }
+
+    @Override
+    public List<T> tryById(JavaJSONArrayToFile.Filter<T> filter, long fromId, long toId) {
+        return array.tryById(filter, fromId, toId);
+    }
+
+    @Override
+    public List<T> tryByDate(JavaJSONArrayToFile.Filter<T> filter, Date fromDate, Date toDate) {
+        return array.tryByDate(filter, fromDate, toDate);
+    }
+
+    @Override
+    public List<T> tryByIds(JavaJSONArrayToFile.Filter<T> filter, List<Long> ids) {
+        if (ids.isEmpty())
+            return new ArrayList<>();
+        return array.tryById(filter, ids.get(0), ids.get(ids.size() - 1));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The {@link JavaJSONArrayToFile} can't be read partially, so all
+     * accepted items are read to return the requested page.
+     */
+    @Override
+    public List<T> tryPage(JavaJSONArrayToFile.Filter<T> filter, int pageNum, int pageSize) {
+        try {
+            List<T> all = array.filterAll(filter);
+
+            int posStart = pageNum * pageSize;
+            if (posStart > all.size() - 1)
+                return new ArrayList<>();
+
+            int posEnd = (pageNum * pageSize) + pageSize - 1;
+            if (posEnd >= all.size() - 1)
+                posEnd = all.size() - 1;
+            return all.subList(posStart, posEnd + 1);
+
+        } catch (IOException e) {
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The {@link JavaJSONArrayToFile} can't be read partially, so the
+     * returned cursor iterates the full list of accepted items.
+     */
+    @Override
+    public ItemsCursor<T> openCursor(JavaJSONArrayToFile.Filter<T> filter, boolean latestFirst) {
+        List<T> items;
+        try {
+            items = array.filterAll(filter);
+        } catch (IOException e) {
+            items = new ArrayList<>();
+        }
+        if (latestFirst)
+            Collections.reverse(items);
+
+        final Iterator<T> iterator = items.iterator();
+        return new ItemsCursor<T>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+        };
+    }
+
+
+    // Mngm methods
+
+    @Override
+    public void storeCache() throws IOException {
+        array.storeCache();
+    }
+
+    @Override
+    public void registerObserver(JavaJSONArrayToFile.Observer<T> observer) {
+        array.registerObserver(observer);
+    }
+
+    /**
+     * Copy all items of given JSON array into given storage, then rename the
+     * JSON array's file adding the {@link #MIGRATED_SUFFIX} suffix, so the
+     * items are migrated only once.
+     *
+     * @param source     the JSON array to migrate.
+     * @param sourceFile the JSON array's file.
+     * @param target     the storage where to copy the items.
+     * @return the number of migrated items.
+     */
+    public static <T> int migrate(JavaJSONArrayToFile<T, Long> source, File sourceFile, ItemsStorage<T> target) throws IOException {
+        List<T> items = source.filterAll(new JavaJSONArrayToFile.Filter<T>() {
+            @Override
+            public boolean accepted(T o) {
+                return true;
+            }
+        });
+        for (T item : items)
+            target.append(item);
+        target.storeCache();
+
+        File migratedFile = new File(sourceFile.getPath() + MIGRATED_SUFFIX);
+        if (!sourceFile.renameTo(migratedFile))
+            throw new IOException(String.format("Can't rename migrated file '%s'", sourceFile.getName()));
+        return items.size();
+    }
+
+}
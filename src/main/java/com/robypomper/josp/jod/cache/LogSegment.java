@@ -0,0 +1,943 @@
+/*******************************************************************************
+ * The John Object Daemon is the agent software to connect "objects"
+ * to an IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package com.robypomper.josp.jod.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * Single file of a {@link SegmentedLogStorage}.
+ * <p>
+ * A segment is an append-only file that contains a sequence of
+ * length-prefixed binary records. Each record is composed by a fixed size
+ * header followed by his payload:
+ * <pre>
+ * | payload length (int) | item id (long) | item date (long) | payload crc32 (int) | payload (bytes) |
+ * </pre>
+ * Segments are never rewritten: new records are appended to the latest
+ * segment and, when the storage is full, the oldest segments are deleted as
+ * a whole.
+ * <p>
+ * Records are grouped in blocks of {@link #INDEX_BLOCK_SIZE} records. For
+ * each block, the segment keeps his position in the file and the range of
+ * his records' ids and dates. Those blocks compose a sparse index, persisted
+ * in the segment's index file (the segment's file name plus the
+ * {@link #INDEX_EXTENSION} extension), that allows to seek directly to the
+ * records of a given ids or dates range. When the index file is missing or
+ * corrupted, it's rebuilt reading the records' headers.
+ * <p>
+ * Sealed segments can be compressed (see {@link #compress()}). A compressed
+ * segment is stored in a different file (the segment's file name plus
+ * <code>z</code>) that contains a frame for each block. Each frame contains
+ * the block's records compressed with a {@link Deflater}:
+ * <pre>
+ * | compressed length (int) | raw length (int) | compressed block's records (bytes) |
+ * </pre>
+ * So, also compressed segments can be read block by block. Compressed
+ * segments are read only.
+ * <p>
+ * When the segment is memory mapped (see {@link #setMemoryMapped(boolean)}),
+ * his file is read via a read only {@link MappedByteBuffer}. Each read uses
+ * his own view of the mapped buffer, so concurrent reads share the OS's page
+ * cache without copying the file. The file is mapped again, only when a read
+ * requires the records appended after the latest mapping.
+ * <p>
+ * Segments are not thread safe, the {@link SegmentedLogStorage} serializes
+ * the appends. To read a segment without blocking the appends, readers use
+ * a read only snapshot of the segment (see {@link #snapshot()}) that can be
+ * accessed concurrently to the source segment's appends.
+ */
+class LogSegment {
+
+    // Class constants
+
+    static final int HEADER_SIZE = 4 + 8 + 8 + 4;
+    static final String EXTENSION = ".seg";
+    static final String COMPRESSED_EXTENSION = EXTENSION + "z";
+    static final String INDEX_EXTENSION = ".idx";
+    static final int INDEX_BLOCK_SIZE = 64;
+    private static final int INDEX_ENTRY_SIZE = 8 + 8 + 8 + 8 + 8 + 8 + 4;
+    private static final int FRAME_HEADER_SIZE = 4 + 4;
+    private static final String NAME_FORMAT = "%s.%020d" + EXTENSION;
+
+
+    // Internal vars
+
+    private static final Logger log = LoggerFactory.getLogger(LogSegment.class);
+    private final File file;
+    private final File indexFile;
+    private final boolean compressed;
+    private final LogSegment source;
+    private boolean memoryMapped = false;
+    private MappedByteBuffer map = null;
+    private final List<Block> blocks = new ArrayList<>();
+    private Block lastBlock = null;
+    private int count = 0;
+    private long size = 0;
+
+
+    // Constructors
+
+    private LogSegment(File file) {
+        this(file, null);
+    }
+
+    private LogSegment(File file, LogSegment source) {
+        this.file = file;
+        this.indexFile = getIndexFile(file);
+        this.compressed = file.getName().endsWith(COMPRESSED_EXTENSION);
+        this.source = source;
+    }
+
+    /**
+     * Create a new empty segment.
+     *
+     * @param dir      the dir containing the segment file.
+     * @param baseName the storage's base name.
+     * @param firstId  the id of the first item that will be stored in the segment.
+     * @return the new segment.
+     */
+    static LogSegment create(File dir, String baseName, long firstId) {
+        return new LogSegment(new File(dir, String.format(NAME_FORMAT, baseName, firstId)));
+    }
+
+    /**
+     * Load an existing segment.
+     * <p>
+     * The segment's blocks are loaded from the index file, then the records
+     * not included in the index file (the segment's tail) are read from the
+     * segment's file, validated and added to the index. So, the loading time
+     * doesn't depend on the segment's size.
+     * <p>
+     * If a tail's record is incomplete or corrupted (because of a crash
+     * during the write), then the segment is truncated before that record.
+     *
+     * @param file the segment's file.
+     * @return the loaded segment.
+     */
+    static LogSegment load(File file) throws IOException {
+        LogSegment segment = new LogSegment(file);
+        long fileLength = file.length();
+        long pos = segment.loadIndex(fileLength);
+        if (segment.compressed) {
+            if (pos != fileLength)
+                segment.rebuildCompressedIndex(fileLength);
+            return segment;
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(pos);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(raf.getChannel())));
+            CRC32 crc = new CRC32();
+            while (pos + HEADER_SIZE <= fileLength) {
+                int length = in.readInt();
+                long id = in.readLong();
+                long date = in.readLong();
+                int checksum = in.readInt();
+                if (length < 0 || pos + HEADER_SIZE + length > fileLength)
+                    break;
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum)
+                    break;
+                if (!segment.isEmpty() && id <= segment.getLastId())
+                    break;
+                segment.addToIndex(id, date, pos, HEADER_SIZE + length);
+                pos += HEADER_SIZE + length;
+            }
+        }
+
+        if (pos < fileLength) {
+            log.warn(String.format("Truncate segment '%s' from %d to %d bytes because last records are incomplete or corrupted", file.getName(), fileLength, pos));
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(pos);
+            }
+        }
+
+        return segment;
+    }
+
+
+    // Getters
+
+    File getFile() {
+        return file;
+    }
+
+    long getFirstId() {
+        return isEmpty() ? -1 : blocks.get(0).firstId;
+    }
+
+    long getLastId() {
+        return isEmpty() ? -1 : lastBlock.lastId;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the date of the newest record in the segment, or
+     * {@link Long#MIN_VALUE} if the segment is empty.
+     */
+    long getMaxDate() {
+        long maxDate = Long.MIN_VALUE;
+        for (Block b : blocks)
+            maxDate = Math.max(maxDate, b.maxDate);
+        return maxDate;
+    }
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    boolean isCompressed() {
+        return compressed;
+    }
+
+    boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * @return the segment used to create current snapshot, or current segment
+     * if it's not a snapshot.
+     */
+    LogSegment getSource() {
+        return source != null ? source : this;
+    }
+
+    /**
+     * Enable or disable the memory mapped read path.
+     *
+     * @param memoryMapped if true, segment's file is read via a memory mapped
+     *                     buffer.
+     */
+    synchronized void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped && size <= Integer.MAX_VALUE;
+        if (!this.memoryMapped)
+            map = null;
+    }
+
+    boolean overlapsIds(long fromId, long toId) {
+        return !isEmpty() && getFirstId() <= toId && getLastId() >= fromId;
+    }
+
+    boolean overlapsDates(long fromDate, long toDate) {
+        if (isEmpty())
+            return false;
+        for (Block b : blocks)
+            if (b.overlaps(Long.MIN_VALUE, Long.MAX_VALUE, fromDate, toDate))
+                return true;
+        return false;
+    }
+
+
+    // Records access
+
+    /**
+     * Create a read only snapshot of the segment.
+     * <p>
+     * The snapshot contains only the records appended before his creation,
+     * so it can be read while new records are appended to current segment.
+     * The snapshot must be created while no records are appended to current
+     * segment, then it can be read without any lock. Memory mapped snapshots
+     * share the mapped buffer of current segment.
+     *
+     * @return the segment's snapshot.
+     */
+    LogSegment snapshot() {
+        LogSegment snapshot = new LogSegment(file, getSource());
+        snapshot.memoryMapped = memoryMapped;
+        for (Block block : blocks)
+            // the last block can be updated by next appends
+            snapshot.blocks.add(block == lastBlock ? block.copy() : block);
+        snapshot.lastBlock = snapshot.blocks.isEmpty() ? null : snapshot.blocks.get(snapshot.blocks.size() - 1);
+        snapshot.count = count;
+        snapshot.size = size;
+        return snapshot;
+    }
+
+    /**
+     * Append given records at the end of the segment's file.
+     * <p>
+     * The segment's index, count and size are updated only after all records
+     * are written and flushed on the file. If the write fails, the file is
+     * truncated to his previous size, so no record is appended.
+     *
+     * @param records the records to append.
+     */
+    void append(List<Record> records) throws IOException {
+        if (compressed)
+            throw new IOException(String.format("Can't append records to compressed segment '%s'", file.getName()));
+        if (source != null)
+            throw new IOException(String.format("Can't append records to segment's snapshot '%s'", file.getName()));
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+            CRC32 crc = new CRC32();
+            for (Record r : records) {
+                crc.reset();
+                crc.update(r.payload, 0, r.payload.length);
+                out.writeInt(r.payload.length);
+                out.writeLong(r.id);
+                out.writeLong(r.date);
+                out.writeInt((int) crc.getValue());
+                out.write(r.payload);
+            }
+            out.flush();
+        } catch (IOException e) {
+            truncate(size);
+            throw e;
+        }
+
+        for (Record r : records)
+            addToIndex(r.id, r.date, size, HEADER_SIZE + r.payload.length);
+    }
+
+    /**
+     * Truncate the segment's file to given length, discarding partially
+     * written records.
+     */
+    private void truncate(long length) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() > length)
+                raf.setLength(length);
+        } catch (IOException e) {
+            log.warn(String.format("Error on truncating segment '%s' to %d bytes, incomplete records will be truncated on next load (%s)", file.getName(), length, e.getMessage()));
+        }
+    }
+
+    /**
+     * Read all segment's records, from the oldest to the latest.
+     *
+     * @param visitor the visitor that process the records.
+     */
+    void read(Visitor visitor) throws IOException {
+        read(visitor, Long.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Read segment's records, from the oldest to the latest, skipping the
+     * blocks that don't contain any record with id and date in given ranges
+     * (all included).
+     * <p>
+     * For each record, the visitor decide if read or skip his payload, or
+     * stop the reading. Records with a corrupted payload are skipped.
+     *
+     * @param visitor  the visitor that process the records.
+     * @param fromId   the first id of the range.
+     * @param toId     the last id of the range.
+     * @param fromDate the first date of the range, as milliseconds.
+     * @param toDate   the last date of the range, as milliseconds.
+     */
+    void read(Visitor visitor, long fromId, long toId, long fromDate, long toDate) throws IOException {
+        if (isEmpty())
+            return;
+
+        if (compressed) {
+            for (int b = 0; b < blocks.size(); b++) {
+                if (!blocks.get(b).overlaps(fromId, toId, fromDate, toDate))
+                    continue;
+                for (Record r : readBlock(b)) {
+                    Action action = visitor.accept(r.id, r.date);
+                    if (action == Action.STOP)
+                        return;
+                    if (action == Action.SKIP)
+                        continue;
+                    if (!visitor.visit(r.id, r.date, r.payload))
+                        return;
+                }
+            }
+            return;
+        }
+
+        if (memoryMapped) {
+            readMapped(visitor, fromId, toId, fromDate, toDate);
+            return;
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            CRC32 crc = new CRC32();
+            List<Block> all = blocks;
+            int b = 0;
+            while (b < all.size()) {
+                // Find next run of consecutive blocks in the ranges
+                while (b < all.size() && !all.get(b).overlaps(fromId, toId, fromDate, toDate))
+                    b++;
+                if (b == all.size())
+                    return;
+                long pos = all.get(b).startPos;
+                while (b < all.size() && all.get(b).overlaps(fromId, toId, fromDate, toDate))
+                    b++;
+                long endPos = all.get(b - 1).endPos;
+
+                raf.seek(pos);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(raf.getChannel())));
+                while (pos + HEADER_SIZE <= endPos) {
+                    int length = in.readInt();
+                    long id = in.readLong();
+                    long date = in.readLong();
+                    int checksum = in.readInt();
+                    pos += HEADER_SIZE + length;
+
+                    Action action = visitor.accept(id, date);
+                    if (action == Action.STOP)
+                        return;
+                    if (action == Action.SKIP) {
+                        skipFully(in, length);
+                        continue;
+                    }
+
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+                    crc.reset();
+                    crc.update(payload, 0, length);
+                    if ((int) crc.getValue() != checksum) {
+                        log.warn(String.format("Skip record '%d' from segment '%s' because corrupted", id, file.getName()));
+                        continue;
+                    }
+                    if (!visitor.visit(id, date, payload))
+                        return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Same as {@link #read(Visitor, long, long, long, long)}, but it reads the
+     * records from the memory mapped segment's file. Skipped records' payloads
+     * are never copied.
+     */
+    private void readMapped(Visitor visitor, long fromId, long toId, long fromDate, long toDate) throws IOException {
+        ByteBuffer view = getMappedView();
+        CRC32 crc = new CRC32();
+        for (Block block : blocks) {
+            if (!block.overlaps(fromId, toId, fromDate, toDate))
+                continue;
+
+            int pos = (int) block.startPos;
+            while (pos + HEADER_SIZE <= block.endPos) {
+                int length = view.getInt(pos);
+                long id = view.getLong(pos + 4);
+                long date = view.getLong(pos + 4 + 8);
+                int checksum = view.getInt(pos + 4 + 8 + 8);
+                int payloadPos = pos + HEADER_SIZE;
+                pos = payloadPos + length;
+
+                Action action = visitor.accept(id, date);
+                if (action == Action.STOP)
+                    return;
+                if (action == Action.SKIP)
+                    continue;
+
+                byte[] payload = new byte[length];
+                view.position(payloadPos);
+                view.get(payload);
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    log.warn(String.format("Skip record '%d' from segment '%s' because corrupted", id, file.getName()));
+                    continue;
+                }
+                if (!visitor.visit(id, date, payload))
+                    return;
+            }
+        }
+    }
+
+    /**
+     * @return the number of blocks of the segment.
+     */
+    int getBlocksCount() {
+        return blocks.size();
+    }
+
+    /**
+     * Read all records of given block. Records with a corrupted payload are
+     * skipped.
+     *
+     * @param index the block's index.
+     * @return the block's records, from the oldest to the latest.
+     */
+    List<Record> readBlock(int index) throws IOException {
+        Block block = blocks.get(index);
+        byte[] data;
+        if (memoryMapped)
+            data = readBlockData(getMappedView(), block);
+        else
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                data = readBlockData(raf, block);
+            }
+
+        List<Record> records = new ArrayList<>(block.count);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < block.count; i++) {
+            int length = in.readInt();
+            long id = in.readLong();
+            long date = in.readLong();
+            int checksum = in.readInt();
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                log.warn(String.format("Skip record '%d' from segment '%s' because corrupted", id, file.getName()));
+                continue;
+            }
+            records.add(new Record(id, date, payload));
+        }
+        return records;
+    }
+
+    /**
+     * Compress current segment into a new segment's file. Current segment is
+     * not deleted, so it can be read until it's replaced by the compressed
+     * one, then the caller must delete it.
+     * <p>
+     * The compressed segment is written on a temporary file and then renamed,
+     * so a crash during the compression never corrupts the segment. If both
+     * files exist on load, the uncompressed one is deleted.
+     *
+     * @return the compressed segment.
+     */
+    LogSegment compress() throws IOException {
+        if (compressed)
+            return this;
+        if (source != null)
+            throw new IOException(String.format("Can't compress segment's snapshot '%s'", file.getName()));
+
+        File target = getCompressedFile(file);
+        File tmp = new File(target.getPath() + ".tmp");
+        LogSegment compressedSegment = new LogSegment(target);
+        compressedSegment.memoryMapped = memoryMapped;
+        Deflater deflater = new Deflater();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            long pos = 0;
+            for (Block block : blocks) {
+                byte[] raw = readBlockData(raf, block);
+                byte[] data = deflate(deflater, raw);
+                out.writeInt(data.length);
+                out.writeInt(raw.length);
+                out.write(data);
+
+                Block compressedBlock = new Block(pos);
+                compressedBlock.copyRecordsRange(block);
+                compressedBlock.endPos = pos + FRAME_HEADER_SIZE + data.length;
+                compressedSegment.addBlock(compressedBlock);
+                pos = compressedBlock.endPos;
+            }
+        } finally {
+            deflater.end();
+        }
+
+        if (!tmp.renameTo(target))
+            throw new IOException(String.format("Can't rename compressed segment '%s'", tmp.getName()));
+        compressedSegment.writeIndex();
+        return compressedSegment;
+    }
+
+    /**
+     * Delete the segment's file and his index file.
+     *
+     * @return true if the segment's file was deleted.
+     */
+    synchronized boolean delete() {
+        map = null;
+        if (indexFile.exists() && !indexFile.delete())
+            log.warn(String.format("Error on deleting segment's index '%s'", indexFile.getName()));
+        return file.delete();
+    }
+
+    /**
+     * @param segmentFile the segment's file.
+     * @return the compressed segment's file of given segment's file.
+     */
+    static File getCompressedFile(File segmentFile) {
+        return new File(segmentFile.getPath().substring(0, segmentFile.getPath().length() - EXTENSION.length()) + COMPRESSED_EXTENSION);
+    }
+
+    /**
+     * @param segmentFile the segment's file.
+     * @return the index file of given segment's file.
+     */
+    static File getIndexFile(File segmentFile) {
+        return new File(segmentFile.getPath() + INDEX_EXTENSION);
+    }
+
+
+    // Sparse index
+
+    private void addToIndex(long id, long date, long pos, long recordSize) {
+        if (lastBlock == null || lastBlock.count >= INDEX_BLOCK_SIZE) {
+            lastBlock = new Block(pos);
+            blocks.add(lastBlock);
+        }
+        lastBlock.add(id, date, recordSize);
+        count++;
+        size += recordSize;
+
+        if (lastBlock.count == INDEX_BLOCK_SIZE)
+            try {
+                appendIndexEntry(lastBlock);
+            } catch (IOException e) {
+                log.warn(String.format("Error on updating segment's index '%s', it will be rebuilt on next load (%s)", indexFile.getName(), e.getMessage()));
+            }
+    }
+
+    /**
+     * Load the blocks from the index file.
+     * <p>
+     * Only the consecutive blocks contained into the segment's file are
+     * loaded, if the index file contains other blocks, it's rewritten.
+     *
+     * @param fileLength the segment's file length.
+     * @return the position of the first record not included in the index.
+     */
+    private long loadIndex(long fileLength) throws IOException {
+        if (!indexFile.exists())
+            return 0;
+
+        long pos = 0;
+        boolean valid = indexFile.length() % INDEX_ENTRY_SIZE == 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            long entries = indexFile.length() / INDEX_ENTRY_SIZE;
+            for (long i = 0; i < entries; i++) {
+                Block block = new Block(in.readLong());
+                block.endPos = in.readLong();
+                block.firstId = in.readLong();
+                block.lastId = in.readLong();
+                block.minDate = in.readLong();
+                block.maxDate = in.readLong();
+                block.count = in.readInt();
+                boolean validCount = compressed ? block.count > 0 && block.count <= INDEX_BLOCK_SIZE : block.count == INDEX_BLOCK_SIZE;
+                if (block.startPos != pos || block.endPos > fileLength || !validCount) {
+                    valid = false;
+                    break;
+                }
+                blocks.add(block);
+                lastBlock = block;
+                count += block.count;
+                size += block.endPos - block.startPos;
+                pos = block.endPos;
+            }
+        }
+
+        if (!valid) {
+            log.warn(String.format("Rebuild segment's index '%s' because corrupted", indexFile.getName()));
+            writeIndex();
+        }
+        return pos;
+    }
+
+    private void appendIndexEntry(Block block) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)))) {
+            writeIndexEntry(out, block);
+        }
+    }
+
+    private void writeIndex() throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, false)))) {
+            for (Block block : blocks)
+                if (compressed || block.count == INDEX_BLOCK_SIZE)
+                    writeIndexEntry(out, block);
+        }
+    }
+
+    private void addBlock(Block block) {
+        blocks.add(block);
+        lastBlock = block;
+        count += block.count;
+        size = block.endPos;
+    }
+
+    /**
+     * Rebuild the index of a compressed segment, decompressing all his frames.
+     *
+     * @param fileLength the segment's file length.
+     */
+    private void rebuildCompressedIndex(long fileLength) throws IOException {
+        log.warn(String.format("Rebuild compressed segment's index '%s'", indexFile.getName()));
+        blocks.clear();
+        lastBlock = null;
+        count = 0;
+        size = 0;
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            long pos = 0;
+            while (pos + FRAME_HEADER_SIZE <= fileLength) {
+                raf.seek(pos);
+                int dataLength = raf.readInt();
+                raf.readInt();
+                if (dataLength < 0 || pos + FRAME_HEADER_SIZE + dataLength > fileLength)
+                    break;
+
+                Block block = new Block(pos);
+                block.endPos = pos + FRAME_HEADER_SIZE + dataLength;
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(readBlockData(raf, block)));
+                while (in.available() >= HEADER_SIZE) {
+                    int length = in.readInt();
+                    long id = in.readLong();
+                    long date = in.readLong();
+                    in.readInt();
+                    skipFully(in, length);
+                    block.addRecordRange(id, date);
+                }
+                addBlock(block);
+                pos = block.endPos;
+            }
+            if (pos < fileLength)
+                log.warn(String.format("Compressed segment '%s' contains %d not readable bytes", file.getName(), fileLength - pos));
+        }
+        writeIndex();
+    }
+
+    /**
+     * Return a read only view of the memory mapped segment's file. Snapshots
+     * use the mapped buffer of their source segment.
+     */
+    private ByteBuffer getMappedView() throws IOException {
+        return getSource().getMappedView(size);
+    }
+
+    /**
+     * Return a read only view of the first <code>limit</code> bytes of the
+     * memory mapped segment's file. The file is mapped again only if the
+     * segment grew after the latest mapping.
+     */
+    private synchronized ByteBuffer getMappedView(long limit) throws IOException {
+        if (map == null || map.capacity() < limit) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                map = channel.map(FileChannel.MapMode.READ_ONLY, 0, limit);
+            }
+        }
+        ByteBuffer view = map.duplicate();
+        view.limit((int) limit);
+        return view;
+    }
+
+    /**
+     * Read the raw records data of given block, decompressing them if needed.
+     */
+    private byte[] readBlockData(RandomAccessFile raf, Block block) throws IOException {
+        byte[] data = new byte[(int) (block.endPos - block.startPos)];
+        raf.seek(block.startPos);
+        raf.readFully(data);
+        return compressed ? inflateBlockData(block, data) : data;
+    }
+
+    /**
+     * Read the raw records data of given block from given mapped view,
+     * decompressing them if needed.
+     */
+    private byte[] readBlockData(ByteBuffer view, Block block) throws IOException {
+        byte[] data = new byte[(int) (block.endPos - block.startPos)];
+        view.position((int) block.startPos);
+        view.get(data);
+        return compressed ? inflateBlockData(block, data) : data;
+    }
+
+    private byte[] inflateBlockData(Block block, byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int dataLength = in.readInt();
+        int rawLength = in.readInt();
+        byte[] raw = new byte[rawLength];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, FRAME_HEADER_SIZE, dataLength);
+            int read = 0;
+            while (read < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(raw, read, rawLength - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                read += n;
+            }
+            if (read != rawLength)
+                throw new IOException(String.format("Corrupted block at %d in compressed segment '%s'", block.startPos, file.getName()));
+        } catch (DataFormatException e) {
+            throw new IOException(String.format("Corrupted block at %d in compressed segment '%s'", block.startPos, file.getName()), e);
+        } finally {
+            inflater.end();
+        }
+        return raw;
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] raw) {
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 4));
+        byte[] buffer = new byte[4096];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeIndexEntry(DataOutputStream out, Block block) throws IOException {
+        out.writeLong(block.startPos);
+        out.writeLong(block.endPos);
+        out.writeLong(block.firstId);
+        out.writeLong(block.lastId);
+        out.writeLong(block.minDate);
+        out.writeLong(block.maxDate);
+        out.writeInt(block.count);
+    }
+
+
+    // Utils
+
+    private static void skipFully(DataInputStream in, int length) throws IOException {
+        int skipped = 0;
+        while (skipped < length) {
+            int n = in.skipBytes(length - skipped);
+            if (n <= 0)
+                throw new EOFException("Unexpected end of segment");
+            skipped += n;
+        }
+    }
+
+
+    // Internal classes
+
+    /**
+     * A single record to append on the segment.
+     */
+    static class Record {
+
+        final long id;
+        final long date;
+        final byte[] payload;
+
+        Record(long id, long date, byte[] payload) {
+            this.id = id;
+            this.date = date;
+            this.payload = payload;
+        }
+
+    }
+
+    /**
+     * A group of consecutive records, used as sparse index's entry.
+     */
+    private static class Block {
+
+        final long startPos;
+        long endPos;
+        long firstId = -1;
+        long lastId = -1;
+        long minDate = Long.MAX_VALUE;
+        long maxDate = Long.MIN_VALUE;
+        int count = 0;
+
+        Block(long startPos) {
+            this.startPos = startPos;
+            this.endPos = startPos;
+        }
+
+        void add(long id, long date, long recordSize) {
+            addRecordRange(id, date);
+            endPos += recordSize;
+        }
+
+        void addRecordRange(long id, long date) {
+            if (count == 0)
+                firstId = id;
+            lastId = id;
+            minDate = Math.min(minDate, date);
+            maxDate = Math.max(maxDate, date);
+            count++;
+        }
+
+        Block copy() {
+            Block block = new Block(startPos);
+            block.endPos = endPos;
+            block.copyRecordsRange(this);
+            return block;
+        }
+
+        void copyRecordsRange(Block block) {
+            firstId = block.firstId;
+            lastId = block.lastId;
+            minDate = block.minDate;
+            maxDate = block.maxDate;
+            count = block.count;
+        }
+
+        boolean overlaps(long fromId, long toId, long fromDate, long toDate) {
+            return firstId <= toId && lastId >= fromId && minDate <= toDate && maxDate >= fromDate;
+        }
+
+    }
+
+    /**
+     * Action to perform on a record while reading a segment.
+     */
+    enum Action {
+        READ,
+        SKIP,
+        STOP
+    }
+
+    /**
+     * Visitor used to read segment's records.
+     */
+    interface Visitor {
+
+        /**
+         * @param id   the record's item id.
+         * @param date the record's item date, as milliseconds.
+         * @return the action to perform on current record.
+         */
+        Action accept(long id, long date);
+
+        /**
+         * @param id      the record's item id.
+         * @param date    the record's item date, as milliseconds.
+         * @param payload the record's payload.
+         * @return false to stop the reading.
+         */
+        boolean visit(long id, long date, byte[] payload) throws IOException;
+
+    }
+
+}
@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * The John Object Daemon is the agent software to connect "objects"
+ * to an IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package com.robypomper.josp.jod.cache;
+
+import com.robypomper.josp.protocol.HistoryLimits;
+
+import java.util.*;
+
+
+/**
+ * Bounded LRU cache for the results of the local cache's queries.
+ * <p>
+ * Each result is stored with a key, that identify the query, and a group,
+ * that identify the items set queried (e.g. a component or an events type).
+ * When new items are added or removed from a group, all results of that
+ * group must be invalidated with the {@link #invalidate(String)} method.
+ * <p>
+ * To avoid caching results computed before an invalidation, callers must get
+ * the group's version with {@link #getVersion(String)} before computing the
+ * result, then pass it to the {@link #put(String, String, long, List)} method.
+ * If the group was invalidated in the meanwhile, the result is not cached.
+ * <p>
+ * Cached results are unmodifiable lists.
+ *
+ * @param <T> the type of queried items.
+ */
+public class QueryResultsCache<T> {
+
+    // Internal vars
+
+    private final int maxSize;
+    private final Map<String, CachedResult<T>> entries;
+    private final Map<String, Set<String>> groupsKeys = new HashMap<>();
+    private final Map<String, Long> groupsVersions = new HashMap<>();
+    private long allVersion = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+
+    // Constructor
+
+    /**
+     * @param maxSize the max number of cached results, if less or equal to 0
+     *                the cache is disabled.
+     */
+    public QueryResultsCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<String, CachedResult<T>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResult<T>> eldest) {
+                if (size() <= QueryResultsCache.this.maxSize)
+                    return false;
+                removeFromGroup(eldest.getValue().group, eldest.getKey());
+                return true;
+            }
+        };
+    }
+
+
+    // Getters
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+
+    // Cache methods
+
+    /**
+     * @param group the results group.
+     * @param key   the query's key.
+     * @return the cached result, or null if not cached.
+     */
+    public synchronized List<T> get(String group, String key) {
+        if (!isEnabled())
+            return null;
+
+        CachedResult<T> entry = entries.get(toEntryKey(group, key));
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.result;
+    }
+
+    /**
+     * @param group the results group.
+     * @return the current version of given group, to pass to the
+     * {@link #put(String, String, long, List)} method.
+     */
+    public synchronized long getVersion(String group) {
+        Long version = groupsVersions.get(group);
+        return allVersion + (version != null ? version : 0);
+    }
+
+    /**
+     * Cache given result, if the group was not invalidated after given
+     * version.
+     *
+     * @param group   the results group.
+     * @param key     the query's key.
+     * @param version the group's version, read before computing the result.
+     * @param result  the query's result.
+     * @return the cached result, or given result if it was not cached.
+     */
+    public synchronized List<T> put(String group, String key, long version, List<T> result) {
+        if (!isEnabled() || version != getVersion(group))
+            return result;
+
+        List<T> cached = Collections.unmodifiableList(new ArrayList<>(result));
+        String entryKey = toEntryKey(group, key);
+        entries.put(entryKey, new CachedResult<>(group, cached));
+        Set<String> keys = groupsKeys.get(group);
+        if (keys == null) {
+            keys = new HashSet<>();
+            groupsKeys.put(group, keys);
+        }
+        keys.add(entryKey);
+        return cached;
+    }
+
+    /**
+     * Remove all cached results of given group.
+     *
+     * @param group the results group.
+     */
+    public synchronized void invalidate(String group) {
+        Long version = groupsVersions.get(group);
+        groupsVersions.put(group, (version != null ? version : 0) + 1);
+        Set<String> keys = groupsKeys.remove(group);
+        if (keys == null)
+            return;
+        for (String k : keys)
+            entries.remove(k);
+    }
+
+    /**
+     * Remove all cached results of all groups.
+     */
+    public synchronized void invalidateAll() {
+        allVersion++;
+        groupsKeys.clear();
+        entries.clear();
+    }
+
+
+    // Utils
+
+    /**
+     * Dates range keys are built from the requested dates, an unset date is
+     * keyed as empty. So, open-ended requests share the same key instead of
+     * one based on the current time.
+     *
+     * @param limits the history limits.
+     * @return a key that identify given limits.
+     */
+    public static String toKey(HistoryLimits limits) {
+        if (HistoryLimits.isLatestCount(limits))
+            return "latest:" + limits.getLatestCount();
+
+        if (HistoryLimits.isAncientCount(limits))
+            return "ancient:" + limits.getAncientCount();
+
+        if (HistoryLimits.isIDRange(limits))
+            return "id:" + limits.getFromIDOrDefault() + ":" + limits.getToIDOrDefault();
+
+        if (HistoryLimits.isDateRange(limits))
+            return "date:" + toTime(limits.getFromDate()) + ":" + toTime(limits.getToDate());
+
+        if (HistoryLimits.isPageRange(limits))
+            return "page:" + limits.getPageNumOrDefault() + ":" + limits.getPageSizeOrDefault();
+
+        return "all";
+    }
+
+    private static String toTime(Date date) {
+        return date != null ? Long.toString(date.getTime()) : "";
+    }
+
+    private static String toEntryKey(String group, String key) {
+        return group + "#" + key;
+    }
+
+    private void removeFromGroup(String group, String entryKey) {
+        Set<String> keys = groupsKeys.get(group);
+        if (keys == null)
+            return;
+        keys.remove(entryKey);
+        if (keys.isEmpty())
+            groupsKeys.remove(group);
+    }
+
+
+    // Internal classes
+
+    private static class CachedResult<T> {
+
+        final String group;
+        final List<T> result;
+
+        CachedResult(String group, List<T> result) {
+            this.group = group;
+            this.result = result;
+        }
+
+    }
+
+}
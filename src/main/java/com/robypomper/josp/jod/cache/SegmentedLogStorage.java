@@ -0,0 +1,952 @@
+/*******************************************************************************
+ * The John Object Daemon is the agent software to connect "objects"
+ * to an IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package com.robypomper.josp.jod.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.robypomper.java.JavaJSONArrayToFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.*;
+
+
+/**
+ * {@link ItemsStorage} implementation based on append-only binary segments.
+ * <p>
+ * Items are buffered in memory and, when the buffer is full, they are encoded
+ * and appended to the latest segment (see {@link LogSegment}). When the latest
+ * segment contains <code>segmentSize</code> items, a new segment is created.
+ * When the storage contains more than <code>maxFileSize</code> items, the
+ * oldest segment is deleted as a whole. So, flushes and retention cleanups
+ * never rewrite nor parse the stored items.
+ * <p>
+ * Segments' files are stored in the same dir of given <code>file</code> and
+ * their names are composed by the <code>file</code>'s name and the id of
+ * the first item they contain (e.g. <code>history.jbs.00000000000000000001.seg</code>).
+ * Next to each segment, a sparse index of his records' positions, ids and
+ * dates is stored (e.g. <code>history.jbs.00000000000000000001.seg.idx</code>),
+ * so ids and dates range queries seek directly to the right records.
+ * <p>
+ * When <code>compressSegments</code> is enabled, all segments except the
+ * latest one (the hot tail, where items are appended) are compressed by the
+ * {@link #compact()} method, so flushes never pay for segments' compression.
+ * Compressed segments are decompressed transparently, one block at a time,
+ * when they are read.
+ * <p>
+ * When <code>memoryMapped</code> is enabled (see {@link #setMemoryMapped(boolean)}),
+ * segments are read via memory mapped buffers instead of reading their files.
+ * <p>
+ * Queries and cursors lock the storage only to take a snapshot of the
+ * segments (see {@link LogSegment#snapshot()}) and of the buffer, then they
+ * read the segments without blocking the appends.
+ * <p>
+ * Besides the max number of items, the retention can be limited also by the
+ * segments' size on disk and by the items' age (see {@link #setRetention(long, long)}).
+ * When the retention is deferred (see {@link #setDeferredRetention(boolean)}),
+ * the oldest segments are deleted only by the {@link #compact()} method,
+ * usually called by a {@link StorageCompactor}, so flushes never pay for
+ * segments' deletion.
+ * <p>
+ * Observers that implement the {@link ItemsStorage.RangeObserver} interface
+ * are notified with the ids range of deleted segments, so the oldest segment
+ * is deleted without reading it. Other observers require the deleted items,
+ * so the oldest segment is read, while the storage is locked, before its
+ * deletion.
+ * <p>
+ * By default, items are encoded as JSON, sub-classes can override the
+ * {@link #encodeItem(Object)} and {@link #decodeItem(long, long, byte[])}
+ * methods to use a different encoding. The item's id and date are stored in
+ * the record's header, so they can be omitted from the encoded item.
+ *
+ * @param <T> the type of stored items.
+ */
+public abstract class SegmentedLogStorage<T> implements ItemsStorage<T> {
+
+    // Internal vars
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentedLogStorage.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private final File dir;
+    private final String baseName;
+    private final Class<T> itemClass;
+    private final int maxBufferSize;
+    private final int releaseBufferSize;
+    private final int maxFileSize;
+    private final int segmentSize;
+    private final boolean compressSegments;
+    private boolean memoryMapped = false;
+    private long maxBytes = 0;
+    private long maxAge = 0;
+    private boolean deferredRetention = false;
+    private final List<T> buffer = new ArrayList<>();
+    private final List<LogSegment> segments = new ArrayList<>();
+    private final List<JavaJSONArrayToFile.Observer<T>> observers = new ArrayList<>();
+    private final Object compressLock = new Object();
+    private long countFile = 0;
+
+
+    // Constructor
+
+    /**
+     * Create a new storage and load all existing segments.
+     *
+     * @param file              the storage's base file, used to generate the segments' files names.
+     * @param itemClass         the class of stored items.
+     * @param maxBufferSize     the max number of items to keep in the memory buffer.
+     * @param releaseBufferSize the number of items to flush when the buffer is full.
+     * @param maxFileSize       the max number of items to keep on the storage.
+     * @param segmentSize       the max number of items for each segment.
+     */
+    public SegmentedLogStorage(File file, Class<T> itemClass, int maxBufferSize, int releaseBufferSize, int maxFileSize, int segmentSize) throws IOException {
+        this(file, itemClass, maxBufferSize, releaseBufferSize, maxFileSize, segmentSize, false);
+    }
+
+    /**
+     * Create a new storage and load all existing segments.
+     *
+     * @param file              the storage's base file, used to generate the segments' files names.
+     * @param itemClass         the class of stored items.
+     * @param maxBufferSize     the max number of items to keep in the memory buffer.
+     * @param releaseBufferSize the number of items to flush when the buffer is full.
+     * @param maxFileSize       the max number of items to keep on the storage.
+     * @param segmentSize       the max number of items for each segment.
+     * @param compressSegments  if true, sealed segments are compressed.
+     */
+    public SegmentedLogStorage(File file, Class<T> itemClass, int maxBufferSize, int releaseBufferSize, int maxFileSize, int segmentSize, boolean compressSegments) throws IOException {
+        this.dir = file.getAbsoluteFile().getParentFile();
+        this.baseName = file.getName();
+        this.itemClass = itemClass;
+        this.maxBufferSize = Math.max(1, maxBufferSize);
+        this.releaseBufferSize = Math.max(1, Math.min(releaseBufferSize, this.maxBufferSize));
+        this.maxFileSize = Math.max(1, maxFileSize);
+        this.segmentSize = Math.max(1, segmentSize);
+        this.compressSegments = compressSegments;
+
+        if (!dir.exists() && !dir.mkdirs())
+            throw new IOException(String.format("Can't create segments dir '%s'", dir));
+
+        for (File f : listSegmentsFiles(file)) {
+            if (f.getName().endsWith(LogSegment.EXTENSION) && LogSegment.getCompressedFile(f).exists()) {
+                // crash after segment compression
+                if (!LogSegment.load(f).delete())
+                    log.warn(String.format("Error on deleting already compressed segment '%s'", f.getName()));
+                continue;
+            }
+            LogSegment segment = LogSegment.load(f);
+            if (segment.isEmpty()) {
+                if (!segment.delete())
+                    log.warn(String.format("Error on deleting empty segment '%s'", f.getName()));
+                continue;
+            }
+            segments.add(segment);
+            countFile += segment.getCount();
+        }
+    }
+
+
+    // Settings
+
+    /**
+     * Enable or disable the memory mapped read path for all segments.
+     * <p>
+     * On some OSs (e.g. Windows), a memory mapped file can't be deleted until
+     * his buffer is garbage collected, so the oldest segments can be deleted
+     * later than expected.
+     *
+     * @param memoryMapped if true, segments are read via memory mapped buffers.
+     */
+    public synchronized void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+        for (LogSegment segment : segments)
+            segment.setMemoryMapped(memoryMapped);
+    }
+
+    public synchronized boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * Set the retention policies by segments' size and by items' age. Those
+     * policies are applied together with the max number of items.
+     * <p>
+     * Segments are always deleted as a whole: a segment is expired by age
+     * when his newest item is older than <code>maxAge</code>. The latest
+     * segment is never deleted, so the storage can exceed the limits by the
+     * latest segment's size.
+     *
+     * @param maxBytes the max size, in bytes, of all segments' files. If 0,
+     *                 the size is not limited.
+     * @param maxAge   the max age, in ms, of stored items. If 0, the age is
+     *                 not limited.
+     */
+    public synchronized void setRetention(long maxBytes, long maxAge) {
+        this.maxBytes = Math.max(0, maxBytes);
+        this.maxAge = Math.max(0, maxAge);
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Enable or disable the deferred retention.
+     *
+     * @param deferredRetention if true, retention policies are not applied on
+     *                          flush, but only by the {@link #compact()}
+     *                          method.
+     */
+    public synchronized void setDeferredRetention(boolean deferredRetention) {
+        this.deferredRetention = deferredRetention;
+    }
+
+    public synchronized boolean isDeferredRetention() {
+        return deferredRetention;
+    }
+
+
+    // Items encoding
+
+    /**
+     * @param value the item.
+     * @return the item's id.
+     */
+    protected abstract long getItemId(T value);
+
+    /**
+     * @param value the item.
+     * @return the item's date.
+     */
+    protected abstract Date getItemDate(T value);
+
+    /**
+     * Encode given item as the payload of a segment's record.
+     *
+     * @param value the item to encode.
+     * @return the encoded item.
+     */
+    protected byte[] encodeItem(T value) throws IOException {
+        return mapper.writeValueAsBytes(value);
+    }
+
+    /**
+     * Decode given payload, from a segment's record, to an item.
+     *
+     * @param id      the item's id, from the record's header.
+     * @param date    the item's date, from the record's header.
+     * @param payload the encoded item.
+     * @return the decoded item.
+     */
+    protected T decodeItem(long id, long date, byte[] payload) throws IOException {
+        return mapper.readValue(payload, itemClass);
+    }
+
+
+    // Add items
+
+    @Override
+    public synchronized void append(T value) {
+        buffer.add(value);
+        emitOnAdded(Collections.singletonList(value));
+
+        if (buffer.size() < maxBufferSize)
+            return;
+
+        try {
+            flush(releaseBufferSize, true);
+        } catch (IOException e) {
+            log.warn(String.format("Error on flushing buffered items to '%s' segments (%s)", baseName, e.getMessage()), e);
+        }
+    }
+
+
+    // Get items
+
+    @Override
+    public synchronized long countBuffered() {
+        return buffer.size();
+    }
+
+    @Override
+    public synchronized long countFile() {
+        return countFile;
+    }
+
+    /**
+     * @return the size, in bytes, of all segments' files.
+     */
+    public synchronized long sizeFile() {
+        long size = 0;
+        for (LogSegment segment : segments)
+            size += segment.getSize();
+        return size;
+    }
+
+    @Override
+    public List<T> getById(Long fromId, Long toId) throws IOException {
+        long from = fromId != null ? fromId : Long.MIN_VALUE;
+        long to = toId != null ? toId : Long.MAX_VALUE;
+        return scan(null, from, to, Long.MIN_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    @Override
+    public List<T> filterAll(JavaJSONArrayToFile.Filter<T> filter) throws IOException {
+        return scan(filter, Long.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    @Override
+    public List<T> tryLatest(JavaJSONArrayToFile.Filter<T> filter, long count) {
+        LinkedList<T> result = new LinkedList<>();
+        ItemsCursor<T> cursor = openCursor(filter, true);
+        while (result.size() < count && cursor.hasNext())
+            result.addFirst(cursor.next());
+        return new ArrayList<>(result);
+    }
+
+    @Override
+    public List<T> tryAncient(JavaJSONArrayToFile.Filter<T> filter, long count) {
+        List<T> result = new ArrayList<>();
+        ItemsCursor<T> cursor = openCursor(filter, false);
+        while (result.size() < count && cursor.hasNext())
+            result.add(cursor.next());
+        return result;
+    }
+
+    @Override
+    public List<T> tryById(JavaJSONArrayToFile.Filter<T> filter, long fromId, long toId) {
+        try {
+            return scan(filter, fromId, toId, Long.MIN_VALUE, Long.MAX_VALUE, Long.MAX_VALUE);
+        } catch (IOException e) {
+            log.warn(String.format("Error on reading items by id from '%s' segments (%s)", baseName, e.getMessage()), e);
+            return new ArrayList<>();
+        }
+    }
+
+    @Override
+    public List<T> tryByDate(JavaJSONArrayToFile.Filter<T> filter, Date fromDate, Date toDate) {
+        long from = fromDate != null ? fromDate.getTime() : Long.MIN_VALUE;
+        long to = toDate != null ? toDate.getTime() : Long.MAX_VALUE;
+        try {
+            return scan(filter, Long.MIN_VALUE, Long.MAX_VALUE, from, to, Long.MAX_VALUE);
+        } catch (IOException e) {
+            log.warn(String.format("Error on reading items by date from '%s' segments (%s)", baseName, e.getMessage()), e);
+            return new ArrayList<>();
+        }
+    }
+
+    @Override
+    public List<T> tryByIds(JavaJSONArrayToFile.Filter<T> filter, List<Long> ids) {
+        if (ids.isEmpty())
+            return new ArrayList<>();
+        try {
+            return scanIds(filter, ids);
+        } catch (IOException e) {
+            log.warn(String.format("Error on reading items by ids from '%s' segments (%s)", baseName, e.getMessage()), e);
+            return new ArrayList<>();
+        }
+    }
+
+
+    @Override
+    public List<T> tryPage(JavaJSONArrayToFile.Filter<T> filter, int pageNum, int pageSize) {
+        List<T> result = new ArrayList<>();
+        long toSkip = (long) pageNum * pageSize;
+        ItemsCursor<T> cursor = openCursor(filter, false);
+        while (result.size() < pageSize && cursor.hasNext()) {
+            T item = cursor.next();
+            if (toSkip > 0)
+                toSkip--;
+            else
+                result.add(item);
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The cursor reads one segment's block at a time, so it never keeps in
+     * memory more than {@link LogSegment#INDEX_BLOCK_SIZE} items. Items
+     * added after the cursor creation are not returned.
+     */
+    @Override
+    public ItemsCursor<T> openCursor(JavaJSONArrayToFile.Filter<T> filter, boolean latestFirst) {
+        return new Cursor(filter, latestFirst);
+    }
+
+
+    // Mngm methods
+
+    @Override
+    public synchronized void storeCache() throws IOException {
+        if (!buffer.isEmpty())
+            flush(buffer.size(), false);
+    }
+
+    @Override
+    public synchronized void registerObserver(JavaJSONArrayToFile.Observer<T> observer) {
+        observers.add(observer);
+    }
+
+    /**
+     * Apply the retention policies, deleting the expired segments, then, if
+     * <code>compressSegments</code> is enabled, compress the sealed segments.
+     * <p>
+     * Segments are deleted one by one, from the oldest one, and the storage
+     * is locked only during the deletion of each segment. So, appends and
+     * queries are blocked at most for one segment's deletion.
+     * <p>
+     * Segments are compressed one by one without locking the storage, because
+     * sealed segments are never modified. The storage is locked only to
+     * replace each segment with the compressed one.
+     *
+     * @return the number of deleted segments.
+     */
+    public int compact() {
+        int deleted = 0;
+        try {
+            while (deleteOldestIfExpired()) {
+                deleted++;
+                Thread.yield();
+            }
+        } catch (IOException e) {
+            log.warn(String.format("Error on compacting '%s' segments (%s)", baseName, e.getMessage()), e);
+        }
+
+        if (compressSegments)
+            compressSealedSegments();
+        return deleted;
+    }
+
+    /**
+     * Delete all segments' files of the storage based on given file.
+     *
+     * @param file the storage's base file.
+     * @return true if all segments' files were deleted.
+     */
+    public static boolean deleteSegments(File file) {
+        boolean deleted = true;
+        for (File f : listSegmentsFiles(file)) {
+            File indexFile = LogSegment.getIndexFile(f);
+            if (indexFile.exists() && !indexFile.delete())
+                deleted = false;
+            if (!f.delete())
+                deleted = false;
+        }
+        return deleted;
+    }
+
+    /**
+     * @param file the storage's base file.
+     * @return true if at least one segment's file exists for the storage based
+     * on given file.
+     */
+    public static boolean existsSegments(File file) {
+        return !listSegmentsFiles(file).isEmpty();
+    }
+
+
+    // Flush and retention
+
+    private void flush(int count, boolean auto) throws IOException {
+        List<T> toFlush = new ArrayList<>(buffer.subList(0, Math.min(count, buffer.size())));
+        if (toFlush.isEmpty())
+            return;
+
+        List<LogSegment.Record> records = new ArrayList<>();
+        for (T item : toFlush)
+            records.add(new LogSegment.Record(getItemId(item), getItemDate(item).getTime(), encodeItem(item)));
+
+        // written chunks are removed from the buffer, so they are never written twice
+        int written = 0;
+        try {
+            while (written < records.size()) {
+                LogSegment active = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+                if (active == null || active.isCompressed() || active.getCount() >= segmentSize) {
+                    active = LogSegment.create(dir, baseName, records.get(written).id);
+                    active.setMemoryMapped(memoryMapped);
+                    segments.add(active);
+                }
+                int toWrite = Math.min(segmentSize - active.getCount(), records.size() - written);
+                active.append(records.subList(written, written + toWrite));
+                buffer.subList(0, toWrite).clear();
+                written += toWrite;
+                countFile += toWrite;
+            }
+
+        } catch (IOException e) {
+            if (written > 0)
+                emitOnFlushed(new ArrayList<>(toFlush.subList(0, written)), auto);
+            throw e;
+        }
+
+        emitOnFlushed(toFlush, auto);
+
+        if (!deferredRetention)
+            applyRetention();
+    }
+
+    private void compressSealedSegments() {
+        synchronized (compressLock) {
+            Set<LogSegment> failed = new HashSet<>();
+            LogSegment segment;
+            while ((segment = nextSegmentToCompress(failed)) != null) {
+                LogSegment compressed;
+                try {
+                    compressed = segment.compress();
+                } catch (IOException e) {
+                    log.warn(String.format("Error on compressing segment '%s', it will be kept uncompressed (%s)", segment.getFile().getName(), e.getMessage()), e);
+                    failed.add(segment);
+                    continue;
+                }
+
+                // segment deleted by the retention during the compression
+                LogSegment toDelete = replaceSegment(segment, compressed) ? segment : compressed;
+                if (!toDelete.delete())
+                    log.warn(String.format("Error on deleting segment '%s' after his compression", toDelete.getFile().getName()));
+                Thread.yield();
+            }
+        }
+    }
+
+    private synchronized LogSegment nextSegmentToCompress(Set<LogSegment> skip) {
+        for (int i = 0; i < segments.size() - 1; i++)
+            if (!segments.get(i).isCompressed() && !skip.contains(segments.get(i)))
+                return segments.get(i);
+        return null;
+    }
+
+    private synchronized boolean replaceSegment(LogSegment segment, LogSegment replacement) {
+        int index = segments.indexOf(segment);
+        if (index < 0)
+            return false;
+        segments.set(index, replacement);
+        return true;
+    }
+
+    private void applyRetention() throws IOException {
+        //noinspection StatementWithEmptyBody
+        while (deleteOldestIfExpired()) ;
+    }
+
+    private synchronized boolean deleteOldestIfExpired() throws IOException {
+        if (segments.size() <= 1 || !isExpired(segments.get(0)))
+            return false;
+
+        LogSegment oldest = segments.get(0);
+        List<T> removed = hasItemsObservers() ? readSegment(oldest, null, Long.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, Long.MAX_VALUE) : null;
+
+        segments.remove(0);
+        countFile -= oldest.getCount();
+        if (!oldest.delete())
+            log.warn(String.format("Error on deleting segment '%s'", oldest.getFile().getName()));
+
+        emitOnRemoved(oldest.getFirstId(), oldest.getLastId(), oldest.getCount(), removed, true);
+        return true;
+    }
+
+    private boolean isExpired(LogSegment oldest) {
+        if (countFile > maxFileSize)
+            return true;
+        if (maxBytes > 0 && sizeFile() > maxBytes)
+            return true;
+        return maxAge > 0 && oldest.getMaxDate() < System.currentTimeMillis() - maxAge;
+    }
+
+
+    // Snapshot
+
+    /**
+     * Take a snapshot of current segments and buffer. The storage is locked
+     * only while the snapshot is taken, then the snapshot can be read
+     * concurrently to the appends.
+     */
+    private synchronized Snapshot takeSnapshot() {
+        List<LogSegment> segmentsSnapshot = new ArrayList<>(segments.size());
+        for (LogSegment segment : segments)
+            segmentsSnapshot.add(segment.snapshot());
+        return new Snapshot(segmentsSnapshot, new ArrayList<>(buffer));
+    }
+
+    /**
+     * @return true if at least one segment of given snapshot was compressed
+     * or deleted after the snapshot creation.
+     */
+    private synchronized boolean isStale(Snapshot snapshot) {
+        for (LogSegment segment : snapshot.segments)
+            if (!segments.contains(segment.getSource()))
+                return true;
+        return false;
+    }
+
+    /**
+     * Read only copy of the storage's segments and buffer.
+     */
+    private class Snapshot {
+
+        final List<LogSegment> segments;
+        final List<T> buffer;
+
+        Snapshot(List<LogSegment> segments, List<T> buffer) {
+            this.segments = segments;
+            this.buffer = buffer;
+        }
+
+    }
+
+
+    // Scan methods
+
+    /**
+     * Scan a snapshot of the storage. If a segment is compressed or deleted
+     * while it's read, then the scan is executed again on a new snapshot.
+     */
+    private List<T> scan(JavaJSONArrayToFile.Filter<T> filter, long fromId, long toId, long fromDate, long toDate, long limit) throws IOException {
+        Snapshot snapshot = takeSnapshot();
+        try {
+            return scan(snapshot, filter, fromId, toId, fromDate, toDate, limit);
+        } catch (IOException e) {
+            if (!isStale(snapshot))
+                throw e;
+            return scan(takeSnapshot(), filter, fromId, toId, fromDate, toDate, limit);
+        }
+    }
+
+    private List<T> scan(Snapshot snapshot, JavaJSONArrayToFile.Filter<T> filter, long fromId, long toId, long fromDate, long toDate, long limit) throws IOException {
+        List<T> result = new ArrayList<>();
+        for (LogSegment segment : snapshot.segments) {
+            if (result.size() >= limit)
+                return result;
+            if (!segment.overlapsIds(fromId, toId) || !segment.overlapsDates(fromDate, toDate))
+                continue;
+            result.addAll(readSegment(segment, filter, fromId, toId, fromDate, toDate, limit - result.size()));
+        }
+
+        for (T item : snapshot.buffer) {
+            if (result.size() >= limit)
+                return result;
+            if (isInRange(item, fromId, toId, fromDate, toDate) && isAccepted(filter, item))
+                result.add(item);
+        }
+        return result;
+    }
+
+    /**
+     * Same as {@link #scan(JavaJSONArrayToFile.Filter, long, long, long, long, long)},
+     * but it reads only the items with given ids.
+     */
+    private List<T> scanIds(JavaJSONArrayToFile.Filter<T> filter, List<Long> ids) throws IOException {
+        Snapshot snapshot = takeSnapshot();
+        try {
+            return scanIds(snapshot, filter, ids);
+        } catch (IOException e) {
+            if (!isStale(snapshot))
+                throw e;
+            return scanIds(takeSnapshot(), filter, ids);
+        }
+    }
+
+    private List<T> scanIds(Snapshot snapshot, JavaJSONArrayToFile.Filter<T> filter, List<Long> ids) throws IOException {
+        long fromId = ids.get(0);
+        long toId = ids.get(ids.size() - 1);
+        List<T> result = new ArrayList<>();
+        for (LogSegment segment : snapshot.segments) {
+            if (!segment.overlapsIds(fromId, toId))
+                continue;
+            segment.read(new LogSegment.Visitor() {
+
+                @Override
+                public LogSegment.Action accept(long id, long date) {
+                    if (id > toId)
+                        return LogSegment.Action.STOP;
+                    if (id < fromId || Collections.binarySearch(ids, id) < 0)
+                        return LogSegment.Action.SKIP;
+                    return LogSegment.Action.READ;
+                }
+
+                @Override
+                public boolean visit(long id, long date, byte[] payload) throws IOException {
+                    T item = decodeItem(id, date, payload);
+                    if (isAccepted(filter, item))
+                        result.add(item);
+                    return true;
+                }
+
+            }, fromId, toId, Long.MIN_VALUE, Long.MAX_VALUE);
+        }
+
+        for (T item : snapshot.buffer) {
+            long id = getItemId(item);
+            if (id >= fromId && id <= toId && Collections.binarySearch(ids, id) >= 0 && isAccepted(filter, item))
+                result.add(item);
+        }
+        return result;
+    }
+
+    private List<T> readSegment(LogSegment segment, JavaJSONArrayToFile.Filter<T> filter, long fromId, long toId, long fromDate, long toDate, long limit) throws IOException {
+        List<T> result = new ArrayList<>();
+        segment.read(new LogSegment.Visitor() {
+
+            @Override
+            public LogSegment.Action accept(long id, long date) {
+                if (id > toId || result.size() >= limit)
+                    return LogSegment.Action.STOP;
+                if (id < fromId || date < fromDate || date > toDate)
+                    return LogSegment.Action.SKIP;
+                return LogSegment.Action.READ;
+            }
+
+            @Override
+            public boolean visit(long id, long date, byte[] payload) throws IOException {
+                T item = decodeItem(id, date, payload);
+                if (isAccepted(filter, item))
+                    result.add(item);
+                return result.size() < limit;
+            }
+
+        }, fromId, toId, fromDate, toDate);
+        return result;
+    }
+
+    private boolean isInRange(T item, long fromId, long toId, long fromDate, long toDate) {
+        long id = getItemId(item);
+        long date = getItemDate(item).getTime();
+        return id >= fromId && id <= toId && date >= fromDate && date <= toDate;
+    }
+
+    private static <T> boolean isAccepted(JavaJSONArrayToFile.Filter<T> filter, T item) {
+        return filter == null || filter.accepted(item);
+    }
+
+    private static List<File> listSegmentsFiles(File file) {
+        File dir = file.getAbsoluteFile().getParentFile();
+        String prefix = file.getName() + ".";
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File d, String name) {
+                return name.startsWith(prefix) && (name.endsWith(LogSegment.EXTENSION) || name.endsWith(LogSegment.COMPRESSED_EXTENSION));
+            }
+        });
+        if (files == null)
+            return new ArrayList<>();
+
+        List<File> sorted = new ArrayList<>(Arrays.asList(files));
+        sorted.sort(new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return f1.getName().compareTo(f2.getName());
+            }
+        });
+        return sorted;
+    }
+
+
+    // Cursor
+
+    /**
+     * @return a snapshot of the current instance of the segment with given
+     * first id, or null if the segment was deleted.
+     */
+    private synchronized LogSegment snapshotSegment(long firstId) {
+        for (LogSegment segment : segments)
+            if (segment.getFirstId() == firstId)
+                return segment.snapshot();
+        return null;
+    }
+
+    /**
+     * Cursor that reads the segments block by block.
+     * <p>
+     * On creation, it takes a snapshot of current segments and buffer, then
+     * it ignores the records appended to the segments after his creation.
+     * The storage is locked only to get the snapshot of the segment to read,
+     * so blocks are read without blocking the appends.
+     */
+    private class Cursor implements ItemsCursor<T> {
+
+        private final JavaJSONArrayToFile.Filter<T> filter;
+        private final boolean latestFirst;
+        private final List<LogSegment> segmentsSnapshot;
+        private final List<T> bufferSnapshot;
+        private final long lastSnapshotId;
+        private final LinkedList<T> chunk = new LinkedList<>();
+        private int segmentPos = 0;
+        private int blockPos = 0;
+        private LogSegment segment = null;
+        private boolean bufferRead = false;
+
+        Cursor(JavaJSONArrayToFile.Filter<T> filter, boolean latestFirst) {
+            this.filter = filter;
+            this.latestFirst = latestFirst;
+            synchronized (SegmentedLogStorage.this) {
+                this.segmentsSnapshot = new ArrayList<>(segments);
+                this.bufferSnapshot = new ArrayList<>(buffer);
+                this.lastSnapshotId = segments.isEmpty() ? -1 : segments.get(segments.size() - 1).getLastId();
+            }
+            if (latestFirst) {
+                Collections.reverse(segmentsSnapshot);
+                Collections.reverse(bufferSnapshot);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (chunk.isEmpty())
+                if (!loadNextChunk())
+                    return false;
+            return true;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return chunk.removeFirst();
+        }
+
+        /**
+         * Load next buffer or segment's block in the chunk list.
+         *
+         * @return false if there are no more items to read.
+         */
+        private boolean loadNextChunk() {
+            if (latestFirst && !bufferRead) {
+                bufferRead = true;
+                loadBuffer();
+                return true;
+            }
+
+            if (segmentPos < segmentsSnapshot.size()) {
+                loadNextBlock(segmentsSnapshot.get(segmentPos).getFirstId());
+                return true;
+            }
+
+            if (!latestFirst && !bufferRead) {
+                bufferRead = true;
+                loadBuffer();
+                return true;
+            }
+
+            return false;
+        }
+
+        private void loadBuffer() {
+            for (T item : bufferSnapshot)
+                if (isAccepted(filter, item))
+                    chunk.add(item);
+        }
+
+        private void loadNextBlock(long segmentFirstId) {
+            if (segment == null) {
+                // get current segment's instance, because it can be compressed after the cursor creation
+                segment = snapshotSegment(segmentFirstId);
+                if (segment == null) {
+                    // segment deleted after the cursor creation
+                    nextSegment();
+                    return;
+                }
+                blockPos = latestFirst ? segment.getBlocksCount() - 1 : 0;
+            }
+            if (blockPos < 0 || blockPos >= segment.getBlocksCount()) {
+                nextSegment();
+                return;
+            }
+
+            List<LogSegment.Record> records;
+            try {
+                records = segment.readBlock(blockPos);
+            } catch (IOException e) {
+                // segment compressed while reading, retry the same block on his compressed instance
+                LogSegment current = snapshotSegment(segmentFirstId);
+                if (current == null || current.getSource() == segment.getSource()) {
+                    log.warn(String.format("Skip segment '%s' on cursor reading (%s)", segment.getFile().getName(), e.getMessage()));
+                    nextSegment();
+                } else
+                    segment = current;
+                return;
+            }
+            blockPos += latestFirst ? -1 : 1;
+
+            if (latestFirst)
+                Collections.reverse(records);
+            for (LogSegment.Record r : records) {
+                if (r.id > lastSnapshotId)
+                    continue;
+                try {
+                    T item = decodeItem(r.id, r.date, r.payload);
+                    if (isAccepted(filter, item))
+                        chunk.add(item);
+                } catch (IOException e) {
+                    log.warn(String.format("Skip item '%d' from '%s' segments because can't be decoded (%s)", r.id, baseName, e.getMessage()));
+                }
+            }
+        }
+
+        private void nextSegment() {
+            segmentPos++;
+            segment = null;
+        }
+
+    }
+
+
+    // Observers
+
+    private void emitOnAdded(List<T> items) {
+        for (JavaJSONArrayToFile.Observer<T> o : observers)
+            o.onAdded(items);
+    }
+
+    private void emitOnFlushed(List<T> items, boolean auto) {
+        for (JavaJSONArrayToFile.Observer<T> o : observers)
+            o.onFlushed(items, auto);
+    }
+
+    /**
+     * Range observers are notified with the removed ids range, others with
+     * the removed items (if any).
+     */
+    @SuppressWarnings("unchecked")
+    private void emitOnRemoved(long fromId, long toId, long count, List<T> items, boolean auto) {
+        for (JavaJSONArrayToFile.Observer<T> o : observers)
+            if (o instanceof ItemsStorage.RangeObserver)
+                ((ItemsStorage.RangeObserver<T>) o).onRemovedRange(fromId, toId, count, auto);
+            else if (items != null && !items.isEmpty())
+                o.onRemoved(items, auto);
+    }
+
+    /**
+     * @return true if at least one registered observer is not a
+     * {@link ItemsStorage.RangeObserver}, so it requires the removed items.
+     */
+    private boolean hasItemsObservers() {
+        for (JavaJSONArrayToFile.Observer<T> o : observers)
+            if (!(o instanceof ItemsStorage.RangeObserver))
+                return true;
+        return false;
+    }
+
+}
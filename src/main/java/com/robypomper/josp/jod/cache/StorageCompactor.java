@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * The John Object Daemon is the agent software to connect "objects"
+ * to an IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package com.robypomper.josp.jod.cache;
+
+import com.robypomper.java.JavaThreads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Background worker that applies the retention policies of a
+ * {@link SegmentedLogStorage}.
+ * <p>
+ * When started, the compactor enables the storage's deferred retention, so
+ * the storage's flushes never delete the expired segments. Then, it calls
+ * the {@link SegmentedLogStorage#compact()} method every
+ * <code>interval</code> ms, or as soon as a compaction is requested (see
+ * {@link #requestCompaction()}). The compactor's thread runs with the min
+ * priority.
+ * <p>
+ * When stopped, the storage's retention is applied again on flush.
+ */
+public class StorageCompactor {
+
+    // Class constants
+
+    public static final String TH_COMPACTOR_NAME_FORMAT = "_CACHE_COMPACTOR_%s_";
+    public static final long DEF_JOIN_TIME = 1000;
+
+
+    // Internal vars
+
+    private static final Logger log = LoggerFactory.getLogger(StorageCompactor.class);
+    private final String name;
+    private final SegmentedLogStorage<?> storage;
+    private final long interval;
+    private final Object compactLock = new Object();
+    private boolean compactRequested = false;
+    private volatile boolean mustStop = false;
+    private Thread thread = null;
+
+
+    // Constructor
+
+    /**
+     * @param name     the compactor's name, used for the thread name.
+     * @param storage  the storage to compact.
+     * @param interval the time in ms between two compactions.
+     */
+    public StorageCompactor(String name, SegmentedLogStorage<?> storage, long interval) {
+        this.name = name;
+        this.storage = storage;
+        this.interval = Math.max(1, interval);
+    }
+
+
+    // Getters
+
+    public boolean isRunning() {
+        return thread != null;
+    }
+
+
+    // Mngm
+
+    /**
+     * Enable the storage's deferred retention and start the compactor's
+     * thread.
+     */
+    public synchronized void start() {
+        if (isRunning()) return;
+
+        storage.setDeferredRetention(true);
+        mustStop = false;
+        thread = JavaThreads.initAndStart(new Runnable() {
+            @Override
+            public void run() {
+                log.debug(String.format("Thread cache compactor '%s' started", name));
+                while (!mustStop) {
+                    try {
+                        compactLoop();
+                    } catch (InterruptedException ignore) {
+                    } catch (Throwable t) {
+                        log.warn(String.format("Thread cache compactor '%s' thrown exception: %s", name, t.getMessage()), t);
+                    }
+                }
+                log.debug(String.format("Thread cache compactor '%s' terminated", name));
+            }
+        }, String.format(TH_COMPACTOR_NAME_FORMAT, name));
+        thread.setPriority(Thread.MIN_PRIORITY);
+        requestCompaction();
+    }
+
+    /**
+     * Stop the compactor's thread, waiting at most {@link #DEF_JOIN_TIME} ms
+     * for current compaction, and disable the storage's deferred retention.
+     */
+    public synchronized void stop() {
+        if (!isRunning()) return;
+
+        mustStop = true;
+        thread.interrupt();
+        try {
+            thread.join(DEF_JOIN_TIME);
+        } catch (InterruptedException ignore) {}
+        if (thread.isAlive())
+            log.warn(String.format("Thread cache compactor '%s' not terminated", name));
+        thread = null;
+        storage.setDeferredRetention(false);
+    }
+
+    /**
+     * Request a new compaction to the compactor. This method never blocks.
+     */
+    public void requestCompaction() {
+        synchronized (compactLock) {
+            compactRequested = true;
+            compactLock.notifyAll();
+        }
+    }
+
+
+    // Compact loop
+
+    private void compactLoop() throws InterruptedException {
+        synchronized (compactLock) {
+            if (!compactRequested && !mustStop)
+                compactLock.wait(interval);
+            compactRequested = false;
+        }
+        if (mustStop) return;
+
+        int deleted = storage.compact();
+        if (deleted > 0)
+            log.debug(String.format("Cache compactor '%s' deleted %d segments", name, deleted));
+    }
+
+}
@@ -20,10 +20,16 @@
 package com.robypomper.josp.jod.comm;
 
 import com.robypomper.comm.exception.PeerDisconnectionException;
+import com.robypomper.comm.exception.PeerNotConnectedException;
+import com.robypomper.comm.exception.PeerStreamException;
 import com.robypomper.comm.server.ServerClient;
+import com.robypomper.josp.protocol.JOSPPerm;
 import com.robypomper.josp.protocol.JOSPProtocol_Service;
 import com.robypomper.josp.protocol.JOSPSecurityLevel;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.net.InetAddress;
 
 
@@ -34,12 +40,15 @@ public class DefaultJODLocalClientInfo implements JODLocalClientInfo {
 
     // Local vars
 
+    private static final Logger log = LoggerFactory.getLogger(DefaultJODLocalClientInfo.class);
     private final ServerClient client;
     private final String fullSrvId;
     private final String srvId;
     private final String usrId;
     private final String instId;
     private final JOSPSecurityLevel security;
+    private volatile JOSPPerm.Type permType = JOSPPerm.Type.None;
+    private final JODLocalClientQueue queue;
 
 
     // Constructor
@@ -50,15 +59,25 @@ public class DefaultJODLocalClientInfo implements JODLocalClientInfo {
      *
      * @param client the communication level's client's info.
      * @param fullSrvId the full service id (service, user and instance).
+     * @param queueSize the max number of messages waiting to be sent to the client.
+     * @param queuePolicy the policy to apply when the outbound queue is full.
+     * @param queueConflating if <code>true</code>, the outbound queue keeps at
+     *                        most one pending state update for each component.
+     * @param queueBatchWindow the time in ms to wait, when a message is added
+     *                         to the idle outbound queue, before start sending.
      */
     public DefaultJODLocalClientInfo(ServerClient client, String fullSrvId,
-                                     boolean useSSL, boolean useShared, boolean useCertificatedId) {
+                                     boolean useSSL, boolean useShared, boolean useCertificatedId,
+                                     int queueSize, JODLocalClientQueue.OverflowPolicy queuePolicy, boolean queueConflating,
+                                     long queueBatchWindow) {
         this.client = client;
         this.fullSrvId = fullSrvId;
         this.srvId = JOSPProtocol_Service.fullSrvIdToSrvId(this.fullSrvId);
         this.usrId = JOSPProtocol_Service.fullSrvIdToUsrId(this.fullSrvId);
         this.instId = JOSPProtocol_Service.fullSrvIdToInstId(this.fullSrvId);
         this.security = JOSPSecurityLevel.tryCalculate(useSSL, useShared, useCertificatedId, JOSPSecurityLevel.NoSSL);
+        this.queue = new JODLocalClientQueue(client.getLocalId(), queueWriter, queueSize, queuePolicy, queueConflating);
+        this.queue.setBatchWindow(queueBatchWindow);
     }
 
 
@@ -102,6 +121,25 @@ public class DefaultJODLocalClientInfo implements JODLocalClientInfo {
     }
 
 
+    // Permissions
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public JOSPPerm.Type getPermType() {
+        return permType;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setPermType(JOSPPerm.Type permType) {
+        this.permType = permType;
+    }
+
+
     // Connection info
 
     /**
@@ -168,6 +206,7 @@ public class DefaultJODLocalClientInfo implements JODLocalClientInfo {
      */
     @Override
     public void disconnectLocal() throws JODCommunication.LocalCommunicationException {
+        queue.stop();
         try {
             client.disconnect();
 
@@ -176,4 +215,72 @@ public class DefaultJODLocalClientInfo implements JODLocalClientInfo {
         }
     }
 
+
+
+    // Outbound queue
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean sendDataAsync(String msg, String conflationKey) {
+        return queue.offer(msg, conflationKey);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean sendPresentationAsync(String msg, String conflationKey) {
+        return queue.offerUnbounded(msg, conflationKey);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getQueueDepth() {
+        return queue.getDepth();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getQueueDropped() {
+        return queue.getDropped();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void closeQueue() {
+        queue.stop();
+    }
+
+    private final JODLocalClientQueue.Writer queueWriter = new JODLocalClientQueue.Writer() {
+
+        @Override
+        public void write(String msg) {
+            try {
+                client.sendData(msg);
+
+            } catch (PeerNotConnectedException | PeerStreamException e) {
+                log.warn(String.format("Error on send data to JSL service '%s'", fullSrvId), e);
+            }
+        }
+
+        @Override
+        public void onOverflow() {
+            try {
+                client.disconnect();
+
+            } catch (PeerDisconnectionException e) {
+                log.warn(String.format("Error on disconnecting JSL service '%s' because outbound queue is full", fullSrvId), e);
+            }
+        }
+
+    };
+
 }
@@ -0,0 +1,322 @@
+/*******************************************************************************
+ * The John Object Daemon is the agent software to connect "objects"
+ * to an IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package com.robypomper.josp.jod.comm;
+
+import com.robypomper.java.JavaThreads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Executes the actions' commands received from local services and from the
+ * cloud on a pool of worker threads, so slow executors (like shell or http
+ * ones) never block the connection that received the command.
+ * <p>
+ * Commands for the same component are executed one at time, in the same
+ * order they were submitted. Commands for different components are executed
+ * in parallel, up to the max number of workers.
+ * <p>
+ * Workers are started on demand and terminated after
+ * {@link #WORKER_KEEP_ALIVE} ms (by default) without commands to execute. When the max
+ * number of pending commands is reached, new commands are rejected.
+ */
+public class JODActionDispatcher {
+
+    // Class constants
+
+    public static final String TH_WORKER_NAME_FORMAT = "_ACTION_WORKER_%d_";
+    public static final long WORKER_KEEP_ALIVE = 60 * 1000;
+
+
+    // Internal vars
+
+    private static final Logger log = LoggerFactory.getLogger(JODActionDispatcher.class);
+    private final int maxWorkers;
+    private final int maxSize;
+    private final long keepAlive;
+    /**
+     * Pending commands by component, contains only components with pending
+     * or running commands.
+     */
+    private final Map<String, Deque<Task>> byComponent = new HashMap<>();
+    /**
+     * Components with pending commands and without running commands, in the
+     * order they must be served.
+     */
+    private final Deque<String> ready = new ArrayDeque<>();
+    private boolean mustStop = false;
+    private int workers = 0;
+    private int busyWorkers = 0;
+    private int workersCount = 0;
+    private int depth = 0;
+    private int maxDepth = 0;
+    private long executed = 0;
+    private long rejected = 0;
+    private long totLatency = 0;
+    private long maxLatency = 0;
+    private long totExecTime = 0;
+
+
+    // Constructor
+
+    /**
+     * @param maxWorkers the max number of commands executed in parallel.
+     * @param maxSize    the max number of commands waiting to be executed.
+     */
+    public JODActionDispatcher(int maxWorkers, int maxSize) {
+        this(maxWorkers, maxSize, WORKER_KEEP_ALIVE);
+    }
+
+    /**
+     * @param maxWorkers the max number of commands executed in parallel.
+     * @param maxSize    the max number of commands waiting to be executed.
+     * @param keepAlive  the time in ms after that an idle worker terminates.
+     */
+    JODActionDispatcher(int maxWorkers, int maxSize, long keepAlive) {
+        this.maxWorkers = Math.max(1, maxWorkers);
+        this.maxSize = Math.max(1, maxSize);
+        this.keepAlive = Math.max(1, keepAlive);
+    }
+
+
+    // Getters
+
+    public int getMaxWorkers() {
+        return maxWorkers;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the number of running workers, busy or idle.
+     */
+    public synchronized int getWorkers() {
+        return workers;
+    }
+
+    /**
+     * @return the number of commands waiting to be executed.
+     */
+    public synchronized int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return the max number of commands waiting to be executed at the same
+     * time.
+     */
+    public synchronized int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * @return the number of executed commands.
+     */
+    public synchronized long getExecuted() {
+        return executed;
+    }
+
+    /**
+     * @return the number of commands rejected because the dispatcher was full.
+     */
+    public synchronized long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return the average time in ms that executed commands waited before
+     * starting their execution.
+     */
+    public synchronized long getAvgLatency() {
+        return executed == 0 ? 0 : totLatency / executed;
+    }
+
+    /**
+     * @return the max time in ms that a command waited before starting his
+     * execution.
+     */
+    public synchronized long getMaxLatency() {
+        return maxLatency;
+    }
+
+    /**
+     * @return the average execution time in ms of executed commands.
+     */
+    public synchronized long getAvgExecTime() {
+        return executed == 0 ? 0 : totExecTime / executed;
+    }
+
+
+    // Mngm
+
+    /**
+     * Add given command to the component's commands and, if needed, start a
+     * new worker. This method never blocks.
+     *
+     * @param componentPath the path of the component that executes the command.
+     * @param action        the command's execution.
+     * @return <code>false</code> if the command was rejected, because the
+     * dispatcher is stopped or too many commands are waiting.
+     */
+    public synchronized boolean submit(String componentPath, Runnable action) {
+        if (mustStop || depth >= maxSize) {
+            rejected++;
+            return false;
+        }
+
+        Deque<Task> tasks = byComponent.get(componentPath);
+        if (tasks == null) {
+            tasks = new ArrayDeque<>();
+            byComponent.put(componentPath, tasks);
+            ready.addLast(componentPath);
+        }
+        tasks.addLast(new Task(action));
+        depth++;
+        maxDepth = Math.max(maxDepth, depth);
+
+        // Start a new worker only if not busy workers can't serve all ready components
+        if (ready.size() > workers - busyWorkers && workers < maxWorkers)
+            startWorker();
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Accept new commands again, after the dispatcher was stopped.
+     */
+    public synchronized void start() {
+        mustStop = false;
+    }
+
+    /**
+     * Discard all pending commands and terminate the workers, after their
+     * current command. New commands are rejected until the dispatcher is
+     * started again.
+     */
+    public synchronized void stop() {
+        mustStop = true;
+        depth = 0;
+        // Keep running components, so their next commands wait the running one
+        for (String componentPath : ready)
+            byComponent.remove(componentPath);
+        for (Deque<Task> tasks : byComponent.values())
+            tasks.clear();
+        ready.clear();
+        notifyAll();
+    }
+
+
+    // Workers
+
+    private void startWorker() {
+        workers++;
+        JavaThreads.initAndStart(new Runnable() {
+            @Override
+            public void run() {
+                String name = Thread.currentThread().getName();
+                log.debug(String.format("Thread action worker '%s' started", name));
+                try {
+                    workLoop();
+                } catch (InterruptedException e) {
+                    synchronized (JODActionDispatcher.this) {
+                        workers--;
+                    }
+                }
+                log.debug(String.format("Thread action worker '%s' terminated", name));
+            }
+        }, String.format(TH_WORKER_NAME_FORMAT, workersCount++));
+    }
+
+    /**
+     * Execute the ready components' commands, until the dispatcher is stopped
+     * or no command is submitted for the keep alive time. The worker is
+     * removed from the running workers in the same lock that decides to
+     * terminate it, so a concurrent {@link #submit(String, Runnable)} always
+     * starts a new worker if needed.
+     */
+    private void workLoop() throws InterruptedException {
+        while (true) {
+            String componentPath;
+            Task task;
+            synchronized (this) {
+                long idleSince = System.currentTimeMillis();
+                while (ready.isEmpty()) {
+                    long idleTime = System.currentTimeMillis() - idleSince;
+                    if (mustStop || idleTime >= keepAlive) {
+                        workers--;
+                        return;
+                    }
+
+                    wait(keepAlive - idleTime);
+                }
+
+                componentPath = ready.pollFirst();
+                task = byComponent.get(componentPath).pollFirst();
+                depth--;
+                busyWorkers++;
+
+                long latency = System.currentTimeMillis() - task.submittedAt;
+                totLatency += latency;
+                maxLatency = Math.max(maxLatency, latency);
+            }
+
+            long start = System.currentTimeMillis();
+            try {
+                task.action.run();
+            } catch (Throwable t) {
+                log.warn(String.format("Error on executing command on '%s' component because %s", componentPath, t.getMessage()), t);
+            }
+
+            synchronized (this) {
+                busyWorkers--;
+                executed++;
+                totExecTime += System.currentTimeMillis() - start;
+
+                // Component's next command, if any, can be executed now
+                Deque<Task> tasks = byComponent.get(componentPath);
+                if (tasks != null) {
+                    if (tasks.isEmpty())
+                        byComponent.remove(componentPath);
+                    else
+                        ready.addLast(componentPath);
+                }
+            }
+        }
+    }
+
+
+    // Dispatcher item
+
+    private static class Task {
+        private final Runnable action;
+        private final long submittedAt = System.currentTimeMillis();
+
+        private Task(Runnable action) {
+            this.action = action;
+        }
+    }
+
+}
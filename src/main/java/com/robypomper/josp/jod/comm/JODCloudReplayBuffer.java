@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * The John Object Daemon is the agent software to connect "objects"
+ * to an IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package com.robypomper.josp.jod.comm;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Bounded buffer of the latest state update of each component, filled while
+ * the cloud link is disconnected.
+ * <p>
+ * Each component keeps only his last update message, so the buffer size
+ * depends on the number of updated components and not on the updates'
+ * frequency. When the buffer is full, the update of the component not updated
+ * for the longest time is discarded.
+ * <p>
+ * On cloud reconnection, {@link #drain()} returns all buffered updates, in
+ * update order, so they can be sent as a single batch. Or, with
+ * {@link #drain(int)}, they can be returned in smaller batches.
+ */
+public class JODCloudReplayBuffer {
+
+    // Internal vars
+
+    private final int maxSize;
+    private final Map<String, String> lastValues = new LinkedHashMap<>();
+    private long dropped = 0;
+    private long replayed = 0;
+
+
+    // Constructor
+
+    /**
+     * @param maxSize the max number of components to buffer, if less or equal
+     *                to 0 the buffer discards all updates.
+     */
+    public JODCloudReplayBuffer(int maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+    }
+
+
+    // Getters
+
+    /**
+     * @return the number of components buffered.
+     */
+    public synchronized int getSize() {
+        return lastValues.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the number of components' updates discarded because the buffer
+     * was full.
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return the number of updates returned by {@link #drain()} and
+     * {@link #drain(int)}.
+     */
+    public synchronized long getReplayed() {
+        return replayed;
+    }
+
+
+    // Mngm
+
+    /**
+     * Set given message as latest update for given component.
+     *
+     * @param componentPath the component's path.
+     * @param msg           the component's state update message.
+     */
+    public synchronized void put(String componentPath, String msg) {
+        if (maxSize == 0) {
+            dropped++;
+            return;
+        }
+
+        // Re-insert to move the component at the end of the updates order
+        if (lastValues.remove(componentPath) == null && lastValues.size() >= maxSize) {
+            Iterator<String> oldest = lastValues.keySet().iterator();
+            oldest.next();
+            oldest.remove();
+            dropped++;
+        }
+        lastValues.put(componentPath, msg);
+    }
+
+    /**
+     * Add all given messages, in the given order.
+     *
+     * @param msgs the components' state update messages, by component's path.
+     */
+    public synchronized void putAll(Map<String, String> msgs) {
+        for (Map.Entry<String, String> e : msgs.entrySet())
+            put(e.getKey(), e.getValue());
+    }
+
+    /**
+     * Add given messages as older than the buffered ones, like the updates
+     * not sent to the cloud before his disconnection. Messages of components
+     * already buffered are ignored, because the buffered ones are newer.
+     *
+     * @param msgs the components' state update messages, by component's path.
+     */
+    public synchronized void restore(Map<String, String> msgs) {
+        Map<String, String> newer = new LinkedHashMap<>(lastValues);
+        lastValues.clear();
+        for (Map.Entry<String, String> e : msgs.entrySet())
+            if (!newer.containsKey(e.getKey()))
+                put(e.getKey(), e.getValue());
+        putAll(newer);
+    }
+
+    /**
+     * Return and remove all buffered updates.
+     *
+     * @return the components' state update messages, by component's path and
+     * in update order.
+     */
+    public synchronized Map<String, String> drain() {
+        Map<String, String> msgs = new LinkedHashMap<>(lastValues);
+        lastValues.clear();
+        replayed += msgs.size();
+        return msgs;
+    }
+
+    /**
+     * Return and remove the oldest buffered updates, at most given count.
+     *
+     * @param max the max number of updates to return.
+     * @return the components' state update messages, by component's path and
+     * in update order.
+     */
+    public synchronized Map<String, String> drain(int max) {
+        Map<String, String> msgs = new LinkedHashMap<>();
+        Iterator<Map.Entry<String, String>> it = lastValues.entrySet().iterator();
+        while (msgs.size() < max && it.hasNext()) {
+            Map.Entry<String, String> e = it.next();
+            msgs.put(e.getKey(), e.getValue());
+            it.remove();
+        }
+        replayed += msgs.size();
+        return msgs;
+    }
+
+}
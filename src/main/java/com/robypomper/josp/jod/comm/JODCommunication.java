@@ -26,6 +26,7 @@ import com.robypomper.josp.jod.structure.JODStructure;
 import com.robypomper.josp.protocol.JOSPPerm;
 
 import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -117,12 +118,26 @@ public interface JODCommunication {
      * This method is required by {@link JODState} when receive an update from
      * his {@link com.robypomper.josp.jod.executor.JODPuller} or
      * {@link com.robypomper.josp.jod.executor.JODListener} object.
+     * <p>
+     * When the state conflation is enabled, each service (and the cloud) keeps
+     * at most one pending update for the given component: if the previous
+     * update was not sent yet, it is replaced by the new one.
      *
      * @param component the object's component that updated his state.
      * @param update    the status update info.
      */
     void sendObjectUpdMsg(JODState component, JODStateUpdate update);
 
+    /**
+     * The object's structure message contains the components' states at the
+     * time it was built, so the latest state update of each component must be
+     * sent after it.
+     *
+     * @return the latest state update message of each component updated since
+     * the JOD startup, by component's path.
+     */
+    Map<String, String> getLastStateMsgs();
+
     void syncObject();
 
 
@@ -130,6 +145,11 @@ public interface JODCommunication {
 
     boolean processFromServiceMsg(String msg, JOSPPerm.Connection connType);
 
+    /**
+     * @return the dispatcher that executes the received actions' commands.
+     */
+    JODActionDispatcher getActionDispatcher();
+
 
     // Connections access
 
@@ -166,6 +186,11 @@ public interface JODCommunication {
      */
     boolean isLocalRunning();
 
+    /**
+     * @return <code>true</code> if the cloud communication client is connected.
+     */
+    boolean isCloudConnected();
+
     /**
      * Start local Object's server and publish it.
      */
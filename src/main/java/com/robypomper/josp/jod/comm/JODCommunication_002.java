@@ -23,7 +23,6 @@ import com.robypomper.comm.peer.Peer;
 import com.robypomper.comm.peer.PeerConnectionListener;
 import com.robypomper.discovery.DiscoverySystemFactory;
 import com.robypomper.discovery.Publisher;
-import com.robypomper.java.JavaJSONArrayToFile;
 import com.robypomper.josp.clients.JCPAPIsClientObj;
 import com.robypomper.josp.clients.JCPClient2;
 import com.robypomper.josp.jod.JODSettings_002;
@@ -39,7 +38,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
@@ -60,8 +63,14 @@ public class JODCommunication_002 implements JODCommunication {
     // Comms
     private final JCPAPIsClientObj jcpClient;
     private final JODGwO2SClient gwClient;
+    private final JODLocalClientQueue gwQueue;
+    private final JODCloudReplayBuffer gwReplay;
+    private final Map<String, String> lastStateMsgs = new ConcurrentHashMap<>();
     private JODLocalServer localServer;
     private Publisher localServerPublisher = null;
+    // Service messages
+    private final Map<ServiceMsgType, ServiceMsgHandler> msgHandlers = initServiceMsgHandlers();
+    private final JODActionDispatcher actionDispatcher;
 
 
     // Constructor
@@ -85,6 +94,7 @@ public class JODCommunication_002 implements JODCommunication {
         this.jcpClient = jcpClient;
         jcpClient.addConnectionListener(jcpConnectionListener);
         this.events = events;
+        this.actionDispatcher = new JODActionDispatcher(locSettings.getActionsWorkers(), locSettings.getActionsQueueSize());
 
         // Init local server
         int localPort = locSettings.getLocalServerPort();
@@ -100,6 +110,11 @@ public class JODCommunication_002 implements JODCommunication {
         // Init cloud object client
         this.gwClient = new JODGwO2SClient(this, objInfo, jcpClient, instanceId);
         this.gwClient.addListener(gwClientListener);
+        this.gwQueue = new JODLocalClientQueue("cloud", gwQueueWriter, locSettings.getCloudQueueSize(),
+                JODLocalClientQueue.OverflowPolicy.CONFLATE, locSettings.getStateConflation());
+        this.gwQueue.setBatchWindow(locSettings.getBatchWindow());
+        this.gwQueue.stop();    // started on cloud connection, after the object's sync
+        this.gwReplay = new JODCloudReplayBuffer(locSettings.getCloudEnabled() ? locSettings.getCloudReplaySize() : 0);
 
         log.info(String.format("Initialized JODCommunication instance for '%s' ('%s') object", objInfo.getObjName(), objInfo.getObjId()));
     }
@@ -127,34 +142,97 @@ public class JODCommunication_002 implements JODCommunication {
      */
     @Override
     public boolean sendToServices(String msg, JOSPPerm.Type minReqPerm) {
+        return sendToServices(msg, minReqPerm, null);
+    }
+
+    /**
+     * Send given message to all allowed local services and to the cloud.
+     * <p>
+     * Messages are added to each local service's outbound queue and to the
+     * cloud's one, so this method is not delayed by slow services. While the
+     * cloud is disconnected, or the cloud's queue is full, messages with a
+     * conflation key (components' state updates) are kept in the cloud's
+     * replay buffer, then sent when the cloud's queue has room for them.
+     *
+     * @param msg           message to send to the services.
+     * @param minReqPerm    minimum required permission to send the message.
+     * @param conflationKey the key of messages that can replace each other
+     *                      in local services' queues, or <code>null</code>.
+     * @return true if the message was sent to at least one JOSP Service, false otherwise.
+     */
+    private boolean sendToServices(String msg, JOSPPerm.Type minReqPerm, String conflationKey) {
         log.debug(String.format("JOD Communication send '%s' message to local services and cloud", msg.substring(0, msg.indexOf('\n'))));
 
         // Send via local communication
         if (isLocalRunning()) {
             for (JODLocalClientInfo locConn : getAllLocalClientsInfo()) {
-                if (!locConn.isConnected() || !permissions.checkPermission(locConn.getSrvId(), locConn.getUsrId(), minReqPerm, JOSPPerm.Connection.OnlyLocal))
+                if (!locConn.isConnected() || !hasPermission(locConn, minReqPerm))
                     continue;
 
-                try {
-                    locConn.getClient().sendData(msg);
+                if (!locConn.sendDataAsync(msg, conflationKey))
+                    log.warn(String.format("JOD Communication error on send data to JSL service '%s' because his queue is closed", locConn.getClientId()));
+            }
+        }
 
-                } catch (PeerNotConnectedException | PeerStreamException e) {
-                    log.warn(String.format("JOD Communication error on send data to JSL service '%s'", locConn.getClientId()), e);
-                }
+        // Send via cloud communication, or keep for cloud reconnection
+        boolean cloudConnected;
+        synchronized (gwReplay) {
+            cloudConnected = gwClient.getState().isConnected();
+            // Updates are kept in the replay buffer until it's empty, so they are sent in update order
+            boolean replaying = conflationKey != null && gwReplay.getSize() > 0;
+            if (!cloudConnected || replaying || !gwQueue.offer(msg, conflationKey)) {
+                if (conflationKey != null)
+                    gwReplay.put(conflationKey, msg);
+                else if (cloudConnected)
+                    log.warn("JOD Communication error on send data to JCP GW because his queue is closed");
             }
         }
 
-        // Send via cloud communication
-        if (gwClient.getState().isConnected()) {
-            try {
-                gwClient.sendData(msg);
+        return isLocalRunning() || cloudConnected;
+    }
 
-            } catch (PeerNotConnectedException | PeerStreamException e) {
-                log.warn("JOD Communication error on send data to JCP GW", e);
-            }
+    /**
+     * Send the object's info, structure (with components' current states) and
+     * permissions to the cloud, then the updates buffered while the cloud
+     * was disconnected.
+     * <p>
+     * The object is synced without holding the replay buffer's lock, because
+     * it's sent directly to the cloud. Meanwhile, the cloud's queue is still
+     * stopped, so new updates are kept in the replay buffer. Then the queue
+     * is started and the buffer is drained holding the replay buffer's lock,
+     * so no update is buffered after the buffer was drained.
+     */
+    private void syncCloud() {
+        syncObject();
+        synchronized (gwReplay) {
+            if (!gwClient.getState().isConnected())
+                return;
+            gwQueue.start();
+            replayCloud();
         }
+    }
+
+    /**
+     * Move the buffered state updates into the cloud's queue, as many as the
+     * queue's free room.
+     * <p>
+     * Buffered updates are added to the cloud's queue all together, so they
+     * are sent as a single burst. Remaining updates are moved by the queue's
+     * writer, after sending the previous ones.
+     */
+    private void replayCloud() {
+        synchronized (gwReplay) {
+            if (gwReplay.getSize() == 0 || !gwClient.getState().isConnected())
+                return;
+
+            Map<String, String> lastValues = gwReplay.drain(gwQueue.getFreeSize());
+            if (lastValues.isEmpty())
+                return;
 
-        return isLocalRunning() || gwClient.getState().isConnected();
+            log.debug(String.format("JOD Communication replay %d state updates to JCP GW", lastValues.size()));
+            if (!gwQueue.offerAll(lastValues))
+                gwReplay.restore(lastValues);
+        }
     }
 
     /**
@@ -180,16 +258,24 @@ public class JODCommunication_002 implements JODCommunication {
     public boolean sendToSingleLocalService(JODLocalClientInfo locConn, String msg, JOSPPerm.Type minReqPerm) throws ServiceNotConnected {
         log.debug(String.format("JOD Communication send '%s' message to JSL service '%s' only", msg.substring(0, msg.indexOf('\n')), locConn.getFullSrvId()));
 
-        if (!permissions.checkPermission(locConn.getSrvId(), locConn.getUsrId(), minReqPerm, JOSPPerm.Connection.OnlyLocal))
+        if (!hasPermission(locConn, minReqPerm))
             return false;
 
-        try {
-            locConn.getClient().sendData(msg);
-            return true;
+        if (!locConn.isConnected() || !locConn.sendDataAsync(msg, null))
+            throw new ServiceNotConnected(locConn);
+        return true;
+    }
 
-        } catch (PeerNotConnectedException | PeerStreamException e) {
-            throw new ServiceNotConnected(locConn, e);
-        }
+    /**
+     * Check the local client's permission type, cached by the
+     * {@link JODPermissions#updateLocalClientsPermissions()} method.
+     * <p>
+     * As for {@link JODPermissions#checkPermission(String, String, JOSPPerm.Type, JOSPPerm.Connection)},
+     * clients without permissions are never granted.
+     */
+    private static boolean hasPermission(JODLocalClientInfo locConn, JOSPPerm.Type minReqPerm) {
+        JOSPPerm.Type permType = locConn.getPermType();
+        return permType != JOSPPerm.Type.None && permType.compareTo(minReqPerm) >= 0;
     }
 
     /**
@@ -197,7 +283,18 @@ public class JODCommunication_002 implements JODCommunication {
      */
     @Override
     public void sendObjectUpdMsg(JODState component, JODStateUpdate update) {
-        sendToServices(JOSPProtocol_ObjectToService.createObjectStateUpdMsg(objInfo.getObjId(), component.getPath().getString(), update), JOSPPerm.Type.State);
+        String compPath = component.getPath().getString();
+        String msg = JOSPProtocol_ObjectToService.createObjectStateUpdMsg(objInfo.getObjId(), compPath, update);
+        lastStateMsgs.put(compPath, msg);
+        sendToServices(msg, JOSPPerm.Type.State, compPath);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, String> getLastStateMsgs() {
+        return new HashMap<>(lastStateMsgs);
     }
 
     /**
@@ -213,66 +310,157 @@ public class JODCommunication_002 implements JODCommunication {
 
     // From Service Msg
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The message's header and the service and user ids are parsed in a
+     * single pass by {@link JODServiceMsgHeader#parse(String)}. The message's
+     * type is resolved by {@link #classifyServiceMsg(String)}, then the
+     * message is dispatched to the corresponding handler from the
+     * {@link #msgHandlers} table. Handlers receive the parsed {@link ServiceMsg}
+     * and parse only their own payload's fields.
+     * <p>
+     * Messages with an unexpected header are parsed via the
+     * {@link JOSPProtocol_ServiceToObject} methods, as before.
+     */
     @Override
     public boolean processFromServiceMsg(String msg, JOSPPerm.Connection connType) {
+        JODServiceMsgHeader parsed = JODServiceMsgHeader.parse(msg);
+        String header = parsed != null ? parsed.getHeader() : getHeader(msg);
         String srvId;
         String usrId;
         try {
-            srvId = JOSPProtocol_ServiceToObject.getSrvId(msg);
-            usrId = JOSPProtocol_ServiceToObject.getUsrId(msg);
-            log.info(String.format("Received '%s' message from %s/%s (%s)", msg.substring(0, msg.indexOf('\n')), srvId, usrId, connType == JOSPPerm.Connection.OnlyLocal ? "local connection" : "cloud connection"));
+            srvId = parsed != null ? parsed.getSrvId() : JOSPProtocol_ServiceToObject.getSrvId(msg);
+            usrId = parsed != null ? parsed.getUsrId() : JOSPProtocol_ServiceToObject.getUsrId(msg);
+            log.info(String.format("Received '%s' message from %s/%s (%s)", header, srvId, usrId, connType == JOSPPerm.Connection.OnlyLocal ? "local connection" : "cloud connection"));
 
         } catch (JOSPProtocol.ParsingException e) {
-            log.warn(String.format("Error on parsing '%s' message because %s", msg.substring(0, msg.indexOf('\n')), e.getMessage()), e);
+            log.warn(String.format("Error on parsing '%s' message because %s", header, e.getMessage()), e);
             return false;
         }
 
         try {
             // dispatch to processor
-            boolean processedSuccessfully;
-            if (JOSPProtocol_ServiceToObject.isObjectSetNameMsg(msg))
-                processedSuccessfully = permissions.checkPermission(srvId, usrId, JOSPPerm.Type.CoOwner, connType) && processObjectSetNameMsg(msg);
-            else if (JOSPProtocol_ServiceToObject.isObjectSetOwnerIdMsg(msg))
-                processedSuccessfully = permissions.checkPermission(srvId, usrId, JOSPPerm.Type.CoOwner, connType) && processObjectSetOwnerIdMsg(msg);
-            else if (JOSPProtocol_ServiceToObject.isObjectAddPermMsg(msg))
-                processedSuccessfully = permissions.checkPermission(srvId, usrId, JOSPPerm.Type.CoOwner, connType) && processObjectAddPermMsg(msg);
-            else if (JOSPProtocol_ServiceToObject.isObjectUpdPermMsg(msg))
-                processedSuccessfully = permissions.checkPermission(srvId, usrId, JOSPPerm.Type.CoOwner, connType) && processObjectUpdPermMsg(msg);
-            else if (JOSPProtocol_ServiceToObject.isObjectRemPermMsg(msg))
-                processedSuccessfully = permissions.checkPermission(srvId, usrId, JOSPPerm.Type.CoOwner, connType) && processObjectRemPermMsg(msg);
-
-            else if (JOSPProtocol_ServiceToObject.isObjectActionCmdMsg(msg))
-                processedSuccessfully = permissions.checkPermission(srvId, usrId, JOSPPerm.Type.Actions, connType) && processObjectCmdMsg(msg, srvId, usrId, connType);
-
-            else if (JOSPProtocol_ServiceToObject.isHistoryReqMsg(msg))
-                processedSuccessfully = permissions.checkPermission(srvId, usrId, JOSPProtocol_ServiceToObject.HISTORY_MSG_REQ_MIN_PERM, connType) && processHistoryReqMsg(msg, srvId, usrId, connType);
-            else if (JOSPProtocol_ServiceToObject.isEventsReqMsg(msg))
-                processedSuccessfully = permissions.checkPermission(srvId, usrId, JOSPProtocol_ServiceToObject.EVENTS_MSG_REQ_MIN_PERM, connType) && processEventsReqMsg(msg, srvId, usrId, connType);
-
-            else
+            ServiceMsgType type = classifyServiceMsg(msg);
+            if (type == null)
                 throw new Throwable("Unknown message type");
 
+            ServiceMsg srvMsg = new ServiceMsg(msg, header, srvId, usrId, connType);
+            boolean processedSuccessfully = permissions.checkPermission(srvId, usrId, type.minReqPerm, connType)
+                    && msgHandlers.get(type).process(srvMsg);
+
             if (!processedSuccessfully)
                 throw new Throwable("Error processing message");
 
-            log.info(String.format("Message '%s' from %s/%s processed successfully", msg.substring(0, msg.indexOf('\n')), srvId, usrId));
+            log.info(String.format("Message '%s' from %s/%s processed successfully", header, srvId, usrId));
             return true;
 
         } catch (Throwable t) {
-            log.warn(String.format("Error on processing '%s' message from %s/%s because %s", msg.substring(0, msg.indexOf('\n')), srvId, usrId, t.getMessage()), t);
+            log.warn(String.format("Error on processing '%s' message from %s/%s because %s", header, srvId, usrId, t.getMessage()), t);
             return false;
         }
     }
 
-    private boolean processObjectCmdMsg(String msg, String srvId, String usrId, JOSPPerm.Connection connType) {
-        if (!JOSPProtocol.isCmdMsg(msg))
-            return false;
+    /**
+     * Resolve the type of given message, checking it against all message
+     * types that JOSP Services can send to the object.
+     *
+     * @param msg the message to classify.
+     * @return the message's type, or null if the message is not recognized.
+     */
+    private static ServiceMsgType classifyServiceMsg(String msg) {
+        if (JOSPProtocol_ServiceToObject.isObjectSetNameMsg(msg)) return ServiceMsgType.OBJ_SETNAME;
+        if (JOSPProtocol_ServiceToObject.isObjectSetOwnerIdMsg(msg)) return ServiceMsgType.OBJ_SETOWNERID;
+        if (JOSPProtocol_ServiceToObject.isObjectAddPermMsg(msg)) return ServiceMsgType.OBJ_ADDPERM;
+        if (JOSPProtocol_ServiceToObject.isObjectUpdPermMsg(msg)) return ServiceMsgType.OBJ_UPDPERM;
+        if (JOSPProtocol_ServiceToObject.isObjectRemPermMsg(msg)) return ServiceMsgType.OBJ_REMPERM;
+        if (JOSPProtocol_ServiceToObject.isObjectActionCmdMsg(msg)) return ServiceMsgType.OBJ_ACTION_CMD;
+        if (JOSPProtocol_ServiceToObject.isHistoryReqMsg(msg)) return ServiceMsgType.HISTORY_REQ;
+        if (JOSPProtocol_ServiceToObject.isEventsReqMsg(msg)) return ServiceMsgType.EVENTS_REQ;
+        return null;
+    }
+
+    /**
+     * @param msg the message.
+     * @return the message's first line, or the whole message if it's a
+     * single line message.
+     */
+    private static String getHeader(String msg) {
+        int end = msg.indexOf('\n');
+        return end >= 0 ? msg.substring(0, end) : msg;
+    }
+
+    private Map<ServiceMsgType, ServiceMsgHandler> initServiceMsgHandlers() {
+        Map<ServiceMsgType, ServiceMsgHandler> handlers = new EnumMap<>(ServiceMsgType.class);
+        handlers.put(ServiceMsgType.OBJ_SETNAME, new ServiceMsgHandler() {
+            @Override
+            public boolean process(ServiceMsg srvMsg) {
+                return processObjectSetNameMsg(srvMsg);
+            }
+        });
+        handlers.put(ServiceMsgType.OBJ_SETOWNERID, new ServiceMsgHandler() {
+            @Override
+            public boolean process(ServiceMsg srvMsg) {
+                return processObjectSetOwnerIdMsg(srvMsg);
+            }
+        });
+        handlers.put(ServiceMsgType.OBJ_ADDPERM, new ServiceMsgHandler() {
+            @Override
+            public boolean process(ServiceMsg srvMsg) {
+                return processObjectAddPermMsg(srvMsg);
+            }
+        });
+        handlers.put(ServiceMsgType.OBJ_UPDPERM, new ServiceMsgHandler() {
+            @Override
+            public boolean process(ServiceMsg srvMsg) {
+                return processObjectUpdPermMsg(srvMsg);
+            }
+        });
+        handlers.put(ServiceMsgType.OBJ_REMPERM, new ServiceMsgHandler() {
+            @Override
+            public boolean process(ServiceMsg srvMsg) {
+                return processObjectRemPermMsg(srvMsg);
+            }
+        });
+        handlers.put(ServiceMsgType.OBJ_ACTION_CMD, new ServiceMsgHandler() {
+            @Override
+            public boolean process(ServiceMsg srvMsg) {
+                return processObjectCmdMsg(srvMsg);
+            }
+        });
+        handlers.put(ServiceMsgType.HISTORY_REQ, new ServiceMsgHandler() {
+            @Override
+            public boolean process(ServiceMsg srvMsg) {
+                return processHistoryReqMsg(srvMsg);
+            }
+        });
+        handlers.put(ServiceMsgType.EVENTS_REQ, new ServiceMsgHandler() {
+            @Override
+            public boolean process(ServiceMsg srvMsg) {
+                return processEventsReqMsg(srvMsg);
+            }
+        });
+        return handlers;
+    }
 
-        JOSPProtocol.ActionCmd cmd;
+    /**
+     * Parse the command and search the destination action component, then
+     * submit the command's execution to the {@link JODActionDispatcher}. So,
+     * the connection that received the command is not blocked by the action's
+     * execution.
+     *
+     * @return true if the command was submitted to the dispatcher.
+     */
+    private boolean processObjectCmdMsg(final ServiceMsg srvMsg) {
+        String srvId = srvMsg.srvId;
+        String usrId = srvMsg.usrId;
+        JOSPPerm.Connection connType = srvMsg.connType;
+
+        final JOSPProtocol.ActionCmd cmd;
         try {
-            cmd = JOSPProtocol.fromMsgToCmd(msg, AbsJODAction.getActionClasses());
+            cmd = JOSPProtocol.fromMsgToCmd(srvMsg.msg, AbsJODAction.getActionClasses());
         } catch (JOSPProtocol.ParsingException e) {
-            log.warn(String.format("Error on parsing command '%s...' because %s", msg.substring(0, msg.indexOf("\n")), e.getMessage()), e);
+            log.warn(String.format("Error on parsing command '%s...' because %s", srvMsg.header, e.getMessage()), e);
             return false;
         }
 
@@ -295,23 +483,48 @@ public class JODCommunication_002 implements JODCommunication {
             Events.registerActionExecFail("Component is not an action", srvId, usrId, connType, cmd);
             return false;
         }
-        JODAction actionComp = (JODAction) comp;
+        final JODAction actionComp = (JODAction) comp;
+
+        // submit component's action
+        boolean submitted = actionDispatcher.submit(compPath.getString(), new Runnable() {
+            @Override
+            public void run() {
+                execObjectCmd(srvMsg, actionComp, cmd);
+            }
+        });
+        if (!submitted) {
+            log.warn(String.format("Error on processing command on '%s' component because too many commands are waiting (%d)", compPath.getString(), actionDispatcher.getDepth()));
+            Events.registerActionExecFail("Too many commands waiting", srvId, usrId, connType, cmd);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Execute given command on given action component, from the
+     * {@link JODActionDispatcher}'s workers.
+     */
+    private void execObjectCmd(ServiceMsg srvMsg, JODAction actionComp, JOSPProtocol.ActionCmd cmd) {
+        String srvId = srvMsg.srvId;
+        String usrId = srvMsg.usrId;
+        JOSPPerm.Connection connType = srvMsg.connType;
+        JODComponentPath compPath = actionComp.getPath();
 
         // exec component's action
         if (!actionComp.execAction(cmd)) {
             log.warn(String.format("Error on processing command on '%s' component", compPath.getString()));
             Events.registerActionExecFail("Unknown error on executing action command", srvId, usrId, connType, cmd);
-            return false;
+            return;
         }
         log.info(String.format("Command status of '%s' component", compPath.getString()));
 
-        log.debug(String.format("Command '%s...' processed", msg.substring(0, Math.min(10, msg.length()))));
+        log.debug(String.format("Command '%s...' processed", srvMsg.msg.substring(0, Math.min(10, srvMsg.msg.length()))));
         Events.registerActionExec(srvId, usrId, connType, cmd);
-        return true;
     }
 
-    private boolean processHistoryReqMsg(String msg, String srvId, String usrId, JOSPPerm.Connection connType) {
-        if (connType == JOSPPerm.Connection.LocalAndCloud) {
+    private boolean processHistoryReqMsg(ServiceMsg srvMsg) {
+        String msg = srvMsg.msg;
+        if (srvMsg.connType == JOSPPerm.Connection.LocalAndCloud) {
             log.warn(String.format("Error on processing message %s because received from cloud communication", JOSPProtocol_ServiceToObject.HISTORY_MSG_REQ_NAME));
             return false;
         }
@@ -361,8 +574,9 @@ public class JODCommunication_002 implements JODCommunication {
         return true;
     }
 
-    private boolean processEventsReqMsg(String msg, String srvId, String usrId, JOSPPerm.Connection connType) {
-        if (connType == JOSPPerm.Connection.LocalAndCloud) {
+    private boolean processEventsReqMsg(ServiceMsg srvMsg) {
+        String msg = srvMsg.msg;
+        if (srvMsg.connType == JOSPPerm.Connection.LocalAndCloud) {
             log.warn(String.format("Error on processing message %s because received from cloud communication", JOSPProtocol_ServiceToObject.EVENTS_MSG_REQ_NAME));
             return false;
         }
@@ -387,15 +601,8 @@ public class JODCommunication_002 implements JODCommunication {
         List<JOSPEvent> eventsHistory;
         if (filterEventType.isEmpty())
             eventsHistory = events.getHistoryEvents(limits);
-        else {
-            EventType type = EventType.valueOf(filterEventType);
-            eventsHistory = events.filterHistoryEvents(limits, new JavaJSONArrayToFile.Filter<JOSPEvent>() {
-                @Override
-                public boolean accepted(JOSPEvent o) {
-                    return o.getType() == type;
-                }
-            });
-        }
+        else
+            eventsHistory = events.getHistoryEvents(limits, EventType.valueOf(filterEventType));
         String response = JOSPProtocol_ObjectToService.createEventsResMsg(objInfo.getObjId(), reqId, eventsHistory);
 
         // send response
@@ -410,7 +617,8 @@ public class JODCommunication_002 implements JODCommunication {
         return true;
     }
 
-    private boolean processObjectSetNameMsg(String msg) {
+    private boolean processObjectSetNameMsg(ServiceMsg srvMsg) {
+        String msg = srvMsg.msg;
         String newName;
         try {
             newName = JOSPProtocol_ServiceToObject.getObjectSetNameMsg_Name(msg);
@@ -424,7 +632,8 @@ public class JODCommunication_002 implements JODCommunication {
         return true;
     }
 
-    private boolean processObjectSetOwnerIdMsg(String msg) {
+    private boolean processObjectSetOwnerIdMsg(ServiceMsg srvMsg) {
+        String msg = srvMsg.msg;
         String newOwnerId;
         try {
             newOwnerId = JOSPProtocol_ServiceToObject.getObjectSetOwnerIdMsg_OwnerId(msg);
@@ -438,7 +647,8 @@ public class JODCommunication_002 implements JODCommunication {
         return true;
     }
 
-    private boolean processObjectAddPermMsg(String msg) {
+    private boolean processObjectAddPermMsg(ServiceMsg srvMsg) {
+        String msg = srvMsg.msg;
         String srvId;
         String usrId;
         JOSPPerm.Type permType;
@@ -458,7 +668,8 @@ public class JODCommunication_002 implements JODCommunication {
         return true;
     }
 
-    private boolean processObjectUpdPermMsg(String msg) {
+    private boolean processObjectUpdPermMsg(ServiceMsg srvMsg) {
+        String msg = srvMsg.msg;
         String permId;
         String srvId;
         String usrId;
@@ -480,7 +691,8 @@ public class JODCommunication_002 implements JODCommunication {
         return true;
     }
 
-    private boolean processObjectRemPermMsg(String msg) {
+    private boolean processObjectRemPermMsg(ServiceMsg srvMsg) {
+        String msg = srvMsg.msg;
         String permId;
         try {
             permId = JOSPProtocol_ServiceToObject.getObjectRemPermMsg_PermId(msg);
@@ -495,6 +707,71 @@ public class JODCommunication_002 implements JODCommunication {
     }
 
 
+    // Service messages
+
+    /**
+     * Types of messages that JOSP Services can send to the object, with the
+     * minimum permission required to process them.
+     */
+    private enum ServiceMsgType {
+        OBJ_SETNAME(JOSPPerm.Type.CoOwner),
+        OBJ_SETOWNERID(JOSPPerm.Type.CoOwner),
+        OBJ_ADDPERM(JOSPPerm.Type.CoOwner),
+        OBJ_UPDPERM(JOSPPerm.Type.CoOwner),
+        OBJ_REMPERM(JOSPPerm.Type.CoOwner),
+        OBJ_ACTION_CMD(JOSPPerm.Type.Actions),
+        HISTORY_REQ(JOSPProtocol_ServiceToObject.HISTORY_MSG_REQ_MIN_PERM),
+        EVENTS_REQ(JOSPProtocol_ServiceToObject.EVENTS_MSG_REQ_MIN_PERM);
+
+        private final JOSPPerm.Type minReqPerm;
+
+        ServiceMsgType(JOSPPerm.Type minReqPerm) {
+            this.minReqPerm = minReqPerm;
+        }
+    }
+
+    /**
+     * Message received from a JOSP Service, with his already parsed header.
+     */
+    private static class ServiceMsg {
+        private final String msg;
+        private final String header;
+        private final String srvId;
+        private final String usrId;
+        private final JOSPPerm.Connection connType;
+
+        private ServiceMsg(String msg, String header, String srvId, String usrId, JOSPPerm.Connection connType) {
+            this.msg = msg;
+            this.header = header;
+            this.srvId = srvId;
+            this.usrId = usrId;
+            this.connType = connType;
+        }
+    }
+
+    /**
+     * Implementations process a single type of {@link ServiceMsg}.
+     */
+    private interface ServiceMsgHandler {
+
+        /**
+         * @param srvMsg the message to process.
+         * @return true if the message was processed successfully.
+         */
+        boolean process(ServiceMsg srvMsg);
+
+    }
+
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public JODActionDispatcher getActionDispatcher() {
+        return actionDispatcher;
+    }
+
+
     // Connections access
 
     /**
@@ -551,6 +828,14 @@ public class JODCommunication_002 implements JODCommunication {
         return localServer != null && localServer.getState().isRunning();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isCloudConnected() {
+        return gwClient.getState().isConnected();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -698,6 +983,7 @@ public class JODCommunication_002 implements JODCommunication {
         @Override
         public void onConnect(Peer peer) {
             log.info("JCP GWs client connected");
+            syncCloud();
         }
 
         @Override
@@ -707,6 +993,9 @@ public class JODCommunication_002 implements JODCommunication {
         @Override
         public void onDisconnect(Peer peer) {
             log.info("JCP GWs Client disconnected");
+            // Cloud is disconnected, so new updates are kept in the replay buffer
+            // Queue's updates are collected while the queue stops accepting new ones, so none is lost
+            gwReplay.restore(gwQueue.stopAndGetPending());
         }
 
         @Override
@@ -722,6 +1011,28 @@ public class JODCommunication_002 implements JODCommunication {
 
     };
 
+    private final JODLocalClientQueue.Writer gwQueueWriter = new JODLocalClientQueue.Writer() {
+
+        @Override
+        public void write(String msg) {
+            try {
+                gwClient.sendData(msg);
+
+            } catch (PeerNotConnectedException | PeerStreamException e) {
+                log.warn("JOD Communication error on send data to JCP GW", e);
+            }
+
+            if (gwReplay.getSize() > 0)
+                replayCloud();
+        }
+
+        @Override
+        public void onOverflow() {
+            // Cloud queue is never disconnected, discarded updates are kept in the replay buffer
+        }
+
+    };
+
     private static String getFlowName(JCPClient2 jcpClient) {
         if (jcpClient.isUserAnonymous()) return "ClientCred";
         if (jcpClient.isUserAuthenticated()) return "AuthCode";
@@ -88,7 +88,6 @@ public class JODGwO2SClient extends AbsGWsClient {
             @Override
             public void onConnect(Peer peer) {
                 Events.registerCloudConnect("Comm Cloud Connected", JODGwO2SClient.this);
-                jodComm.syncObject();
             }
 
             @Override
@@ -20,6 +20,7 @@
 package com.robypomper.josp.jod.comm;
 
 import com.robypomper.comm.server.ServerClient;
+import com.robypomper.josp.protocol.JOSPPerm;
 import com.robypomper.josp.protocol.JOSPSecurityLevel;
 
 import java.net.InetAddress;
@@ -73,6 +74,29 @@ public interface JODLocalClientInfo {
     JOSPSecurityLevel getSecurityLevel();
 
 
+    // Permissions
+
+    /**
+     * The effective permission type of the represented client's service and
+     * user, for local connections.
+     * <p>
+     * This value is computed by the {@link com.robypomper.josp.jod.permissions.JODPermissions}
+     * when the client connects and each time the object's permissions or
+     * owner change. So, it can be checked on each message sent to the
+     * client, without searching the object's permissions.
+     *
+     * @return the represented client's permission type.
+     */
+    JOSPPerm.Type getPermType();
+
+    /**
+     * Update the represented client's effective permission type.
+     *
+     * @param permType the new permission type.
+     */
+    void setPermType(JOSPPerm.Type permType);
+
+
     // Connection info
 
     ServerClient getClient();
@@ -125,4 +149,47 @@ public interface JODLocalClientInfo {
      */
     void disconnectLocal() throws JODCommunication.LocalCommunicationException;
 
+
+    // Outbound queue
+
+    /**
+     * Add given message to the client's outbound queue, it will be sent by the
+     * client's writer thread. This method never blocks, also when the client
+     * is slow to read sent messages.
+     *
+     * @param msg           the message to send.
+     * @param conflationKey the key of messages that can replace each other
+     *                      when the queue is full, or <code>null</code>.
+     * @return <code>false</code> if the message was discarded.
+     */
+    boolean sendDataAsync(String msg, String conflationKey);
+
+    /**
+     * Like {@link #sendDataAsync(String, String)}, but the message doesn't
+     * count against the outbound queue's max size. Used to send the object's
+     * presentation, that contains a message for each component's state.
+     *
+     * @param msg           the message to send.
+     * @param conflationKey the key of messages that can replace each other,
+     *                      or <code>null</code>.
+     * @return <code>false</code> if the message was discarded.
+     */
+    boolean sendPresentationAsync(String msg, String conflationKey);
+
+    /**
+     * @return the number of messages waiting to be sent to the client.
+     */
+    int getQueueDepth();
+
+    /**
+     * @return the number of messages discarded because the client's outbound
+     * queue was full.
+     */
+    long getQueueDropped();
+
+    /**
+     * Stop the client's writer thread and discard all queued messages.
+     */
+    void closeQueue();
+
 }
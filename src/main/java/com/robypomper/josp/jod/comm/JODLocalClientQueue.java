@@ -0,0 +1,587 @@
+/*******************************************************************************
+ * The John Object Daemon is the agent software to connect "objects"
+ * to an IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package com.robypomper.josp.jod.comm;
+
+import com.robypomper.java.JavaThreads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Bounded outbound queue for a single peer (a local client or the cloud link),
+ * drained by his own writer thread.
+ * <p>
+ * Messages are added with {@link #offer(String, String)}, that never blocks
+ * the caller. Then the writer thread sends them, in the same order, via the
+ * given {@link Writer}. So, a slow or stuck local client delays only his own
+ * messages and never the messages sent to other clients.
+ * <p>
+ * When the queue is full, the {@link OverflowPolicy} defines what to do with
+ * new messages. Messages without a conflation key (like presentations and
+ * responses) are never discarded to make room for new messages: if all
+ * queued messages are without a conflation key, the new message is rejected
+ * and the {@link Writer#onOverflow()} method is called.
+ * <p>
+ * If the queue is <code>conflating</code>, it keeps at most one pending
+ * message for each conflation key: a newer message replaces the pending one,
+ * keeping his position into the queue. So, slow peers always converge to the
+ * latest components' states.
+ * <p>
+ * Messages added with {@link #offerUnbounded(String, String)}, like the
+ * object's presentation sent to new clients, don't count against the queue's
+ * max size and are never discarded to make room for new messages.
+ * <p>
+ * With a positive batch window (see {@link #setBatchWindow(long)}), when a
+ * message is added to an idle queue, the writer thread waits the batch window
+ * before sending it. So, the messages added in the meanwhile (like the state
+ * updates produced by a single action) are conflated and then sent together,
+ * as a single burst.
+ */
+public class JODLocalClientQueue {
+
+    // Class constants
+
+    public static final String TH_WRITER_NAME_FORMAT = "_LOCAL_WRITER_%s_";
+    public static final long DEF_JOIN_TIME = 1000;
+
+
+    // Internal vars
+
+    private static final Logger log = LoggerFactory.getLogger(JODLocalClientQueue.class);
+    private final String name;
+    private final Writer writer;
+    private final int maxSize;
+    private final OverflowPolicy policy;
+    private final boolean conflating;
+    private final Deque<Item> queue = new ArrayDeque<>();
+    private final Map<String, Item> pending = new HashMap<>();
+    private volatile boolean mustStop = false;
+    private Thread thread = null;
+    private int unbounded = 0;
+    private long dropped = 0;
+    private long conflated = 0;
+    private volatile long batchWindow = 0;
+    private boolean idle = true;
+    private long batches = 0;
+
+
+    // Constructor
+
+    /**
+     * @param name    the queue's name, used for the thread name.
+     * @param writer  the writer that sends the messages to the client.
+     * @param maxSize the max number of messages waiting to be sent.
+     * @param policy  the policy to apply when the queue is full.
+     * @param conflating if <code>true</code>, new messages replace the pending
+     *                   message with the same conflation key.
+     */
+    public JODLocalClientQueue(String name, Writer writer, int maxSize, OverflowPolicy policy, boolean conflating) {
+        this.name = name;
+        this.writer = writer;
+        this.maxSize = Math.max(1, maxSize);
+        this.policy = policy;
+        this.conflating = conflating;
+    }
+
+
+    // Getters
+
+    public synchronized boolean isRunning() {
+        return thread != null;
+    }
+
+    /**
+     * @return the number of messages waiting to be sent.
+     */
+    public synchronized int getDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of messages that can be added before the queue is
+     * full.
+     */
+    public synchronized int getFreeSize() {
+        return Math.max(0, maxSize - (queue.size() - unbounded));
+    }
+
+    /**
+     * @return the number of messages discarded because the queue was full.
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return the number of pending messages replaced by newer messages with
+     * the same conflation key.
+     */
+    public synchronized long getConflated() {
+        return conflated;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    public boolean isConflating() {
+        return conflating;
+    }
+
+    /**
+     * @return the time in ms that the writer thread waits, when a message is
+     * added to an idle queue, before start sending messages.
+     */
+    public long getBatchWindow() {
+        return batchWindow;
+    }
+
+    /**
+     * @return the number of bursts sent after waiting the batch window.
+     */
+    public synchronized long getBatches() {
+        return batches;
+    }
+
+    /**
+     * @return the queued messages that have a conflation key, in queue's
+     * order, by conflation key.
+     */
+    public synchronized Map<String, String> getPending() {
+        Map<String, String> msgs = new LinkedHashMap<>();
+        for (Item item : queue)
+            if (item.conflationKey != null)
+                msgs.put(item.conflationKey, item.msg);
+        return msgs;
+    }
+
+
+    // Setters
+
+    /**
+     * @param batchWindow the time in ms that the writer thread waits, when a
+     *                    message is added to an idle queue, before start
+     *                    sending messages. If less or equal to 0, messages are
+     *                    sent as soon as possible.
+     */
+    public void setBatchWindow(long batchWindow) {
+        this.batchWindow = Math.max(0, batchWindow);
+    }
+
+
+    // Mngm
+
+    /**
+     * Add given message to the queue and, if not running yet, start the
+     * writer thread. This method never blocks.
+     * <p>
+     * The <code>conflationKey</code> identifies messages that can replace
+     * each other, like the state updates of the same component. It's used
+     * by conflating queues and by the {@link OverflowPolicy}, it can be
+     * <code>null</code>.
+     *
+     * @param msg           the message to send.
+     * @param conflationKey the message's conflation key, or <code>null</code>.
+     * @return <code>false</code> if the message was discarded, because the
+     * queue is stopped or because it's full and the policy can't make room
+     * for the message.
+     */
+    public boolean offer(String msg, String conflationKey) {
+        synchronized (this) {
+            if (mustStop)
+                return false;
+
+            if (enqueue(msg, conflationKey)) {
+                wakeUpWriter();
+                return true;
+            }
+            notifyAll();
+        }
+
+        onOverflow();
+        return false;
+    }
+
+    /**
+     * Add given message to the queue, like {@link #offer(String, String)},
+     * but the message doesn't count against the queue's max size. So, it's
+     * never discarded because the queue is full.
+     * <p>
+     * Used for messages that must be sent as a whole, regardless of their
+     * number, like the object's presentation.
+     *
+     * @param msg           the message to send.
+     * @param conflationKey the message's conflation key, or <code>null</code>.
+     * @return <code>false</code> if the message was discarded because the
+     * queue is stopped.
+     */
+    public boolean offerUnbounded(String msg, String conflationKey) {
+        synchronized (this) {
+            if (mustStop)
+                return false;
+
+            if (conflating && conflate(msg, conflationKey))
+                conflated++;
+            else {
+                add(msg, conflationKey, true);
+                unbounded++;
+            }
+            wakeUpWriter();
+            return true;
+        }
+    }
+
+    /**
+     * Add all given messages to the queue, in the given order, with a single
+     * lock acquisition and a single writer's wake up.
+     * <p>
+     * Like {@link #offer(String, String)}, messages with the same conflation
+     * key of a pending one are conflated, when the queue is conflating, and
+     * the {@link OverflowPolicy} is applied when the queue is full. So, the
+     * caller should not add more messages than {@link #getFreeSize()}.
+     *
+     * @param msgs the messages to send, by conflation key.
+     * @return <code>false</code> if the messages were discarded because the
+     * queue is stopped, or if at least one message was discarded because the
+     * queue was full.
+     */
+    public boolean offerAll(Map<String, String> msgs) {
+        synchronized (this) {
+            if (mustStop)
+                return false;
+
+            boolean overflow = false;
+            for (Map.Entry<String, String> e : msgs.entrySet())
+                if (!enqueue(e.getValue(), e.getKey())) {
+                    overflow = true;
+                    if (mustStop)
+                        break;
+                }
+
+            if (!mustStop)
+                wakeUpWriter();
+            else
+                notifyAll();
+            if (!overflow)
+                return true;
+        }
+
+        onOverflow();
+        return false;
+    }
+
+    /**
+     * Accept new messages again, after the queue was stopped. The writer
+     * thread is started on next message.
+     */
+    public synchronized void start() {
+        if (!mustStop) return;
+
+        mustStop = false;
+        thread = null;
+    }
+
+    /**
+     * Stop the writer thread, waiting at most {@link #DEF_JOIN_TIME} ms for
+     * current message. Messages still in the queue are discarded.
+     */
+    public void stop() {
+        Thread th;
+        synchronized (this) {
+            th = halt();
+        }
+        join(th);
+    }
+
+    /**
+     * Stop the writer thread, like the {@link #stop()} method, but return
+     * the queued messages that have a conflation key (see {@link #getPending()})
+     * instead of discarding them.
+     * <p>
+     * Pending messages are collected and the queue stops accepting new
+     * messages atomically, so every message is either returned or refused.
+     *
+     * @return the queued messages that have a conflation key, in queue's
+     * order, by conflation key.
+     */
+    public Map<String, String> stopAndGetPending() {
+        Map<String, String> pending;
+        Thread th;
+        synchronized (this) {
+            pending = getPending();
+            th = halt();
+        }
+        join(th);
+        return pending;
+    }
+
+    private Thread halt() {
+        mustStop = true;
+        clearQueue();
+        Thread th = thread;
+        thread = null;
+        notifyAll();
+        return th;
+    }
+
+    private void join(Thread th) {
+        if (th == null || th == Thread.currentThread()) return;
+
+        th.interrupt();
+        try {
+            th.join(DEF_JOIN_TIME);
+        } catch (InterruptedException ignore) {}
+        if (th.isAlive())
+            log.warn(String.format("Thread local writer '%s' not terminated", name));
+    }
+
+
+    // Queue mngm, must be called holding the queue's lock
+
+    /**
+     * Add given message to the queue, applying the conflation and, if the
+     * queue is full, the overflow policy.
+     *
+     * @return <code>false</code> if the message was discarded because the
+     * queue is full.
+     */
+    private boolean enqueue(String msg, String conflationKey) {
+        if (conflating && conflate(msg, conflationKey))
+            conflated++;
+        else if (queue.size() - unbounded < maxSize)
+            add(msg, conflationKey, false);
+        else if (policy == OverflowPolicy.CONFLATE && conflate(msg, conflationKey))
+            dropped++;
+        else if (policy == OverflowPolicy.DISCONNECT) {
+            dropped += queue.size() + 1;
+            clearQueue();
+            mustStop = true;
+            return false;
+        } else if (pollOldestConflatable()) {
+            add(msg, conflationKey, false);
+            dropped++;
+        } else {
+            dropped++;
+            return false;
+        }
+        return true;
+    }
+
+    private void wakeUpWriter() {
+        if (thread == null)
+            startWriter();
+        notifyAll();
+    }
+
+    private void add(String msg, String conflationKey, boolean unbounded) {
+        Item item = new Item(msg, conflationKey, unbounded);
+        queue.addLast(item);
+        if (conflationKey != null)
+            pending.put(conflationKey, item);
+    }
+
+    private Item poll() {
+        Item item = queue.pollFirst();
+        if (item != null && item.unbounded)
+            unbounded--;
+        if (item != null && item.conflationKey != null && pending.get(item.conflationKey) == item)
+            pending.remove(item.conflationKey);
+        return item;
+    }
+
+    /**
+     * Remove the oldest queued message that has a conflation key, so the
+     * messages without a conflation key, and the ones added with
+     * {@link #offerUnbounded(String, String)}, are never discarded.
+     *
+     * @return <code>false</code> if the queue doesn't contain messages with a
+     * conflation key.
+     */
+    private boolean pollOldestConflatable() {
+        Iterator<Item> it = queue.iterator();
+        while (it.hasNext()) {
+            Item item = it.next();
+            if (item.conflationKey == null || item.unbounded)
+                continue;
+            it.remove();
+            if (pending.get(item.conflationKey) == item)
+                pending.remove(item.conflationKey);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean conflate(String msg, String conflationKey) {
+        if (conflationKey == null)
+            return false;
+
+        Item item = pending.get(conflationKey);
+        if (item == null)
+            return false;
+        item.msg = msg;
+        return true;
+    }
+
+    private void clearQueue() {
+        queue.clear();
+        pending.clear();
+        unbounded = 0;
+    }
+
+
+    // Writer loop
+
+    private void startWriter() {
+        thread = JavaThreads.initAndStart(new Runnable() {
+            @Override
+            public void run() {
+                log.debug(String.format("Thread local writer '%s' started", name));
+                while (isWriterThread()) {
+                    try {
+                        writeLoop();
+                    } catch (InterruptedException ignore) {
+                    } catch (Throwable t) {
+                        log.warn(String.format("Thread local writer '%s' thrown exception: %s", name, t.getMessage()), t);
+                    }
+                }
+                log.debug(String.format("Thread local writer '%s' terminated", name));
+            }
+        }, String.format(TH_WRITER_NAME_FORMAT, name));
+    }
+
+    private void writeLoop() throws InterruptedException {
+        boolean startBatch;
+        synchronized (this) {
+            while (queue.isEmpty() && isWriterThread()) {
+                idle = true;
+                wait();
+            }
+            if (!isWriterThread()) return;
+            startBatch = idle && batchWindow > 0;
+            idle = false;
+        }
+
+        // Collect messages added during the batch window
+        if (startBatch) {
+            Thread.sleep(batchWindow);
+            synchronized (this) {
+                batches++;
+            }
+        }
+
+        String msg;
+        synchronized (this) {
+            if (!isWriterThread() || queue.isEmpty()) return;
+            msg = poll().msg;
+        }
+
+        writer.write(msg);
+    }
+
+    private void onOverflow() {
+        if (policy == OverflowPolicy.DISCONNECT)
+            log.warn(String.format("Local client queue '%s' full (%d messages), disconnect client", name, maxSize));
+        else
+            log.warn(String.format("Local client queue '%s' full (%d messages) without messages to discard", name, maxSize));
+        writer.onOverflow();
+    }
+
+    private synchronized boolean isWriterThread() {
+        return !mustStop && thread == Thread.currentThread();
+    }
+
+
+    // Overflow policy
+
+    /**
+     * What to do when a message is added to a full queue.
+     */
+    public enum OverflowPolicy {
+        /** Discard the oldest message with a conflation key in the queue */
+        DROP_OLDEST,
+        /** Replace the queued message with the same conflation key, otherwise discard the oldest message with a conflation key */
+        CONFLATE,
+        /** Discard all queued messages and disconnect the client */
+        DISCONNECT;
+
+        /**
+         * @param value the policy name, case-insensitive.
+         * @return the corresponding policy, or {@link #DROP_OLDEST} if given
+         * value is not valid.
+         */
+        public static OverflowPolicy parse(String value) {
+            for (OverflowPolicy p : values())
+                if (p.name().equalsIgnoreCase(value))
+                    return p;
+            return DROP_OLDEST;
+        }
+    }
+
+
+    // Writer
+
+    /**
+     * Implementations send the messages to the local client.
+     */
+    public interface Writer {
+
+        /**
+         * Send given message to the client. Errors must be handled by the
+         * implementation.
+         *
+         * @param msg the message to send.
+         */
+        void write(String msg);
+
+        /**
+         * Called when the queue is full and a message was discarded without
+         * replacing a queued one: the policy is {@link OverflowPolicy#DISCONNECT}
+         * or the queue doesn't contain messages with a conflation key.
+         */
+        void onOverflow();
+
+    }
+
+
+    // Queue item
+
+    private static class Item {
+        private String msg;
+        private final String conflationKey;
+        private final boolean unbounded;
+
+        private Item(String msg, String conflationKey, boolean unbounded) {
+            this.msg = msg;
+            this.conflationKey = conflationKey;
+            this.unbounded = unbounded;
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * The John Object Daemon is the agent software to connect "objects"
+ * to an IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package com.robypomper.josp.jod.comm;
+
+import com.robypomper.comm.server.ServerClient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Registry of the {@link JODLocalClientInfo} connected to the
+ * {@link JODLocalServer}, indexed by service's full id and by connection.
+ * <p>
+ * Lookups never acquire a lock. To send a message to all clients, the
+ * {@link #getAll()} method returns a copy-on-write snapshot, so it doesn't
+ * copy the clients list on each message.
+ * <p>
+ * All mutations are synchronized on the registry instance, so callers can
+ * synchronize on it to execute a check-and-update atomically.
+ * <p>
+ * The registry also assigns the LUIDs (local unique ids) to the connections,
+ * also the ones that are still executing the handshake. LUIDs released on
+ * disconnection are reused, lowest first, so they don't grow with the
+ * connections ever accepted.
+ */
+public class JODLocalClientsRegistry {
+
+    // Internal vars
+
+    private final Map<String, JODLocalClientInfo> bySrvId = new ConcurrentHashMap<>();
+    private final Map<ServerClient, JODLocalClientInfo> byClient = new ConcurrentHashMap<>();
+    private volatile List<JODLocalClientInfo> snapshot = Collections.emptyList();
+    private final Map<ServerClient, Integer> luids = new ConcurrentHashMap<>();
+    private final TreeSet<Integer> freeLUIDs = new TreeSet<>();
+    private int nextLUID = 0;
+
+
+    // Getters
+
+    /**
+     * @return an unmodifiable snapshot of all registered clients.
+     */
+    public List<JODLocalClientInfo> getAll() {
+        return snapshot;
+    }
+
+    /**
+     * @param fullSrvId the service's full id.
+     * @return the client registered for given service, or <code>null</code>.
+     */
+    public JODLocalClientInfo getBySrvId(String fullSrvId) {
+        return fullSrvId != null ? bySrvId.get(fullSrvId) : null;
+    }
+
+    /**
+     * @param client the connection.
+     * @return the client registered for given connection, or <code>null</code>.
+     */
+    public JODLocalClientInfo getByClient(ServerClient client) {
+        return client != null ? byClient.get(client) : null;
+    }
+
+    public int size() {
+        return snapshot.size();
+    }
+
+
+    // Mngm
+
+    /**
+     * Register given client. If another client is registered for the same
+     * service, it's replaced.
+     *
+     * @param conn the client to register.
+     */
+    public synchronized void add(JODLocalClientInfo conn) {
+        JODLocalClientInfo old = bySrvId.put(conn.getFullSrvId(), conn);
+        if (old != null && old.getClient() != null)
+            byClient.remove(old.getClient(), old);
+        byClient.put(conn.getClient(), conn);
+
+        List<JODLocalClientInfo> updated = new ArrayList<>(snapshot);
+        if (old != null)
+            updated.remove(old);
+        updated.add(conn);
+        snapshot = Collections.unmodifiableList(updated);
+    }
+
+    /**
+     * @param conn the client to remove.
+     * @return <code>true</code> if given client was registered.
+     */
+    public synchronized boolean remove(JODLocalClientInfo conn) {
+        if (!snapshot.contains(conn))
+            return false;
+
+        bySrvId.remove(conn.getFullSrvId(), conn);
+        byClient.remove(conn.getClient(), conn);
+        List<JODLocalClientInfo> updated = new ArrayList<>(snapshot);
+        updated.remove(conn);
+        snapshot = Collections.unmodifiableList(updated);
+        return true;
+    }
+
+
+    // LUIDs
+
+    /**
+     * @param client the connection.
+     * @return the LUID assigned to given connection, or <code>null</code>.
+     */
+    public Integer getLUID(ServerClient client) {
+        return client != null ? luids.get(client) : null;
+    }
+
+    /**
+     * Assign a LUID to given connection, if not assigned yet.
+     *
+     * @param client the connection.
+     * @return the LUID assigned to given connection.
+     */
+    public int registerLUID(ServerClient client) {
+        synchronized (freeLUIDs) {
+            Integer luid = luids.get(client);
+            if (luid != null)
+                return luid;
+
+            luid = freeLUIDs.isEmpty() ? nextLUID++ : freeLUIDs.pollFirst();
+            luids.put(client, luid);
+            return luid;
+        }
+    }
+
+    /**
+     * Release the LUID assigned to given connection, so it can be assigned to
+     * a new connection.
+     *
+     * @param client the connection.
+     */
+    public void unregisterLUID(ServerClient client) {
+        synchronized (freeLUIDs) {
+            Integer luid = luids.remove(client);
+            if (luid != null)
+                freeLUIDs.add(luid);
+        }
+    }
+
+}
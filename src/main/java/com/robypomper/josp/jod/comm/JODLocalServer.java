@@ -48,9 +48,11 @@ import java.io.InputStreamReader;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.security.KeyStore;
 import java.security.cert.Certificate;
 import java.util.*;
+import java.util.concurrent.*;
 
 
 /**
@@ -88,7 +90,13 @@ import java.util.*;
  * {@link JODCommunication#sendToSingleLocalService(JODLocalClientInfo, String, JOSPPerm.Type)}
  * methods.
  * <p>
- * <b>JOSP Service connection:</b>
+ * <b>JOSP Service connection:</b><br/>
+ * Connections' handshakes run on a pool of at most
+ * {@link JODSettings_002#JODCOMM_LOCAL_HANDSHAKE_THREADS} threads, so many
+ * services can connect (or reconnect) in parallel. Steps 3 and 4 are bounded by the
+ * {@link JODSettings_002#JODCOMM_LOCAL_HANDSHAKE_TIMEOUT} and, from step 6,
+ * the localClients lock is acquired only to update the registry and to queue the
+ * object's presentation, that is built before acquiring the lock.
  * <pre>
  * 1. Set connection LUID (local-unique-id)
  * 2. Send object's Id message to server
@@ -101,13 +109,12 @@ import java.util.*;
  * 6. Get existing JODLocalClientInfo for service's fullId
  * 7. Compare new and existing JODLocalClientInfo
  *    a. Add new JOSP Service
- *       1. add new JODLocalClientInfo to localClients list
+ *       1. add new JODLocalClientInfo to localClients registry
  *       2. send object's presentation message to server
  *          -> ERR on send object's presentation message, remove and discharge the service client
  *    b. Replace JOSP Service's connection (existing = disconnected)
- *       1. remove existing JODLocalClientInfo from localClients list
- *       2. add new JODLocalClientInfo to localClients list
- *       3. send object's presentation message to server
+ *       1. replace existing JODLocalClientInfo into localClients registry
+ *       2. send object's presentation message to server
  *          -> ERR on send object's presentation message, remove and discharge the service client
  *    c. Discharge connection because JSL Service already connected
  *       1. disconnect JOSP Service's connection (local)
@@ -133,11 +140,26 @@ import java.util.*;
  *     <li>{@link JODSettings_002#JODCOMM_LOCAL_KS_PATH}</li>
  *     <li>{@link JODSettings_002#JODCOMM_LOCAL_KS_PASS}</li>
  *     <li>{@link JODSettings_002#JODCOMM_LOCAL_KS_ALIAS}</li>
+ *     <li>{@link JODSettings_002#JODCOMM_LOCAL_QUEUE_SIZE}</li>
+ *     <li>{@link JODSettings_002#JODCOMM_LOCAL_QUEUE_OVERFLOW}</li>
+ *     <li>{@link JODSettings_002#JODCOMM_LOCAL_HANDSHAKE_TIMEOUT}</li>
+ *     <li>{@link JODSettings_002#JODCOMM_LOCAL_HANDSHAKE_THREADS}</li>
  * </ul>
  */
 @SuppressWarnings("unused")
 public class JODLocalServer {
 
+    // Class constants
+
+    public static final String TH_HANDSHAKE_NAME_FORMAT = "_LOCAL_HANDSHAKE_%d_";
+    public static final long HANDSHAKE_THREAD_KEEP_ALIVE = 60 * 1000;
+    public static final long DEF_JOIN_TIME = 1000;
+    /**
+     * Time in ms between two checks of the connection's state, during the handshake.
+     */
+    private static final long HANDSHAKE_POLL_TIME = 50;
+
+
     // Internal vars
 
     private static final Logger log = LoggerFactory.getLogger(JODLocalServer.class);
@@ -165,15 +187,31 @@ public class JODLocalServer {
      * If the SSL Sharing is enabled.
      */
     private final boolean sslSharingEnabled;
+    /**
+     * Max number of messages waiting to be sent to each local client.
+     */
+    private final int queueSize;
+    /**
+     * Policy to apply when a local client's outbound queue is full.
+     */
+    private final JODLocalClientQueue.OverflowPolicy queuePolicy;
+    /**
+     * If clients' outbound queues keep only the latest state update for each component.
+     */
+    private final boolean queueConflating;
+    /**
+     * Time in ms that clients' writers wait, before sending a burst of messages.
+     */
+    private final long queueBatchWindow;
     /**
      * The server instance. It can be a {@link ServerAbsTCP} or a
      * {@link ServerAbsSSL} depending on {@link #sslEnabled} value.
      */
     private final Server server;
     /**
-     * List of all local JOSP Services (the clients) connected to the server.
+     * Registry of all local JOSP Services (the clients) connected to the server.
      */
-    private final List<JODLocalClientInfo> localClients = new ArrayList<>();
+    private final JODLocalClientsRegistry localClients = new JODLocalClientsRegistry();
     /**
      * The SSL context used by the server. It's `null` if SSL is not enabled.
      */
@@ -190,6 +228,37 @@ public class JODLocalServer {
      * The trust manager used by the server.
      */
     private final AbsCustomTrustManager trustManager = new DynAddTrustManager();
+    /**
+     * Max time in ms to wait for the service's id and for the connection, on
+     * each local connection's handshake.
+     */
+    private final long handshakeTimeout;
+    /**
+     * Max number of handshakes executed concurrently, next connections wait
+     * for a free handshake's thread.
+     */
+    private final int handshakeThreads;
+    private ThreadPoolExecutor handshakesExecutor = null;
+    private int handshakeThreadsCount = 0;
+    /**
+     * Handshakes in progress, by connection.
+     */
+    private final Map<ServerClient, LocalHandshake> handshakes = new HashMap<>();
+    /**
+     * Last object's info message sent, reused until the object's info or the
+     * cloud connection state change.
+     */
+    private volatile PresentationMsg cachedInfoMsg = null;
+    /**
+     * Last object's structure message sent, reused until the object's info or
+     * structure change.
+     */
+    private volatile PresentationMsg cachedStructMsg = null;
+    /**
+     * Last object's permissions message sent, reused until the object's info
+     * or permissions change.
+     */
+    private volatile PresentationMsg cachedPermsMsg = null;
 
 
     // Internal classes
@@ -239,6 +308,28 @@ public class JODLocalServer {
     }
 
 
+    /**
+     * A presentation message and the versions it was built from.
+     */
+    private static class PresentationMsg {
+
+        private final long mainVersion;
+        private final long subVersion;
+        private final String msg;
+
+        public PresentationMsg(long mainVersion, long subVersion, String msg) {
+            this.mainVersion = mainVersion;
+            this.subVersion = subVersion;
+            this.msg = msg;
+        }
+
+        public boolean matches(long mainVersion, long subVersion) {
+            return this.mainVersion == mainVersion && this.subVersion == subVersion;
+        }
+
+    }
+
+
     // Constructors
 
     /**
@@ -260,6 +351,12 @@ public class JODLocalServer {
         this.sslEnabled = settings.getLocalSSLEnabled();
         this.sslSharingEnabled = settings.getLocalSSLSharingEnabled();
         this.port = settings.getLocalServerPort();
+        this.queueSize = settings.getLocalQueueSize();
+        this.queuePolicy = settings.getLocalQueueOverflow();
+        this.queueConflating = settings.getStateConflation();
+        this.queueBatchWindow = settings.getBatchWindow();
+        this.handshakeTimeout = settings.getLocalHandshakeTimeout();
+        this.handshakeThreads = Math.max(1, settings.getLocalHandshakeThreads());
         String ksPath = settings.getLocalKeyStorePath();
         String ksPass = settings.getLocalKeyStorePass();
         String ksAlias = settings.getLocalKeyStoreAlias();
@@ -377,6 +474,7 @@ public class JODLocalServer {
      * @throws ServerStartupException if some error occurs during the server startup.
      */
     public void startup() throws ServerStartupException {
+        startHandshakes();
         server.startup();
     }
 
@@ -386,7 +484,50 @@ public class JODLocalServer {
      * @throws ServerShutdownException if some error occurs during the server shutdown.
      */
     public void shutdown() throws ServerShutdownException {
-        server.shutdown();
+        try {
+            server.shutdown();
+        } finally {
+            stopHandshakes();
+        }
+    }
+
+    /**
+     * Start the pool of threads used to execute the connections' handshakes.
+     */
+    private synchronized void startHandshakes() {
+        if (handshakesExecutor != null) return;
+
+        handshakesExecutor = new ThreadPoolExecutor(handshakeThreads, handshakeThreads, HANDSHAKE_THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, String.format(TH_HANDSHAKE_NAME_FORMAT, handshakeThreadsCount++));
+            }
+        });
+        handshakesExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Terminate the pool of threads, waiting at most {@link #DEF_JOIN_TIME}
+     * ms for current handshakes.
+     */
+    private void stopHandshakes() {
+        ThreadPoolExecutor ex;
+        synchronized (this) {
+            ex = handshakesExecutor;
+            handshakesExecutor = null;
+        }
+        if (ex == null) return;
+
+        ex.shutdownNow();
+        try {
+            if (!ex.awaitTermination(DEF_JOIN_TIME, TimeUnit.MILLISECONDS))
+                log.warn("Threads local handshakes not terminated");
+        } catch (InterruptedException ignore) {}
+    }
+
+    private synchronized ExecutorService getHandshakesExecutor() {
+        return handshakesExecutor;
     }
 
 
@@ -420,11 +561,24 @@ public class JODLocalServer {
 
     /**
      * Return all server's {@link JODLocalClientInfo}.
+     * <p>
+     * The returned list is a snapshot, it's not updated when clients connect
+     * or disconnect.
      *
      * @return an unmodifiable array containing client's info.
      */
     public List<JODLocalClientInfo> getLocalClientsInfo() {
-        return new ArrayList<>(localClients);
+        return localClients.getAll();
+    }
+
+    /**
+     * @return the number of local connections that are still executing the
+     * handshake.
+     */
+    public int getPendingHandshakes() {
+        synchronized (handshakes) {
+            return handshakes.size();
+        }
     }
 
     /**
@@ -435,11 +589,7 @@ public class JODLocalServer {
      * not found.
      */
     public JODLocalClientInfo getLocalClientInfo(String serviceId) {
-        for (JODLocalClientInfo conn : localClients)
-            if (conn.getFullSrvId().equals(serviceId))
-                return conn;
-
-        return null;
+        return localClients.getBySrvId(serviceId);
     }
 
 
@@ -514,8 +664,96 @@ public class JODLocalServer {
         registerLUID(client);
         log.info(String.format("%s New connection from client '%s'", LUID(client), client.getLocalId()));
 
-        // Send object's Id message to server
-        if (!isLocalCertificateFull()) {
+        // Run the handshake on the handshakes' pool, so concurrent connections don't wait each other
+        final LocalHandshake handshake = new LocalHandshake(client);
+        synchronized (handshakes) {
+            handshakes.put(client, handshake);
+        }
+        ExecutorService executor = getHandshakesExecutor();
+        try {
+            if (executor == null)
+                throw new RejectedExecutionException("handshakes' pool not started");
+            executor.execute(handshake);
+
+        } catch (RejectedExecutionException e) {
+            log.warn(String.format("%s Can't start handshake because %s, discharge connection", LUID(client), e.getMessage()));
+            synchronized (handshakes) {
+                handshakes.remove(client);
+            }
+            errorDischargingClient(client);
+        }
+    }
+
+    /**
+     * States of the {@link LocalHandshake}.
+     */
+    private enum HandshakeState {
+        SEND_OBJ_ID,
+        WAIT_SRV_ID,
+        WAIT_CONNECTION,
+        REGISTER,
+        DONE,
+        FAILED
+    }
+
+    /**
+     * State machine that executes the handshake of a new local connection, as
+     * described into the {@link JODLocalServer} class doc.
+     * <p>
+     * Each step returns the next state. Blocking steps, like reading the
+     * service's id, are bounded by the {@link #handshakeTimeout}. Only the
+     * {@link HandshakeState#REGISTER} step acquires the {@link #localClients}
+     * lock, and it holds it only to update the registry and queue the object's
+     * presentation, that is prepared before acquiring the lock.
+     */
+    private class LocalHandshake implements Runnable {
+
+        private final ServerClient client;
+        private volatile HandshakeState state = HandshakeState.SEND_OBJ_ID;
+        private String fullSrvId;
+
+        private LocalHandshake(ServerClient client) {
+            this.client = client;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (state != HandshakeState.DONE && state != HandshakeState.FAILED) {
+                    log.trace(String.format("%s Handshake state %s", LUID(client), state));
+                    state = step();
+                }
+            } catch (Throwable t) {
+                log.warn(String.format("%s Error on handshake because %s, discharge connection", LUID(client), t.getMessage()), t);
+                state = HandshakeState.FAILED;
+                errorDischargingClient(client);
+            } finally {
+                synchronized (handshakes) {
+                    handshakes.remove(client);
+                }
+            }
+        }
+
+        private HandshakeState step() {
+            switch (state) {
+                case SEND_OBJ_ID:
+                    return sendObjId();
+                case WAIT_SRV_ID:
+                    return waitSrvId();
+                case WAIT_CONNECTION:
+                    return waitConnection();
+                case REGISTER:
+                    return register();
+                default:
+                    return state;
+            }
+        }
+
+        private HandshakeState sendObjId() {
+            // Send object's Id message to server
+            if (isLocalCertificateFull())
+                return HandshakeState.WAIT_SRV_ID;
+
             String msg = objInfo.getObjId() + "\n";
             try {
                 log.info(String.format("%s Sending message '%s' to service '%s' (via local)", LUID(client), msg.substring(0, msg.indexOf('\n')), client.getLocalId()));
@@ -523,70 +761,100 @@ public class JODLocalServer {
             } catch (PeerNotConnectedException | PeerStreamException e) {
                 log.warn(String.format("%s Error on sending message '%s' to service (via local) because %s, discharge connection", LUID(client), msg.substring(0, msg.indexOf('\n')), e.getMessage()), e);
                 errorDischargingClient(client);
-                return;
+                return HandshakeState.FAILED;
             }
+            return HandshakeState.WAIT_SRV_ID;
         }
 
-        // Get/Wait service's fullId
-        String fullSrvId;
-        try {
-            fullSrvId = getOrWaitFullSrvId(client);
-            log.debug(String.format("%s Get JOSP Service's id `%s` from client '%s:%d'.", LUID(client), fullSrvId, client.getSocket().getInetAddress(), client.getSocket().getPort()));
-        } catch (IOException e) {
-            log.warn(String.format("%s %s, discharge connection", LUID(client), e.getMessage()));
-            errorDischargingClient(client);
-            return;
+        private HandshakeState waitSrvId() {
+            // Get/Wait service's fullId
+            try {
+                fullSrvId = getOrWaitFullSrvId(client);
+                log.debug(String.format("%s Get JOSP Service's id `%s` from client '%s:%d'.", LUID(client), fullSrvId, client.getSocket().getInetAddress(), client.getSocket().getPort()));
+            } catch (IOException e) {
+                log.warn(String.format("%s %s, discharge connection", LUID(client), e.getMessage()));
+                errorDischargingClient(client);
+                return HandshakeState.FAILED;
+            }
+            return HandshakeState.WAIT_CONNECTION;
         }
-        boolean useCertificatedId = fullSrvId.compareTo(client.getRemoteId()) == 0;
-
-        log.info(String.format("%s Register new connection from client '%s' for '%s' service", LUID(client), client.getLocalId(), fullSrvId));
-        synchronized (localClients) {
 
+        private HandshakeState waitConnection() {
             // Wait for client connection
-            if (!client.getState().isConnecting())
-                JavaThreads.softSleep(100);
-            if (!client.getState().isConnected())
-                JavaThreads.softSleep(1000);
+            long deadline = System.currentTimeMillis() + handshakeTimeout;
+            while (!client.getState().isConnected() && System.currentTimeMillis() < deadline)
+                JavaThreads.softSleep(HANDSHAKE_POLL_TIME);
             if (!client.getState().isConnected()) {
                 log.warn(String.format("%s Connection not established, discharge connection", LUID(client)));
                 errorDischargingClient(client);
-                return;
+                return HandshakeState.FAILED;
             }
+            return HandshakeState.REGISTER;
+        }
 
-            // Create new connection
+        private HandshakeState register() {
+            boolean useCertificatedId = fullSrvId.compareTo(client.getRemoteId()) == 0;
+            log.info(String.format("%s Register new connection from client '%s' for '%s' service", LUID(client), client.getLocalId(), fullSrvId));
+
+            // Create new connection and his presentation, outside the localClients lock
             JODLocalClientInfo newConn = new DefaultJODLocalClientInfo(client, fullSrvId,
-                    sslEnabled, sslSharingEnabled, useCertificatedId);
+                    sslEnabled, sslSharingEnabled, useCertificatedId, queueSize, queuePolicy, queueConflating, queueBatchWindow);
+            long permsVersion = permissions.getPermsVersion();
+            newConn.setPermType(permissions.getServicePermission(newConn.getSrvId(), newConn.getUsrId(), JOSPPerm.Connection.OnlyLocal));
+            String[] presentation;
+            try {
+                presentation = buildObjectPresentation();
+            } catch (JODStructure.ParsingException e) {
+                log.warn(String.format("%s Error on building object's presentation because %s, discharge client", LUID(client), e.getMessage()));
+                errorDischargingClient(client);
+                return HandshakeState.FAILED;
+            }
 
-            // Check existing JODLocalClientInfo, if any (aka if JOSP Service already know)
-            JODLocalClientInfo existingConn = getLocalClientInfo(newConn.getFullSrvId());
-            if (existingConn == null) {
-                // Add new JOSP Service
-                log.debug(String.format("%s New JSL service '%s' connected", LUID(client), newConn.getFullSrvId()));
-                localClients.add(newConn);
-                try {
-                    sendObjectPresentation(newConn);
-                } catch (JODCommunication.ServiceNotConnected |
-                         JODStructure.ParsingException e) {
-                    log.warn(String.format("%s Error on sending object's presentation because %s, discharge client", LUID(client), e.getMessage()));
-                    errorDischargingServiceClient(newConn, LUID(client));
-                    return;
+            JODLocalClientInfo existingConn;
+            boolean registered;
+            synchronized (localClients) {
+                if (!client.getState().isConnected()) {
+                    log.warn(String.format("%s Connection closed during handshake, abort registration", LUID(client)));
+                    return HandshakeState.FAILED;
+                }
+
+                // Check existing JODLocalClientInfo, if any (aka if JOSP Service already know)
+                existingConn = getLocalClientInfo(newConn.getFullSrvId());
+                registered = existingConn == null || !existingConn.isConnected();
+                if (registered) {
+                    if (existingConn == null) {
+                        // Add new JOSP Service
+                        log.debug(String.format("%s New JSL service '%s' connected", LUID(client), newConn.getFullSrvId()));
+                    } else {
+                        // Replace JOSP Service's connection (existing = disconnected)
+                        log.debug(String.format("%s Replacing JSL service '%s' connection", LUID(client), newConn.getFullSrvId()));
+                    }
+                    localClients.add(newConn);
+                    try {
+                        // Permissions updated before the connection was added, skipped it
+                        if (permissions.getPermsVersion() != permsVersion) {
+                            newConn.setPermType(permissions.getServicePermission(newConn.getSrvId(), newConn.getUsrId(), JOSPPerm.Connection.OnlyLocal));
+                            presentation = buildObjectPresentation();
+                        }
+                        sendObjectPresentation(newConn, presentation);
+                    } catch (JODStructure.ParsingException e) {
+                        log.warn(String.format("%s Error on building object's presentation because %s, discharge client", LUID(client), e.getMessage()));
+                        errorDischargingServiceClient(newConn, LUID(client));
+                        return HandshakeState.FAILED;
+                    } catch (JODCommunication.ServiceNotConnected e) {
+                        log.warn(String.format("%s Error on sending object's presentation because %s, discharge client", LUID(client), e.getMessage()));
+                        errorDischargingServiceClient(newConn, LUID(client));
+                        return HandshakeState.FAILED;
+                    }
                 }
+            }
+
+            if (existingConn == null) {
                 log.info(String.format("%s Added new JOSP Service '%s' remote client with connection '%s@%s:%d'", LUID(client), newConn.getFullSrvId(), newConn.getSecurityLevel(), newConn.getClientAddress(), newConn.getClientPort()));
                 Events.registerLocalConn(String.format("Local JSL connected [%s]", newConn.getSecurityLevel()), newConn, client);
 
-            } else if (!existingConn.isConnected()) {
-                // Replace JOSP Service's connection (existing = disconnected)
-                log.debug(String.format("%s Replacing JSL service '%s' connection", LUID(client), newConn.getFullSrvId()));
-                localClients.remove(existingConn);
-                localClients.add(newConn);
-                try {
-                    sendObjectPresentation(newConn);
-                } catch (JODCommunication.ServiceNotConnected |
-                         JODStructure.ParsingException e) {
-                    log.warn(String.format("%s Error on sending object's presentation because %s, discharge client", LUID(client), e.getMessage()));
-                    errorDischargingServiceClient(newConn, LUID(client));
-                    return;
-                }
+            } else if (registered) {
+                existingConn.closeQueue();
                 log.info(String.format("%s Replaced JSL service '%s'  client connection '%s' [SecurityLevel: %s]", LUID(client), newConn.getFullSrvId(), newConn.getClientFullAddress(), newConn.getSecurityLevel()));
                 Events.registerLocalConn(String.format("Local JSL replaced connection [%s]", newConn.getSecurityLevel()), newConn, client);
 
@@ -601,21 +869,28 @@ public class JODLocalServer {
                 log.info(String.format("%s Set JSL service '%s' backup connection '%s' [SecurityLevel: %s] because already connected", LUID(client), newConn.getFullSrvId(), newConn.getClientFullAddress(), newConn.getSecurityLevel()));
                 Events.registerLocalConn(String.format("Local JOSP Service connection %s discharged because already connected", newConn.getSecurityLevel()), newConn, client);
             }
+            return HandshakeState.DONE;
         }
+
     }
 
     private void processOnClientDisconnected(ServerClient client) {
         JODLocalClientInfo closedConn;
         synchronized (localClients) {
             // Get existing JODLocalClientInfo for disconnected client
-            closedConn = getLocalConnectionByClient(client);
-            if (closedConn == null) return;
+            closedConn = localClients.getByClient(client);
 
-            // Remove JODLocalClientInfo from localClients list
-            localClients.remove(closedConn);
+            // Remove JODLocalClientInfo from localClients registry
+            if (closedConn != null)
+                localClients.remove(closedConn);
         }
-        Events.registerLocalDisc("Local JSL disconnected", closedConn, client);
-        log.info(String.format("%s Removed JSL service '%s' (%s) because %s", LUID(client), closedConn.getFullSrvId(), closedConn.getClientFullAddress(), closedConn.getClient().getDisconnectionReason()));
+
+        if (closedConn != null) {
+            closedConn.closeQueue();
+            Events.registerLocalDisc("Local JSL disconnected", closedConn, client);
+            log.info(String.format("%s Removed JSL service '%s' (%s) because %s", LUID(client), closedConn.getFullSrvId(), closedConn.getClientFullAddress(), closedConn.getClient().getDisconnectionReason()));
+        }
+        unregisterLUID(client);
     }
 
     private void processOnClientFailed(ServerClient client, String failMsg, Throwable exception) {
@@ -637,6 +912,8 @@ public class JODLocalServer {
      * The service id is contained into the remote id if it uses an SSL certificate
      * conform with the JOSP Security levels.
      *
+     * The service id message must be received within the {@link #handshakeTimeout}.
+     *
      * @param client the client represent the service connected
      * @return the full service id
      * @throws IOException if some error occurs with network communication or
@@ -651,20 +928,22 @@ public class JODLocalServer {
                 // Wait for service's presentation message from the client
                 Socket socket = client.getSocket();
                 int tmpSoTimeout = socket.getSoTimeout();
-                //socket.setSoTimeout(1000);
+                socket.setSoTimeout((int) handshakeTimeout);
 
                 try {
                     BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
                     fullSrvId = in.readLine();
+                } catch (SocketTimeoutException e) {
+                    throw new IOException(String.format("Error on reading service's id message because not received within %d ms", handshakeTimeout), e);
                 } catch (IOException e) {
                     throw new IOException(String.format("Error on reading service's id message because %s", e.getMessage()), e);
+                } finally {
+                    socket.setSoTimeout(tmpSoTimeout);
                 }
 
                 // test fullSrvId
                 if (!isRemoteCertificateFull(fullSrvId))
                     throw new IOException(String.format("Error on parsing service's id message from client (Invalid ID '%s')", fullSrvId));
-
-                socket.setSoTimeout(tmpSoTimeout);
             }
         } catch (SocketException e) {
             throw new IOException("Error on setting socket timeout, discharge client.", e);
@@ -672,14 +951,76 @@ public class JODLocalServer {
         return fullSrvId;
     }
 
-    private void sendObjectPresentation(JODLocalClientInfo locConn) throws JODCommunication.ServiceNotConnected, JODStructure.ParsingException {
+    /**
+     * Return the object's info, structure and permissions messages, to send
+     * with the {@link #sendObjectPresentation(JODLocalClientInfo, String[])}
+     * method.
+     * <p>
+     * Info, structure and permissions messages are rebuilt only when the
+     * versions they depend on changed since the last call, otherwise the
+     * cached ones are returned. Versions are read before building the
+     * message, so a change that happens meanwhile only causes a rebuild on
+     * next call. The structure message is not rebuilt on state updates, so
+     * the latest states are sent right after it.
+     *
+     * @return the presentation's messages.
+     */
+    String[] buildObjectPresentation() throws JODStructure.ParsingException {
+        long infoVersion = objInfo.getInfoVersion();
+        long structVersion = objInfo.getStructVersion();
+        long permsVersion = permissions.getPermsVersion();
+        long cloudConnected = communication.isCloudConnected() ? 1 : 0;
+
+        PresentationMsg info = cachedInfoMsg;
+        if (info == null || !info.matches(infoVersion, cloudConnected)) {
+            info = new PresentationMsg(infoVersion, cloudConnected, JOSPProtocol_ObjectToService.createObjectInfoMsg(objInfo.getObjId(), objInfo.getObjName(), objInfo.getJODVersion(), objInfo.getOwnerId(), objInfo.getModel(), objInfo.getBrand(), objInfo.getLongDescr(), cloudConnected == 1));
+            cachedInfoMsg = info;
+        }
+
+        PresentationMsg struct = cachedStructMsg;
+        if (struct == null || !struct.matches(infoVersion, structVersion)) {
+            struct = new PresentationMsg(infoVersion, structVersion, JOSPProtocol_ObjectToService.createObjectStructMsg(objInfo.getObjId(), objInfo.getStructForJSL()));
+            cachedStructMsg = struct;
+        }
+
+        PresentationMsg perms = cachedPermsMsg;
+        if (perms == null || !perms.matches(infoVersion, permsVersion)) {
+            perms = new PresentationMsg(infoVersion, permsVersion, JOSPProtocol_ObjectToService.createObjectPermsMsg(objInfo.getObjId(), permissions.getPermsForJSL()));
+            cachedPermsMsg = perms;
+        }
+
+        return new String[]{info.msg, struct.msg, perms.msg};
+    }
+
+    /**
+     * Send given presentation, the service's permission and the latest state
+     * update of each component to given client.
+     * <p>
+     * Presentation's messages don't count against the client's outbound
+     * queue size, so objects with many components don't overflow the queue
+     * of new clients. State updates are sent with the component's path as
+     * conflation key, so newer updates replace them.
+     */
+    private void sendObjectPresentation(JODLocalClientInfo locConn, String[] presentation) throws JODCommunication.ServiceNotConnected {
         log.debug(String.format("%s Send object presentation to JSL service %s", LUID(locConn.getClient()), locConn.getFullSrvId()));
-        communication.sendToSingleLocalService(locConn, JOSPProtocol_ObjectToService.createObjectInfoMsg(objInfo.getObjId(), objInfo.getObjName(), objInfo.getJODVersion(), objInfo.getOwnerId(), objInfo.getModel(), objInfo.getBrand(), objInfo.getLongDescr(), communication.getCloudConnection().getState().isConnected()), JOSPPerm.Type.State);
-        communication.sendToSingleLocalService(locConn, JOSPProtocol_ObjectToService.createObjectStructMsg(objInfo.getObjId(), objInfo.getStructForJSL()), JOSPPerm.Type.State);
-        communication.sendToSingleLocalService(locConn, JOSPProtocol_ObjectToService.createObjectPermsMsg(objInfo.getObjId(), permissions.getPermsForJSL()), JOSPPerm.Type.CoOwner);
+        sendPresentationMsg(locConn, presentation[0], JOSPPerm.Type.State, null);
+        sendPresentationMsg(locConn, presentation[1], JOSPPerm.Type.State, null);
+        sendPresentationMsg(locConn, presentation[2], JOSPPerm.Type.CoOwner, null);
+
+        JOSPPerm.Type permType = locConn.getPermType();
+        sendPresentationMsg(locConn, JOSPProtocol_ObjectToService.createServicePermMsg(objInfo.getObjId(), permType, JOSPPerm.Connection.OnlyLocal), permType, null);
+
+        for (Map.Entry<String, String> state : communication.getLastStateMsgs().entrySet())
+            sendPresentationMsg(locConn, state.getValue(), JOSPPerm.Type.State, state.getKey());
+    }
+
+    private void sendPresentationMsg(JODLocalClientInfo locConn, String msg, JOSPPerm.Type minReqPerm, String conflationKey) throws JODCommunication.ServiceNotConnected {
+        JOSPPerm.Type permType = locConn.getPermType();
+        if (permType == null || permType == JOSPPerm.Type.None || permType.compareTo(minReqPerm) < 0)
+            return;
 
-        JOSPPerm.Type permType = permissions.getServicePermission(locConn.getSrvId(), locConn.getUsrId(), JOSPPerm.Connection.OnlyLocal);
-        communication.sendToSingleLocalService(locConn, JOSPProtocol_ObjectToService.createServicePermMsg(objInfo.getObjId(), permType, JOSPPerm.Connection.OnlyLocal), permType);
+        if (!locConn.isConnected() || !locConn.sendPresentationAsync(msg, conflationKey))
+            throw new JODCommunication.ServiceNotConnected(locConn);
     }
 
     private void errorDischargingClient(ServerClient client) {
@@ -699,29 +1040,21 @@ public class JODLocalServer {
         }
     }
 
-    private JODLocalClientInfo getLocalConnectionByClient(ServerClient client) {
-        for (JODLocalClientInfo conn : localClients)
-            if (conn.getClient() == client)
-                return conn;
-        return null;
-    }
-
 
     // LUID: Connection Local Unique ID
 
-    private final Map<ServerClient, Integer> luids = new HashMap<>();
-    private int lastLUID = -1;
-
     private void registerLUID(ServerClient client) {
-        synchronized (luids) {
-            luids.put(client, ++lastLUID);
-        }
+        localClients.registerLUID(client);
+    }
+
+    private void unregisterLUID(ServerClient client) {
+        localClients.unregisterLUID(client);
     }
 
     private String LUID(ServerClient client) {
-        if (!luids.containsKey(client))
+        Integer luid = localClients.getLUID(client);
+        if (luid == null)
             return "[RC#: ----]";
-        int luid = luids.get(client);
         return String.format("[RC#: %04x]", luid);
     }
 
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * The John Object Daemon is the agent software to connect "objects"
+ * to an IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package com.robypomper.josp.jod.comm;
+
+
+/**
+ * Header of a message received from a JOSP Service, parsed in a single pass.
+ * <p>
+ * JOSP Services' messages start with the header line
+ * (<code>JOSP/x.y MSG_NAME ...</code>), followed by the <code>srvId:</code>
+ * and <code>usrId:</code> lines and then by the message's payload. This class
+ * scans the message once and keeps the header line and the service and user
+ * ids, so the sender's ids are resolved without parsing the message again for
+ * each field.
+ */
+public class JODServiceMsgHeader {
+
+    // Class constants
+
+    public static final String SRV_ID_FIELD = "srvId:";
+    public static final String USR_ID_FIELD = "usrId:";
+    /**
+     * Max number of lines after the header line where the service and user
+     * ids are searched.
+     */
+    private static final int MAX_ID_LINES = 4;
+
+
+    // Internal vars
+
+    private final String header;
+    private final String srvId;
+    private final String usrId;
+
+
+    // Constructor
+
+    private JODServiceMsgHeader(String header, String srvId, String usrId) {
+        this.header = header;
+        this.srvId = srvId;
+        this.usrId = usrId;
+    }
+
+
+    // Getters
+
+    /**
+     * @return the message's first line.
+     */
+    public String getHeader() {
+        return header;
+    }
+
+    public String getSrvId() {
+        return srvId;
+    }
+
+    public String getUsrId() {
+        return usrId;
+    }
+
+
+    // Parser
+
+    /**
+     * Parse the header of given message.
+     *
+     * @param msg the message received from a JOSP Service.
+     * @return the message's header, or <code>null</code> if the message's
+     * name (the second token of the header line) or the service and user ids
+     * can't be found.
+     */
+    public static JODServiceMsgHeader parse(String msg) {
+        int headerEnd = lineEnd(msg, 0);
+        String header = msg.substring(0, headerEnd);
+
+        int nameStart = header.indexOf(' ') + 1;
+        if (nameStart == 0 || nameStart == header.length())
+            return null;
+
+        String srvId = null;
+        String usrId = null;
+        int lineStart = headerEnd + 1;
+        for (int i = 0; i < MAX_ID_LINES && lineStart < msg.length(); i++) {
+            int end = lineEnd(msg, lineStart);
+            if (srvId == null && msg.startsWith(SRV_ID_FIELD, lineStart))
+                srvId = msg.substring(lineStart + SRV_ID_FIELD.length(), end);
+            else if (usrId == null && msg.startsWith(USR_ID_FIELD, lineStart))
+                usrId = msg.substring(lineStart + USR_ID_FIELD.length(), end);
+            lineStart = end + 1;
+
+            if (srvId != null && usrId != null)
+                return new JODServiceMsgHeader(header, srvId, usrId);
+        }
+
+        return null;
+    }
+
+    private static int lineEnd(String msg, int from) {
+        int end = msg.indexOf('\n', from);
+        return end < 0 ? msg.length() : end;
+    }
+
+}
@@ -0,0 +1,351 @@
+/*******************************************************************************
+ * The John Object Daemon is the agent software to connect "objects"
+ * to an IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package com.robypomper.josp.jod.events;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+
+/**
+ * {@link CloudSyncWorker.Uploader} that uploads the local cache's backlog in
+ * bounded chunks.
+ * <p>
+ * Each {@link #upload(int)} call reads at most <code>maxInFlight</code>
+ * chunks of <code>maxBatchSize</code> items, starting from the latest
+ * uploaded item, and uploads them concurrently. Then, the uploaded chunks
+ * are acknowledged in order, so the latest uploaded item is advanced chunk
+ * by chunk and, on failures, the next upload restarts from the first not
+ * acknowledged chunk. So, the memory used by the upload is bounded by
+ * <code>maxInFlight * maxBatchSize</code> items, whatever the backlog size.
+ * <p>
+ * When a chunk fails, the next chunks already uploaded can't be acknowledged
+ * yet, so the uploader remembers them and, on next upload, it doesn't send
+ * them again if they are read with the same ids range. If the backlog
+ * changes in the meanwhile (e.g. items are deleted by the local cache's
+ * retention), then they can be uploaded twice.
+ * <p>
+ * Chunks are uploaded by a pool of at most <code>maxInFlight</code> threads,
+ * started with {@link #start()} and terminated with {@link #stop()}. When
+ * the uploader is not started, chunks are uploaded one by one by the
+ * caller's thread.
+ * <p>
+ * While uploading a backlog, the uploader keeps track of his size and of the
+ * uploaded items, so the catch-up progress can be monitored.
+ *
+ * @param <T> the type of uploaded items.
+ */
+public class BacklogUploader<T> implements CloudSyncWorker.Uploader {
+
+    // Class constants
+
+    public static final String TH_CHUNK_NAME_FORMAT = "_CLOUD_SYNC_%s_CHUNK_%d_";
+    public static final long CHUNK_THREAD_KEEP_ALIVE = 60 * 1000;
+    public static final long DEF_JOIN_TIME = 1000;
+
+
+    // Internal vars
+
+    private static final Logger log = LoggerFactory.getLogger(BacklogUploader.class);
+    private final String name;
+    private final Backlog<T> backlog;
+    private final int maxInFlight;
+    private volatile long backlogCount = 0;
+    private volatile long uploadedCount = 0;
+    /**
+     * Chunks uploaded after a failed chunk and not acknowledged yet, last id
+     * by first id. Accessed only by the {@link #upload(int)} caller.
+     */
+    private final Map<Long, Long> sentAhead = new HashMap<>();
+    private ThreadPoolExecutor executor = null;
+    private int threadsCount = 0;
+
+
+    // Constructor
+
+    /**
+     * @param name        the uploader's name, used for logs and threads names.
+     * @param backlog     the backlog to upload.
+     * @param maxInFlight the max number of chunks uploaded concurrently.
+     */
+    public BacklogUploader(String name, Backlog<T> backlog, int maxInFlight) {
+        this.name = name;
+        this.backlog = backlog;
+        this.maxInFlight = Math.max(1, maxInFlight);
+    }
+
+
+    // Getters
+
+    /**
+     * @return the number of items to upload when current backlog's upload
+     * started, or 0 if there is no backlog to upload. It's estimated from
+     * the items' ids, so it includes also the items deleted before their
+     * upload.
+     */
+    public long getBacklogCount() {
+        return backlogCount;
+    }
+
+    /**
+     * @return the number of items uploaded since current backlog's upload
+     * started.
+     */
+    public long getUploadedCount() {
+        return uploadedCount;
+    }
+
+
+    // Mngm
+
+    /**
+     * Start the pool of threads used to upload the chunks concurrently.
+     */
+    public synchronized void start() {
+        if (executor != null) return;
+
+        executor = new ThreadPoolExecutor(maxInFlight, maxInFlight, CHUNK_THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(maxInFlight), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, String.format(TH_CHUNK_NAME_FORMAT, name, threadsCount++));
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Terminate the pool of threads, waiting at most {@link #DEF_JOIN_TIME}
+     * ms for current chunks' uploads.
+     */
+    public void stop() {
+        ThreadPoolExecutor ex;
+        synchronized (this) {
+            ex = executor;
+            executor = null;
+        }
+        if (ex == null) return;
+
+        ex.shutdownNow();
+        try {
+            if (!ex.awaitTermination(DEF_JOIN_TIME, TimeUnit.MILLISECONDS))
+                log.warn(String.format("Threads cloud sync '%s' chunks not terminated", name));
+        } catch (InterruptedException ignore) {}
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        return executor;
+    }
+
+
+    // Upload
+
+    @Override
+    public CloudSyncWorker.Result upload(int maxBatchSize) {
+        if (!backlog.isConnected()) return CloudSyncWorker.Result.DONE;
+
+        long lastUploaded = backlog.getLastUploaded();
+        long lastStored = backlog.getLastStored();
+        if (lastUploaded >= lastStored) {
+            resetProgress();
+            return CloudSyncWorker.Result.DONE;
+        }
+        if (backlogCount == 0)
+            backlogCount = lastStored - Math.max(0, lastUploaded);
+
+        List<List<T>> chunks = new ArrayList<>();
+        long afterId = lastUploaded;
+        try {
+            while (chunks.size() < maxInFlight && afterId < lastStored) {
+                List<T> chunk = backlog.read(afterId, lastStored, maxBatchSize);
+                if (chunk.isEmpty())
+                    break;
+                chunks.add(chunk);
+                afterId = backlog.getId(chunk.get(chunk.size() - 1));
+            }
+
+        } catch (IOException e) {
+            log.warn(String.format("Can't read %s backlog from file (lastUpd: %d; lastStored: %d) (%s)", name, lastUploaded, lastStored, e));
+            return CloudSyncWorker.Result.FAILED;
+        }
+
+        if (chunks.isEmpty()) {
+            log.debug(String.format("No %s found to uploads (lastUpd: %d; lastStored: %d)", name, lastUploaded, lastStored));
+            resetProgress();
+            return CloudSyncWorker.Result.DONE;
+        }
+
+        boolean[] sent = sendChunks(chunks);
+        for (int i = 0; i < chunks.size(); i++) {
+            if (!sent[i]) {
+                // Remember next uploaded chunks, so they are not sent again
+                for (int j = i + 1; j < chunks.size(); j++)
+                    if (sent[j])
+                        sentAhead.put(getFirstId(chunks.get(j)), getLastId(chunks.get(j)));
+                return CloudSyncWorker.Result.FAILED;
+            }
+            backlog.acknowledge(chunks.get(i));
+            sentAhead.remove(getFirstId(chunks.get(i)));
+            uploadedCount += chunks.get(i).size();
+        }
+        log.debug(String.format("Uploaded %d of %d %s backlog's items", uploadedCount, backlogCount, name));
+
+        if (backlog.getLastUploaded() < backlog.getLastStored())
+            return CloudSyncWorker.Result.MORE;
+        resetProgress();
+        return CloudSyncWorker.Result.DONE;
+    }
+
+    private boolean[] sendChunks(final List<List<T>> chunks) {
+        final boolean[] sent = new boolean[chunks.size()];
+        List<Future<Boolean>> futures = new ArrayList<>();
+        ExecutorService ex = chunks.size() > 1 ? getExecutor() : null;
+        for (int i = 0; i < chunks.size(); i++) {
+            final List<T> chunk = chunks.get(i);
+            Long sentLastId = sentAhead.get(getFirstId(chunk));
+            if (sentLastId != null && sentLastId == getLastId(chunk)) {
+                log.debug(String.format("Skip %s chunk already uploaded (ids %d-%d)", name, getFirstId(chunk), sentLastId));
+                sent[i] = true;
+                futures.add(null);
+                continue;
+            }
+
+            if (ex == null) {
+                sent[i] = send(chunk);
+                futures.add(null);
+                continue;
+            }
+            try {
+                futures.add(ex.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        return send(chunk);
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                // uploader stopped
+                futures.add(null);
+            }
+        }
+
+        boolean interrupted = false;
+        for (int i = 0; i < futures.size(); i++) {
+            if (futures.get(i) == null)
+                continue;
+            try {
+                sent[i] = futures.get(i).get();
+            } catch (InterruptedException e) {
+                interrupted = true;
+                futures.get(i).cancel(true);
+            } catch (ExecutionException | CancellationException e) {
+                sent[i] = false;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        return sent;
+    }
+
+    private boolean send(List<T> chunk) {
+        try {
+            return backlog.send(chunk);
+        } catch (RuntimeException e) {
+            log.warn(String.format("Error on uploading %s chunk (%s)", name, e.getMessage()), e);
+            return false;
+        }
+    }
+
+    private void resetProgress() {
+        backlogCount = 0;
+        uploadedCount = 0;
+        sentAhead.clear();
+    }
+
+    private long getFirstId(List<T> chunk) {
+        return backlog.getId(chunk.get(0));
+    }
+
+    private long getLastId(List<T> chunk) {
+        return backlog.getId(chunk.get(chunk.size() - 1));
+    }
+
+
+    // Backlog
+
+    /**
+     * Implementations give access to the local cache's items to upload.
+     */
+    public interface Backlog<T> {
+
+        /**
+         * @return true if the cloud is available.
+         */
+        boolean isConnected();
+
+        /**
+         * @return the id of the latest uploaded item.
+         */
+        long getLastUploaded();
+
+        /**
+         * @return the id of the latest item stored on the local cache.
+         */
+        long getLastStored();
+
+        /**
+         * @param afterId  the id of the latest item already read.
+         * @param toId     the id of the latest item to read.
+         * @param maxCount the max number of items to read.
+         * @return the stored items with id greater than <code>afterId</code>
+         * and until <code>toId</code>, at most <code>maxCount</code> items.
+         */
+        List<T> read(long afterId, long toId, int maxCount) throws IOException;
+
+        /**
+         * @param item the item.
+         * @return the item's id.
+         */
+        long getId(T item);
+
+        /**
+         * Upload given chunk to the cloud. This method can be called
+         * concurrently for different chunks.
+         *
+         * @param chunk the items to upload.
+         * @return true if the chunk was uploaded successfully.
+         */
+        boolean send(List<T> chunk);
+
+        /**
+         * Update the latest uploaded item, after given chunk was uploaded.
+         * Chunks are acknowledged in the same order they were read.
+         *
+         * @param chunk the uploaded items.
+         */
+        void acknowledge(List<T> chunk);
+
+    }
+
+}
@@ -22,14 +22,34 @@ package com.robypomper.josp.jod.events;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.robypomper.java.JavaTimers;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Timer;
 
+/**
+ * Counters used to keep track of the items registered, stored, uploaded and
+ * deleted by the local cache (events and statuses histories).
+ * <p>
+ * By default, the stats are written on file each time {@link #checkpoint()}
+ * is called. When checkpoints are enabled via the
+ * {@link #enableCheckpoints(long, int)} method, the stats are kept in memory
+ * and written on file only when <code>batchSize</code> changes are pending,
+ * every <code>interval</code> ms and when {@link #write()} is called
+ * explicitly (e.g. on shutdown). After a crash, the counters can be updated
+ * from the local cache's items with the {@link #recover(long, long)} method.
+ */
 public class CloudStats {
 
+    // Class constants
+
+    public static final String TH_CHECKPOINT_NAME = "_CLOUD_STATS_%s_";
+
+
     // Internal vars
-    
+
+    private static final ObjectMapper mapper = new ObjectMapper();
     /** File to use for storing the stats */
     private final File file;
     /**
@@ -70,6 +90,20 @@ public class CloudStats {
      */
     private long lost = 0;
 
+    /**
+     * Number of changes not yet written on the file
+     */
+    private int pendingChanges = 0;
+    /**
+     * Number of changes that trigger a file write, if less or equal to 1 then
+     * each checkpoint is written on the file
+     */
+    private int checkpointBatchSize = 1;
+    /**
+     * Timer used to periodically write pending changes on the file
+     */
+    private Timer checkpointTimer = null;
+
 
     // Constructors
 
@@ -124,7 +158,7 @@ public class CloudStats {
         return registered;
     }
 
-    public void setLastRegistered(long id, int count) {
+    public synchronized void setLastRegistered(long id, int count) {
         registered += count;
         this.lastRegistered = id;
     }
@@ -137,7 +171,7 @@ public class CloudStats {
         return stored;
     }
 
-    public void setLastStored(long id, int count) {
+    public synchronized void setLastStored(long id, int count) {
         stored += count;
         lastStored = id;
     }
@@ -150,7 +184,7 @@ public class CloudStats {
         return uploaded;
     }
 
-    public void setLastUploaded(long id, int count) {
+    public synchronized void setLastUploaded(long id, int count) {
         uploaded += count;
         lastUploaded = id;
     }
@@ -167,23 +201,108 @@ public class CloudStats {
         return lost;
     }
 
-    public void setLastDelete(long id, int count, int countLost) {
+    public synchronized void setLastDelete(long id, int count, int countLost) {
         deleted += count;
         lost += countLost;
         lastDelete = id;
     }
 
 
+    // Checkpoints
+
+    /**
+     * Enable the checkpoints mode.
+     * <p>
+     * When enabled, the {@link #checkpoint()} method writes the stats on file
+     * only every <code>batchSize</code> changes. Moreover, if
+     * <code>interval</code> is greater than 0, the pending changes are
+     * periodically written on the file.
+     *
+     * @param interval  the max time in ms between two writes of pending changes.
+     * @param batchSize the number of changes that trigger a file write.
+     */
+    public synchronized void enableCheckpoints(long interval, int batchSize) {
+        disableCheckpoints();
+
+        checkpointBatchSize = Math.max(1, batchSize);
+        if (interval > 0)
+            checkpointTimer = JavaTimers.initAndStart(new CheckpointTimer(), true, String.format(TH_CHECKPOINT_NAME, file.getName()), file.getName(), interval, interval);
+    }
+
+    /**
+     * Disable the checkpoints mode and write all pending changes on the file.
+     */
+    public synchronized void disableCheckpoints() {
+        if (checkpointTimer != null) {
+            JavaTimers.stopTimer(checkpointTimer);
+            checkpointTimer = null;
+        }
+        checkpointBatchSize = 1;
+        if (pendingChanges > 0)
+            writeIgnoreExceptions();
+    }
+
+    /**
+     * Register a change on the stats and, if needed, write them on the file.
+     */
+    public synchronized void checkpoint() {
+        pendingChanges++;
+        if (pendingChanges >= checkpointBatchSize)
+            writeIgnoreExceptions();
+    }
+
+    /**
+     * Update stats with the ids of the oldest and the latest items contained
+     * in the local cache's file.
+     * <p>
+     * This method must be used after a crash, when the latest changes could
+     * be not written on the stats file. It's based on the items' ids, because
+     * they are generated sequentially. The last uploaded item can't be
+     * recovered because it's not stored on the local cache, so the items
+     * uploaded after the latest write could be uploaded twice.
+     *
+     * @param oldestId the id of the oldest item on the file, -1 if empty.
+     * @param latestId the id of the latest item on the file, -1 if empty.
+     * @return true if the stats were updated.
+     */
+    public synchronized boolean recover(long oldestId, long latestId) {
+        if (oldestId < 0 || latestId < 0)
+            return false;
+
+        boolean updated = false;
+        if (latestId > lastStored) {
+            stored += latestId - Math.max(lastStored, 0);
+            lastStored = latestId;
+            updated = true;
+        }
+        if (lastStored > lastRegistered) {
+            registered += lastStored - Math.max(lastRegistered, 0);
+            lastRegistered = lastStored;
+            updated = true;
+        }
+        long lastMissing = oldestId - 1;
+        if (lastMissing > lastDelete) {
+            long lastHandled = Math.max(lastDelete, 0);
+            deleted += lastMissing - lastHandled;
+            lost += Math.max(0, lastMissing - Math.max(lastHandled, lastUploaded));
+            lastDelete = lastMissing;
+            updated = true;
+        }
+        if (updated)
+            pendingChanges++;
+        return updated;
+    }
+
+
     // File read and write
 
     private CloudStats read() throws IOException {
-        ObjectMapper mapper = new ObjectMapper();
         return mapper.readValue(file, CloudStats.class);
     }
 
-    public void write() throws IOException {
-        ObjectMapper mapper = new ObjectMapper();
-        mapper.writerWithDefaultPrettyPrinter().writeValue(file, this);
+    public synchronized void write() throws IOException {
+        mapper.writeValue(file, this);
+        pendingChanges = 0;
     }
 
     public void writeIgnoreExceptions() {
@@ -191,4 +310,17 @@ public class CloudStats {
             write();
         } catch (IOException ignore) {}
     }
+
+    private class CheckpointTimer implements Runnable {
+
+        @Override
+        public void run() {
+            synchronized (CloudStats.this) {
+                if (pendingChanges > 0)
+                    writeIgnoreExceptions();
+            }
+        }
+
+    }
+
 }
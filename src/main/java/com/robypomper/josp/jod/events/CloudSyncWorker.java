@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * The John Object Daemon is the agent software to connect "objects"
+ * to an IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package com.robypomper.josp.jod.events;
+
+import com.robypomper.java.JavaThreads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Background worker that uploads the local cache's items to the cloud.
+ * <p>
+ * The worker waits for a sync request (see {@link #requestSync()}), then it
+ * waits the <code>lingerTime</code> to collect more items and, finally, it
+ * calls the {@link Uploader} until all items are uploaded. Each upload sends
+ * at most <code>maxBatchSize</code> items. When an upload fails, the worker
+ * retries it after an exponential backoff, starting from
+ * <code>backoffMin</code> ms up to <code>backoffMax</code> ms.
+ * <p>
+ * Sync requests never block the caller, so they can be sent while
+ * registering new items.
+ */
+public class CloudSyncWorker {
+
+    // Class constants
+
+    public static final String TH_SYNC_NAME_FORMAT = "_CLOUD_SYNC_%s_";
+    public static final long DEF_JOIN_TIME = 1000;
+
+
+    // Internal vars
+
+    private static final Logger log = LoggerFactory.getLogger(CloudSyncWorker.class);
+    private final String name;
+    private final Uploader uploader;
+    private final int maxBatchSize;
+    private final long lingerTime;
+    private final long backoffMin;
+    private final long backoffMax;
+    private final Object syncLock = new Object();
+    private boolean syncRequested = false;
+    private volatile boolean mustStop = false;
+    private Thread thread = null;
+    private int failures = 0;
+
+
+    // Constructor
+
+    /**
+     * @param name         the worker's name, used for the thread name.
+     * @param uploader     the uploader that sends the items to the cloud.
+     * @param maxBatchSize the max number of items to upload for each request.
+     * @param lingerTime   the time in ms to wait after a sync request, before
+     *                     start uploading.
+     * @param backoffMin   the time in ms to wait after the first failed upload.
+     * @param backoffMax   the max time in ms to wait after a failed upload.
+     */
+    public CloudSyncWorker(String name, Uploader uploader, int maxBatchSize, long lingerTime, long backoffMin, long backoffMax) {
+        this.name = name;
+        this.uploader = uploader;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.lingerTime = Math.max(0, lingerTime);
+        this.backoffMin = Math.max(1, backoffMin);
+        this.backoffMax = Math.max(this.backoffMin, backoffMax);
+    }
+
+
+    // Getters
+
+    public boolean isRunning() {
+        return thread != null;
+    }
+
+    /**
+     * @return the number of consecutive failed uploads.
+     */
+    public int getFailures() {
+        return failures;
+    }
+
+
+    // Mngm
+
+    /**
+     * Start the worker's thread and request a first sync.
+     */
+    public synchronized void start() {
+        if (isRunning()) return;
+
+        mustStop = false;
+        thread = JavaThreads.initAndStart(new Runnable() {
+            @Override
+            public void run() {
+                log.debug(String.format("Thread cloud sync '%s' started", name));
+                while (!mustStop) {
+                    try {
+                        syncLoop();
+                    } catch (InterruptedException ignore) {
+                    } catch (Throwable t) {
+                        log.warn(String.format("Thread cloud sync '%s' thrown exception: %s", name, t.getMessage()), t);
+                    }
+                }
+                log.debug(String.format("Thread cloud sync '%s' terminated", name));
+            }
+        }, String.format(TH_SYNC_NAME_FORMAT, name));
+        requestSync();
+    }
+
+    /**
+     * Stop the worker's thread, waiting at most {@link #DEF_JOIN_TIME} ms for
+     * current upload.
+     */
+    public synchronized void stop() {
+        if (!isRunning()) return;
+
+        mustStop = true;
+        thread.interrupt();
+        try {
+            thread.join(DEF_JOIN_TIME);
+        } catch (InterruptedException ignore) {}
+        if (thread.isAlive())
+            log.warn(String.format("Thread cloud sync '%s' not terminated", name));
+        thread = null;
+    }
+
+    /**
+     * Request a new sync to the worker. This method never blocks.
+     */
+    public void requestSync() {
+        synchronized (syncLock) {
+            syncRequested = true;
+            syncLock.notifyAll();
+        }
+    }
+
+
+    // Sync loop
+
+    private void syncLoop() throws InterruptedException {
+        synchronized (syncLock) {
+            while (!syncRequested && !mustStop)
+                syncLock.wait();
+            syncRequested = false;
+        }
+        if (mustStop) return;
+
+        if (lingerTime > 0)
+            Thread.sleep(lingerTime);
+
+        Result result;
+        do {
+            try {
+                result = uploader.upload(maxBatchSize);
+            } catch (RuntimeException e) {
+                log.warn(String.format("Error on cloud sync '%s' upload (%s)", name, e.getMessage()), e);
+                result = Result.FAILED;
+            }
+
+            if (result == Result.FAILED) {
+                failures++;
+                long backoff = getBackoff();
+                log.debug(String.format("Cloud sync '%s' failed %d times, retry in %d ms", name, failures, backoff));
+                Thread.sleep(backoff);
+            } else
+                failures = 0;
+
+        } while (!mustStop && (result == Result.MORE || result == Result.FAILED));
+    }
+
+    private long getBackoff() {
+        long backoff = backoffMin;
+        for (int i = 1; i < failures && backoff < backoffMax; i++)
+            backoff *= 2;
+        return Math.min(backoff, backoffMax);
+    }
+
+
+    // Uploader
+
+    /**
+     * Result of a single upload.
+     */
+    public enum Result {
+        /** All items are uploaded, or the cloud is not available */
+        DONE,
+        /** Some items are uploaded, but there are more items to upload */
+        MORE,
+        /** Upload failed, it will be retried after the backoff */
+        FAILED
+    }
+
+    /**
+     * Implementations upload at most <code>maxBatchSize</code> items to the
+     * cloud.
+     */
+    public interface Uploader {
+
+        /**
+         * @param maxBatchSize the max number of items to upload.
+         * @return the upload result.
+         */
+        Result upload(int maxBatchSize);
+
+    }
+
+}
@@ -76,6 +76,11 @@ public class Events {
         register(EventType.JOD_START, phase, payload);
     }
 
+    public static void registerJODStart(String phase, long eventsRecoveryTime, long historyRecoveryTime) {
+        String payload = String.format("{\"eventsRecoveryTime\": \"%d\", \"historyRecoveryTime\": \"%d\"}", eventsRecoveryTime, historyRecoveryTime);
+        register(EventType.JOD_START, phase, payload);
+    }
+
     public static void registerJODStart(String phase, String instanceId) {
         String payload = String.format("{\"instanceId\": \"%s\"}", instanceId);
         register(EventType.JOD_START, phase, payload);
@@ -65,6 +65,20 @@ public interface JODEvents {
 
     List<JOSPEvent> getHistoryEvents(HistoryLimits limits);
 
+    /**
+     * Same as {@link #getHistoryEvents(HistoryLimits)}, but returns only the
+     * events of given type. If <code>type</code> is null, all events are
+     * returned.
+     * <p>
+     * Unlike the {@link #filterHistoryEvents(HistoryLimits, JavaJSONArrayToFile.Filter)}
+     * method, returned results can be cached.
+     *
+     * @param limits the limits to apply to the events history.
+     * @param type   the type of the events to return, or null for all types.
+     * @return the list of events matching given limits and type.
+     */
+    List<JOSPEvent> getHistoryEvents(HistoryLimits limits, EventType type);
+
     List<JOSPEvent> filterHistoryEvents(HistoryLimits limits, JavaJSONArrayToFile.Filter<JOSPEvent> filter);
 
 
@@ -74,8 +88,9 @@ public interface JODEvents {
      * Start syncing events to the cloud.
      * <p>
      * When started, Events system uploads all buffered events to the cloud,
-     * then each time a new event is registered it's also immediately sync to
-     * the cloud.
+     * then each time a new event is registered it's also sync to the cloud.
+     * Uploads are performed, in batches, by a background worker, so the
+     * events registration never waits for the cloud.
      * <p>
      * Until it's stopped.
      * <p>
@@ -24,6 +24,12 @@ import com.robypomper.josp.callers.apis.core.events.Caller20;
 import com.robypomper.josp.clients.JCPAPIsClientObj;
 import com.robypomper.josp.clients.JCPClient2;
 import com.robypomper.josp.jod.JODSettings_002;
+import com.robypomper.josp.jod.cache.ItemsCursor;
+import com.robypomper.josp.jod.cache.ItemsStorage;
+import com.robypomper.josp.jod.cache.JSONArrayStorage;
+import com.robypomper.josp.jod.cache.QueryResultsCache;
+import com.robypomper.josp.jod.cache.SegmentedLogStorage;
+import com.robypomper.josp.jod.cache.StorageCompactor;
 import com.robypomper.josp.protocol.HistoryLimits;
 import com.robypomper.josp.protocol.JOSPEvent;
 import com.robypomper.josp.types.josp.AgentType;
@@ -37,7 +43,9 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 
 /**
@@ -53,11 +61,17 @@ public class JODEvents_002 implements JODEvents {
     // Internal vars
 
     private static final Logger log = LoggerFactory.getLogger(JODEvents_002.class);
+    private static final String ALL_TYPES_GROUP = "*";
     private final JODSettings_002 locSettings;
     private JCPAPIsClientObj jcpClient;
     private Caller20 apiEventsCaller;
-    private final EventsArray events;
+    private final ItemsStorage<JOSPEvent> events;
     private final CloudStats stats;
+    private final BacklogUploader<JOSPEvent> backlogUploader;
+    private final CloudSyncWorker syncWorker;
+    private final StorageCompactor compactor;
+    private final long recoveryTime;
+    private final QueryResultsCache<JOSPEvent> queryCache;
     private boolean isSyncing = false;
 
 
@@ -73,6 +87,7 @@ public class JODEvents_002 implements JODEvents {
      * @param jcpClient the JCP client.
      */
     public JODEvents_002(JODSettings_002 settings, JCPAPIsClientObj jcpClient) {
+        long start = new Date().getTime();
         this.locSettings = settings;
         setJCPClient(jcpClient);
 
@@ -80,19 +95,14 @@ public class JODEvents_002 implements JODEvents {
         File statsFile = locSettings.getEventsFileStatsPath();
 
         // Load events
-        EventsArray tmpEvents = null;
+        ItemsStorage<JOSPEvent> tmpEvents = null;
         if (!eventsFile.getParentFile().exists()) {
             if (!eventsFile.getParentFile().mkdirs())
                 log.warn("Error on creating Events file's dir.");
-        } else if (eventsFile.exists())
+        } else if (existsEventsStorage(eventsFile) || migrateJSONEventsStorage(eventsFile))
             try {
-                tmpEvents = new EventsArray(eventsFile,
-                        locSettings.getEventsKeepInMemory(),
-                        locSettings.getEventsBufferSize(),
-                        locSettings.getEventsBufferReleaseSize(),
-                        locSettings.getEventsFileSize(),
-                        locSettings.getEventsFileReleaseSize());
-            } catch (JavaJSONArrayToFile.FileException e) {
+                tmpEvents = initEventsStorage(eventsFile);
+            } catch (IOException e) {
                 log.warn("Error on loading Events file.", e);
             }
 
@@ -122,16 +132,11 @@ public class JODEvents_002 implements JODEvents {
                 log.warn("Error on creating Events stats file.", e);
             }
             // generate events
-            if (!eventsFile.delete())
+            if (!deleteEventsStorage(eventsFile))
                 log.warn("Error on deleting Events file.");
             try {
-                tmpEvents = new EventsArray(eventsFile,
-                        locSettings.getEventsKeepInMemory(),
-                        locSettings.getEventsBufferSize(),
-                        locSettings.getEventsBufferReleaseSize(),
-                        locSettings.getEventsFileSize(),
-                        locSettings.getEventsFileReleaseSize());
-            } catch (JavaJSONArrayToFile.FileException e) {
+                tmpEvents = initEventsStorage(eventsFile);
+            } catch (IOException e) {
                 log.warn("Error on creating Events file.", e);
             }
 
@@ -155,16 +160,11 @@ public class JODEvents_002 implements JODEvents {
         } else if (tmpEvents == null) {      // tmpStats != null ALWAYS true
             // stats already loaded
             //      generate events _from stats
-            if (!eventsFile.delete())
+            if (!deleteEventsStorage(eventsFile))
                 log.warn("Error on deleting Events file.");
             try {
-                tmpEvents = new EventsArray(eventsFile,
-                        locSettings.getEventsKeepInMemory(),
-                        locSettings.getEventsBufferSize(),
-                        locSettings.getEventsBufferReleaseSize(),
-                        locSettings.getEventsFileSize(),
-                        locSettings.getEventsFileReleaseSize());
-            } catch (JavaJSONArrayToFile.FileException e) {
+                tmpEvents = initEventsStorage(eventsFile);
+            } catch (IOException e) {
                 log.warn("Error on creating Events file.", e);
             }
             //          events non può essere generato
@@ -179,13 +179,123 @@ public class JODEvents_002 implements JODEvents {
         assert tmpEvents != null : "EventsArray can't be null";
         assert tmpStats != null : "EventsCloudStats can't be null";
 
+        queryCache = new QueryResultsCache<>(locSettings.getEventsQueryCacheSize());
         events = tmpEvents;
         events.registerObserver(storageObserver);
         stats = tmpStats;
+        recoverStats();
+        recoveryTime = new Date().getTime() - start;
+        backlogUploader = new BacklogUploader<>("events", cloudBacklog, locSettings.getEventsSyncMaxInFlight());
+        syncWorker = new CloudSyncWorker("events", backlogUploader,
+                locSettings.getEventsSyncBatchSize(),
+                locSettings.getEventsSyncLingerTime(),
+                locSettings.getEventsSyncBackoffMin(),
+                locSettings.getEventsSyncBackoffMax());
+        compactor = initEventsCompactor();
 
         log.info("Initialized JODEvents instance");
         log.debug(String.format("                                   Events buffered %d events on file %d", events.countBuffered(), events.countFile()));
         log.debug(String.format("                                   Events stats lastStored: %d lastUploaded: %d", stats.getLastStored(), stats.getLastUploaded()));
+        log.debug(String.format("                                   Events cache loaded and recovered in %d ms", recoveryTime));
+    }
+
+
+    // Storage
+
+    private boolean existsEventsStorage(File eventsFile) {
+        if (isSegmentsEngine())
+            return SegmentedLogStorage.existsSegments(eventsFile);
+        return eventsFile.exists();
+    }
+
+    private ItemsStorage<JOSPEvent> initEventsStorage(File eventsFile) throws IOException {
+        if (isSegmentsEngine()) {
+            EventsLog storage = new EventsLog(eventsFile,
+                    locSettings.getEventsBufferSize(),
+                    locSettings.getEventsBufferReleaseSize(),
+                    locSettings.getEventsFileSize(),
+                    locSettings.getEventsFileReleaseSize(),
+                    locSettings.getEventsStorageCompression());
+            storage.setMemoryMapped(locSettings.getEventsStorageMmap());
+            storage.setRetention(locSettings.getEventsStorageMaxBytes(), locSettings.getEventsStorageMaxAge());
+            return storage;
+        }
+
+        return new JSONArrayStorage<>(new EventsArray(eventsFile,
+                locSettings.getEventsKeepInMemory(),
+                locSettings.getEventsBufferSize(),
+                locSettings.getEventsBufferReleaseSize(),
+                locSettings.getEventsFileSize(),
+                locSettings.getEventsFileReleaseSize()));
+    }
+
+    /**
+     * If the storage engine is 'segments' and the events are still stored
+     * by the 'json' engine, copy them into the segments.
+     *
+     * @return true if the events were migrated.
+     */
+    private boolean migrateJSONEventsStorage(File eventsFile) {
+        if (!isSegmentsEngine() || !eventsFile.isFile())
+            return false;
+
+        try {
+            EventsArray jsonArray = new EventsArray(eventsFile,
+                    locSettings.getEventsKeepInMemory(),
+                    locSettings.getEventsBufferSize(),
+                    locSettings.getEventsBufferReleaseSize(),
+                    locSettings.getEventsFileSize(),
+                    locSettings.getEventsFileReleaseSize());
+            int count = JSONArrayStorage.migrate(jsonArray, eventsFile, initEventsStorage(eventsFile));
+            log.info(String.format("Migrated %d events from JSON file to segments storage", count));
+            return true;
+
+        } catch (IOException e) {
+            log.warn(String.format("Error on migrating events from JSON file to segments storage (%s)", e.getMessage()), e);
+            deleteEventsStorage(eventsFile);
+            return false;
+        }
+    }
+
+    private boolean deleteEventsStorage(File eventsFile) {
+        if (isSegmentsEngine())
+            return SegmentedLogStorage.deleteSegments(eventsFile);
+        return eventsFile.delete();
+    }
+
+    private StorageCompactor initEventsCompactor() {
+        long interval = locSettings.getEventsCompactionInterval();
+        if (!(events instanceof SegmentedLogStorage))
+            return null;
+        if (interval <= 0) {
+            if (locSettings.getEventsStorageCompression())
+                log.warn("Events storage's compaction disabled, sealed segments will not be compressed");
+            return null;
+        }
+
+        return new StorageCompactor("events", (SegmentedLogStorage<JOSPEvent>) events, interval);
+    }
+
+    private boolean isSegmentsEngine() {
+        return ItemsStorage.ENGINE_SEGMENTS.equalsIgnoreCase(locSettings.getEventsStorageEngine());
+    }
+
+    private void recoverStats() {
+        JavaJSONArrayToFile.Filter<JOSPEvent> all = new JavaJSONArrayToFile.Filter<JOSPEvent>() {
+            @Override
+            public boolean accepted(JOSPEvent o) {
+                return true;
+            }
+        };
+        List<JOSPEvent> oldest = events.tryAncient(all, 1);
+        List<JOSPEvent> latest = events.tryLatest(all, 1);
+        if (oldest.isEmpty() || latest.isEmpty())
+            return;
+
+        if (stats.recover(oldest.get(0).getId(), latest.get(latest.size() - 1).getId())) {
+            log.warn(String.format("Events stats recovered from Events file (lastStored: %d; lastDelete: %d)", stats.getLastStored(), stats.getLastDelete()));
+            stats.writeIgnoreExceptions();
+        }
     }
 
 
@@ -207,52 +317,95 @@ public class JODEvents_002 implements JODEvents {
 
             // Update stats
             stats.setLastRegistered(newId, 1);
-            stats.writeIgnoreExceptions();
+            stats.checkpoint();
         }
 
         if (isSyncing)
-            sync();
+            syncWorker.requestSync();
     }
 
-    private void sync() {
-        if (stats.getLastUploaded() == stats.getLastStored()) return;
-        if (jcpClient == null || !jcpClient.isConnected()) return;
+    private final BacklogUploader.Backlog<JOSPEvent> cloudBacklog = new BacklogUploader.Backlog<JOSPEvent>() {
+        @Override
+        public boolean isConnected() {
+            return jcpClient != null && jcpClient.isConnected();
+        }
 
-        List<JOSPEvent> toUpload;
-        synchronized (events) {
-            try {
-                toUpload = events.getById(stats.getLastUploaded() != -1 ? stats.getLastUploaded() : null, stats.getLastStored());
-                if (stats.getLastUploaded() != -1 && toUpload.size() > 1)
-                    toUpload.remove(0);
+        @Override
+        public long getLastUploaded() {
+            return stats.getLastUploaded();
+        }
 
-            } catch (JavaJSONArrayToFile.FileException e) {
-                log.warn(String.format("Can't read events from file (CloudStats values lastUpd: %d; lastStored: %d) (%s)", stats.getLastUploaded(), stats.getLastStored(), e));
-                return;
-            }
+        @Override
+        public long getLastStored() {
+            return stats.getLastStored();
+        }
 
-            if (toUpload.isEmpty()) {
-                log.debug(String.format("No events found to uploads (CloudStats values lastUpd: %d; lastStored: %d", stats.getLastUploaded(), stats.getLastStored()));
-                return;
+        @Override
+        public List<JOSPEvent> read(long afterId, long toId, int maxCount) {
+            synchronized (events) {
+                return getItemsToUpload(afterId, toId, maxCount);
             }
+        }
+
+        @Override
+        public long getId(JOSPEvent item) {
+            return item.getId();
+        }
 
-            log.debug(String.format("Upload from %d to %d (%d events)", toUpload.get(0).getId(), toUpload.get(toUpload.size() - 1).getId(), toUpload.size()));
-            for (JOSPEvent e : toUpload)
+        @Override
+        public boolean send(List<JOSPEvent> chunk) {
+            log.debug(String.format("Upload from %d to %d (%d events)", chunk.get(0).getId(), chunk.get(chunk.size() - 1).getId(), chunk.size()));
+            for (JOSPEvent e : chunk)
                 log.trace(String.format("                                   - event[%d] %s", e.getId(), e.getPayload()));
 
             try {
-                apiEventsCaller.uploadEvents(JOSPEvent.toEvents(toUpload));
+                apiEventsCaller.uploadEvents(JOSPEvent.toEvents(chunk));
+                return true;
 
             } catch (JCPClient2.ConnectionException |
                      JCPClient2.AuthenticationException |
                      JCPClient2.ResponseException |
                      JCPClient2.RequestException e) {
                 log.warn(String.format("Can't upload events (CloudStats values lastUpd: %d; lastStored: %d) (%s)", stats.getLastUploaded(), stats.getLastStored(), e));
-                return;
+                return false;
             }
+        }
 
-            stats.setLastUploaded(toUpload.get(toUpload.size() - 1).getId(), toUpload.size());
-            stats.writeIgnoreExceptions();
+        @Override
+        public void acknowledge(List<JOSPEvent> chunk) {
+            synchronized (events) {
+                stats.setLastUploaded(chunk.get(chunk.size() - 1).getId(), chunk.size());
+                stats.writeIgnoreExceptions();
+            }
         }
+    };
+
+    /**
+     * Return the stored events after <code>lastUploaded</code> and until
+     * <code>lastStored</code>, at most <code>maxBatchSize</code> events.
+     * <p>
+     * The events are read by ids range and, only if events after
+     * <code>lastUploaded</code> were deleted before their upload, via a
+     * cursor. So, the backlog is never read as a whole.
+     */
+    private List<JOSPEvent> getItemsToUpload(final long lastUploaded, final long lastStored, int maxBatchSize) {
+        JavaJSONArrayToFile.Filter<JOSPEvent> filter = new JavaJSONArrayToFile.Filter<JOSPEvent>() {
+            @Override
+            public boolean accepted(JOSPEvent o) {
+                return o.getId() > lastUploaded && o.getId() <= lastStored;
+            }
+        };
+
+        List<JOSPEvent> items = events.tryById(filter, lastUploaded + 1, Math.min(lastStored, lastUploaded + maxBatchSize));
+        if (!items.isEmpty())
+            return items;
+
+        // events after lastUploaded deleted before upload
+        ItemsCursor<JOSPEvent> cursor = events.openCursor(filter, false);
+        List<JOSPEvent> toUpload = new ArrayList<>();
+        while (toUpload.size() < maxBatchSize && cursor.hasNext())
+            toUpload.add(cursor.next());
+        return toUpload;
     }
 
     @Override
@@ -262,21 +415,31 @@ public class JODEvents_002 implements JODEvents {
         log.debug(String.format("                                   Events buffered %d events on file %d", events.countBuffered(), events.countFile()));
         log.debug(String.format("                                   Events stats lastStored: %d lastUploaded: %d", stats.getLastStored(), stats.getLastUploaded()));
 
-        sync();
+        stats.enableCheckpoints(locSettings.getEventsStatsCheckpointInterval(), locSettings.getEventsStatsCheckpointBatch());
+        backlogUploader.start();
+        syncWorker.start();
+        if (compactor != null)
+            compactor.start();
     }
 
     @Override
     public void stopCloudSync() {
+        isSyncing = false;
+        syncWorker.stop();
+        backlogUploader.stop();
+        if (compactor != null)
+            compactor.stop();
+        stats.disableCheckpoints();
         synchronized (events) {
-            isSyncing = false;
             try {
                 events.storeCache();
+                stats.write();
 
                 log.info("Stop event sync to cloud");
                 log.debug(String.format("                                   Events buffered %d events on file %d", events.countBuffered(), events.countFile()));
                 log.debug(String.format("                                   Events stats lastStored: %d lastUploaded: %d", stats.getLastStored(), stats.getLastUploaded()));
 
-            } catch (JavaJSONArrayToFile.FileException ignore) {
+            } catch (IOException ignore) {
                 assert false;
             }
         }
@@ -285,17 +448,52 @@ public class JODEvents_002 implements JODEvents {
 
     // Getters and setters
 
+    /**
+     * @return the time, in ms, spent on startup to load the local cache and
+     * to recover it after a crash.
+     */
+    public long getRecoveryTime() {
+        return recoveryTime;
+    }
+
+    /**
+     * @return the number of events to upload when current backlog's upload
+     * started, or 0 if the cloud is in sync.
+     */
+    public long getSyncBacklogCount() {
+        return backlogUploader.getBacklogCount();
+    }
+
+    /**
+     * @return the number of events uploaded since current backlog's upload
+     * started.
+     */
+    public long getSyncUploadedCount() {
+        return backlogUploader.getUploadedCount();
+    }
+
     @Override
     public List<JOSPEvent> getHistoryEvents(HistoryLimits limits) {
+        return getHistoryEvents(limits, null);
+    }
+
+    @Override
+    public List<JOSPEvent> getHistoryEvents(HistoryLimits limits, final EventType type) {
+        String group = type != null ? type.name() : ALL_TYPES_GROUP;
+        String key = QueryResultsCache.toKey(limits);
+        List<JOSPEvent> cached = queryCache.get(group, key);
+        if (cached != null)
+            return cached;
 
         JavaJSONArrayToFile.Filter<JOSPEvent> filter = new JavaJSONArrayToFile.Filter<JOSPEvent>() {
             @Override
             public boolean accepted(JOSPEvent o) {
-                return true;
+                return type == null || o.getType() == type;
             }
         };
 
-        return filterHistoryEvents(limits, filter);
+        long version = queryCache.getVersion(group);
+        return queryCache.put(group, key, version, filterHistoryEvents(limits, filter));
     }
 
     @Override
@@ -313,29 +511,12 @@ public class JODEvents_002 implements JODEvents {
             return events.tryByDate(filter, limits.getFromDateOrDefault(), limits.getToDateOrDefault());
 
         if (HistoryLimits.isPageRange(limits))
-            try {
-                List<JOSPEvent> all = events.filterAll(filter);
-
-                int page = limits.getPageNumOrDefault();
-                int size = limits.getPageSizeOrDefault();
-
-                int posStart = page * size;
-                if (posStart > all.size() - 1)
-                    return new ArrayList<>();
-
-                int posEnd = (page * size) + size - 1;
-                if (posEnd >= all.size() - 1)
-                    posEnd = all.size() - 1;
-                return all.subList(posStart, posEnd + 1);
-
-            } catch (JavaJSONArrayToFile.FileException e) {
-                return new ArrayList<>();
-            }
+            return events.tryPage(filter, limits.getPageNumOrDefault(), limits.getPageSizeOrDefault());
 
         try {
             return events.filterAll(filter);
 
-        } catch (JavaJSONArrayToFile.FileException e) {
+        } catch (IOException e) {
             return new ArrayList<>();
         }
     }
@@ -355,6 +536,7 @@ public class JODEvents_002 implements JODEvents {
     @Override
     public void storeCache() throws IOException {
         events.storeCache();
+        stats.write();
     }
 
 
@@ -364,7 +546,8 @@ public class JODEvents_002 implements JODEvents {
 
         @Override
         public void onConnected(JCPClient2 jcpClient) {
-            sync();
+            if (isSyncing)
+                syncWorker.requestSync();
         }
 
         @Override
@@ -381,17 +564,19 @@ public class JODEvents_002 implements JODEvents {
 
     };
 
-    private final JavaJSONArrayToFile.Observer<JOSPEvent> storageObserver = new JavaJSONArrayToFile.Observer<JOSPEvent>() {
+    private final ItemsStorage.RangeObserver<JOSPEvent> storageObserver = new ItemsStorage.RangeObserver<JOSPEvent>() {
         @Override
         public void onAdded(List<JOSPEvent> items) {
-            // Nothing to do, already done in register method
+            invalidateQueryCache(items);
         }
 
         @Override
         public void onFlushed(List<JOSPEvent> items, boolean auto) {
             // Update stats
             stats.setLastStored(items.get(items.size() - 1).getId(), items.size());
-            stats.writeIgnoreExceptions();
+            stats.checkpoint();
+            if (compactor != null)
+                compactor.requestCompaction();
         }
 
         @Override
@@ -405,8 +590,30 @@ public class JODEvents_002 implements JODEvents {
             }
             // Update stats
             stats.setLastDelete(items.get(items.size() - 1).getId(), items.size(), countLost);
-            stats.writeIgnoreExceptions();
+            stats.checkpoint();
+            invalidateQueryCache(items);
+        }
+
+        @Override
+        public void onRemovedRange(long fromId, long toId, long count, boolean auto) {
+            // Events ids are contiguous, so lost events are the ones after lastUploaded
+            long countLost = count;
+            if (stats.getLastUploaded() != -1)
+                countLost = Math.max(0, Math.min(count, toId - stats.getLastUploaded()));
+            // Update stats
+            stats.setLastDelete(toId, (int) count, (int) countLost);
+            stats.checkpoint();
+            queryCache.invalidateAll();
         }
     };
 
+    private void invalidateQueryCache(List<JOSPEvent> items) {
+        Set<EventType> types = new HashSet<>();
+        for (JOSPEvent e : items)
+            types.add(e.getType());
+        for (EventType type : types)
+            queryCache.invalidate(type.name());
+        queryCache.invalidate(ALL_TYPES_GROUP);
+    }
+
 }
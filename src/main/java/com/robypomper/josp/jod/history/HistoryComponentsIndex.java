@@ -0,0 +1,286 @@
+/*******************************************************************************
+ * The John Object Daemon is the agent software to connect "objects"
+ * to an IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package com.robypomper.josp.jod.history;
+
+import com.robypomper.josp.protocol.JOSPHistory;
+
+import java.util.*;
+
+
+/**
+ * In memory index of the statuses histories grouped by component.
+ * <p>
+ * For each component, it keeps the ids and the dates of his statuses
+ * ordered by id. So the history queries for a single component can be
+ * resolved on the index and then only the component's statuses are read
+ * from the history storage.
+ * <p>
+ * Because the storage always removes his oldest items, the removal of a
+ * status from the index is performed moving forward the head of the
+ * component's entries.
+ */
+class HistoryComponentsIndex {
+
+    // Internal vars
+
+    private final Map<String, Entries> components = new HashMap<>();
+
+
+    // Index updates
+
+    /**
+     * Add given statuses to the index.
+     *
+     * @param items the statuses to add, ordered by id.
+     */
+    synchronized void add(List<JOSPHistory> items) {
+        for (JOSPHistory h : items) {
+            String key = toKey(h.getCompPath());
+            Entries entries = components.get(key);
+            if (entries == null) {
+                entries = new Entries();
+                components.put(key, entries);
+            }
+            entries.add(h.getId(), h.getUpdatedAt().getTime());
+        }
+    }
+
+    /**
+     * Remove given statuses from the index.
+     *
+     * @param items the statuses to remove.
+     */
+    synchronized void remove(List<JOSPHistory> items) {
+        for (JOSPHistory h : items) {
+            String key = toKey(h.getCompPath());
+            Entries entries = components.get(key);
+            if (entries == null)
+                continue;
+            entries.remove(h.getId());
+            if (entries.size() == 0)
+                components.remove(key);
+        }
+    }
+
+
+    /**
+     * Remove, from the index, all statuses with id less or equal to given id.
+     *
+     * @param toId the id of the last status to remove.
+     * @return the paths of the components that had removed statuses.
+     */
+    synchronized Set<String> removeUntil(long toId) {
+        Set<String> removed = new HashSet<>();
+        Iterator<Map.Entry<String, Entries>> it = components.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entries> e = it.next();
+            if (e.getValue().removeUntil(toId) == 0)
+                continue;
+            removed.add(e.getKey());
+            if (e.getValue().size() == 0)
+                it.remove();
+        }
+        return removed;
+    }
+
+
+    // Index queries
+
+    /**
+     * @return the number of statuses of given component.
+     */
+    synchronized int count(String compPath) {
+        Entries entries = components.get(toKey(compPath));
+        return entries != null ? entries.size() : 0;
+    }
+
+    /**
+     * @return the ids of the latest <code>count</code> statuses of given
+     * component, ordered by id.
+     */
+    synchronized List<Long> latest(String compPath, long count) {
+        Entries entries = components.get(toKey(compPath));
+        if (entries == null)
+            return new ArrayList<>();
+        int size = entries.size();
+        return entries.ids((int) Math.max(0, size - count), size);
+    }
+
+    /**
+     * @return the ids of the oldest <code>count</code> statuses of given
+     * component, ordered by id.
+     */
+    synchronized List<Long> ancient(String compPath, long count) {
+        Entries entries = components.get(toKey(compPath));
+        if (entries == null)
+            return new ArrayList<>();
+        return entries.ids(0, (int) Math.min(entries.size(), count));
+    }
+
+    /**
+     * @return the ids of given component's statuses with id between given
+     * ids (both included), ordered by id.
+     */
+    synchronized List<Long> byId(String compPath, long fromId, long toId) {
+        Entries entries = components.get(toKey(compPath));
+        if (entries == null)
+            return new ArrayList<>();
+        int end = toId == Long.MAX_VALUE ? entries.size() : entries.indexOf(toId + 1);
+        return entries.ids(entries.indexOf(fromId), end);
+    }
+
+    /**
+     * @return the ids of given component's statuses with date between given
+     * dates (both included), ordered by id.
+     */
+    synchronized List<Long> byDate(String compPath, Date fromDate, Date toDate) {
+        Entries entries = components.get(toKey(compPath));
+        if (entries == null)
+            return new ArrayList<>();
+        long from = fromDate != null ? fromDate.getTime() : Long.MIN_VALUE;
+        long to = toDate != null ? toDate.getTime() : Long.MAX_VALUE;
+        return entries.idsByDate(from, to);
+    }
+
+    /**
+     * @return the ids of given component's statuses in the given page,
+     * ordered by id.
+     */
+    synchronized List<Long> page(String compPath, int pageNum, int pageSize) {
+        Entries entries = components.get(toKey(compPath));
+        if (entries == null)
+            return new ArrayList<>();
+        int posStart = pageNum * pageSize;
+        if (posStart > entries.size() - 1)
+            return new ArrayList<>();
+        return entries.ids(posStart, Math.min(posStart + pageSize, entries.size()));
+    }
+
+    /**
+     * @return the ids of all given component's statuses, ordered by id.
+     */
+    synchronized List<Long> all(String compPath) {
+        Entries entries = components.get(toKey(compPath));
+        if (entries == null)
+            return new ArrayList<>();
+        return entries.ids(0, entries.size());
+    }
+
+
+    // Utils
+
+    private static String toKey(String compPath) {
+        return compPath.toLowerCase();
+    }
+
+
+    // Internal classes
+
+    /**
+     * Ids and dates of a single component's statuses, ordered by id.
+     */
+    private static class Entries {
+
+        private long[] ids = new long[16];
+        private long[] dates = new long[16];
+        private int head = 0;
+        private int tail = 0;
+
+        int size() {
+            return tail - head;
+        }
+
+        void add(long id, long date) {
+            if (tail == ids.length)
+                grow();
+            ids[tail] = id;
+            dates[tail] = date;
+            tail++;
+        }
+
+        void remove(long id) {
+            if (size() == 0)
+                return;
+            if (ids[head] == id) {
+                head++;
+                return;
+            }
+
+            int pos = Arrays.binarySearch(ids, head, tail, id);
+            if (pos < 0)
+                return;
+            System.arraycopy(ids, pos + 1, ids, pos, tail - pos - 1);
+            System.arraycopy(dates, pos + 1, dates, pos, tail - pos - 1);
+            tail--;
+        }
+
+        /**
+         * Remove all entries with id less or equal to given id.
+         *
+         * @return the number of removed entries.
+         */
+        int removeUntil(long id) {
+            int count = indexOf(id + 1);
+            head += count;
+            return count;
+        }
+
+        /**
+         * @return the position, relative to the head, of the first entry
+         * with id greater or equal to given id.
+         */
+        int indexOf(long id) {
+            int pos = Arrays.binarySearch(ids, head, tail, id);
+            if (pos < 0)
+                pos = -pos - 1;
+            return pos - head;
+        }
+
+        List<Long> ids(int from, int to) {
+            List<Long> result = new ArrayList<>(Math.max(0, to - from));
+            for (int i = head + from; i < head + to; i++)
+                result.add(ids[i]);
+            return result;
+        }
+
+        List<Long> idsByDate(long from, long to) {
+            List<Long> result = new ArrayList<>();
+            for (int i = head; i < tail; i++)
+                if (dates[i] >= from && dates[i] <= to)
+                    result.add(ids[i]);
+            return result;
+        }
+
+        private void grow() {
+            int size = size();
+            int capacity = size * 2 > ids.length ? ids.length * 2 : ids.length;
+            long[] newIds = new long[capacity];
+            long[] newDates = new long[capacity];
+            System.arraycopy(ids, head, newIds, 0, size);
+            System.arraycopy(dates, head, newDates, 0, size);
+            ids = newIds;
+            dates = newDates;
+            head = 0;
+            tail = size;
+        }
+
+    }
+
+}
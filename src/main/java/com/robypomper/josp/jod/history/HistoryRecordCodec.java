@@ -0,0 +1,252 @@
+/*******************************************************************************
+ * The John Object Daemon is the agent software to connect "objects"
+ * to an IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package com.robypomper.josp.jod.history;
+
+import com.robypomper.java.JavaFormatter;
+import com.robypomper.josp.jod.structure.StructureDefinitions;
+import com.robypomper.josp.protocol.JOSPHistory;
+import com.robypomper.josp.protocol.JOSPMsgParams;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+
+/**
+ * Compact binary encoding for the statuses stored by {@link StatusHistoryLog}.
+ * <p>
+ * Status' id and date are already stored in the segment's record header, so
+ * the compact record contains only:
+ * <pre>
+ * | format (byte) | comp path (int) | comp type (int) | payload kind (byte) | payload |
+ * </pre>
+ * Component's paths and types are dictionary-encoded as small integers. The
+ * dictionary is stored next to the segments (see {@link #getDictionaryFile(File)}),
+ * it's append-only and each new string is written before the first record
+ * that uses it. Range and boolean statuses' payloads are stored as
+ * primitives (2 doubles or 2 booleans), all others payloads are stored as
+ * UTF-8 text. A payload is stored as primitives only if it can be rebuilt
+ * exactly from them, so the decoded status is always equal to the encoded one.
+ * <p>
+ * Decoded statuses share the dictionary's strings, so they don't duplicate
+ * component's paths and types in memory.
+ */
+class HistoryRecordCodec {
+
+    // Class constants
+
+    static final String DICTIONARY_EXTENSION = ".dict";
+    static final byte FORMAT_COMPACT = 1;
+    private static final byte PAYLOAD_TEXT = 0;
+    private static final byte PAYLOAD_RANGE = 1;
+    private static final byte PAYLOAD_BOOLEAN = 2;
+    private static final String KEY_NEW = "new";
+    private static final String KEY_OLD = "old";
+
+
+    // Internal vars
+
+    private static final Logger log = LoggerFactory.getLogger(HistoryRecordCodec.class);
+    private final File dictionaryFile;
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringsIds = new HashMap<>();
+
+
+    // Constructor
+
+    /**
+     * Create a new codec and load his dictionary.
+     *
+     * @param storageFile the storage's base file.
+     */
+    HistoryRecordCodec(File storageFile) throws IOException {
+        this.dictionaryFile = getDictionaryFile(storageFile);
+        loadDictionary();
+    }
+
+
+    // Encoding
+
+    /**
+     * @param payload a segment's record payload.
+     * @return true if given payload was encoded by this codec.
+     */
+    static boolean isCompact(byte[] payload) {
+        return payload.length > 0 && payload[0] == FORMAT_COMPACT;
+    }
+
+    synchronized byte[] encode(JOSPHistory status) throws IOException {
+        int pathId = getStringId(status.getCompPath());
+        int typeId = getStringId(status.getCompType());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(FORMAT_COMPACT);
+        out.writeInt(pathId);
+        out.writeInt(typeId);
+
+        String payload = status.getPayload();
+        String[] values = splitNewOld(payload);
+        double[] range = StructureDefinitions.TYPE_RANGE_STATE.equals(status.getCompType()) ? parseRange(values, payload) : null;
+        boolean[] bool = StructureDefinitions.TYPE_BOOL_STATE.equals(status.getCompType()) ? parseBoolean(values, payload) : null;
+        if (range != null) {
+            out.writeByte(PAYLOAD_RANGE);
+            out.writeDouble(range[0]);
+            out.writeDouble(range[1]);
+        } else if (bool != null) {
+            out.writeByte(PAYLOAD_BOOLEAN);
+            out.writeBoolean(bool[0]);
+            out.writeBoolean(bool[1]);
+        } else {
+            byte[] text = payload != null ? payload.getBytes(StandardCharsets.UTF_8) : new byte[0];
+            out.writeByte(PAYLOAD_TEXT);
+            out.writeInt(text.length);
+            out.write(text);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    JOSPHistory decode(long id, long date, byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        if (in.readByte() != FORMAT_COMPACT)
+            throw new IOException("Unknown history record format");
+        String compPath = getString(in.readInt());
+        String compType = getString(in.readInt());
+
+        String text;
+        byte kind = in.readByte();
+        switch (kind) {
+            case PAYLOAD_RANGE:
+                text = formatNewOld(JavaFormatter.doubleToStr(in.readDouble()), JavaFormatter.doubleToStr(in.readDouble()));
+                break;
+            case PAYLOAD_BOOLEAN:
+                text = formatNewOld(Boolean.toString(in.readBoolean()), Boolean.toString(in.readBoolean()));
+                break;
+            case PAYLOAD_TEXT:
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                text = new String(bytes, StandardCharsets.UTF_8);
+                break;
+            default:
+                throw new IOException(String.format("Unknown history record payload kind '%d'", kind));
+        }
+        return new JOSPHistory(id, compPath, compType, new Date(date), text);
+    }
+
+
+    // Dictionary
+
+    /**
+     * @param storageFile the storage's base file.
+     * @return the dictionary file of given storage.
+     */
+    static File getDictionaryFile(File storageFile) {
+        return new File(storageFile.getPath() + DICTIONARY_EXTENSION);
+    }
+
+    private synchronized String getString(int id) throws IOException {
+        if (id < 0 || id >= strings.size())
+            throw new IOException(String.format("Unknown history dictionary's id '%d'", id));
+        return strings.get(id);
+    }
+
+    private int getStringId(String value) throws IOException {
+        if (value == null)
+            value = "";
+        Integer id = stringsIds.get(value);
+        if (id != null)
+            return id;
+
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(dictionaryFile, true))) {
+            out.writeUTF(value);
+        }
+        id = strings.size();
+        strings.add(value);
+        stringsIds.put(value, id);
+        return id;
+    }
+
+    private void loadDictionary() throws IOException {
+        if (!dictionaryFile.exists())
+            return;
+
+        try (RandomAccessFile raf = new RandomAccessFile(dictionaryFile, "rw")) {
+            long pos = 0;
+            try {
+                while (pos < raf.length()) {
+                    String value = raf.readUTF();
+                    stringsIds.put(value, strings.size());
+                    strings.add(value);
+                    pos = raf.getFilePointer();
+                }
+            } catch (EOFException | UTFDataFormatException e) {
+                log.warn(String.format("Truncate history dictionary '%s' to %d bytes because latest entry is incomplete", dictionaryFile.getName(), pos));
+                raf.setLength(pos);
+            }
+        }
+    }
+
+
+    // Payloads
+
+    private static String[] splitNewOld(String payload) {
+        if (payload == null)
+            return null;
+        String[] lines = payload.split(JOSPMsgParams.ITEMS_SEP);
+        if (lines.length != 2
+                || !lines[0].startsWith(KEY_NEW + JOSPMsgParams.KEY_VALUE_SEP)
+                || !lines[1].startsWith(KEY_OLD + JOSPMsgParams.KEY_VALUE_SEP))
+            return null;
+        return new String[]{lines[0].substring(KEY_NEW.length() + JOSPMsgParams.KEY_VALUE_SEP.length()),
+                lines[1].substring(KEY_OLD.length() + JOSPMsgParams.KEY_VALUE_SEP.length())};
+    }
+
+    private static String formatNewOld(String newValue, String oldValue) {
+        return String.format(JOSPMsgParams.KEY_VALUE_FORMAT, KEY_NEW, newValue) + JOSPMsgParams.ITEMS_SEP
+                + String.format(JOSPMsgParams.KEY_VALUE_FORMAT, KEY_OLD, oldValue);
+    }
+
+    private static double[] parseRange(String[] values, String payload) {
+        if (values == null)
+            return null;
+        Double newValue = JavaFormatter.strToDouble(values[0]);
+        Double oldValue = JavaFormatter.strToDouble(values[1]);
+        if (newValue == null || oldValue == null)
+            return null;
+        if (!payload.equals(formatNewOld(JavaFormatter.doubleToStr(newValue), JavaFormatter.doubleToStr(oldValue))))
+            return null;
+        return new double[]{newValue, oldValue};
+    }
+
+    private static boolean[] parseBoolean(String[] values, String payload) {
+        if (values == null)
+            return null;
+        boolean newValue = Boolean.parseBoolean(values[0]);
+        boolean oldValue = Boolean.parseBoolean(values[1]);
+        if (!payload.equals(formatNewOld(Boolean.toString(newValue), Boolean.toString(oldValue))))
+            return null;
+        return new boolean[]{newValue, oldValue};
+    }
+
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * The John Object Daemon is the agent software to connect "objects"
+ * to an IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package com.robypomper.josp.jod.history;
+
+
+/**
+ * Resolution of the statuses returned by the history requests.
+ * <p>
+ * The {@link #RAW} resolution returns the registered statuses, all others
+ * resolutions return the statuses pre-aggregated into time buckets of the
+ * given length (rollups). Rollups are available only for
+ * {@link com.robypomper.josp.jod.structure.pillars.JODRangeState} components.
+ */
+public enum HistoryResolution {
+
+    /**
+     * Registered statuses, no aggregation.
+     */
+    RAW(0),
+    /**
+     * Statuses aggregated by minute.
+     */
+    MINUTE(60 * 1000L),
+    /**
+     * Statuses aggregated by hour.
+     */
+    HOUR(60 * 60 * 1000L),
+    /**
+     * Statuses aggregated by day.
+     */
+    DAY(24 * 60 * 60 * 1000L),
+    /**
+     * The finest resolution that returns at most
+     * 'jod.history.rollups_max_points' statuses.
+     */
+    AUTO(-1);
+
+
+    // Internal vars
+
+    private final long bucketLength;
+
+
+    // Constructor
+
+    HistoryResolution(long bucketLength) {
+        this.bucketLength = bucketLength;
+    }
+
+
+    // Getters
+
+    /**
+     * @return the length, in ms, of the time buckets of current resolution.
+     */
+    public long getBucketLength() {
+        return bucketLength;
+    }
+
+    /**
+     * @return true if current resolution is served by the rollups.
+     */
+    public boolean isRollup() {
+        return bucketLength > 0;
+    }
+
+}
@@ -0,0 +1,520 @@
+/*******************************************************************************
+ * The John Object Daemon is the agent software to connect "objects"
+ * to an IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package com.robypomper.josp.jod.history;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.robypomper.java.JavaFormatter;
+import com.robypomper.java.JavaTimers;
+import com.robypomper.josp.jod.structure.StructureDefinitions;
+import com.robypomper.josp.protocol.JOSPHistory;
+import com.robypomper.josp.protocol.JOSPMsgParams;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+
+/**
+ * Pre-aggregated statuses of the {@link StructureDefinitions#TYPE_RANGE_STATE}
+ * components.
+ * <p>
+ * For each component, it keeps a tier of time buckets for each
+ * {@link HistoryResolution} that is a rollup. Each bucket contains the min,
+ * max, avg, last value and count of the statuses registered during his time
+ * interval. So long-range history requests can be served with few buckets
+ * instead of all registered statuses.
+ * <p>
+ * Each tier keeps a limited number of buckets (see
+ * {@link #getMaxBuckets(HistoryResolution)}), when it's full, the oldest
+ * bucket is removed. Tiers are independent of the history storage, so
+ * coarse tiers outlive the statuses removed from the history storage.
+ * <p>
+ * Rollups are stored on file by the {@link #store()} method. Statuses
+ * registered after latest store can be added again with the
+ * {@link #add(List)} method, because statuses with id less or equal to
+ * {@link #getLastId()} are ignored. When checkpoints are enabled via the
+ * {@link #enableCheckpoints(long)} method, changed rollups are also stored
+ * periodically.
+ */
+class HistoryRollups {
+
+    // Class constants
+
+    static final int MINUTE_MAX_BUCKETS = 24 * 60;          // 1 day
+    static final int HOUR_MAX_BUCKETS = 31 * 24;            // 1 month
+    static final int DAY_MAX_BUCKETS = 2 * 366;             // 2 years
+    static final HistoryResolution[] TIERS = new HistoryResolution[]{HistoryResolution.MINUTE, HistoryResolution.HOUR, HistoryResolution.DAY};
+    static final String TH_CHECKPOINT_NAME = "_HISTORY_ROLLUPS_%s_";
+
+
+    // Internal vars
+
+    private static final Logger log = LoggerFactory.getLogger(HistoryRollups.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private final File file;
+    private final Map<String, Component> components = new HashMap<>();
+    private long lastId = -1;
+    private boolean changed = false;
+    private Timer checkpointTimer = null;
+
+
+    // Constructor
+
+    /**
+     * Create new rollups and load them from given file, if exists.
+     *
+     * @param file the file to use to store the rollups.
+     */
+    HistoryRollups(File file) {
+        this.file = file;
+
+        if (!file.exists())
+            return;
+        try {
+            Data data = mapper.readValue(file, Data.class);
+            for (Component c : data.components)
+                components.put(toKey(c.compPath), c);
+            lastId = data.lastId;
+
+        } catch (IOException e) {
+            log.warn(String.format("Error on loading history rollups from file '%s', rollups will be rebuilt (%s)", file.getPath(), e.getMessage()));
+        }
+    }
+
+
+    // Rollups updates
+
+    /**
+     * @return the id of the latest status added to the rollups.
+     */
+    synchronized long getLastId() {
+        return lastId;
+    }
+
+    /**
+     * Set the id of the latest status added to the rollups, used when the
+     * statuses ids restarted.
+     */
+    synchronized void resetLastId(long lastId) {
+        this.lastId = lastId;
+        changed = true;
+    }
+
+    /**
+     * Add given statuses to the rollups. Statuses with id less or equal to
+     * {@link #getLastId()} and statuses of not range components are ignored.
+     *
+     * @param items the statuses to add, ordered by id.
+     */
+    synchronized void add(List<JOSPHistory> items) {
+        for (JOSPHistory h : items) {
+            if (h.getId() <= lastId)
+                continue;
+            lastId = h.getId();
+            changed = true;
+            if (!StructureDefinitions.TYPE_RANGE_STATE.equalsIgnoreCase(h.getCompType()))
+                continue;
+
+            Double value = parseNewValue(h.getPayload());
+            if (value == null)
+                continue;
+
+            String key = toKey(h.getCompPath());
+            Component comp = components.get(key);
+            if (comp == null) {
+                comp = new Component(h.getCompPath(), h.getCompType());
+                components.put(key, comp);
+            }
+            for (HistoryResolution res : TIERS)
+                comp.getTier(res).add(res, h.getId(), h.getUpdatedAt().getTime(), value);
+        }
+    }
+
+    /**
+     * Store the rollups on file, if changed since latest store.
+     */
+    synchronized void store() throws IOException {
+        if (!changed)
+            return;
+
+        Data data = new Data();
+        data.lastId = lastId;
+        data.components = new ArrayList<>(components.values());
+        mapper.writeValue(file, data);
+        changed = false;
+    }
+
+
+    // Checkpoints
+
+    /**
+     * Periodically store the rollups on file, if changed.
+     *
+     * @param interval the time in ms between two stores, if 0 the rollups
+     *                 are not stored periodically.
+     */
+    synchronized void enableCheckpoints(long interval) {
+        disableCheckpoints();
+
+        if (interval > 0)
+            checkpointTimer = JavaTimers.initAndStart(new CheckpointTimer(), true, String.format(TH_CHECKPOINT_NAME, file.getName()), file.getName(), interval, interval);
+    }
+
+    /**
+     * Stop storing the rollups periodically.
+     */
+    synchronized void disableCheckpoints() {
+        if (checkpointTimer == null)
+            return;
+
+        JavaTimers.stopTimer(checkpointTimer);
+        checkpointTimer = null;
+    }
+
+    private class CheckpointTimer implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                store();
+            } catch (IOException e) {
+                log.warn(String.format("Error on storing history rollups on file '%s' (%s)", file.getPath(), e.getMessage()));
+            }
+        }
+
+    }
+
+
+    // Rollups queries
+
+    /**
+     * @return true if there are rollups for given component.
+     */
+    synchronized boolean contains(String compPath) {
+        return components.containsKey(toKey(compPath));
+    }
+
+    /**
+     * @return true if given resolution's tier of given component contains
+     * all buckets since <code>fromDate</code>, false if older buckets were
+     * already removed from the tier.
+     */
+    synchronized boolean covers(String compPath, HistoryResolution res, Date fromDate) {
+        Tier tier = getTier(compPath, res);
+        if (tier == null || !tier.truncated)
+            return true;
+        return fromDate != null && !tier.buckets.isEmpty() && tier.buckets.get(0).start <= fromDate.getTime();
+    }
+
+    /**
+     * @return the number of buckets of given component and resolution that
+     * overlap given dates range.
+     */
+    synchronized int countByDate(String compPath, HistoryResolution res, Date fromDate, Date toDate) {
+        Tier tier = getTier(compPath, res);
+        return tier != null ? tier.byDate(res, fromDate, toDate).size() : 0;
+    }
+
+    /**
+     * @return the latest <code>count</code> buckets of given component and
+     * resolution, ordered by date.
+     */
+    synchronized List<JOSPHistory> latest(String compPath, HistoryResolution res, long count) {
+        Tier tier = getTier(compPath, res);
+        if (tier == null)
+            return new ArrayList<>();
+        int size = tier.buckets.size();
+        return toHistory(compPath, tier, (int) Math.max(0, size - count), size);
+    }
+
+    /**
+     * @return the oldest <code>count</code> buckets of given component and
+     * resolution, ordered by date.
+     */
+    synchronized List<JOSPHistory> ancient(String compPath, HistoryResolution res, long count) {
+        Tier tier = getTier(compPath, res);
+        if (tier == null)
+            return new ArrayList<>();
+        return toHistory(compPath, tier, 0, (int) Math.min(tier.buckets.size(), count));
+    }
+
+    /**
+     * @return the buckets of given component and resolution, that contains
+     * statuses with id between given ids (both included), ordered by date.
+     */
+    synchronized List<JOSPHistory> byId(String compPath, HistoryResolution res, long fromId, long toId) {
+        Tier tier = getTier(compPath, res);
+        if (tier == null)
+            return new ArrayList<>();
+        int from = 0;
+        while (from < tier.buckets.size() && tier.buckets.get(from).lastId < fromId)
+            from++;
+        int to = from;
+        while (to < tier.buckets.size() && tier.buckets.get(to).firstId <= toId)
+            to++;
+        return toHistory(compPath, tier, from, to);
+    }
+
+    /**
+     * @return the buckets of given component and resolution that overlap
+     * given dates range, ordered by date.
+     */
+    synchronized List<JOSPHistory> byDate(String compPath, HistoryResolution res, Date fromDate, Date toDate) {
+        Tier tier = getTier(compPath, res);
+        if (tier == null)
+            return new ArrayList<>();
+        List<Integer> positions = tier.byDate(res, fromDate, toDate);
+        if (positions.isEmpty())
+            return new ArrayList<>();
+        return toHistory(compPath, tier, positions.get(0), positions.get(positions.size() - 1) + 1);
+    }
+
+    /**
+     * @return the buckets of given component and resolution in the given
+     * page, ordered by date.
+     */
+    synchronized List<JOSPHistory> page(String compPath, HistoryResolution res, int pageNum, int pageSize) {
+        Tier tier = getTier(compPath, res);
+        if (tier == null)
+            return new ArrayList<>();
+        int posStart = pageNum * pageSize;
+        if (posStart > tier.buckets.size() - 1)
+            return new ArrayList<>();
+        return toHistory(compPath, tier, posStart, Math.min(posStart + pageSize, tier.buckets.size()));
+    }
+
+    /**
+     * @return all buckets of given component and resolution, ordered by date.
+     */
+    synchronized List<JOSPHistory> all(String compPath, HistoryResolution res) {
+        Tier tier = getTier(compPath, res);
+        if (tier == null)
+            return new ArrayList<>();
+        return toHistory(compPath, tier, 0, tier.buckets.size());
+    }
+
+
+    // Utils
+
+    /**
+     * @return the max number of buckets kept for given resolution.
+     */
+    static int getMaxBuckets(HistoryResolution res) {
+        switch (res) {
+            case MINUTE:
+                return MINUTE_MAX_BUCKETS;
+            case HOUR:
+                return HOUR_MAX_BUCKETS;
+            case DAY:
+                return DAY_MAX_BUCKETS;
+            default:
+                return 0;
+        }
+    }
+
+    private Tier getTier(String compPath, HistoryResolution res) {
+        Component comp = components.get(toKey(compPath));
+        return comp != null ? comp.getTier(res) : null;
+    }
+
+    /**
+     * Convert the buckets from <code>from</code> (included) to <code>to</code>
+     * (excluded) to statuses.
+     * <p>
+     * Each status has the id of the latest status contained in the bucket,
+     * the bucket's start as date and a payload compatible with the range
+     * statuses. The 'new' value is the bucket's avg and the 'old' value is the
+     * previous bucket's avg, then the payload contains also the bucket's
+     * 'min', 'max', 'last' and 'count' values.
+     */
+    private static List<JOSPHistory> toHistory(String compPath, Tier tier, int from, int to) {
+        List<JOSPHistory> result = new ArrayList<>(Math.max(0, to - from));
+        for (int i = from; i < to; i++) {
+            Bucket b = tier.buckets.get(i);
+            double oldAvg = i > 0 ? tier.buckets.get(i - 1).getAvg() : b.getAvg();
+            String payload = formatValue("new", b.getAvg())
+                    + JOSPMsgParams.ITEMS_SEP + formatValue("old", oldAvg)
+                    + JOSPMsgParams.ITEMS_SEP + formatValue("min", b.min)
+                    + JOSPMsgParams.ITEMS_SEP + formatValue("max", b.max)
+                    + JOSPMsgParams.ITEMS_SEP + formatValue("last", b.last)
+                    + JOSPMsgParams.ITEMS_SEP + String.format(JOSPMsgParams.KEY_VALUE_FORMAT, "count", b.count);
+            result.add(new JOSPHistory(b.lastId, compPath, StructureDefinitions.TYPE_RANGE_STATE, new Date(b.start), payload));
+        }
+        return result;
+    }
+
+    private static String formatValue(String key, double value) {
+        return String.format(JOSPMsgParams.KEY_VALUE_FORMAT, key, JavaFormatter.doubleToStr(value));
+    }
+
+    /**
+     * @return the 'new' value of given range status's payload, or null if it
+     * can't be parsed.
+     */
+    private static Double parseNewValue(String payload) {
+        if (payload == null)
+            return null;
+        for (String line : payload.split(JOSPMsgParams.ITEMS_SEP)) {
+            int sep = line.indexOf(JOSPMsgParams.KEY_VALUE_SEP);
+            if (sep > 0 && line.substring(0, sep).equals("new"))
+                return JavaFormatter.strToDouble(line.substring(sep + 1));
+        }
+        return null;
+    }
+
+    private static String toKey(String compPath) {
+        return compPath.toLowerCase();
+    }
+
+
+    // Internal classes
+
+    /**
+     * Rollups file's content.
+     */
+    public static class Data {
+
+        public long lastId = -1;
+        public List<Component> components = new ArrayList<>();
+
+    }
+
+    /**
+     * Rollups tiers of a single component.
+     */
+    public static class Component {
+
+        public String compPath;
+        public String compType;
+        public Tier minute = new Tier();
+        public Tier hour = new Tier();
+        public Tier day = new Tier();
+
+        public Component() {
+        }
+
+        Component(String compPath, String compType) {
+            this.compPath = compPath;
+            this.compType = compType;
+        }
+
+        Tier getTier(HistoryResolution res) {
+            switch (res) {
+                case MINUTE:
+                    return minute;
+                case HOUR:
+                    return hour;
+                case DAY:
+                    return day;
+                default:
+                    return null;
+            }
+        }
+
+    }
+
+    /**
+     * Buckets of a single component and resolution, ordered by date.
+     */
+    public static class Tier {
+
+        public List<Bucket> buckets = new ArrayList<>();
+        /** True if oldest buckets were removed from current tier */
+        public boolean truncated = false;
+
+        void add(HistoryResolution res, long id, long date, double value) {
+            long start = date - Math.floorMod(date, res.getBucketLength());
+            Bucket last = buckets.isEmpty() ? null : buckets.get(buckets.size() - 1);
+            // statuses with a date before last bucket are added to last bucket
+            if (last == null || start > last.start) {
+                last = new Bucket(start, id, value);
+                buckets.add(last);
+                if (buckets.size() > getMaxBuckets(res)) {
+                    buckets.remove(0);
+                    truncated = true;
+                }
+            } else
+                last.add(id, value);
+        }
+
+        /**
+         * @return the positions of the buckets that overlap given dates range.
+         */
+        List<Integer> byDate(HistoryResolution res, Date fromDate, Date toDate) {
+            long from = fromDate != null ? fromDate.getTime() : Long.MIN_VALUE;
+            long to = toDate != null ? toDate.getTime() : Long.MAX_VALUE;
+            List<Integer> result = new ArrayList<>();
+            for (int i = 0; i < buckets.size(); i++) {
+                Bucket b = buckets.get(i);
+                if (b.start <= to && b.start + res.getBucketLength() > from)
+                    result.add(i);
+            }
+            return result;
+        }
+
+    }
+
+    /**
+     * Aggregated values of the statuses registered during a time bucket.
+     */
+    public static class Bucket {
+
+        public long start;
+        public long firstId;
+        public long lastId;
+        public long count;
+        public double min;
+        public double max;
+        public double sum;
+        public double last;
+
+        public Bucket() {
+        }
+
+        Bucket(long start, long id, double value) {
+            this.start = start;
+            this.firstId = id;
+            this.lastId = id;
+            this.count = 1;
+            this.min = value;
+            this.max = value;
+            this.sum = value;
+            this.last = value;
+        }
+
+        void add(long id, double value) {
+            lastId = id;
+            count++;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+            last = value;
+        }
+
+        double getAvg() {
+            return count > 0 ? sum / count : 0;
+        }
+
+    }
+
+}
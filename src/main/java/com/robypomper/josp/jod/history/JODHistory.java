@@ -39,6 +39,22 @@ public interface JODHistory {
 
     List<JOSPHistory> getHistoryStatus(JODComponent comp, HistoryLimits limits);
 
+    /**
+     * Return the component's statuses history at given resolution.
+     * <p>
+     * With the {@link HistoryResolution#RAW} resolution, it returns the
+     * registered statuses. With the others resolutions, it returns the
+     * statuses pre-aggregated by minute, hour or day, if available for given
+     * component (only range states). The {@link HistoryResolution#AUTO}
+     * resolution is the one used by {@link #getHistoryStatus(JODComponent, HistoryLimits)}.
+     *
+     * @param comp       the component.
+     * @param limits     the history limits, applied to the returned statuses.
+     * @param resolution the statuses resolution.
+     * @return the component's statuses history.
+     */
+    List<JOSPHistory> getHistoryStatus(JODComponent comp, HistoryLimits limits, HistoryResolution resolution);
+
 
     // Mngm methods
 
@@ -46,8 +62,9 @@ public interface JODHistory {
      * Start syncing events to the cloud.
      * <p>
      * When started, Events system uploads all buffered events to the cloud,
-     * then each time a new event is registered it's also immediately sync to
-     * the cloud.
+     * then each time a new event is registered it's also sync to the cloud.
+     * Uploads are performed, in batches, by a background worker, so the
+     * events registration never waits for the cloud.
      * <p>
      * Until it's stopped.
      * <p>
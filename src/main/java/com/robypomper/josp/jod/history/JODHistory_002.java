@@ -24,7 +24,15 @@ import com.robypomper.josp.callers.apis.core.objects.Caller20;
 import com.robypomper.josp.clients.JCPAPIsClientObj;
 import com.robypomper.josp.clients.JCPClient2;
 import com.robypomper.josp.jod.JODSettings_002;
+import com.robypomper.josp.jod.cache.ItemsCursor;
+import com.robypomper.josp.jod.cache.ItemsStorage;
+import com.robypomper.josp.jod.cache.JSONArrayStorage;
+import com.robypomper.josp.jod.cache.QueryResultsCache;
+import com.robypomper.josp.jod.cache.SegmentedLogStorage;
+import com.robypomper.josp.jod.cache.StorageCompactor;
+import com.robypomper.josp.jod.events.BacklogUploader;
 import com.robypomper.josp.jod.events.CloudStats;
+import com.robypomper.josp.jod.events.CloudSyncWorker;
 import com.robypomper.josp.jod.structure.JODComponent;
 import com.robypomper.josp.jod.structure.JODStateUpdate;
 import com.robypomper.josp.protocol.HistoryLimits;
@@ -37,7 +45,9 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 
 /**
@@ -46,14 +56,27 @@ import java.util.List;
 @SuppressWarnings("Convert2Lambda")
 public class JODHistory_002 implements JODHistory {
 
+    // Class constants
+
+    private static final int ROLLUPS_RECOVERY_CHUNK = 1000;
+    private static final int INDEX_INIT_CHUNK = 1000;
+
+
     // Internal vars
 
     private static final Logger log = LoggerFactory.getLogger(JODHistory_002.class);
     private final JODSettings_002 locSettings;
     private JCPAPIsClientObj jcpClient;
     private Caller20 apiObjsCaller;
-    private final StatusHistoryArray histories;
+    private final ItemsStorage<JOSPHistory> histories;
     private final CloudStats stats;
+    private final BacklogUploader<JOSPHistory> backlogUploader;
+    private final CloudSyncWorker syncWorker;
+    private final StorageCompactor compactor;
+    private final long recoveryTime;
+    private final HistoryRollups rollups;
+    private final QueryResultsCache<JOSPHistory> queryCache;
+    private volatile HistoryComponentsIndex compIndex = null;
     private boolean isSyncing = false;
 
 
@@ -66,6 +89,7 @@ public class JODHistory_002 implements JODHistory {
      * @param jcpClient the JCP client.
      */
     public JODHistory_002(JODSettings_002 settings, JCPAPIsClientObj jcpClient) {
+        long start = new Date().getTime();
         this.locSettings = settings;
         setJCPClient(jcpClient);
 
@@ -73,19 +97,14 @@ public class JODHistory_002 implements JODHistory {
         File statsFile = locSettings.getHistoryFileStatsPath();
 
         // Load statuses
-        StatusHistoryArray tmpHistories = null;
+        ItemsStorage<JOSPHistory> tmpHistories = null;
         if (!historiesFile.getParentFile().exists()) {
             if (!historiesFile.getParentFile().mkdirs())
                 log.warn("Error on creating History file's dir.");
-        } else if (historiesFile.exists())
+        } else if (existsHistoryStorage(historiesFile) || migrateJSONHistoryStorage(historiesFile))
             try {
-                tmpHistories = new StatusHistoryArray(historiesFile,
-                        locSettings.getHistoryKeepInMemory(),
-                        locSettings.getHistoryBufferSize(),
-                        locSettings.getHistoryBufferReleaseSize(),
-                        locSettings.getHistoryFileSize(),
-                        locSettings.getHistoryFileReleaseSize());
-            } catch (JavaJSONArrayToFile.FileException e) {
+                tmpHistories = initHistoryStorage(historiesFile);
+            } catch (IOException e) {
                 log.warn("Error on loading History file.", e);
             }
 
@@ -116,16 +135,11 @@ public class JODHistory_002 implements JODHistory {
                 log.warn("Error on creating History stats file.", e);
             }
             // generate histories
-            if (!historiesFile.delete())
+            if (!deleteHistoryStorage(historiesFile))
                 log.warn("Error on deleting History file.");
             try {
-                tmpHistories = new StatusHistoryArray(historiesFile,
-                        locSettings.getHistoryKeepInMemory(),
-                        locSettings.getHistoryBufferSize(),
-                        locSettings.getHistoryBufferReleaseSize(),
-                        locSettings.getHistoryFileSize(),
-                        locSettings.getHistoryFileReleaseSize());
-            } catch (JavaJSONArrayToFile.FileException e) {
+                tmpHistories = initHistoryStorage(historiesFile);
+            } catch (IOException e) {
                 log.warn("Error on creating History file.", e);
             }
 
@@ -149,16 +163,11 @@ public class JODHistory_002 implements JODHistory {
         } else if (tmpHistories == null) {      // tmpStats != null ALWAYS true
             // stats already loaded
             //      generate statuses _from stats
-            if (!historiesFile.delete())
+            if (!deleteHistoryStorage(historiesFile))
                 log.warn("Error on deleting History file.");
             try {
-                tmpHistories = new StatusHistoryArray(historiesFile,
-                        locSettings.getHistoryKeepInMemory(),
-                        locSettings.getHistoryBufferSize(),
-                        locSettings.getHistoryBufferReleaseSize(),
-                        locSettings.getHistoryFileSize(),
-                        locSettings.getHistoryFileReleaseSize());
-            } catch (JavaJSONArrayToFile.FileException e) {
+                tmpHistories = initHistoryStorage(historiesFile);
+            } catch (IOException e) {
                 log.warn("Error on creating History file.", e);
             }
             //          statuses non può essere generato
@@ -173,13 +182,156 @@ public class JODHistory_002 implements JODHistory {
         assert tmpHistories != null : "StatusHistoryArray can't be null";
         assert tmpStats != null : "HistoryCloudStats can't be null";
 
+        queryCache = new QueryResultsCache<>(locSettings.getHistoryQueryCacheSize());
         histories = tmpHistories;
+        // index built before observing the storage, so no update can be missed
+        compIndex = initComponentsIndex();
         histories.registerObserver(storageObserver);
         stats = tmpStats;
+        recoverStats();
+        rollups = new HistoryRollups(locSettings.getHistoryFileRollupsPath());
+        recoverRollups();
+        recoveryTime = new Date().getTime() - start;
+        backlogUploader = new BacklogUploader<>("history", cloudBacklog, locSettings.getHistorySyncMaxInFlight());
+        syncWorker = new CloudSyncWorker("history", backlogUploader,
+                locSettings.getHistorySyncBatchSize(),
+                locSettings.getHistorySyncLingerTime(),
+                locSettings.getHistorySyncBackoffMin(),
+                locSettings.getHistorySyncBackoffMax());
+        compactor = initHistoryCompactor();
 
         log.info("Initialized JODHistory instance");
         log.debug(String.format("                                   History buffered %d statuses on file %d", histories.countBuffered(), histories.countFile()));
         log.debug(String.format("                                   History stats lastStored: %d lastUploaded: %d", stats.getLastStored(), stats.getLastUploaded()));
+        log.debug(String.format("                                   History cache loaded and recovered in %d ms", recoveryTime));
+    }
+
+
+    // Storage
+
+    private boolean existsHistoryStorage(File historiesFile) {
+        if (isSegmentsEngine())
+            return SegmentedLogStorage.existsSegments(historiesFile);
+        return historiesFile.exists();
+    }
+
+    private ItemsStorage<JOSPHistory> initHistoryStorage(File historiesFile) throws IOException {
+        if (isSegmentsEngine()) {
+            StatusHistoryLog storage = new StatusHistoryLog(historiesFile,
+                    locSettings.getHistoryBufferSize(),
+                    locSettings.getHistoryBufferReleaseSize(),
+                    locSettings.getHistoryFileSize(),
+                    locSettings.getHistoryFileReleaseSize(),
+                    locSettings.getHistoryStorageCompression());
+            storage.setMemoryMapped(locSettings.getHistoryStorageMmap());
+            storage.setRetention(locSettings.getHistoryStorageMaxBytes(), locSettings.getHistoryStorageMaxAge());
+            return storage;
+        }
+
+        return new JSONArrayStorage<>(new StatusHistoryArray(historiesFile,
+                locSettings.getHistoryKeepInMemory(),
+                locSettings.getHistoryBufferSize(),
+                locSettings.getHistoryBufferReleaseSize(),
+                locSettings.getHistoryFileSize(),
+                locSettings.getHistoryFileReleaseSize()));
+    }
+
+    /**
+     * If the storage engine is 'segments' and the statuses are still stored
+     * by the 'json' engine, copy them into the segments.
+     *
+     * @return true if the statuses were migrated.
+     */
+    private boolean migrateJSONHistoryStorage(File historiesFile) {
+        if (!isSegmentsEngine() || !historiesFile.isFile())
+            return false;
+
+        try {
+            StatusHistoryArray jsonArray = new StatusHistoryArray(historiesFile,
+                    locSettings.getHistoryKeepInMemory(),
+                    locSettings.getHistoryBufferSize(),
+                    locSettings.getHistoryBufferReleaseSize(),
+                    locSettings.getHistoryFileSize(),
+                    locSettings.getHistoryFileReleaseSize());
+            int count = JSONArrayStorage.migrate(jsonArray, historiesFile, initHistoryStorage(historiesFile));
+            log.info(String.format("Migrated %d statuses from JSON file to segments storage", count));
+            return true;
+
+        } catch (IOException e) {
+            log.warn(String.format("Error on migrating statuses from JSON file to segments storage (%s)", e.getMessage()), e);
+            deleteHistoryStorage(historiesFile);
+            return false;
+        }
+    }
+
+    private boolean deleteHistoryStorage(File historiesFile) {
+        if (isSegmentsEngine())
+            return SegmentedLogStorage.deleteSegments(historiesFile) && StatusHistoryLog.deleteDictionary(historiesFile);
+        return historiesFile.delete();
+    }
+
+    private StorageCompactor initHistoryCompactor() {
+        long interval = locSettings.getHistoryCompactionInterval();
+        if (!(histories instanceof SegmentedLogStorage))
+            return null;
+        if (interval <= 0) {
+            if (locSettings.getHistoryStorageCompression())
+                log.warn("History storage's compaction disabled, sealed segments will not be compressed");
+            return null;
+        }
+
+        return new StorageCompactor("history", (SegmentedLogStorage<JOSPHistory>) histories, interval);
+    }
+
+    private boolean isSegmentsEngine() {
+        return ItemsStorage.ENGINE_SEGMENTS.equalsIgnoreCase(locSettings.getHistoryStorageEngine());
+    }
+
+    private void recoverStats() {
+        List<JOSPHistory> oldest = histories.tryAncient(acceptAllFilter, 1);
+        List<JOSPHistory> latest = histories.tryLatest(acceptAllFilter, 1);
+        if (oldest.isEmpty() || latest.isEmpty())
+            return;
+
+        if (stats.recover(oldest.get(0).getId(), latest.get(latest.size() - 1).getId())) {
+            log.warn(String.format("History stats recovered from History file (lastStored: %d; lastDelete: %d)", stats.getLastStored(), stats.getLastDelete()));
+            stats.writeIgnoreExceptions();
+        }
+    }
+
+    private void recoverRollups() {
+        if (rollups.getLastId() > stats.getLastRegistered()) {
+            // statuses ids restarted, because History stats were regenerated
+            log.warn(String.format("History rollups reset latest status id from %d to %d", rollups.getLastId(), stats.getLastRegistered()));
+            rollups.resetLastId(stats.getLastRegistered());
+        }
+        if (rollups.getLastId() == stats.getLastRegistered())
+            return;
+
+        // statuses are streamed, so they are never loaded as a whole
+        final long lastId = rollups.getLastId();
+        JavaJSONArrayToFile.Filter<JOSPHistory> filter = new JavaJSONArrayToFile.Filter<JOSPHistory>() {
+            @Override
+            public boolean accepted(JOSPHistory o) {
+                return o.getId() > lastId;
+            }
+        };
+        ItemsCursor<JOSPHistory> cursor = histories.openCursor(filter, false);
+        List<JOSPHistory> missing = new ArrayList<>(ROLLUPS_RECOVERY_CHUNK);
+        long count = 0;
+        while (cursor.hasNext()) {
+            missing.add(cursor.next());
+            if (missing.size() < ROLLUPS_RECOVERY_CHUNK && cursor.hasNext())
+                continue;
+
+            rollups.add(missing);
+            count += missing.size();
+            missing.clear();
+        }
+        if (count == 0)
+            return;
+
+        log.debug(String.format("History rollups updated with %d statuses from History file", count));
     }
 
 
@@ -194,52 +346,95 @@ public class JODHistory_002 implements JODHistory {
 
             // Update stats
             stats.setLastRegistered(s.getId(), 1);
-            stats.writeIgnoreExceptions();
+            stats.checkpoint();
         }
 
         if (isSyncing)
-            sync();
+            syncWorker.requestSync();
     }
 
-    private void sync() {
-        if (stats.getLastUploaded() == stats.getLastStored()) return;
-        if (jcpClient == null || !jcpClient.isConnected()) return;
+    private final BacklogUploader.Backlog<JOSPHistory> cloudBacklog = new BacklogUploader.Backlog<JOSPHistory>() {
+        @Override
+        public boolean isConnected() {
+            return jcpClient != null && jcpClient.isConnected();
+        }
 
-        List<JOSPHistory> toUpload;
-        synchronized (histories) {
-            try {
-                toUpload = histories.getById(stats.getLastUploaded() != -1 ? stats.getLastUploaded() : null, stats.getLastStored());
-                if (stats.getLastUploaded() != -1 && toUpload.size() > 1)
-                    toUpload.remove(0);
+        @Override
+        public long getLastUploaded() {
+            return stats.getLastUploaded();
+        }
 
-            } catch (JavaJSONArrayToFile.FileException e) {
-                log.warn(String.format("Can't read history from file (CloudStats values lastUpd: %d; lastStored: %d) (%s)", stats.getLastUploaded(), stats.getLastStored(), e));
-                return;
-            }
+        @Override
+        public long getLastStored() {
+            return stats.getLastStored();
+        }
 
-            if (toUpload.isEmpty()) {
-                log.debug(String.format("No statuses found to uploads (CloudStats values lastUpd: %d; lastStored: %d", stats.getLastUploaded(), stats.getLastStored()));
-                return;
+        @Override
+        public List<JOSPHistory> read(long afterId, long toId, int maxCount) {
+            synchronized (histories) {
+                return getItemsToUpload(afterId, toId, maxCount);
             }
+        }
 
-            log.debug(String.format("Upload from %d to %d (%d statuses)", toUpload.get(0).getId(), toUpload.get(toUpload.size() - 1).getId(), toUpload.size()));
-            for (JOSPHistory e : toUpload)
+        @Override
+        public long getId(JOSPHistory item) {
+            return item.getId();
+        }
+
+        @Override
+        public boolean send(List<JOSPHistory> chunk) {
+            log.debug(String.format("Upload from %d to %d (%d statuses)", chunk.get(0).getId(), chunk.get(chunk.size() - 1).getId(), chunk.size()));
+            for (JOSPHistory e : chunk)
                 log.trace(String.format("- event[%d] %s", e.getId(), e.getPayload()));
 
             try {
-                apiObjsCaller.postHistory(JOSPHistory.toHistoryMessagees(toUpload));
+                apiObjsCaller.postHistory(JOSPHistory.toHistoryMessagees(chunk));
+                return true;
 
             } catch (JCPClient2.ConnectionException |
                      JCPClient2.AuthenticationException |
                      JCPClient2.ResponseException |
                      JCPClient2.RequestException e) {
                 log.warn(String.format("Can't upload statuses history (CloudStats values lastUpd: %d; lastStored: %d) (%s)", stats.getLastUploaded(), stats.getLastStored(), e));
-                return;
+                return false;
             }
+        }
 
-            stats.setLastUploaded(toUpload.get(toUpload.size() - 1).getId(), toUpload.size());
-            stats.writeIgnoreExceptions();
+        @Override
+        public void acknowledge(List<JOSPHistory> chunk) {
+            synchronized (histories) {
+                stats.setLastUploaded(chunk.get(chunk.size() - 1).getId(), chunk.size());
+                stats.writeIgnoreExceptions();
+            }
         }
+    };
+
+    /**
+     * Return the stored statuses after <code>lastUploaded</code> and until
+     * <code>lastStored</code>, at most <code>maxBatchSize</code> statuses.
+     * <p>
+     * The statuses are read by ids range and, only if statuses after
+     * <code>lastUploaded</code> were deleted before their upload, via a
+     * cursor. So, the backlog is never read as a whole.
+     */
+    private List<JOSPHistory> getItemsToUpload(final long lastUploaded, final long lastStored, int maxBatchSize) {
+        JavaJSONArrayToFile.Filter<JOSPHistory> filter = new JavaJSONArrayToFile.Filter<JOSPHistory>() {
+            @Override
+            public boolean accepted(JOSPHistory o) {
+                return o.getId() > lastUploaded && o.getId() <= lastStored;
+            }
+        };
+
+        List<JOSPHistory> items = histories.tryById(filter, lastUploaded + 1, Math.min(lastStored, lastUploaded + maxBatchSize));
+        if (!items.isEmpty())
+            return items;
+
+        // statuses after lastUploaded deleted before upload
+        ItemsCursor<JOSPHistory> cursor = histories.openCursor(filter, false);
+        List<JOSPHistory> toUpload = new ArrayList<>();
+        while (toUpload.size() < maxBatchSize && cursor.hasNext())
+            toUpload.add(cursor.next());
+        return toUpload;
     }
 
     @Override
@@ -249,21 +444,34 @@ public class JODHistory_002 implements JODHistory {
         log.debug(String.format("Events buffered %d statuses on file %d", histories.countBuffered(), histories.countFile()));
         log.debug(String.format("Events stats lastStored: %d lastUploaded: %d", stats.getLastStored(), stats.getLastUploaded()));
 
-        sync();
+        stats.enableCheckpoints(locSettings.getHistoryStatsCheckpointInterval(), locSettings.getHistoryStatsCheckpointBatch());
+        backlogUploader.start();
+        syncWorker.start();
+        if (compactor != null)
+            compactor.start();
+        rollups.enableCheckpoints(locSettings.getHistoryRollupsCheckpointInterval());
     }
 
     @Override
     public void stopCloudSync() {
+        isSyncing = false;
+        syncWorker.stop();
+        backlogUploader.stop();
+        if (compactor != null)
+            compactor.stop();
+        stats.disableCheckpoints();
+        rollups.disableCheckpoints();
         synchronized (histories) {
-            isSyncing = false;
             try {
                 histories.storeCache();
+                stats.write();
+                rollups.store();
 
                 log.info("Stop history sync to cloud");
                 log.debug(String.format("Events buffered %d statuses on file %d", histories.countBuffered(), histories.countFile()));
                 log.debug(String.format("Events stats lastStored: %d lastUploaded: %d", stats.getLastStored(), stats.getLastUploaded()));
 
-            } catch (JavaJSONArrayToFile.FileException ignore) {
+            } catch (IOException ignore) {
                 assert false;
             }
         }
@@ -272,12 +480,159 @@ public class JODHistory_002 implements JODHistory {
 
     // Getters and setters
 
+    /**
+     * @return the time, in ms, spent on startup to load the local cache and
+     * to recover it after a crash.
+     */
+    public long getRecoveryTime() {
+        return recoveryTime;
+    }
+
+    /**
+     * @return the number of statuses to upload when current backlog's upload
+     * started, or 0 if the cloud is in sync.
+     */
+    public long getSyncBacklogCount() {
+        return backlogUploader.getBacklogCount();
+    }
+
+    /**
+     * @return the number of statuses uploaded since current backlog's upload
+     * started.
+     */
+    public long getSyncUploadedCount() {
+        return backlogUploader.getUploadedCount();
+    }
+
     @Override
     public List<JOSPHistory> getHistoryStatus(JODComponent comp, HistoryLimits limits) {
+        return getHistoryStatus(comp, limits, HistoryResolution.AUTO);
+    }
+
+    @Override
+    public List<JOSPHistory> getHistoryStatus(JODComponent comp, HistoryLimits limits, HistoryResolution resolution) {
+        String compPath = comp.getPath().getString();
+        String group = compPath.toLowerCase();
+        String key = resolution.name() + ":" + QueryResultsCache.toKey(limits);
+        List<JOSPHistory> cached = queryCache.get(group, key);
+        if (cached != null)
+            return cached;
+
+        long version = queryCache.getVersion(group);
+        return queryCache.put(group, key, version, queryHistoryStatus(compPath, limits, resolution));
+    }
+
+    private List<JOSPHistory> queryHistoryStatus(String compPath, HistoryLimits limits, HistoryResolution resolution) {
+        if (resolution == HistoryResolution.AUTO)
+            resolution = resolveResolution(compPath, limits);
+        if (resolution.isRollup())
+            return getRollupsStatus(compPath, limits, resolution);
+
+        HistoryComponentsIndex index = compIndex;
+        if (index == null)
+            return scanHistoryStatus(compPath, limits);
+
+        List<Long> ids;
+        if (HistoryLimits.isLatestCount(limits))
+            ids = index.latest(compPath, limits.getLatestCount());
+
+        else if (HistoryLimits.isAncientCount(limits))
+            ids = index.ancient(compPath, limits.getAncientCount());
+
+        else if (HistoryLimits.isIDRange(limits))
+            ids = index.byId(compPath, limits.getFromIDOrDefault(), limits.getToIDOrDefault());
+
+        else if (HistoryLimits.isDateRange(limits))
+            ids = index.byDate(compPath, limits.getFromDateOrDefault(), limits.getToDateOrDefault());
+
+        else if (HistoryLimits.isPageRange(limits))
+            ids = index.page(compPath, limits.getPageNumOrDefault(), limits.getPageSizeOrDefault());
+
+        else
+            ids = index.all(compPath);
+
+        return readHistoryStatus(ids);
+    }
+
+    /**
+     * Select the resolution for a history request with the
+     * {@link HistoryResolution#AUTO} resolution.
+     * <p>
+     * Only requests by dates range or for all statuses can be served from
+     * the rollups. When the registered statuses for the request are more than
+     * 'jod.history.rollups_max_points', it returns the finest rollups that
+     * cover the requested dates range with at most that number of statuses.
+     */
+    private HistoryResolution resolveResolution(String compPath, HistoryLimits limits) {
+        int maxPoints = locSettings.getHistoryRollupsMaxPoints();
+        if (maxPoints <= 0 || !rollups.contains(compPath))
+            return HistoryResolution.RAW;
+
+        Date fromDate = null;
+        Date toDate = null;
+        if (HistoryLimits.isDateRange(limits)) {
+            fromDate = limits.getFromDateOrDefault();
+            toDate = limits.getToDateOrDefault();
+        } else if (HistoryLimits.isLatestCount(limits) || HistoryLimits.isAncientCount(limits)
+                || HistoryLimits.isIDRange(limits) || HistoryLimits.isPageRange(limits))
+            return HistoryResolution.RAW;
+
+        HistoryComponentsIndex index = compIndex;
+        if (index == null)
+            return HistoryResolution.RAW;
+        int rawCount = fromDate == null && toDate == null ? index.count(compPath) : index.byDate(compPath, fromDate, toDate).size();
+        if (rawCount <= maxPoints)
+            return HistoryResolution.RAW;
+
+        for (HistoryResolution res : HistoryRollups.TIERS)
+            if (rollups.covers(compPath, res, fromDate) && rollups.countByDate(compPath, res, fromDate, toDate) <= maxPoints)
+                return res;
+        return HistoryResolution.DAY;
+    }
+
+    private List<JOSPHistory> getRollupsStatus(String compPath, HistoryLimits limits, HistoryResolution resolution) {
+        if (HistoryLimits.isLatestCount(limits))
+            return rollups.latest(compPath, resolution, limits.getLatestCount());
+
+        if (HistoryLimits.isAncientCount(limits))
+            return rollups.ancient(compPath, resolution, limits.getAncientCount());
+
+        if (HistoryLimits.isIDRange(limits))
+            return rollups.byId(compPath, resolution, limits.getFromIDOrDefault(), limits.getToIDOrDefault());
+
+        if (HistoryLimits.isDateRange(limits))
+            return rollups.byDate(compPath, resolution, limits.getFromDateOrDefault(), limits.getToDateOrDefault());
+
+        if (HistoryLimits.isPageRange(limits))
+            return rollups.page(compPath, resolution, limits.getPageNumOrDefault(), limits.getPageSizeOrDefault());
+
+        return rollups.all(compPath, resolution);
+    }
+
+    private List<JOSPHistory> readHistoryStatus(List<Long> ids) {
+        if (ids.isEmpty())
+            return new ArrayList<>();
+
+        Set<Long> idsSet = new HashSet<>(ids);
+        JavaJSONArrayToFile.Filter<JOSPHistory> filter = new JavaJSONArrayToFile.Filter<JOSPHistory>() {
+            @Override
+            public boolean accepted(JOSPHistory o) {
+                return idsSet.contains(o.getId());
+            }
+        };
+        return histories.tryByIds(filter, ids);
+    }
+
+    /**
+     * Fallback for {@link #getHistoryStatus(JODComponent, HistoryLimits)},
+     * used when the components index is not available: it reads all
+     * statuses and filters them by component.
+     */
+    private List<JOSPHistory> scanHistoryStatus(String compPath, HistoryLimits limits) {
         JavaJSONArrayToFile.Filter<JOSPHistory> filter = new JavaJSONArrayToFile.Filter<JOSPHistory>() {
             @Override
             public boolean accepted(JOSPHistory o) {
-                return o.getCompPath().equalsIgnoreCase(comp.getPath().getString());
+                return o.getCompPath().equalsIgnoreCase(compPath);
             }
         };
 
@@ -293,31 +648,41 @@ public class JODHistory_002 implements JODHistory {
         if (HistoryLimits.isDateRange(limits))
             return histories.tryByDate(filter, limits.getFromDateOrDefault(), limits.getToDateOrDefault());
 
-        if (HistoryLimits.isPageRange(limits)) {
-            try {
-                List<JOSPHistory> all = histories.filterAll(filter);
-                int page = limits.getPageNumOrDefault();
-                int size = limits.getPageSizeOrDefault();
-
-                int posStart = page * size;
-                if (posStart > all.size() - 1)
-                    return new ArrayList<>();
+        if (HistoryLimits.isPageRange(limits))
+            return histories.tryPage(filter, limits.getPageNumOrDefault(), limits.getPageSizeOrDefault());
 
-                int posEnd = (page * size) + size - 1;
-                if (posEnd >= all.size() - 1)
-                    posEnd = all.size() - 1;
-                return all.subList(posStart, posEnd + 1);
+        try {
+            return histories.filterAll(filter);
 
-            } catch (JavaJSONArrayToFile.FileException e) {
-                return new ArrayList<>();
-            }
+        } catch (IOException e) {
+            return new ArrayList<>();
         }
+    }
 
+    /**
+     * Initialize the components index streaming all statuses from the
+     * history storage, so they are never loaded as a whole.
+     *
+     * @return the components index, or null if it can't be initialized.
+     */
+    private HistoryComponentsIndex initComponentsIndex() {
         try {
-            return histories.filterAll(filter);
+            HistoryComponentsIndex index = new HistoryComponentsIndex();
+            ItemsCursor<JOSPHistory> cursor = histories.openCursor(acceptAllFilter, false);
+            List<JOSPHistory> chunk = new ArrayList<>(INDEX_INIT_CHUNK);
+            while (cursor.hasNext()) {
+                chunk.add(cursor.next());
+                if (chunk.size() < INDEX_INIT_CHUNK && cursor.hasNext())
+                    continue;
+
+                index.add(chunk);
+                chunk.clear();
+            }
+            return index;
 
-        } catch (JavaJSONArrayToFile.FileException e) {
-            return new ArrayList<>();
+        } catch (RuntimeException e) {
+            log.warn(String.format("Can't initialize history's components index, history requests will scan all statuses (%s)", e));
+            return null;
         }
     }
 
@@ -335,6 +700,8 @@ public class JODHistory_002 implements JODHistory {
     @Override
     public void storeCache() throws IOException {
         histories.storeCache();
+        stats.write();
+        rollups.store();
     }
 
 
@@ -344,7 +711,8 @@ public class JODHistory_002 implements JODHistory {
 
         @Override
         public void onConnected(JCPClient2 jcpClient) {
-            sync();
+            if (isSyncing)
+                syncWorker.requestSync();
         }
 
         @Override
@@ -361,17 +729,38 @@ public class JODHistory_002 implements JODHistory {
 
     };
 
-    private final JavaJSONArrayToFile.Observer<JOSPHistory> storageObserver = new JavaJSONArrayToFile.Observer<JOSPHistory>() {
+    private void invalidateQueryCache(List<JOSPHistory> items) {
+        Set<String> comps = new HashSet<>();
+        for (JOSPHistory h : items)
+            comps.add(h.getCompPath().toLowerCase());
+        for (String comp : comps)
+            queryCache.invalidate(comp);
+    }
+
+    private final JavaJSONArrayToFile.Filter<JOSPHistory> acceptAllFilter = new JavaJSONArrayToFile.Filter<JOSPHistory>() {
+        @Override
+        public boolean accepted(JOSPHistory o) {
+            return true;
+        }
+    };
+
+    private final ItemsStorage.RangeObserver<JOSPHistory> storageObserver = new ItemsStorage.RangeObserver<JOSPHistory>() {
         @Override
         public void onAdded(List<JOSPHistory> items) {
-            // Nothing to do, already done in register method
+            // Stats already updated in register method
+            if (compIndex != null)
+                compIndex.add(items);
+            rollups.add(items);
+            invalidateQueryCache(items);
         }
 
         @Override
         public void onFlushed(List<JOSPHistory> items, boolean auto) {
             // Update stats
             stats.setLastStored(items.get(items.size() - 1).getId(), items.size());
-            stats.writeIgnoreExceptions();
+            stats.checkpoint();
+            if (compactor != null)
+                compactor.requestCompaction();
         }
 
         @Override
@@ -385,7 +774,29 @@ public class JODHistory_002 implements JODHistory {
             }
             // Update stats
             stats.setLastDelete(items.get(items.size() - 1).getId(), items.size(), countLost);
-            stats.writeIgnoreExceptions();
+            stats.checkpoint();
+
+            if (compIndex != null)
+                compIndex.remove(items);
+            invalidateQueryCache(items);
+        }
+
+        @Override
+        public void onRemovedRange(long fromId, long toId, long count, boolean auto) {
+            // Statuses ids are contiguous, so lost statuses are the ones after lastUploaded
+            long countLost = count;
+            if (stats.getLastUploaded() != -1)
+                countLost = Math.max(0, Math.min(count, toId - stats.getLastUploaded()));
+            // Update stats
+            stats.setLastDelete(toId, (int) count, (int) countLost);
+            stats.checkpoint();
+
+            if (compIndex == null) {
+                queryCache.invalidateAll();
+                return;
+            }
+            for (String comp : compIndex.removeUntil(toId))
+                queryCache.invalidate(comp);
         }
     };
 
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * The John Object Daemon is the agent software to connect "objects"
+ * to an IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package com.robypomper.josp.jod.history;
+
+import com.robypomper.josp.jod.cache.SegmentedLogStorage;
+import com.robypomper.josp.protocol.JOSPHistory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+
+public class StatusHistoryLog extends SegmentedLogStorage<JOSPHistory> {
+
+    // Internal vars
+
+    private final HistoryRecordCodec codec;
+
+
+    // Constructor
+
+    public StatusHistoryLog(File file, int maxBufferSize, int releaseBufferSize, int maxFileSize, int segmentSize, boolean compressSegments) throws IOException {
+        super(file, JOSPHistory.class, maxBufferSize, releaseBufferSize, maxFileSize, segmentSize, compressSegments);
+        codec = new HistoryRecordCodec(file);
+    }
+
+
+    // Items encoding
+
+    @Override
+    protected long getItemId(JOSPHistory value) {
+        return value.getId();
+    }
+
+    @Override
+    protected Date getItemDate(JOSPHistory value) {
+        return value.getUpdatedAt();
+    }
+
+    /**
+     * Encode given status as a compact record, see {@link HistoryRecordCodec}.
+     */
+    @Override
+    protected byte[] encodeItem(JOSPHistory value) throws IOException {
+        return codec.encode(value);
+    }
+
+    /**
+     * Decode given compact record, or JSON record if written by previous
+     * versions.
+     */
+    @Override
+    protected JOSPHistory decodeItem(long id, long date, byte[] payload) throws IOException {
+        if (!HistoryRecordCodec.isCompact(payload))
+            return super.decodeItem(id, date, payload);
+        return codec.decode(id, date, payload);
+    }
+
+
+    // Storage files
+
+    /**
+     * Delete the dictionary file used by the statuses stored with given file.
+     *
+     * @param file the storage's base file.
+     * @return true if the dictionary file doesn't exist or was deleted.
+     */
+    public static boolean deleteDictionary(File file) {
+        File dictionary = HistoryRecordCodec.getDictionaryFile(file);
+        return !dictionary.exists() || dictionary.delete();
+    }
+
+}
@@ -89,6 +89,17 @@ public interface JODObjectInfo {
      */
     void setObjName(String newName);
 
+    /**
+     * Object's info version, incremented each time the object's id, name or
+     * owner changes.
+     * <p>
+     * Used by callers that cache info-dependent messages, to detect when they
+     * must be rebuilt.
+     *
+     * @return the current info version.
+     */
+    long getInfoVersion();
+
 
     // Users's info
 
@@ -135,6 +146,14 @@ public interface JODObjectInfo {
      */
     String getStructForJSL() throws JODStructure.ParsingException;
 
+    /**
+     * Object's structure version.
+     *
+     * @return the current structure version.
+     * @see JODStructure#getStructVersion()
+     */
+    long getStructVersion();
+
     /**
      * The object's brand.
      *
@@ -38,6 +38,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -63,6 +64,7 @@ public class JODObjectInfo_002 implements JODObjectInfo {
     private JODCommunication comm;
     private JODPermissions permissions;
     private final String jodVersion;
+    private final AtomicLong infoVersion = new AtomicLong();
 
 
     // Constructor
@@ -169,6 +171,7 @@ public class JODObjectInfo_002 implements JODObjectInfo {
     public void setObjName(String newName) {
         String oldName = getObjName();
         locSettings.setObjName(newName);
+        infoVersion.incrementAndGet();
 
         log.info(String.format("Updated name for object '%s' (old: '%s', new: '%s')", getObjId(), oldName, newName));
         Events.registerInfoUpd("objName", oldName, newName);
@@ -176,6 +179,14 @@ public class JODObjectInfo_002 implements JODObjectInfo {
         syncObjInfo();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getInfoVersion() {
+        return infoVersion.get();
+    }
+
 
     // User's info
 
@@ -194,6 +205,9 @@ public class JODObjectInfo_002 implements JODObjectInfo {
     public void setOwnerId(String newOwnerId) {
         String oldOwner = getOwnerId();
         locSettings.setOwnerId(newOwnerId);
+        infoVersion.incrementAndGet();
+        if (permissions != null)
+            permissions.updateLocalClientsPermissions();
 
         log.info(String.format("Updated owner id for object '%s' (old: '%s', new: '%s')", getObjId(), oldOwner, newOwnerId));
         Events.registerInfoUpd("objOwner", oldOwner, newOwnerId);
@@ -249,6 +263,14 @@ public class JODObjectInfo_002 implements JODObjectInfo {
         return structure.getStructForJSL();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getStructVersion() {
+        return structure.getStructVersion();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -373,6 +395,7 @@ public class JODObjectInfo_002 implements JODObjectInfo {
         }
 
         locSettings.setObjIdCloud(generatedObjId);
+        infoVersion.incrementAndGet();
         apiObjsCaller.getClient().setObjectId(generatedObjId);
         if (permissions != null)
             permissions.updateObjIdAndSave();
@@ -405,6 +428,7 @@ public class JODObjectInfo_002 implements JODObjectInfo {
         String oldObjIdHW = getObjIdHw();
         String newObjIdHW = LocalObjectInfo.generateObjIdHw();
         locSettings.setObjIdHw(newObjIdHW);
+        infoVersion.incrementAndGet();
 
         log.info(String.format("Object ID HW generated '%s'", getObjIdHw()));
         Events.registerInfoUpd("objIdHW", oldObjIdHW, newObjIdHW);
@@ -414,6 +438,7 @@ public class JODObjectInfo_002 implements JODObjectInfo {
         String oldObjName = getObjName();
         String newObjName = LocalObjectInfo.generateObjName();
         locSettings.setObjName(newObjName);
+        infoVersion.incrementAndGet();
 
         log.info(String.format("Object name generated '%s'", getObjName()));
         Events.registerInfoUpd("objName", oldObjName, newObjName);
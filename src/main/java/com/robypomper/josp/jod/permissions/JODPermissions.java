@@ -60,6 +60,14 @@ public interface JODPermissions {
 
     void syncObjPermissions();
 
+    /**
+     * Update the effective permission type cached by each connected local
+     * client (see {@link com.robypomper.josp.jod.comm.JODLocalClientInfo#getPermType()}).
+     * <p>
+     * Must be called each time the object's permissions or owner change.
+     */
+    void updateLocalClientsPermissions();
+
 
     // Access methods
 
@@ -81,6 +89,16 @@ public interface JODPermissions {
      */
     String getPermsForJSL() throws JODStructure.ParsingException;
 
+    /**
+     * Object's permissions version, incremented on each permissions change.
+     * <p>
+     * Used by callers that cache permissions-dependent messages, to detect
+     * when they must be rebuilt.
+     *
+     * @return the current permissions version.
+     */
+    long getPermsVersion();
+
     /**
      * Add given permission to object's permissions.
      * <p>
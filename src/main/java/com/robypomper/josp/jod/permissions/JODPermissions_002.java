@@ -40,13 +40,26 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
- * ToDo: doc JODPermissions_002
+ * Implementation of the {@link JODPermissions} interface, based on the local
+ * permissions file and on the JCP APIs Permission.
+ * <p>
+ * Permissions are indexed by their id and by their user and service ids
+ * (wildcards included), so the permissions of a service/user pair are found
+ * without scanning all object's permissions. The resulting permission type
+ * of each service/user/connection is memoized in a decision table, that is
+ * cleared each time the object's permissions or owner change.
  */
 public class JODPermissions_002 implements JODPermissions {
 
+    // Class constants
+
+    private static final int MAX_DECISIONS = 1024;
+
 
     // Internal vars
 
@@ -55,6 +68,12 @@ public class JODPermissions_002 implements JODPermissions {
     private final JODObjectInfo objInfo;
     private final Caller20 apiPermissionsCaller;
     private final List<JOSPPerm> permissions = new ArrayList<>();
+    private final Map<String, JOSPPerm> permsById = new HashMap<>();
+    private final Map<String, Map<String, List<JOSPPerm>>> permsByUsrAndSrv = new HashMap<>();
+    private final Map<String, JOSPPerm.Type> decisions = new HashMap<>();
+    private String decisionsOwnerId = null;
+    private String permsForJSL = null;
+    private long permsVersion = 0;
     private JODCommunication comm;
 
 
@@ -103,6 +122,7 @@ public class JODPermissions_002 implements JODPermissions {
     public void syncObjPermissions() {
         if (comm == null) return;
 
+        updateLocalClientsPermissions();
         String permStr = JOSPPerm.toString(permissions);
         comm.sendToServices(JOSPProtocol_ObjectToService.createObjectPermsMsg(objInfo.getObjId(), permStr), JOSPPerm.Type.CoOwner);
 
@@ -110,7 +130,7 @@ public class JODPermissions_002 implements JODPermissions {
             if (!locConn.isConnected())
                 continue;
 
-            JOSPPerm.Type permType = getServicePermission(locConn.getSrvId(), locConn.getUsrId(), JOSPPerm.Connection.OnlyLocal);
+            JOSPPerm.Type permType = locConn.getPermType();
             try {
                 comm.sendToSingleLocalService(locConn, JOSPProtocol_ObjectToService.createServicePermMsg(objInfo.getObjId(), permType, JOSPPerm.Connection.OnlyLocal), permType);
 
@@ -120,6 +140,17 @@ public class JODPermissions_002 implements JODPermissions {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void updateLocalClientsPermissions() {
+        if (comm == null) return;
+
+        for (JODLocalClientInfo locConn : comm.getAllLocalClientsInfo())
+            locConn.setPermType(getServicePermission(locConn.getSrvId(), locConn.getUsrId(), JOSPPerm.Connection.OnlyLocal));
+    }
+
     // Access methods
 
     /**
@@ -140,21 +171,10 @@ public class JODPermissions_002 implements JODPermissions {
             return true;
         }
 
-        List<JOSPPerm> inherentPermissions = search(srvId, usrId);
-        if (inherentPermissions.isEmpty()) {
-            log.debug(String.format("Permission %s for srvID %s and usrID %s DENIED  because no permission found for specified srv/usr", minReqPerm, srvId, usrId));
-            return false;
-        }
-
-        for (JOSPPerm p : inherentPermissions) {
-            if (connType == JOSPPerm.Connection.LocalAndCloud
-                    && p.getConnType() == JOSPPerm.Connection.OnlyLocal)
-                continue;
-
-            if (p.getPermType().compareTo(minReqPerm) >= 0) {
-                log.debug(String.format("Permission %s for srvID %s and usrID %s GRANTED", minReqPerm, srvId, usrId));
-                return true;
-            }
+        JOSPPerm.Type permType = decide(srvId, usrId, connType);
+        if (permType != JOSPPerm.Type.None && permType.compareTo(minReqPerm) >= 0) {
+            log.debug(String.format("Permission %s for srvID %s and usrID %s GRANTED", minReqPerm, srvId, usrId));
+            return true;
         }
 
         log.debug(String.format("Permission %s for srvID %s and usrID %s DENIED", minReqPerm, srvId, usrId));
@@ -171,6 +191,35 @@ public class JODPermissions_002 implements JODPermissions {
         if (objInfo.getOwnerId().equals(JODSettings_002.JODPERM_OWNER_DEF))
             return JOSPPerm.Type.CoOwner;
 
+        return decide(srvId, usrId, connType);
+    }
+
+    /**
+     * Return the highest permission type for given service/user pair and
+     * connection type, from the decision table. If not memoized yet, it's
+     * computed from the object's permissions and added to the table.
+     */
+    private JOSPPerm.Type decide(String srvId, String usrId, JOSPPerm.Connection connType) {
+        synchronized (permissions) {
+            String ownerId = objInfo.getOwnerId();
+            if (!ownerId.equals(decisionsOwnerId)) {
+                decisions.clear();
+                decisionsOwnerId = ownerId;
+            }
+
+            String key = srvId + "/" + usrId + "/" + connType;
+            JOSPPerm.Type permType = decisions.get(key);
+            if (permType == null) {
+                permType = computeServicePermission(srvId, usrId, connType);
+                if (decisions.size() >= MAX_DECISIONS)
+                    decisions.clear();
+                decisions.put(key, permType);
+            }
+            return permType;
+        }
+    }
+
+    private JOSPPerm.Type computeServicePermission(String srvId, String usrId, JOSPPerm.Connection connType) {
         List<JOSPPerm> inherentPermissions = search(srvId, usrId);
         if (inherentPermissions.isEmpty())
             return JOSPPerm.Type.None;
@@ -193,45 +242,96 @@ public class JODPermissions_002 implements JODPermissions {
      */
     @Override
     public String getPermsForJSL() {
-        return JOSPPerm.toString(getPermissions());
+        synchronized (permissions) {
+            if (permsForJSL == null)
+                permsForJSL = JOSPPerm.toString(getPermissions());
+            return permsForJSL;
+        }
     }
 
-    private JOSPPerm search(String permId) {
-        for (JOSPPerm p : permissions)
-            if (p.getId().equals(permId))
-                return p;
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getPermsVersion() {
+        synchronized (permissions) {
+            return permsVersion;
+        }
+    }
 
-        return null;
+    private JOSPPerm search(String permId) {
+        synchronized (permissions) {
+            return permsById.get(permId);
+        }
     }
 
     /**
      * Return the object's permission corresponding to given srvId and usrId.
+     * <p>
+     * A null srvId or usrId matches only the wildcard permissions.
      *
-     * @param srvId the service's id.
-     * @param usrId the user's id.
+     * @param srvId the service's id, can be null.
+     * @param usrId the user's id, can be null.
      * @return the object's permissions list.
      */
-    @Deprecated
     private List<JOSPPerm> search(String srvId, String usrId) {
+        String usrAll = JOSPPerm.WildCards.USR_ALL.toString();
+        String usrOwner = JOSPPerm.WildCards.USR_OWNER.toString();
         List<JOSPPerm> inherentPermissions = new ArrayList<>();
 
-        for (JOSPPerm p : permissions) {
-            boolean exact_usr = p.getUsrId().equals(usrId);
-            boolean all_usr = p.getUsrId().equals(JOSPPerm.WildCards.USR_ALL.toString());
-            boolean owner = p.getUsrId().equals(JOSPPerm.WildCards.USR_OWNER.toString())
-                    && objInfo.getOwnerId().equals(usrId);
-            if (exact_usr || all_usr || owner) {
-                boolean exact_srv = p.getSrvId().equals(srvId);
-                boolean all_srv = p.getSrvId().equals(JOSPPerm.WildCards.SRV_ALL.toString());
-                if (exact_srv || all_srv) {
-                    inherentPermissions.add(p);
-                }
-            }
+        synchronized (permissions) {
+            searchIndexed(inherentPermissions, usrId, srvId);
+            if (!usrAll.equals(usrId))
+                searchIndexed(inherentPermissions, usrAll, srvId);
+            if (!usrOwner.equals(usrId) && objInfo.getOwnerId().equals(usrId))
+                searchIndexed(inherentPermissions, usrOwner, srvId);
         }
 
         return inherentPermissions;
     }
 
+    private void searchIndexed(List<JOSPPerm> found, String usrKey, String srvId) {
+        Map<String, List<JOSPPerm>> bySrv = permsByUsrAndSrv.get(usrKey);
+        if (bySrv == null)
+            return;
+
+        String srvAll = JOSPPerm.WildCards.SRV_ALL.toString();
+        List<JOSPPerm> exactSrv = bySrv.get(srvId);
+        if (exactSrv != null)
+            found.addAll(exactSrv);
+        List<JOSPPerm> allSrv = srvAll.equals(srvId) ? null : bySrv.get(srvAll);
+        if (allSrv != null)
+            found.addAll(allSrv);
+    }
+
+    /**
+     * Rebuild the permissions indexes from the {@link #permissions} field,
+     * clear the decision table and the cached JSL string, then bump the
+     * permissions version. Must be called, with the {@link #permissions}
+     * lock, after each change on the {@link #permissions} field.
+     */
+    private void updateIndexes() {
+        permsById.clear();
+        permsByUsrAndSrv.clear();
+        for (JOSPPerm p : permissions) {
+            permsById.put(p.getId(), p);
+            Map<String, List<JOSPPerm>> bySrv = permsByUsrAndSrv.get(p.getUsrId());
+            if (bySrv == null) {
+                bySrv = new HashMap<>();
+                permsByUsrAndSrv.put(p.getUsrId(), bySrv);
+            }
+            List<JOSPPerm> perms = bySrv.get(p.getSrvId());
+            if (perms == null) {
+                perms = new ArrayList<>();
+                bySrv.put(p.getSrvId(), perms);
+            }
+            perms.add(p);
+        }
+        decisions.clear();
+        permsForJSL = null;
+        permsVersion++;
+    }
+
 
     // Add/Upd/Rem methods
 
@@ -252,7 +352,10 @@ public class JODPermissions_002 implements JODPermissions {
         }
 
         JOSPPerm newPerm = new JOSPPerm(objInfo.getObjId(), srvId, usrId, type, connection, new Date());
-        permissions.add(newPerm);
+        synchronized (permissions) {
+            permissions.add(newPerm);
+            updateIndexes();
+        }
         Events.registerPermAdded(newPerm);
 
         comm.syncObject();
@@ -273,8 +376,11 @@ public class JODPermissions_002 implements JODPermissions {
 
         // replace existing with (toDELETE) permission
         JOSPPerm newDelPerm = new JOSPPerm(existingPerm.getId(), existingPerm.getObjId(), srvId, usrId, type, connection, JavaDate.getNowDate());
-        permissions.remove(existingPerm);
-        permissions.add(newDelPerm);
+        synchronized (permissions) {
+            permissions.remove(existingPerm);
+            permissions.add(newDelPerm);
+            updateIndexes();
+        }
         Events.registerPermUpdated(existingPerm, newDelPerm);
 
         comm.syncObject();
@@ -292,7 +398,10 @@ public class JODPermissions_002 implements JODPermissions {
         if (oldPerm == null)
             return false;
 
-        permissions.remove(oldPerm);
+        synchronized (permissions) {
+            permissions.remove(oldPerm);
+            updateIndexes();
+        }
         Events.registerPermRemoved(oldPerm);
 
         comm.syncObject();
@@ -358,8 +467,11 @@ public class JODPermissions_002 implements JODPermissions {
         if (mustUpdateObjID)
             updateObjIdAndSave();
 
-        permissions.clear();
-        permissions.addAll(loadedPerms);
+        synchronized (permissions) {
+            permissions.clear();
+            permissions.addAll(loadedPerms);
+            updateIndexes();
+        }
         Events.registerPermLoaded("Load permissions from file", permissions);
     }
 
@@ -397,6 +509,7 @@ public class JODPermissions_002 implements JODPermissions {
             }
             permissions.clear();
             permissions.addAll(updated);
+            updateIndexes();
         }
 
         Events.registerPermLoaded("Updated obj's id on permissions", permissions);
@@ -438,6 +551,7 @@ public class JODPermissions_002 implements JODPermissions {
         synchronized (permissions) {
             permissions.clear();
             permissions.addAll(apiPermissionsCaller.getPermissionsGeneratedPUBLIC());
+            updateIndexes();
         }
     }
 
@@ -450,6 +564,7 @@ public class JODPermissions_002 implements JODPermissions {
             permissions.clear();
             permissions.add(new JOSPPerm(objInfo.getObjId(), JOSPPerm.WildCards.SRV_ALL.toString(), JOSPPerm.WildCards.USR_OWNER.toString(), JOSPPerm.Type.CoOwner, JOSPPerm.Connection.LocalAndCloud, JavaDate.getNowDate()));
             permissions.add(new JOSPPerm(objInfo.getObjId(), JOSPPerm.WildCards.SRV_ALL.toString(), JOSPPerm.WildCards.USR_ALL.toString(), JOSPPerm.Type.CoOwner, JOSPPerm.Connection.OnlyLocal, JavaDate.getNowDate()));
+            updateIndexes();
         }
     }
 
@@ -22,6 +22,7 @@ package com.robypomper.josp.jod.shell;
 import asg.cliche.Command;
 import com.robypomper.comm.exception.PeerConnectionException;
 import com.robypomper.comm.exception.PeerDisconnectionException;
+import com.robypomper.josp.jod.comm.JODActionDispatcher;
 import com.robypomper.josp.jod.comm.JODCommunication;
 import com.robypomper.josp.jod.comm.JODGwO2SClient;
 import com.robypomper.josp.jod.comm.JODLocalClientInfo;
@@ -93,6 +94,26 @@ public class CmdsJODCommunication {
     }
 
 
+    // Actions dispatcher
+
+    @Command(description = "Print actions' commands execution stats.")
+    public String commPrintActionsStats() {
+        JODActionDispatcher dispatcher = comm.getActionDispatcher();
+
+        return String.format("ACTIONS DISPATCHER\n" +
+                        "- workers: %d/%d\n" +
+                        "- depth:   %d/%d (max %d)\n" +
+                        "- executed %d, rejected %d\n" +
+                        "- latency: avg %d ms, max %d ms\n" +
+                        "- exec:    avg %d ms\n",
+                dispatcher.getWorkers(), dispatcher.getMaxWorkers(),
+                dispatcher.getDepth(), dispatcher.getMaxSize(), dispatcher.getMaxDepth(),
+                dispatcher.getExecuted(), dispatcher.getRejected(),
+                dispatcher.getAvgLatency(), dispatcher.getMaxLatency(),
+                dispatcher.getAvgExecTime());
+    }
+
+
     // Cloud communication mngm
 
     @Command(description = "Print cloud communication status.")
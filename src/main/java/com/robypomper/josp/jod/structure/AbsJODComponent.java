@@ -19,6 +19,7 @@
 
 package com.robypomper.josp.jod.structure;
 
+import com.robypomper.josp.jod.history.HistoryResolution;
 import com.robypomper.josp.jod.history.JODHistory;
 import com.robypomper.josp.protocol.HistoryLimits;
 import com.robypomper.josp.protocol.JOSPHistory;
@@ -117,6 +118,14 @@ public abstract class AbsJODComponent implements JODComponent {
         return getHistory().getHistoryStatus(this,limits);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<JOSPHistory> getHistoryStatus(HistoryLimits limits, HistoryResolution resolution) {
+        return getHistory().getHistoryStatus(this, limits, resolution);
+    }
+
 
     // Implementation methods
 
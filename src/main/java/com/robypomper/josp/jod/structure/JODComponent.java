@@ -21,6 +21,7 @@ package com.robypomper.josp.jod.structure;
 
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.robypomper.josp.jod.history.HistoryResolution;
 import com.robypomper.josp.protocol.HistoryLimits;
 import com.robypomper.josp.protocol.JOSPHistory;
 
@@ -71,4 +72,9 @@ public interface JODComponent {
      */
     List<JOSPHistory> getHistoryStatus(HistoryLimits limits);
 
+    /**
+     * @return the component status history at given resolution.
+     */
+    List<JOSPHistory> getHistoryStatus(HistoryLimits limits, HistoryResolution resolution);
+
 }
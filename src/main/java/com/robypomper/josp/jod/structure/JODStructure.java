@@ -63,6 +63,18 @@ public interface JODStructure {
      */
     String getStructForJSL() throws ParsingException;
 
+    /**
+     * Structure version, it changes only when the structure's components
+     * change. The structure is loaded once on startup, so it never changes.
+     * <p>
+     * The string returned by {@link #getStructForJSL()} is built once, so
+     * the states it contains can be outdated. The latest states must be sent
+     * after the structure (see {@link JODCommunication#getLastStateMsgs()}).
+     *
+     * @return the current structure version.
+     */
+    long getStructVersion();
+
     /**
      * @return date and time of the last structure update.
      */
@@ -98,6 +110,11 @@ public interface JODStructure {
      */
     void stopAutoRefresh();
 
+    /**
+     * Send the object's structure to all services. Unlike
+     * {@link #getStructForJSL()}, the sent structure contains the components'
+     * current states.
+     */
     void syncObjStruct();
 
 
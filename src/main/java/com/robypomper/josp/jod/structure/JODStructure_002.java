@@ -49,6 +49,8 @@ public class JODStructure_002 implements JODStructure {
     private final JODRoot root;
     private Date lastStructureUpdate;
     private JODCommunication comm;
+    private final ObjectMapper jslMapper = new ObjectMapper();
+    private volatile String structForJSL = null;
 
 
     // Constructor
@@ -123,13 +125,22 @@ public class JODStructure_002 implements JODStructure {
      */
     @Override
     public String getStructForJSL() throws ParsingException {
-        try {
-            ObjectMapper mapper = new ObjectMapper();
-            return mapper.writeValueAsString(getRoot());
+        String cached = structForJSL;
+        if (cached != null)
+            return cached;
 
-        } catch (JsonProcessingException e) {
-            throw new ParsingException(String.format("Can't get JOD Structure string, error on parsing JSON: '%s'.", e.getMessage().substring(0, e.getMessage().indexOf('\n'))), e);
-        }
+        cached = serializeStruct();
+        structForJSL = cached;
+        return cached;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getStructVersion() {
+        // Structure is loaded once, on startup
+        return 0;
     }
 
     /**
@@ -185,13 +196,25 @@ public class JODStructure_002 implements JODStructure {
     @Override
     public void syncObjStruct() {
         try {
-            comm.sendToServices(JOSPProtocol_ObjectToService.createObjectStructMsg(objInfo.getObjId(), objInfo.getStructForJSL()), JOSPPerm.Type.State);
+            comm.sendToServices(JOSPProtocol_ObjectToService.createObjectStructMsg(objInfo.getObjId(), serializeStruct()), JOSPPerm.Type.State);
         } catch (ParsingException ignore) {}
     }
 
 
     // Implementation methods
 
+    /**
+     * Serialize the object's structure, with the components' current states.
+     */
+    private String serializeStruct() throws ParsingException {
+        try {
+            return jslMapper.writeValueAsString(getRoot());
+
+        } catch (JsonProcessingException e) {
+            throw new ParsingException(String.format("Can't get JOD Structure string, error on parsing JSON: '%s'.", e.getMessage().substring(0, e.getMessage().indexOf('\n'))), e);
+        }
+    }
+
     /**
      * Load object's structure from data file.
      */
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * The John Operating System Project is the collection of software and configurations
+ * to generate IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package com.robypomper.josp.jod.cache;
+
+import com.robypomper.josp.protocol.HistoryLimits;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+public class QueryResultsCacheTest {
+
+    @Test
+    public void testLRUEviction() {
+        QueryResultsCache<String> cache = new QueryResultsCache<>(2);
+        cache.put("comp", "a", cache.getVersion("comp"), Collections.singletonList("A"));
+        cache.put("comp", "b", cache.getVersion("comp"), Collections.singletonList("B"));
+        Assertions.assertNotNull(cache.get("comp", "a"));
+
+        // 'b' is the least recently used
+        cache.put("comp", "c", cache.getVersion("comp"), Collections.singletonList("C"));
+        Assertions.assertEquals(2, cache.size());
+        Assertions.assertNull(cache.get("comp", "b"));
+        Assertions.assertEquals("A", cache.get("comp", "a").get(0));
+        Assertions.assertEquals("C", cache.get("comp", "c").get(0));
+        Assertions.assertEquals(3, cache.getHits());
+        Assertions.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testInvalidation() {
+        QueryResultsCache<String> cache = new QueryResultsCache<>(10);
+        cache.put("comp1", "all", cache.getVersion("comp1"), Arrays.asList("A", "B"));
+        cache.put("comp2", "all", cache.getVersion("comp2"), Arrays.asList("C", "D"));
+
+        long version = cache.getVersion("comp1");
+        cache.invalidate("comp1");
+        Assertions.assertNull(cache.get("comp1", "all"));
+        Assertions.assertNotNull(cache.get("comp2", "all"));
+
+        // Result computed before the invalidation is not cached
+        List<String> result = cache.put("comp1", "all", version, Arrays.asList("A", "B"));
+        Assertions.assertEquals(2, result.size());
+        Assertions.assertNull(cache.get("comp1", "all"));
+        Assertions.assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testInvalidateAll() {
+        QueryResultsCache<String> cache = new QueryResultsCache<>(10);
+        cache.put("comp1", "all", cache.getVersion("comp1"), Arrays.asList("A", "B"));
+
+        long version = cache.getVersion("comp2");
+        cache.invalidateAll();
+        Assertions.assertNull(cache.get("comp1", "all"));
+        Assertions.assertEquals(0, cache.size());
+
+        // Result computed before the invalidation is not cached, also for groups never cached
+        cache.put("comp2", "all", version, Arrays.asList("C", "D"));
+        Assertions.assertNull(cache.get("comp2", "all"));
+    }
+
+    @Test
+    public void testDisabled() {
+        QueryResultsCache<String> cache = new QueryResultsCache<>(0);
+        Assertions.assertFalse(cache.isEnabled());
+        cache.put("comp", "all", cache.getVersion("comp"), Collections.singletonList("A"));
+        Assertions.assertNull(cache.get("comp", "all"));
+        Assertions.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testOpenEndedDateRangeKey() throws InterruptedException {
+        Date from = new Date(1000);
+        HistoryLimits first = new HistoryLimits(null, null, from, null, null, null, null, null);
+        QueryResultsCache<String> cache = new QueryResultsCache<>(10);
+        String firstKey = QueryResultsCache.toKey(first);
+        cache.put("comp", firstKey, cache.getVersion("comp"), Collections.singletonList("A"));
+
+        Thread.sleep(10);
+        HistoryLimits second = new HistoryLimits(null, null, from, null, null, null, null, null);
+        String secondKey = QueryResultsCache.toKey(second);
+        Assertions.assertEquals(firstKey, secondKey);
+        Assertions.assertNotNull(cache.get("comp", secondKey));
+        Assertions.assertEquals(1, cache.getHits());
+
+        HistoryLimits closed = new HistoryLimits(null, null, from, new Date(2000), null, null, null, null);
+        Assertions.assertNotEquals(firstKey, QueryResultsCache.toKey(closed));
+    }
+
+}
@@ -0,0 +1,474 @@
+/*******************************************************************************
+ * The John Operating System Project is the collection of software and configurations
+ * to generate IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package com.robypomper.josp.jod.cache;
+
+import com.robypomper.java.JavaJSONArrayToFile;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class SegmentedLogStorageTest {
+
+    @TempDir
+    File tmpDir;
+
+    @Test
+    public void testFlushAndRetention() throws IOException {
+        File file = new File(tmpDir, "items.jbs");
+        ItemLog log = new ItemLog(file, 10, 5, 20, 5);
+        final List<Item> removed = new ArrayList<>();
+        log.registerObserver(new JavaJSONArrayToFile.Observer<Item>() {
+            @Override
+            public void onAdded(List<Item> items) {}
+
+            @Override
+            public void onFlushed(List<Item> items, boolean auto) {}
+
+            @Override
+            public void onRemoved(List<Item> items, boolean auto) {
+                removed.addAll(items);
+            }
+        });
+
+        for (long i = 1; i <= 40; i++)
+            log.append(new Item(i, new Date(1000 * i), "value" + i));
+
+        // 35 items flushed, 3 segments deleted (15 items), 20 on file, 5 in buffer
+        Assertions.assertEquals(20, log.countFile());
+        Assertions.assertEquals(5, log.countBuffered());
+        Assertions.assertEquals(15, removed.size());
+        Assertions.assertEquals(1, removed.get(0).id);
+        File[] segments = tmpDir.listFiles();
+        Assertions.assertNotNull(segments);
+        Assertions.assertEquals(4, segments.length);
+
+        List<Item> all = log.getById(null, null);
+        Assertions.assertEquals(25, all.size());
+        Assertions.assertEquals(16, all.get(0).id);
+        Assertions.assertEquals(40, all.get(all.size() - 1).id);
+
+        List<Item> latest = log.tryLatest(null, 7);
+        Assertions.assertEquals(7, latest.size());
+        Assertions.assertEquals(34, latest.get(0).id);
+        Assertions.assertEquals(40, latest.get(6).id);
+
+        List<Item> ancient = log.tryAncient(null, 3);
+        Assertions.assertEquals(3, ancient.size());
+        Assertions.assertEquals(16, ancient.get(0).id);
+
+        List<Item> byDate = log.tryByDate(null, new Date(20000), new Date(22000));
+        Assertions.assertEquals(3, byDate.size());
+        Assertions.assertEquals("value20", byDate.get(0).value);
+
+        List<Item> page = log.tryPage(null, 2, 10);
+        Assertions.assertEquals(5, page.size());
+        Assertions.assertEquals(36, page.get(0).id);
+        page = log.tryPage(new JavaJSONArrayToFile.Filter<Item>() {
+            @Override
+            public boolean accepted(Item o) {
+                return o.id % 2 == 0;
+            }
+        }, 1, 4);
+        Assertions.assertEquals(4, page.size());
+        Assertions.assertEquals(24, page.get(0).id);
+        Assertions.assertEquals(30, page.get(3).id);
+    }
+
+    @Test
+    public void testRangeObserver() throws IOException {
+        File file = new File(tmpDir, "items.jbs");
+        final List<Long> decoded = new ArrayList<>();
+        ItemLog log = new ItemLog(file, 10, 5, 20, 5) {
+            @Override
+            protected Item decodeItem(long id, long date, byte[] payload) throws IOException {
+                decoded.add(id);
+                return super.decodeItem(id, date, payload);
+            }
+        };
+        final List<long[]> removed = new ArrayList<>();
+        log.registerObserver(new ItemsStorage.RangeObserver<Item>() {
+            @Override
+            public void onAdded(List<Item> items) {}
+
+            @Override
+            public void onFlushed(List<Item> items, boolean auto) {}
+
+            @Override
+            public void onRemoved(List<Item> items, boolean auto) {
+                Assertions.fail("Range observers must not receive removed items");
+            }
+
+            @Override
+            public void onRemovedRange(long fromId, long toId, long count, boolean auto) {
+                removed.add(new long[]{fromId, toId, count});
+            }
+        });
+
+        for (long i = 1; i <= 40; i++)
+            log.append(new Item(i, new Date(1000 * i), "value" + i));
+
+        // 3 segments deleted without reading them
+        Assertions.assertEquals(3, removed.size());
+        Assertions.assertArrayEquals(new long[]{1, 5, 5}, removed.get(0));
+        Assertions.assertArrayEquals(new long[]{11, 15, 5}, removed.get(2));
+        Assertions.assertTrue(decoded.isEmpty());
+        Assertions.assertEquals(20, log.countFile());
+    }
+
+    @Test
+    public void testFlushFailurePartiallyWritten() throws IOException {
+        File file = new File(tmpDir, "items.jbs");
+        ItemLog log = new ItemLog(file, 100, 100, 1000, 5);
+        for (long i = 1; i <= 10; i++)
+            log.append(new Item(i, new Date(1000 * i), "value" + i));
+
+        // Second segment can't be written
+        File blocker = new File(tmpDir, String.format("items.jbs.%020d.seg", 6));
+        Assertions.assertTrue(blocker.mkdir());
+        try {
+            log.storeCache();
+            Assertions.fail("Flush must fail when a segment can't be written");
+        } catch (IOException ignore) {}
+        Assertions.assertEquals(5, log.countFile());
+        Assertions.assertEquals(5, log.countBuffered());
+
+        // Only not written items are flushed again
+        Assertions.assertTrue(blocker.delete());
+        log.storeCache();
+        Assertions.assertEquals(10, log.countFile());
+        List<Item> all = log.getById(null, null);
+        Assertions.assertEquals(10, all.size());
+        for (int i = 0; i < all.size(); i++)
+            Assertions.assertEquals(i + 1, all.get(i).id);
+    }
+
+    @Test
+    public void testReloadAndTruncateIncompleteRecord() throws IOException {
+        File file = new File(tmpDir, "items.jbs");
+        ItemLog log = new ItemLog(file, 10, 10, 100, 50);
+        for (long i = 1; i <= 12; i++)
+            log.append(new Item(i, new Date(1000 * i), "value" + i));
+        log.storeCache();
+        Assertions.assertEquals(12, log.countFile());
+
+        // Simulate a crash during the write of the last record
+        File segment = new File(tmpDir, String.format("items.jbs.%020d.seg", 1));
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        ItemLog reloaded = new ItemLog(file, 10, 10, 100, 50);
+        Assertions.assertEquals(11, reloaded.countFile());
+        List<Item> all = reloaded.getById(null, null);
+        Assertions.assertEquals(11, all.size());
+        Assertions.assertEquals(11, all.get(10).id);
+    }
+
+    @Test
+    public void testReloadAndTruncateCorruptedTail() throws IOException {
+        File file = new File(tmpDir, "items.jbs");
+        ItemLog log = new ItemLog(file, 10, 10, 1000, 1000);
+        for (long i = 1; i <= 70; i++)
+            log.append(new Item(i, new Date(1000 * i), "value" + i));
+        log.storeCache();
+
+        // Simulate a torn write: last record with the right length but wrong payload
+        File segment = new File(tmpDir, String.format("items.jbs.%020d.seg", 1));
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.seek(raf.length() - 2);
+            raf.writeByte('X');
+        }
+
+        ItemLog reloaded = new ItemLog(file, 10, 10, 1000, 1000);
+        Assertions.assertEquals(69, reloaded.countFile());
+        Assertions.assertEquals(69, reloaded.tryLatest(null, 1).get(0).id);
+        reloaded.append(new Item(70, new Date(70000), "value70"));
+        reloaded.storeCache();
+        Assertions.assertEquals(70, new ItemLog(file, 10, 10, 1000, 1000).getById(null, null).size());
+    }
+
+    @Test
+    public void testDateIndexPersistedAndRebuilt() throws IOException {
+        File file = new File(tmpDir, "items.jbs");
+        ItemLog log = new ItemLog(file, 10, 10, 1000, 1000);
+        for (long i = 1; i <= 300; i++)
+            log.append(new Item(i, new Date(1000 * i), "value" + i));
+        log.storeCache();
+
+        File index = new File(tmpDir, String.format("items.jbs.%020d.seg.idx", 1));
+        Assertions.assertTrue(index.exists());
+        Assertions.assertEquals(4, index.length() / 52);
+
+        List<Item> byDate = log.tryByDate(null, new Date(200000), new Date(209000));
+        Assertions.assertEquals(10, byDate.size());
+        Assertions.assertEquals(200, byDate.get(0).id);
+
+        // Missing index
+        Assertions.assertTrue(index.delete());
+        ItemLog reloaded = new ItemLog(file, 10, 10, 1000, 1000);
+        Assertions.assertTrue(index.exists());
+        Assertions.assertEquals(300, reloaded.countFile());
+        Assertions.assertEquals(byDate.size(), reloaded.tryByDate(null, new Date(200000), new Date(209000)).size());
+
+        // Corrupted index
+        try (RandomAccessFile raf = new RandomAccessFile(index, "rw")) {
+            raf.setLength(raf.length() - 10);
+        }
+        reloaded = new ItemLog(file, 10, 10, 1000, 1000);
+        Assertions.assertEquals(4 * 52, index.length());
+        Assertions.assertEquals(300, reloaded.countFile());
+        Assertions.assertEquals(10, reloaded.tryByDate(null, new Date(290000), new Date(299000)).size());
+    }
+
+    @Test
+    public void testCompressedSegments() throws IOException {
+        File file = new File(tmpDir, "items.jbs");
+        ItemLog log = new ItemLog(file, 10, 10, 1000, 100, true);
+        for (long i = 1; i <= 300; i++)
+            log.append(new Item(i, new Date(1000 * i), "value" + i));
+        log.storeCache();
+
+        // Sealed segments are not compressed on flush
+        Assertions.assertTrue(new File(tmpDir, String.format("items.jbs.%020d.seg", 1)).exists());
+        Assertions.assertFalse(new File(tmpDir, String.format("items.jbs.%020d.segz", 1)).exists());
+        log.compact();
+
+        // 2 sealed segments compressed, the latest one (hot tail) not compressed
+        Assertions.assertTrue(new File(tmpDir, String.format("items.jbs.%020d.segz", 1)).exists());
+        Assertions.assertTrue(new File(tmpDir, String.format("items.jbs.%020d.segz", 101)).exists());
+        Assertions.assertTrue(new File(tmpDir, String.format("items.jbs.%020d.seg", 201)).exists());
+        Assertions.assertFalse(new File(tmpDir, String.format("items.jbs.%020d.seg", 1)).exists());
+
+        Assertions.assertEquals(300, log.getById(null, null).size());
+        List<Item> byDate = log.tryByDate(null, new Date(95000), new Date(104000));
+        Assertions.assertEquals(10, byDate.size());
+        Assertions.assertEquals(95, byDate.get(0).id);
+        Assertions.assertEquals("value104", byDate.get(9).value);
+        Assertions.assertEquals(150, log.tryLatest(null, 151).get(0).id);
+        Assertions.assertEquals(70, log.tryPage(null, 6, 10).get(9).id);
+
+        // Reload with missing compressed segment's index
+        Assertions.assertTrue(new File(tmpDir, String.format("items.jbs.%020d.segz.idx", 1)).delete());
+        ItemLog reloaded = new ItemLog(file, 10, 10, 1000, 100, true);
+        Assertions.assertEquals(300, reloaded.countFile());
+        Assertions.assertEquals(10, reloaded.tryByDate(null, new Date(95000), new Date(104000)).size());
+    }
+
+    @Test
+    public void testMemoryMappedReads() throws IOException {
+        File file = new File(tmpDir, "items.jbs");
+        ItemLog log = new ItemLog(file, 10, 10, 1000, 100, true);
+        log.setMemoryMapped(true);
+        for (long i = 1; i <= 150; i++)
+            log.append(new Item(i, new Date(1000 * i), "value" + i));
+        log.storeCache();
+
+        Assertions.assertEquals(150, log.getById(null, null).size());
+        Assertions.assertEquals(10, log.tryByDate(null, new Date(95000), new Date(104000)).size());
+
+        // Appended records are read after the segment's remap
+        for (long i = 151; i <= 180; i++)
+            log.append(new Item(i, new Date(1000 * i), "value" + i));
+        log.storeCache();
+        List<Item> latest = log.tryLatest(null, 40);
+        Assertions.assertEquals(40, latest.size());
+        Assertions.assertEquals(141, latest.get(0).id);
+        Assertions.assertEquals("value180", latest.get(39).value);
+        Assertions.assertEquals(5, log.tryById(null, 176, 200).size());
+    }
+
+    @Test
+    public void testRetentionByBytes() throws IOException {
+        File file = new File(tmpDir, "items.jbs");
+        ItemLog log = new ItemLog(file, 10, 10, 1000, 20);
+        // Same size items
+        for (long i = 101; i <= 120; i++)
+            log.append(new Item(i, new Date(1000 * i), "value" + i));
+        long segmentBytes = log.sizeFile();
+        log.setRetention(3 * segmentBytes, 0);
+
+        for (long i = 121; i <= 200; i++)
+            log.append(new Item(i, new Date(1000 * i), "value" + i));
+        Assertions.assertEquals(60, log.countFile());
+        Assertions.assertEquals(3 * segmentBytes, log.sizeFile());
+        Assertions.assertEquals(141, log.tryAncient(null, 1).get(0).id);
+    }
+
+    @Test
+    public void testDeferredRetentionByAge() throws IOException {
+        File file = new File(tmpDir, "items.jbs");
+        ItemLog log = new ItemLog(file, 10, 10, 1000, 20);
+        log.setRetention(0, 24 * 60 * 60 * 1000);
+        log.setDeferredRetention(true);
+        final List<Item> removed = new ArrayList<>();
+        log.registerObserver(new JavaJSONArrayToFile.Observer<Item>() {
+            @Override
+            public void onAdded(List<Item> items) {}
+
+            @Override
+            public void onFlushed(List<Item> items, boolean auto) {}
+
+            @Override
+            public void onRemoved(List<Item> items, boolean auto) {
+                removed.addAll(items);
+            }
+        });
+
+        long now = System.currentTimeMillis();
+        for (long i = 1; i <= 100; i++)
+            log.append(new Item(i, new Date(i <= 50 ? now - 2 * 24 * 60 * 60 * 1000 : now), "value" + i));
+        log.storeCache();
+
+        // Expired segments deleted only on compaction, only segments with all items expired
+        Assertions.assertEquals(100, log.countFile());
+        Assertions.assertEquals(2, log.compact());
+        Assertions.assertEquals(60, log.countFile());
+        Assertions.assertEquals(40, removed.size());
+        Assertions.assertEquals(41, log.tryAncient(null, 1).get(0).id);
+        Assertions.assertEquals(0, log.compact());
+    }
+
+    @Test
+    public void testStorageCompactor() throws IOException, InterruptedException {
+        File file = new File(tmpDir, "items.jbs");
+        ItemLog log = new ItemLog(file, 10, 10, 40, 20);
+        StorageCompactor compactor = new StorageCompactor("test", log, 60000);
+        compactor.start();
+        Assertions.assertTrue(log.isDeferredRetention());
+
+        for (long i = 1; i <= 100; i++)
+            log.append(new Item(i, new Date(1000 * i), "value" + i));
+        compactor.requestCompaction();
+        for (int i = 0; i < 100 && log.countFile() > 40; i++)
+            Thread.sleep(10);
+        compactor.stop();
+
+        Assertions.assertEquals(40, log.countFile());
+        Assertions.assertFalse(log.isDeferredRetention());
+    }
+
+    @Test
+    public void testAppendWhileReading() throws IOException, InterruptedException {
+        File file = new File(tmpDir, "items.jbs");
+        ItemLog log = new ItemLog(file, 10, 10, 10000, 100, true);
+        log.setMemoryMapped(true);
+        for (long i = 1; i <= 250; i++)
+            log.append(new Item(i, new Date(1000 * i), "value" + i));
+
+        // Writer appends (sealing and compressing segments) while a cursor is open
+        ItemsCursor<Item> cursor = log.openCursor(null, false);
+        Assertions.assertEquals(1, cursor.next().id);
+        final CountDownLatch written = new CountDownLatch(1);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (long i = 251; i <= 1000; i++)
+                    log.append(new Item(i, new Date(1000 * i), "value" + i));
+                written.countDown();
+            }
+        });
+        writer.start();
+        long expected = 2;
+        while (cursor.hasNext())
+            Assertions.assertEquals(expected++, cursor.next().id);
+        Assertions.assertEquals(251, expected);
+        Assertions.assertTrue(written.await(10, TimeUnit.SECONDS));
+        writer.join();
+
+        // Writer is not blocked by a query in progress
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Item> result = new ArrayList<>();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result.addAll(log.tryById(new JavaJSONArrayToFile.Filter<Item>() {
+                    @Override
+                    public boolean accepted(Item item) {
+                        reading.countDown();
+                        try {
+                            release.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException ignore) {}
+                        return true;
+                    }
+                }, 1, 20));
+            }
+        });
+        reader.start();
+        Assertions.assertTrue(reading.await(10, TimeUnit.SECONDS));
+        for (long i = 1001; i <= 1100; i++)
+            log.append(new Item(i, new Date(1000 * i), "value" + i));
+        release.countDown();
+        reader.join();
+        Assertions.assertEquals(20, result.size());
+        Assertions.assertEquals(1100, log.tryLatest(null, 1).get(0).id);
+    }
+
+
+    // Test classes
+
+    public static class Item {
+
+        public long id;
+        public Date date;
+        public String value;
+
+        public Item() {}
+
+        public Item(long id, Date date, String value) {
+            this.id = id;
+            this.date = date;
+            this.value = value;
+        }
+
+    }
+
+    private static class ItemLog extends SegmentedLogStorage<Item> {
+
+        public ItemLog(File file, int maxBufferSize, int releaseBufferSize, int maxFileSize, int segmentSize) throws IOException {
+            this(file, maxBufferSize, releaseBufferSize, maxFileSize, segmentSize, false);
+        }
+
+        public ItemLog(File file, int maxBufferSize, int releaseBufferSize, int maxFileSize, int segmentSize, boolean compress) throws IOException {
+            super(file, Item.class, maxBufferSize, releaseBufferSize, maxFileSize, segmentSize, compress);
+        }
+
+        @Override
+        protected long getItemId(Item value) {
+            return value.id;
+        }
+
+        @Override
+        protected Date getItemDate(Item value) {
+            return value.date;
+        }
+
+    }
+
+}
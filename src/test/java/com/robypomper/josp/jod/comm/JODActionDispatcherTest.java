@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * The John Operating System Project is the collection of software and configurations
+ * to generate IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package com.robypomper.josp.jod.comm;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class JODActionDispatcherTest {
+
+    @Test
+    public void testOrderPerComponent() throws InterruptedException {
+        JODActionDispatcher dispatcher = new JODActionDispatcher(4, 100);
+        List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = new CountDownLatch(10);
+
+        for (int i = 0; i < 10; i++)
+            Assertions.assertTrue(dispatcher.submit("compA", new Recorder(executed, "cmd" + i, done, 5)));
+
+        Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(Arrays.asList("cmd0", "cmd1", "cmd2", "cmd3", "cmd4", "cmd5", "cmd6", "cmd7", "cmd8", "cmd9"), executed);
+        // Same component's commands never need more than one worker
+        Assertions.assertEquals(1, dispatcher.getWorkers());
+        dispatcher.stop();
+    }
+
+    @Test
+    public void testParallelComponents() throws InterruptedException {
+        JODActionDispatcher dispatcher = new JODActionDispatcher(2, 100);
+        final CountDownLatch release = new CountDownLatch(1);
+        List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = new CountDownLatch(1);
+
+        // Slow command on compA doesn't delay compB
+        Assertions.assertTrue(dispatcher.submit("compA", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ignore) {}
+            }
+        }));
+        Assertions.assertTrue(dispatcher.submit("compB", new Recorder(executed, "cmdB", done, 0)));
+
+        Assertions.assertTrue(done.await(1, TimeUnit.SECONDS));
+        Assertions.assertEquals(Collections.singletonList("cmdB"), executed);
+        release.countDown();
+        dispatcher.stop();
+    }
+
+    @Test
+    public void testSubmitAfterKeepAlive() throws InterruptedException {
+        JODActionDispatcher dispatcher = new JODActionDispatcher(1, 100, 20);
+        List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+
+        // Commands submitted while the idle worker is terminating are executed
+        for (int i = 0; i < 20; i++) {
+            CountDownLatch done = new CountDownLatch(1);
+            Assertions.assertTrue(dispatcher.submit("compA", new Recorder(executed, "cmd" + i, done, 0)));
+            Assertions.assertTrue(done.await(1, TimeUnit.SECONDS), "Command " + i + " not executed");
+            Thread.sleep(20 + i % 3);
+        }
+
+        // Idle worker terminated after the keep alive time
+        long deadline = System.currentTimeMillis() + 1000;
+        while (dispatcher.getWorkers() > 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        Assertions.assertEquals(0, dispatcher.getWorkers());
+
+        CountDownLatch done = new CountDownLatch(1);
+        Assertions.assertTrue(dispatcher.submit("compA", new Recorder(executed, "last", done, 0)));
+        Assertions.assertTrue(done.await(1, TimeUnit.SECONDS));
+        Assertions.assertEquals(21, executed.size());
+        dispatcher.stop();
+    }
+
+    @Test
+    public void testRejected() throws InterruptedException {
+        JODActionDispatcher dispatcher = new JODActionDispatcher(1, 2);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        Assertions.assertTrue(dispatcher.submit("compA", new Runnable() {
+            @Override
+            public void run() {
+                running.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ignore) {}
+            }
+        }));
+        Assertions.assertTrue(running.await(1, TimeUnit.SECONDS));
+        Assertions.assertTrue(dispatcher.submit("compA", new Recorder(null, null, null, 0)));
+        Assertions.assertTrue(dispatcher.submit("compB", new Recorder(null, null, null, 0)));
+        Assertions.assertFalse(dispatcher.submit("compC", new Recorder(null, null, null, 0)));
+        Assertions.assertEquals(2, dispatcher.getDepth());
+        Assertions.assertEquals(1, dispatcher.getRejected());
+
+        release.countDown();
+        for (int i = 0; i < 100 && dispatcher.getExecuted() < 3; i++)
+            Thread.sleep(10);
+        Assertions.assertEquals(3, dispatcher.getExecuted());
+        Assertions.assertEquals(0, dispatcher.getDepth());
+        Assertions.assertEquals(2, dispatcher.getMaxDepth());
+        dispatcher.stop();
+    }
+
+    @Test
+    public void testStop() throws InterruptedException {
+        JODActionDispatcher dispatcher = new JODActionDispatcher(1, 100);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        List<String> executed = Collections.synchronizedList(new ArrayList<String>());
+
+        Assertions.assertTrue(dispatcher.submit("compA", new Runnable() {
+            @Override
+            public void run() {
+                running.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ignore) {}
+            }
+        }));
+        Assertions.assertTrue(running.await(1, TimeUnit.SECONDS));
+        Assertions.assertTrue(dispatcher.submit("compA", new Recorder(executed, "cmdA", null, 0)));
+        Assertions.assertTrue(dispatcher.submit("compB", new Recorder(executed, "cmdB", null, 0)));
+
+        // Pending commands are discarded and new commands are rejected
+        dispatcher.stop();
+        Assertions.assertEquals(0, dispatcher.getDepth());
+        Assertions.assertFalse(dispatcher.submit("compC", new Recorder(executed, "cmdC", null, 0)));
+        release.countDown();
+        for (int i = 0; i < 100 && dispatcher.getWorkers() > 0; i++)
+            Thread.sleep(10);
+        Assertions.assertEquals(0, dispatcher.getWorkers());
+        Assertions.assertEquals(1, dispatcher.getExecuted());
+        Assertions.assertTrue(executed.isEmpty());
+
+        // Restarted dispatcher executes new commands
+        dispatcher.start();
+        CountDownLatch done = new CountDownLatch(1);
+        Assertions.assertTrue(dispatcher.submit("compA", new Recorder(executed, "cmdD", done, 0)));
+        Assertions.assertTrue(done.await(1, TimeUnit.SECONDS));
+        Assertions.assertEquals(Collections.singletonList("cmdD"), executed);
+        dispatcher.stop();
+    }
+
+
+    // Test classes
+
+    private static class Recorder implements Runnable {
+
+        private final List<String> executed;
+        private final String name;
+        private final CountDownLatch done;
+        private final long execTime;
+
+        private Recorder(List<String> executed, String name, CountDownLatch done, long execTime) {
+            this.executed = executed;
+            this.name = name;
+            this.done = done;
+            this.execTime = execTime;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Thread.sleep(execTime);
+            } catch (InterruptedException ignore) {}
+            if (executed != null)
+                executed.add(name);
+            if (done != null)
+                done.countDown();
+        }
+
+    }
+
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * The John Operating System Project is the collection of software and configurations
+ * to generate IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package com.robypomper.josp.jod.comm;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class JODCloudReplayBufferTest {
+
+    @Test
+    public void testLastValuePerComponent() {
+        JODCloudReplayBuffer buffer = new JODCloudReplayBuffer(10);
+
+        buffer.put("compA", "compA=1");
+        buffer.put("compB", "compB=1");
+        buffer.put("compA", "compA=2");
+        Assertions.assertEquals(2, buffer.getSize());
+
+        // Components in update order, with their last value
+        Map<String, String> msgs = buffer.drain();
+        Assertions.assertEquals(Arrays.asList("compB", "compA"), new ArrayList<>(msgs.keySet()));
+        Assertions.assertEquals(Arrays.asList("compB=1", "compA=2"), new ArrayList<>(msgs.values()));
+        Assertions.assertEquals(0, buffer.getSize());
+        Assertions.assertEquals(2, buffer.getReplayed());
+        Assertions.assertTrue(buffer.drain().isEmpty());
+    }
+
+    @Test
+    public void testBounded() {
+        JODCloudReplayBuffer buffer = new JODCloudReplayBuffer(2);
+
+        buffer.put("compA", "compA=1");
+        buffer.put("compB", "compB=1");
+        buffer.put("compA", "compA=2");
+        buffer.put("compC", "compC=1");
+        Assertions.assertEquals(2, buffer.getSize());
+        Assertions.assertEquals(1, buffer.getDropped());
+        Assertions.assertEquals(Arrays.asList("compA", "compC"), new ArrayList<>(buffer.drain().keySet()));
+    }
+
+    @Test
+    public void testDrainAndRestore() {
+        JODCloudReplayBuffer buffer = new JODCloudReplayBuffer(10);
+
+        buffer.put("compA", "compA=1");
+        buffer.put("compB", "compB=1");
+        buffer.put("compC", "compC=1");
+        Assertions.assertEquals(Arrays.asList("compA", "compB"), new ArrayList<>(buffer.drain(2).keySet()));
+        Assertions.assertEquals(1, buffer.getSize());
+
+        // Restored updates are older than the buffered ones
+        buffer.put("compA", "compA=2");
+        Map<String, String> notSent = new LinkedHashMap<>();
+        notSent.put("compA", "compA=1");
+        notSent.put("compB", "compB=1");
+        buffer.restore(notSent);
+        Map<String, String> msgs = buffer.drain();
+        Assertions.assertEquals(Arrays.asList("compB", "compC", "compA"), new ArrayList<>(msgs.keySet()));
+        Assertions.assertEquals("compA=2", msgs.get("compA"));
+    }
+
+    @Test
+    public void testDisabled() {
+        JODCloudReplayBuffer buffer = new JODCloudReplayBuffer(0);
+
+        buffer.put("compA", "compA=1");
+        Assertions.assertEquals(0, buffer.getSize());
+        Assertions.assertEquals(1, buffer.getDropped());
+    }
+
+}
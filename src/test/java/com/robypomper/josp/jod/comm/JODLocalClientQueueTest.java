@@ -0,0 +1,302 @@
+/*******************************************************************************
+ * The John Operating System Project is the collection of software and configurations
+ * to generate IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package com.robypomper.josp.jod.comm;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class JODLocalClientQueueTest {
+
+    @Test
+    public void testDropOldest() throws InterruptedException {
+        BlockingWriter writer = new BlockingWriter();
+        JODLocalClientQueue queue = new JODLocalClientQueue("test", writer, 3, JODLocalClientQueue.OverflowPolicy.DROP_OLDEST, false);
+
+        // First message is taken by the writer thread, that blocks on it
+        Assertions.assertTrue(queue.offer("msg0", null));
+        Assertions.assertTrue(writer.writing.await(1, TimeUnit.SECONDS));
+        Assertions.assertTrue(queue.offer("info", null));
+        for (int i = 1; i <= 5; i++)
+            Assertions.assertTrue(queue.offer("comp" + i + "=1", "comp" + i));
+        Assertions.assertEquals(3, queue.getDepth());
+        Assertions.assertEquals(3, queue.getDropped());
+
+        // Messages without conflation key are never discarded
+        writer.release.countDown();
+        waitEmpty(queue);
+        Assertions.assertEquals(Arrays.asList("msg0", "info", "comp4=1", "comp5=1"), writer.written);
+        Assertions.assertEquals(0, writer.overflows);
+        queue.stop();
+    }
+
+    @Test
+    public void testOverflowWithoutConflatableMessages() throws InterruptedException {
+        BlockingWriter writer = new BlockingWriter();
+        JODLocalClientQueue queue = new JODLocalClientQueue("test", writer, 2, JODLocalClientQueue.OverflowPolicy.CONFLATE, false);
+
+        Assertions.assertTrue(queue.offer("msg0", null));
+        Assertions.assertTrue(writer.writing.await(1, TimeUnit.SECONDS));
+        Assertions.assertTrue(queue.offer("msg1", null));
+        Assertions.assertTrue(queue.offer("msg2", null));
+
+        // Queued messages are kept, the new one is rejected
+        Assertions.assertFalse(queue.offer("compA=1", "compA"));
+        Assertions.assertFalse(queue.offer("msg3", null));
+        Assertions.assertEquals(2, writer.overflows);
+        Assertions.assertEquals(2, queue.getDepth());
+        Assertions.assertEquals(2, queue.getDropped());
+
+        writer.release.countDown();
+        waitEmpty(queue);
+        Assertions.assertEquals(Arrays.asList("msg0", "msg1", "msg2"), writer.written);
+        queue.stop();
+    }
+
+    @Test
+    public void testOfferUnbounded() throws InterruptedException {
+        BlockingWriter writer = new BlockingWriter();
+        JODLocalClientQueue queue = new JODLocalClientQueue("test", writer, 2, JODLocalClientQueue.OverflowPolicy.DISCONNECT, false);
+
+        // Presentation larger than the queue is accepted as a whole
+        Assertions.assertTrue(queue.offerUnbounded("info", null));
+        Assertions.assertTrue(writer.writing.await(1, TimeUnit.SECONDS));
+        for (int i = 1; i <= 5; i++)
+            Assertions.assertTrue(queue.offerUnbounded("comp" + i + "=1", "comp" + i));
+        Assertions.assertEquals(5, queue.getDepth());
+        Assertions.assertEquals(2, queue.getFreeSize());
+
+        // New messages are still bounded, presentation's messages are never discarded
+        Assertions.assertTrue(queue.offer("msg1", null));
+        Assertions.assertTrue(queue.offer("msg2", null));
+        Assertions.assertEquals(0, queue.getFreeSize());
+        Assertions.assertEquals(0, writer.overflows);
+
+        writer.release.countDown();
+        waitEmpty(queue);
+        Assertions.assertEquals(Arrays.asList("info", "comp1=1", "comp2=1", "comp3=1", "comp4=1", "comp5=1", "msg1", "msg2"), writer.written);
+        Assertions.assertEquals(2, queue.getFreeSize());
+        queue.stop();
+    }
+
+    @Test
+    public void testConflate() throws InterruptedException {
+        BlockingWriter writer = new BlockingWriter();
+        JODLocalClientQueue queue = new JODLocalClientQueue("test", writer, 2, JODLocalClientQueue.OverflowPolicy.CONFLATE, false);
+
+        Assertions.assertTrue(queue.offer("msg0", null));
+        Assertions.assertTrue(writer.writing.await(1, TimeUnit.SECONDS));
+        Assertions.assertTrue(queue.offer("compA=1", "compA"));
+        Assertions.assertTrue(queue.offer("compB=1", "compB"));
+        Assertions.assertTrue(queue.offer("compA=2", "compA"));
+        Assertions.assertTrue(queue.offer("compA=3", "compA"));
+        Assertions.assertEquals(2, queue.getDepth());
+        Assertions.assertEquals(2, queue.getDropped());
+
+        writer.release.countDown();
+        waitEmpty(queue);
+        Assertions.assertEquals(Arrays.asList("msg0", "compA=3", "compB=1"), writer.written);
+        queue.stop();
+    }
+
+    @Test
+    public void testDisconnect() throws InterruptedException {
+        BlockingWriter writer = new BlockingWriter();
+        JODLocalClientQueue queue = new JODLocalClientQueue("test", writer, 2, JODLocalClientQueue.OverflowPolicy.DISCONNECT, false);
+
+        Assertions.assertTrue(queue.offer("msg0", null));
+        Assertions.assertTrue(writer.writing.await(1, TimeUnit.SECONDS));
+        Assertions.assertTrue(queue.offer("msg1", null));
+        Assertions.assertTrue(queue.offer("msg2", null));
+        Assertions.assertFalse(queue.offer("msg3", null));
+        Assertions.assertEquals(1, writer.overflows);
+        Assertions.assertEquals(0, queue.getDepth());
+        Assertions.assertEquals(3, queue.getDropped());
+
+        // Closed queue discards new messages
+        Assertions.assertFalse(queue.offer("msg4", null));
+        writer.release.countDown();
+        queue.stop();
+        Assertions.assertEquals(Collections.singletonList("msg0"), writer.written);
+    }
+
+    @Test
+    public void testConflatingQueue() throws InterruptedException {
+        BlockingWriter writer = new BlockingWriter();
+        JODLocalClientQueue queue = new JODLocalClientQueue("test", writer, 10, JODLocalClientQueue.OverflowPolicy.DROP_OLDEST, true);
+
+        Assertions.assertTrue(queue.offer("compA=0", "compA"));
+        Assertions.assertTrue(writer.writing.await(1, TimeUnit.SECONDS));
+        for (int i = 1; i <= 100; i++) {
+            Assertions.assertTrue(queue.offer("compA=" + i, "compA"));
+            Assertions.assertTrue(queue.offer("compB=" + i, "compB"));
+        }
+        Assertions.assertTrue(queue.offer("info", null));
+        Assertions.assertEquals(3, queue.getDepth());
+        Assertions.assertEquals(198, queue.getConflated());
+        Assertions.assertEquals(0, queue.getDropped());
+
+        writer.release.countDown();
+        waitEmpty(queue);
+        Assertions.assertEquals(Arrays.asList("compA=0", "compA=100", "compB=100", "info"), writer.written);
+
+        // After sent, a new update is queued again
+        Assertions.assertTrue(queue.offer("compA=101", "compA"));
+        waitEmpty(queue);
+        Assertions.assertEquals("compA=101", writer.written.get(4));
+        queue.stop();
+    }
+
+    @Test
+    public void testRestart() throws InterruptedException {
+        BlockingWriter writer = new BlockingWriter();
+        writer.release.countDown();
+        JODLocalClientQueue queue = new JODLocalClientQueue("test", writer, 10, JODLocalClientQueue.OverflowPolicy.DROP_OLDEST, true);
+
+        queue.stop();
+        Assertions.assertFalse(queue.offer("msg0", null));
+        queue.start();
+        Assertions.assertTrue(queue.offer("msg1", null));
+        waitEmpty(queue);
+        Assertions.assertEquals(Collections.singletonList("msg1"), writer.written);
+        queue.stop();
+    }
+
+    @Test
+    public void testBatchWindow() throws InterruptedException {
+        BlockingWriter writer = new BlockingWriter();
+        writer.release.countDown();
+        JODLocalClientQueue queue = new JODLocalClientQueue("test", writer, 100, JODLocalClientQueue.OverflowPolicy.DROP_OLDEST, true);
+        queue.setBatchWindow(200);
+
+        // Updates of 30 components, each one updated twice within the window
+        for (int round = 0; round < 2; round++)
+            for (int c = 0; c < 30; c++)
+                Assertions.assertTrue(queue.offer("comp" + c + "=" + round, "comp" + c));
+        Assertions.assertTrue(writer.written.isEmpty());
+        Assertions.assertEquals(30, queue.getDepth());
+
+        waitEmpty(queue);
+        Assertions.assertEquals(30, writer.written.size());
+        Assertions.assertEquals("comp0=1", writer.written.get(0));
+        Assertions.assertEquals(30, queue.getConflated());
+        Assertions.assertEquals(1, queue.getBatches());
+        queue.stop();
+    }
+
+    @Test
+    public void testOfferAll() throws InterruptedException {
+        BlockingWriter writer = new BlockingWriter();
+        JODLocalClientQueue queue = new JODLocalClientQueue("test", writer, 2, JODLocalClientQueue.OverflowPolicy.CONFLATE, true);
+
+        Assertions.assertTrue(queue.offer("msg0", null));
+        Assertions.assertTrue(writer.writing.await(1, TimeUnit.SECONDS));
+        Assertions.assertTrue(queue.offer("compA=1", "compA"));
+
+        Assertions.assertEquals(1, queue.getFreeSize());
+
+        // Batch conflates pending messages and respects the max size
+        Map<String, String> batch = new LinkedHashMap<>();
+        batch.put("compB", "compB=1");
+        batch.put("compA", "compA=2");
+        batch.put("compC", "compC=1");
+        Assertions.assertTrue(queue.offerAll(batch));
+        Assertions.assertEquals(2, queue.getDepth());
+        Assertions.assertEquals(0, queue.getFreeSize());
+        Assertions.assertEquals(1, queue.getDropped());
+        Assertions.assertEquals(Arrays.asList("compB", "compC"), new ArrayList<>(queue.getPending().keySet()));
+
+        // Batch can't discard messages without conflation key
+        Assertions.assertTrue(queue.offer("msg1", null));
+        Assertions.assertTrue(queue.offer("msg2", null));
+        Assertions.assertFalse(queue.offerAll(batch));
+        Assertions.assertEquals(1, writer.overflows);
+
+        writer.release.countDown();
+        waitEmpty(queue);
+        Assertions.assertEquals(Arrays.asList("msg0", "msg1", "msg2"), writer.written);
+
+        queue.stop();
+        Assertions.assertFalse(queue.offerAll(batch));
+    }
+
+    @Test
+    public void testStopAndGetPending() throws InterruptedException {
+        BlockingWriter writer = new BlockingWriter();
+        JODLocalClientQueue queue = new JODLocalClientQueue("test", writer, 10, JODLocalClientQueue.OverflowPolicy.CONFLATE, true);
+
+        Assertions.assertTrue(queue.offer("msg0", null));
+        Assertions.assertTrue(writer.writing.await(1, TimeUnit.SECONDS));
+        Assertions.assertTrue(queue.offer("compA=1", "compA"));
+        Assertions.assertTrue(queue.offer("msg1", null));
+        Assertions.assertTrue(queue.offer("compB=1", "compB"));
+
+        // Pending conflatable messages are returned, then new messages are refused
+        Map<String, String> pending = queue.stopAndGetPending();
+        Assertions.assertEquals(Arrays.asList("compA", "compB"), new ArrayList<>(pending.keySet()));
+        Assertions.assertEquals(0, queue.getDepth());
+        Assertions.assertFalse(queue.offer("compC=1", "compC"));
+
+        queue.start();
+        Assertions.assertTrue(queue.offer("compC=1", "compC"));
+        queue.stop();
+    }
+
+    private static void waitEmpty(JODLocalClientQueue queue) throws InterruptedException {
+        for (int i = 0; i < 100 && queue.getDepth() > 0; i++)
+            Thread.sleep(10);
+        Thread.sleep(50);
+        Assertions.assertEquals(0, queue.getDepth());
+    }
+
+
+    // Test classes
+
+    private static class BlockingWriter implements JODLocalClientQueue.Writer {
+
+        final List<String> written = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        int overflows = 0;
+
+        @Override
+        public void write(String msg) {
+            written.add(msg);
+            writing.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ignore) {}
+        }
+
+        @Override
+        public void onOverflow() {
+            overflows++;
+        }
+
+    }
+
+}
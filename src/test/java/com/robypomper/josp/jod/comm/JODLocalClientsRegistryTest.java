@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * The John Operating System Project is the collection of software and configurations
+ * to generate IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package com.robypomper.josp.jod.comm;
+
+import com.robypomper.comm.server.ServerClient;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+@ExtendWith(MockitoExtension.class)
+public class JODLocalClientsRegistryTest {
+
+    @Test
+    public void testLUIDReleasedAndReused(@Mock ServerClient client1, @Mock ServerClient client2, @Mock ServerClient client3) {
+        JODLocalClientsRegistry registry = new JODLocalClientsRegistry();
+        Assertions.assertEquals(0, registry.registerLUID(client1));
+        Assertions.assertEquals(1, registry.registerLUID(client2));
+        Assertions.assertEquals(1, registry.registerLUID(client2));
+
+        // Released LUID is assigned to the next connection
+        registry.unregisterLUID(client1);
+        Assertions.assertNull(registry.getLUID(client1));
+        Assertions.assertEquals(0, registry.registerLUID(client3));
+        Assertions.assertEquals(1, (int) registry.getLUID(client2));
+
+        registry.unregisterLUID(client2);
+        registry.unregisterLUID(client3);
+        Assertions.assertEquals(0, registry.registerLUID(client1));
+    }
+
+    @Test
+    public void testConcurrentConnectAndDisconnect() throws InterruptedException {
+        final JODLocalClientsRegistry registry = new JODLocalClientsRegistry();
+        final int threads = 8;
+        final int loops = 500;
+        final List<JODLocalClientInfo> conns = new ArrayList<>();
+        for (int i = 0; i < threads; i++)
+            conns.add(mockConn("srvId_" + i + "/usrId/instId"));
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicReference<String> error = new AtomicReference<>();
+        for (int i = 0; i < threads; i++) {
+            final JODLocalClientInfo conn = conns.get(i);
+            final boolean keep = i % 2 == 0;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int l = 0; l < loops; l++) {
+                            registry.registerLUID(conn.getClient());
+                            registry.add(conn);
+                            checkSnapshot(registry.getAll(), error);
+                            // keep the latest connection of even threads
+                            if (l < loops - 1 || !keep) {
+                                registry.remove(conn);
+                                registry.unregisterLUID(conn.getClient());
+                            }
+                        }
+                    } catch (InterruptedException ignore) {
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        Assertions.assertTrue(done.await(10, TimeUnit.SECONDS));
+        Assertions.assertNull(error.get(), error.get());
+
+        // Snapshot and indexes contain only the even connections
+        Assertions.assertEquals(threads / 2, registry.size());
+        Set<Integer> luids = new HashSet<>();
+        for (int i = 0; i < threads; i++) {
+            JODLocalClientInfo conn = conns.get(i);
+            boolean kept = i % 2 == 0;
+            Assertions.assertEquals(kept, registry.getAll().contains(conn));
+            Assertions.assertEquals(kept ? conn : null, registry.getBySrvId(conn.getFullSrvId()));
+            Assertions.assertEquals(kept ? conn : null, registry.getByClient(conn.getClient()));
+            Assertions.assertEquals(kept, registry.getLUID(conn.getClient()) != null);
+            if (kept)
+                luids.add(registry.getLUID(conn.getClient()));
+        }
+        // LUIDs are unique and reused, so they don't grow with the connections
+        Assertions.assertEquals(threads / 2, luids.size());
+        for (Integer luid : luids)
+            Assertions.assertTrue(luid < threads);
+    }
+
+    private static JODLocalClientInfo mockConn(String fullSrvId) {
+        ServerClient client = Mockito.mock(ServerClient.class);
+        JODLocalClientInfo conn = Mockito.mock(JODLocalClientInfo.class);
+        Mockito.when(conn.getFullSrvId()).thenReturn(fullSrvId);
+        Mockito.when(conn.getClient()).thenReturn(client);
+        return conn;
+    }
+
+    private static void checkSnapshot(List<JODLocalClientInfo> snapshot, AtomicReference<String> error) {
+        Set<String> srvIds = new HashSet<>();
+        for (JODLocalClientInfo conn : snapshot)
+            if (!srvIds.add(conn.getFullSrvId()))
+                error.compareAndSet(null, String.format("Service '%s' registered twice in the snapshot", conn.getFullSrvId()));
+    }
+
+}
@@ -26,6 +26,7 @@ import com.robypomper.java.JavaThreads;
 import com.robypomper.josp.jod.JODSettings_002;
 import com.robypomper.josp.jod.objinfo.JODObjectInfo;
 import com.robypomper.josp.jod.permissions.JODPermissions;
+import com.robypomper.josp.jod.structure.JODStructure;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -33,12 +34,18 @@ import org.junit.jupiter.api.Test;
 
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -137,6 +144,120 @@ public class JODLocalServerTest {
     }
 
 
+    // Object's presentation
+
+    @Test
+    public void testPresentationCache(@Mock JODCommunication jodComm, @Mock JODObjectInfo jodObjectInfo, @Mock JODPermissions jodPerms)
+            throws JODCommunication.LocalCommunicationException, JODStructure.ParsingException {
+        Mockito.when(jodObjectInfo.getObjId()).thenReturn("objId");
+        Mockito.when(jodObjectInfo.getStructForJSL()).thenReturn("{}");
+        Mockito.when(jodPerms.getPermsForJSL()).thenReturn("[]");
+        JODLocalServer jodServer = new JODLocalServer(jodComm, jodObjectInfo, jodPerms, new JODSettings_002(new HashMap<>()));
+
+        // Cached messages are reused
+        String[] first = jodServer.buildObjectPresentation();
+        String[] second = jodServer.buildObjectPresentation();
+        Assertions.assertSame(first[1], second[1]);
+        Assertions.assertSame(first[2], second[2]);
+        Mockito.verify(jodObjectInfo, Mockito.times(1)).getStructForJSL();
+        Mockito.verify(jodPerms, Mockito.times(1)).getPermsForJSL();
+
+        // Structure's changes invalidate only the structure message
+        Mockito.when(jodObjectInfo.getStructVersion()).thenReturn(1L);
+        jodServer.buildObjectPresentation();
+        Mockito.verify(jodObjectInfo, Mockito.times(2)).getStructForJSL();
+        Mockito.verify(jodPerms, Mockito.times(1)).getPermsForJSL();
+
+        // Permissions' changes invalidate only the permissions message
+        Mockito.when(jodPerms.getPermsVersion()).thenReturn(1L);
+        jodServer.buildObjectPresentation();
+        Mockito.verify(jodObjectInfo, Mockito.times(2)).getStructForJSL();
+        Mockito.verify(jodPerms, Mockito.times(2)).getPermsForJSL();
+    }
+
+
+    // Handshake
+
+    @Test
+    public void testStalledHandshakeTimeout(@Mock JODCommunication jodComm, @Mock JODObjectInfo jodObjectInfo, @Mock JODPermissions jodPerms)
+            throws ServerStartupException, ServerShutdownException, JODCommunication.LocalCommunicationException, IOException {
+        Mockito.lenient().when(jodObjectInfo.getObjId()).thenReturn("objId");
+        JODLocalServer jodServer = new JODLocalServer(jodComm, jodObjectInfo, jodPerms, new JODSettings_002(handshakeSettings(500)));
+        jodServer.startup();
+
+        // Peer connected, but it never sends his service's id
+        Socket stalled = new Socket(LOCALHOST, port);
+        switchThread();
+        Assertions.assertEquals(1, jodServer.getPendingHandshakes());
+
+        // Handshake failed after the timeout, and the connection was closed
+        Assertions.assertTrue(waitClosed(stalled, 2000));
+        Assertions.assertEquals(0, jodServer.getPendingHandshakes());
+        Assertions.assertEquals(0, getLocConnCount(jodServer));
+
+        stalled.close();
+        jodServer.shutdown();
+    }
+
+    @Test
+    public void testStalledHandshakeNotBlocking(@Mock JODCommunication jodComm, @Mock JODObjectInfo jodObjectInfo, @Mock JODPermissions jodPerms)
+            throws ServerStartupException, ServerShutdownException, JODCommunication.LocalCommunicationException, IOException {
+        Mockito.lenient().when(jodObjectInfo.getObjId()).thenReturn("objId");
+        JODLocalServer jodServer = new JODLocalServer(jodComm, jodObjectInfo, jodPerms, new JODSettings_002(handshakeSettings(5000)));
+        jodServer.startup();
+
+        // First peer stalls, second peer completes the handshake meanwhile
+        Socket stalled = new Socket(LOCALHOST, port);
+        switchThread();
+        Socket peer = new Socket(LOCALHOST, port);
+        peer.getOutputStream().write("srvId/usrId/instId\n".getBytes(StandardCharsets.UTF_8));
+        peer.getOutputStream().flush();
+
+        long deadline = System.currentTimeMillis() + 1000;
+        while (getLocConnCount(jodServer) == 0 && System.currentTimeMillis() < deadline)
+            switchThread();
+        Assertions.assertEquals(1, getLocConnCount(jodServer));
+        Assertions.assertNotNull(jodServer.getLocalClientInfo("srvId/usrId/instId"));
+        Assertions.assertEquals(1, jodServer.getPendingHandshakes());
+
+        peer.close();
+        stalled.close();
+        jodServer.shutdown();
+    }
+
+    @Test
+    public void testHandshakeThreadsBounded(@Mock JODCommunication jodComm, @Mock JODObjectInfo jodObjectInfo, @Mock JODPermissions jodPerms)
+            throws ServerStartupException, ServerShutdownException, JODCommunication.LocalCommunicationException, IOException {
+        Mockito.lenient().when(jodObjectInfo.getObjId()).thenReturn("objId");
+        Map<String, Object> jodSettingsMap = handshakeSettings(500);
+        jodSettingsMap.put(JODSettings_002.JODCOMM_LOCAL_HANDSHAKE_THREADS, "1");
+        JODLocalServer jodServer = new JODLocalServer(jodComm, jodObjectInfo, jodPerms, new JODSettings_002(jodSettingsMap));
+        jodServer.startup();
+
+        // Only one handshake's thread: second peer waits for the stalled one
+        Socket stalled = new Socket(LOCALHOST, port);
+        switchThread();
+        Socket peer = new Socket(LOCALHOST, port);
+        peer.getOutputStream().write("srvId/usrId/instId\n".getBytes(StandardCharsets.UTF_8));
+        peer.getOutputStream().flush();
+        switchThread();
+        Assertions.assertEquals(0, getLocConnCount(jodServer));
+        Assertions.assertEquals(2, jodServer.getPendingHandshakes());
+
+        // Stalled handshake timed out, then the second peer is registered
+        Assertions.assertTrue(waitClosed(stalled, 2000));
+        long deadline = System.currentTimeMillis() + 1000;
+        while (getLocConnCount(jodServer) == 0 && System.currentTimeMillis() < deadline)
+            switchThread();
+        Assertions.assertEquals(1, getLocConnCount(jodServer));
+        Assertions.assertNotNull(jodServer.getLocalClientInfo("srvId/usrId/instId"));
+
+        peer.close();
+        stalled.close();
+        jodServer.shutdown();
+    }
+
+
     // Client and connections status
 
 //    @Test
@@ -348,6 +469,34 @@ public class JODLocalServerTest {
 
     // Utils methods
 
+    private Map<String, Object> handshakeSettings(long handshakeTimeout) {
+        Map<String, Object> jodSettingsMap = new HashMap<>();
+        jodSettingsMap.put(JODSettings_002.JODCOMM_LOCAL_PORT, Integer.toString(port));
+        jodSettingsMap.put(JODSettings_002.JODCOMM_LOCAL_HANDSHAKE_TIMEOUT, Long.toString(handshakeTimeout));
+        return jodSettingsMap;
+    }
+
+    /**
+     * Read and discard all data sent by the server, until the connection is
+     * closed or given timeout expires.
+     *
+     * @return true if the connection was closed by the server.
+     */
+    private boolean waitClosed(Socket socket, int timeout) throws IOException {
+        socket.setSoTimeout(timeout);
+        InputStream in = socket.getInputStream();
+        try {
+            //noinspection StatementWithEmptyBody
+            while (in.read() != -1) ;
+            return true;
+        } catch (SocketTimeoutException e) {
+            return false;
+        } catch (IOException e) {
+            // connection reset by the server
+            return true;
+        }
+    }
+
     private int getClientsCount(JODLocalServer server) {
         return server.getClients().size();
     }
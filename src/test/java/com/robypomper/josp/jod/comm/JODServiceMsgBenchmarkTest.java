@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * The John Operating System Project is the collection of software and configurations
+ * to generate IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package com.robypomper.josp.jod.comm;
+
+import com.robypomper.josp.clients.JCPAPIsClientObj;
+import com.robypomper.josp.jod.JODSettings_002;
+import com.robypomper.josp.jod.events.JODEvents_002;
+import com.robypomper.josp.jod.objinfo.JODObjectInfo_002;
+import com.robypomper.josp.jod.permissions.JODPermissions_002;
+import com.robypomper.josp.protocol.JOSPPerm;
+import com.robypomper.josp.protocol.JOSPProtocol;
+import com.robypomper.josp.protocol.JOSPProtocol_ServiceToObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+
+/**
+ * Benchmark of the {@link JODCommunication_002#processFromServiceMsg(String, JOSPPerm.Connection)}
+ * method, with a message for each type that JOSP Services can send to the
+ * object, action command included.
+ * <p>
+ * The object's sub-systems are mocked, so it measures the message's parsing,
+ * classification, permission check and dispatch, plus the handlers' payload
+ * parsing. Timings are logged for each message type.
+ * <p>
+ * It's an opt-in benchmark, executed only when the <code>jod.benchmarks</code>
+ * system property is 'true' (e.g. <code>./gradlew test -Djod.benchmarks=true</code>).
+ */
+@ExtendWith(MockitoExtension.class)
+@EnabledIfSystemProperty(named = "jod.benchmarks", matches = "true")
+public class JODServiceMsgBenchmarkTest {
+
+    // Class constants
+
+    private static final int WARMUP_ROUNDS = 20000;
+    private static final int ROUNDS = 200000;
+    private static final String PROTO = JOSPProtocol.JOSP_PROTO_NAME + "/" + JOSPProtocol.JOSP_PROTO_VERSION_2_0;
+    private static final String[] NAMES = new String[]{
+            JOSPProtocol_ServiceToObject.OBJ_SETNAME_REQ_NAME,
+            JOSPProtocol_ServiceToObject.OBJ_SETOWNERID_REQ_NAME,
+            JOSPProtocol_ServiceToObject.OBJ_ADDPERM_REQ_NAME,
+            JOSPProtocol_ServiceToObject.OBJ_UPDPERM_REQ_NAME,
+            JOSPProtocol_ServiceToObject.OBJ_REMPERM_REQ_NAME,
+            "CmdMsg",   // action command
+            JOSPProtocol_ServiceToObject.HISTORY_MSG_REQ_NAME,
+            JOSPProtocol_ServiceToObject.EVENTS_MSG_REQ_NAME,
+    };
+
+
+    // Internal vars
+
+    private static final Logger log = LoggerFactory.getLogger(JODServiceMsgBenchmarkTest.class);
+
+
+    @Test
+    public void benchmarkProcessFromServiceMsg(@Mock JODObjectInfo_002 objInfo, @Mock JCPAPIsClientObj jcpClient,
+                                               @Mock JODPermissions_002 permissions, @Mock JODEvents_002 events) throws JODCommunication.LocalCommunicationException {
+        Mockito.lenient().when(objInfo.getObjId()).thenReturn("obj-1");
+        Mockito.lenient().when(objInfo.getObjName()).thenReturn("obj");
+        Mockito.lenient().when(permissions.checkPermission(Mockito.anyString(), Mockito.anyString(), Mockito.any(JOSPPerm.Type.class), Mockito.any(JOSPPerm.Connection.class))).thenReturn(true);
+        JODCommunication_002 comm = new JODCommunication_002(new JODSettings_002(new HashMap<>()), objInfo, jcpClient, permissions, events, "instance-1");
+
+        String[] msgs = new String[NAMES.length];
+        for (int i = 0; i < NAMES.length; i++)
+            msgs[i] = String.format("%s %s 2024-01-01T00:00:00\nsrvId:srv-%d\nusrId:usr-%d\nobjId:obj-1\nfield1:value1\nfield2:value2", PROTO, NAMES[i], i, i);
+        Assertions.assertNotNull(JODServiceMsgHeader.parse(msgs[0]));
+
+        StringBuilder results = new StringBuilder();
+        for (int i = 0; i < msgs.length; i++) {
+            run(comm, msgs[i], WARMUP_ROUNDS);
+            long ns = run(comm, msgs[i], ROUNDS);
+            results.append(String.format("%n- %s: %d ns/msg", NAMES[i], ns / ROUNDS));
+        }
+
+        log.info(String.format("Service msgs processing:%s", results));
+    }
+
+    private static long run(JODCommunication_002 comm, String msg, int rounds) {
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++)
+            comm.processFromServiceMsg(msg, JOSPPerm.Connection.LocalAndCloud);
+        return System.nanoTime() - start;
+    }
+
+}
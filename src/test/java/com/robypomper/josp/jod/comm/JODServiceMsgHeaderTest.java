@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * The John Operating System Project is the collection of software and configurations
+ * to generate IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package com.robypomper.josp.jod.comm;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class JODServiceMsgHeaderTest {
+
+    private static final String MSG = "JOSP/2.0 ObjectSetName 2024-01-01T00:00:00\nsrvId:srv-1\nusrId:usr-1\nobjId:obj-1\nobjName:new name";
+
+    @Test
+    public void testParse() {
+        JODServiceMsgHeader parsed = JODServiceMsgHeader.parse(MSG);
+
+        Assertions.assertNotNull(parsed);
+        Assertions.assertEquals("JOSP/2.0 ObjectSetName 2024-01-01T00:00:00", parsed.getHeader());
+        Assertions.assertEquals("srv-1", parsed.getSrvId());
+        Assertions.assertEquals("usr-1", parsed.getUsrId());
+    }
+
+    @Test
+    public void testParseWithoutPayload() {
+        JODServiceMsgHeader parsed = JODServiceMsgHeader.parse("JOSP/2.0 CmdMsg\nusrId:usr-1\nsrvId:srv-1");
+
+        Assertions.assertNotNull(parsed);
+        Assertions.assertEquals("JOSP/2.0 CmdMsg", parsed.getHeader());
+        Assertions.assertEquals("srv-1", parsed.getSrvId());
+        Assertions.assertEquals("usr-1", parsed.getUsrId());
+    }
+
+    @Test
+    public void testParseInvalid() {
+        Assertions.assertNull(JODServiceMsgHeader.parse("JOSP/2.0"));
+        Assertions.assertNull(JODServiceMsgHeader.parse("JOSP/2.0 ObjectSetName\nobjName:new name"));
+        Assertions.assertNull(JODServiceMsgHeader.parse("JOSP/2.0 ObjectSetName\nsrvId:srv-1\na:1\nb:2\nc:3\nusrId:usr-1"));
+    }
+
+}
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * The John Operating System Project is the collection of software and configurations
+ * to generate IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package com.robypomper.josp.jod.events;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class BacklogUploaderTest {
+
+    @Test
+    public void testChunkedAndResumableUpload() {
+        ListBacklog backlog = new ListBacklog(250);
+        backlog.failingChunk = 151;
+        BacklogUploader<Long> uploader = new BacklogUploader<>("test", backlog, 2);
+        uploader.start();
+
+        Assertions.assertEquals(CloudSyncWorker.Result.MORE, uploader.upload(50));
+        Assertions.assertEquals(100, backlog.lastUploaded);
+        Assertions.assertEquals(250, uploader.getBacklogCount());
+        Assertions.assertEquals(100, uploader.getUploadedCount());
+
+        // Second chunk fails, first one acknowledged
+        Assertions.assertEquals(CloudSyncWorker.Result.FAILED, uploader.upload(50));
+        Assertions.assertEquals(150, backlog.lastUploaded);
+        Assertions.assertEquals(150, uploader.getUploadedCount());
+
+        // Resume from the failed chunk
+        backlog.failingChunk = -1;
+        Assertions.assertEquals(CloudSyncWorker.Result.DONE, uploader.upload(50));
+        Assertions.assertEquals(250, backlog.lastUploaded);
+        Assertions.assertEquals(0, uploader.getBacklogCount());
+        Assertions.assertEquals(2, backlog.maxInFlight);
+        for (List<Long> chunk : backlog.sent)
+            Assertions.assertTrue(chunk.size() <= 50);
+        uploader.stop();
+    }
+
+    @Test
+    public void testNoDuplicatesAfterFailure() {
+        ListBacklog backlog = new ListBacklog(150);
+        backlog.failingChunk = 51;
+        BacklogUploader<Long> uploader = new BacklogUploader<>("test", backlog, 3);
+        uploader.start();
+
+        // Second chunk fails, third one is uploaded but not acknowledged
+        Assertions.assertEquals(CloudSyncWorker.Result.FAILED, uploader.upload(50));
+        Assertions.assertEquals(50, backlog.lastUploaded);
+        Assertions.assertEquals(2, backlog.sent.size());
+
+        // Third chunk is not uploaded again
+        backlog.failingChunk = -1;
+        Assertions.assertEquals(CloudSyncWorker.Result.DONE, uploader.upload(50));
+        Assertions.assertEquals(150, backlog.lastUploaded);
+        Assertions.assertEquals(3, backlog.sent.size());
+        List<Long> firstIds = new ArrayList<>();
+        for (List<Long> chunk : backlog.sent)
+            firstIds.add(chunk.get(0));
+        Collections.sort(firstIds);
+        Assertions.assertEquals(Arrays.asList(1L, 51L, 101L), firstIds);
+        uploader.stop();
+    }
+
+    @Test
+    public void testNotConnected() {
+        ListBacklog backlog = new ListBacklog(10);
+        backlog.connected = false;
+        BacklogUploader<Long> uploader = new BacklogUploader<>("test", backlog, 2);
+
+        Assertions.assertEquals(CloudSyncWorker.Result.DONE, uploader.upload(50));
+        Assertions.assertEquals(-1, backlog.lastUploaded);
+        Assertions.assertTrue(backlog.sent.isEmpty());
+    }
+
+
+    // Test classes
+
+    private static class ListBacklog implements BacklogUploader.Backlog<Long> {
+
+        final List<Long> items = new ArrayList<>();
+        final List<List<Long>> sent = Collections.synchronizedList(new ArrayList<List<Long>>());
+        boolean connected = true;
+        long lastUploaded = -1;
+        long failingChunk = -1;
+        int inFlight = 0;
+        int maxInFlight = 0;
+
+        ListBacklog(int count) {
+            for (long i = 1; i <= count; i++)
+                items.add(i);
+        }
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        public long getLastUploaded() {
+            return lastUploaded;
+        }
+
+        @Override
+        public long getLastStored() {
+            return items.get(items.size() - 1);
+        }
+
+        @Override
+        public List<Long> read(long afterId, long toId, int maxCount) {
+            List<Long> chunk = new ArrayList<>();
+            for (Long i : items)
+                if (i > afterId && i <= toId && chunk.size() < maxCount)
+                    chunk.add(i);
+            return chunk;
+        }
+
+        @Override
+        public long getId(Long item) {
+            return item;
+        }
+
+        @Override
+        public boolean send(List<Long> chunk) {
+            synchronized (this) {
+                inFlight++;
+                maxInFlight = Math.max(maxInFlight, inFlight);
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException ignore) {}
+            synchronized (this) {
+                inFlight--;
+            }
+            if (chunk.get(0) == failingChunk)
+                return false;
+            sent.add(chunk);
+            return true;
+        }
+
+        @Override
+        public void acknowledge(List<Long> chunk) {
+            lastUploaded = chunk.get(chunk.size() - 1);
+        }
+
+    }
+
+}
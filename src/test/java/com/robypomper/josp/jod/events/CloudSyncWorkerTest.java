@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * The John Operating System Project is the collection of software and configurations
+ * to generate IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package com.robypomper.josp.jod.events;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+public class CloudSyncWorkerTest {
+
+    @Test
+    public void testLinger() throws InterruptedException {
+        ScriptedUploader uploader = new ScriptedUploader();
+        CloudSyncWorker worker = new CloudSyncWorker("test", uploader, 50, 300, 100, 1000);
+
+        long start = System.currentTimeMillis();
+        worker.start();
+        Assertions.assertTrue(uploader.waitUploads(1, 2000));
+        Assertions.assertTrue(uploader.getTime(0) - start >= 300 - 5);
+
+        // Sync requests received during the linger are collected in a single next sync
+        worker.requestSync();
+        Thread.sleep(100);
+        worker.requestSync();
+        worker.requestSync();
+        Assertions.assertTrue(uploader.waitUploads(3, 2000));
+        Thread.sleep(800);
+        Assertions.assertEquals(3, uploader.getCount());
+        worker.stop();
+    }
+
+    @Test
+    public void testMoreUntilDone() throws InterruptedException {
+        ScriptedUploader uploader = new ScriptedUploader(CloudSyncWorker.Result.MORE, CloudSyncWorker.Result.MORE, CloudSyncWorker.Result.DONE);
+        CloudSyncWorker worker = new CloudSyncWorker("test", uploader, 50, 0, 100, 1000);
+
+        worker.start();
+        Assertions.assertTrue(uploader.waitUploads(3, 2000));
+        Thread.sleep(200);
+        Assertions.assertEquals(3, uploader.getCount());
+        Assertions.assertEquals(Arrays.asList(50, 50, 50), uploader.getBatchSizes());
+        Assertions.assertEquals(0, worker.getFailures());
+
+        // Next sync request starts a new sync
+        worker.requestSync();
+        Assertions.assertTrue(uploader.waitUploads(4, 2000));
+        worker.stop();
+        Assertions.assertFalse(worker.isRunning());
+    }
+
+    @Test
+    public void testFailedBackoff() throws InterruptedException {
+        // null result: the upload throws an exception, handled as a failure
+        ScriptedUploader uploader = new ScriptedUploader(CloudSyncWorker.Result.FAILED, null, CloudSyncWorker.Result.FAILED,
+                CloudSyncWorker.Result.FAILED, CloudSyncWorker.Result.DONE);
+        CloudSyncWorker worker = new CloudSyncWorker("test", uploader, 50, 0, 100, 250);
+
+        worker.start();
+        Assertions.assertTrue(uploader.waitUploads(2, 2000));
+        Assertions.assertTrue(worker.getFailures() > 0);
+        Assertions.assertTrue(uploader.waitUploads(5, 3000));
+        Thread.sleep(100);
+        Assertions.assertEquals(5, uploader.getCount());
+        Assertions.assertEquals(0, worker.getFailures());
+
+        // Exponential backoff, from backoffMin up to backoffMax
+        long[] expected = new long[]{100, 200, 250, 250};
+        for (int i = 0; i < expected.length; i++) {
+            long elapsed = uploader.getTime(i + 1) - uploader.getTime(i);
+            Assertions.assertTrue(elapsed >= expected[i] - 5, String.format("Retry %d after %d ms, expected %d ms", i + 1, elapsed, expected[i]));
+        }
+        worker.stop();
+    }
+
+    @Test
+    public void testStopDuringBackoff() throws InterruptedException {
+        ScriptedUploader uploader = new ScriptedUploader(CloudSyncWorker.Result.FAILED);
+        CloudSyncWorker worker = new CloudSyncWorker("test", uploader, 50, 0, 10000, 10000);
+
+        worker.start();
+        Assertions.assertTrue(uploader.waitUploads(1, 2000));
+        long start = System.currentTimeMillis();
+        worker.stop();
+        Assertions.assertTrue(System.currentTimeMillis() - start < CloudSyncWorker.DEF_JOIN_TIME);
+        Assertions.assertFalse(worker.isRunning());
+        Assertions.assertEquals(1, uploader.getCount());
+    }
+
+
+    // Test classes
+
+    /**
+     * Uploader that returns given results in order, then always
+     * {@link CloudSyncWorker.Result#DONE}. It records the time and the max
+     * batch size of each upload.
+     */
+    private static class ScriptedUploader implements CloudSyncWorker.Uploader {
+
+        private final LinkedList<CloudSyncWorker.Result> results;
+        private final List<Long> times = new ArrayList<>();
+        private final List<Integer> batchSizes = new ArrayList<>();
+
+        ScriptedUploader(CloudSyncWorker.Result... results) {
+            this.results = new LinkedList<>(Arrays.asList(results));
+        }
+
+        @Override
+        public synchronized CloudSyncWorker.Result upload(int maxBatchSize) {
+            times.add(System.currentTimeMillis());
+            batchSizes.add(maxBatchSize);
+            notifyAll();
+
+            if (results.isEmpty())
+                return CloudSyncWorker.Result.DONE;
+            CloudSyncWorker.Result result = results.removeFirst();
+            if (result == null)
+                throw new RuntimeException("Upload error");
+            return result;
+        }
+
+        synchronized boolean waitUploads(int count, long timeout) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeout;
+            while (times.size() < count) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                    return false;
+                wait(remaining);
+            }
+            return true;
+        }
+
+        synchronized int getCount() {
+            return times.size();
+        }
+
+        synchronized long getTime(int index) {
+            return times.get(index);
+        }
+
+        synchronized List<Integer> getBatchSizes() {
+            return new ArrayList<>(batchSizes);
+        }
+
+    }
+
+}
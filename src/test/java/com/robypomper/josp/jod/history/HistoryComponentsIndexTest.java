@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * The John Operating System Project is the collection of software and configurations
+ * to generate IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package com.robypomper.josp.jod.history;
+
+import com.robypomper.josp.jod.structure.StructureDefinitions;
+import com.robypomper.josp.protocol.JOSPHistory;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+public class HistoryComponentsIndexTest {
+
+    private static final String COMP_A = "root>compA";
+    private static final String COMP_B = "root>compB";
+
+    private HistoryComponentsIndex index;
+
+    @BeforeEach
+    public void setUp() {
+        // 100 statuses, odd ids to COMP_A and even ids to COMP_B, one per second
+        index = new HistoryComponentsIndex();
+        List<JOSPHistory> items = new ArrayList<>();
+        for (int i = 1; i <= 100; i++)
+            items.add(status(i, i % 2 == 1 ? COMP_A : COMP_B));
+        index.add(items);
+    }
+
+    @Test
+    public void testLatestAndAncient() {
+        Assertions.assertEquals(50, index.count(COMP_A));
+        Assertions.assertEquals(50, index.count(COMP_B.toUpperCase()));
+        Assertions.assertEquals(0, index.count("root>missing"));
+
+        Assertions.assertEquals(Arrays.asList(95L, 97L, 99L), index.latest(COMP_A, 3));
+        Assertions.assertEquals(Arrays.asList(2L, 4L), index.ancient(COMP_B, 2));
+        Assertions.assertEquals(50, index.latest(COMP_A, 1000).size());
+        Assertions.assertEquals(50, index.ancient(COMP_A, 1000).size());
+        Assertions.assertTrue(index.latest("root>missing", 3).isEmpty());
+    }
+
+    @Test
+    public void testById() {
+        Assertions.assertEquals(Arrays.asList(11L, 13L, 15L), index.byId(COMP_A, 10, 15));
+        Assertions.assertEquals(Arrays.asList(10L, 12L, 14L), index.byId(COMP_B, 10, 15));
+        Assertions.assertEquals(Arrays.asList(97L, 99L), index.byId(COMP_A, 96, Long.MAX_VALUE));
+        Assertions.assertTrue(index.byId(COMP_A, 200, 300).isEmpty());
+    }
+
+    @Test
+    public void testByDate() {
+        Assertions.assertEquals(Arrays.asList(21L, 23L), index.byDate(COMP_A, new Date(20000), new Date(23000)));
+        Assertions.assertEquals(Arrays.asList(96L, 98L, 100L), index.byDate(COMP_B, new Date(95000), null));
+        Assertions.assertEquals(Arrays.asList(1L, 3L), index.byDate(COMP_A, null, new Date(3000)));
+    }
+
+    @Test
+    public void testPage() {
+        Assertions.assertEquals(Arrays.asList(1L, 3L, 5L), index.page(COMP_A, 0, 3));
+        Assertions.assertEquals(Arrays.asList(7L, 9L, 11L), index.page(COMP_A, 1, 3));
+        Assertions.assertEquals(Arrays.asList(97L, 99L), index.page(COMP_A, 16, 3));
+        Assertions.assertTrue(index.page(COMP_A, 17, 3).isEmpty());
+    }
+
+    @Test
+    public void testRemoveHead() {
+        index.remove(Arrays.asList(status(1, COMP_A), status(2, COMP_B), status(3, COMP_A)));
+
+        Assertions.assertEquals(48, index.count(COMP_A));
+        Assertions.assertEquals(49, index.count(COMP_B));
+        Assertions.assertEquals(Arrays.asList(5L, 7L), index.ancient(COMP_A, 2));
+        Assertions.assertEquals(Arrays.asList(5L, 7L), index.page(COMP_A, 0, 2));
+        Assertions.assertEquals(Arrays.asList(5L), index.byId(COMP_A, 1, 6));
+
+        // Statuses added after the removal are appended after the head
+        index.add(Collections.singletonList(status(101, COMP_A)));
+        Assertions.assertEquals(49, index.count(COMP_A));
+        Assertions.assertEquals(Arrays.asList(99L, 101L), index.latest(COMP_A, 2));
+        Assertions.assertEquals(Arrays.asList(5L), index.ancient(COMP_A, 1));
+    }
+
+    @Test
+    public void testRemoveUntil() {
+        Set<String> removed = index.removeUntil(97);
+
+        Assertions.assertEquals(2, removed.size());
+        Assertions.assertTrue(removed.contains(COMP_A.toLowerCase()));
+        Assertions.assertTrue(removed.contains(COMP_B.toLowerCase()));
+        Assertions.assertEquals(Arrays.asList(99L), index.all(COMP_A));
+        Assertions.assertEquals(Arrays.asList(98L, 100L), index.all(COMP_B));
+        Assertions.assertTrue(index.byDate(COMP_A, new Date(0), new Date(97000)).isEmpty());
+
+        // Removing all component's statuses, the component is removed
+        removed = index.removeUntil(99);
+        Assertions.assertEquals(2, removed.size());
+        Assertions.assertEquals(0, index.count(COMP_A));
+        Assertions.assertEquals(Arrays.asList(100L), index.all(COMP_B));
+        Assertions.assertTrue(index.latest(COMP_A, 1).isEmpty());
+        Assertions.assertTrue(index.removeUntil(99).isEmpty());
+    }
+
+    @Test
+    public void testGrowAfterHeadRemoval() {
+        index.removeUntil(80);
+        List<JOSPHistory> items = new ArrayList<>();
+        for (int i = 101; i <= 300; i++)
+            items.add(status(i, COMP_A));
+        index.add(items);
+
+        Assertions.assertEquals(210, index.count(COMP_A));
+        Assertions.assertEquals(Arrays.asList(81L, 83L), index.ancient(COMP_A, 2));
+        Assertions.assertEquals(Arrays.asList(299L, 300L), index.latest(COMP_A, 2));
+        Assertions.assertEquals(Arrays.asList(99L, 101L, 102L), index.byId(COMP_A, 98, 102));
+    }
+
+    private static JOSPHistory status(long id, String compPath) {
+        return new JOSPHistory(id, compPath, StructureDefinitions.TYPE_RANGE_STATE, new Date(id * 1000), "new:" + id);
+    }
+
+}
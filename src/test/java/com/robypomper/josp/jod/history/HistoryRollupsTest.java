@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * The John Operating System Project is the collection of software and configurations
+ * to generate IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package com.robypomper.josp.jod.history;
+
+import com.robypomper.josp.jod.structure.StructureDefinitions;
+import com.robypomper.josp.protocol.JOSPHistory;
+import com.robypomper.josp.protocol.JOSPMsgParams;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+public class HistoryRollupsTest {
+
+    private static final String COMP_PATH = "root>range";
+    private static final long MINUTE = HistoryResolution.MINUTE.getBucketLength();
+
+    @TempDir
+    File tmpDir;
+
+    @Test
+    public void testRollupsByMinuteAndHour() throws IOException {
+        File file = new File(tmpDir, "history.jru");
+        HistoryRollups rollups = new HistoryRollups(file);
+
+        // 2 hours of statuses, one every 10 seconds: 720 statuses
+        List<JOSPHistory> items = new ArrayList<>();
+        for (int i = 0; i < 720; i++)
+            items.add(rangeStatus(i + 1, i * 10000L, i % 6));
+        items.add(new JOSPHistory(721, "root>bool", StructureDefinitions.TYPE_BOOL_STATE, new Date(0), "new:true"));
+        rollups.add(items);
+
+        Assertions.assertTrue(rollups.contains(COMP_PATH));
+        Assertions.assertFalse(rollups.contains("root>bool"));
+        Assertions.assertEquals(120, rollups.all(COMP_PATH, HistoryResolution.MINUTE).size());
+        Assertions.assertEquals(2, rollups.all(COMP_PATH, HistoryResolution.HOUR).size());
+        Assertions.assertEquals(1, rollups.all(COMP_PATH, HistoryResolution.DAY).size());
+        Assertions.assertEquals(10, rollups.countByDate(COMP_PATH, HistoryResolution.MINUTE, new Date(0), new Date(10 * MINUTE - 1)));
+
+        JOSPHistory minute = rollups.latest(COMP_PATH, HistoryResolution.MINUTE, 1).get(0);
+        Assertions.assertEquals(720, minute.getId());
+        Assertions.assertEquals(119 * MINUTE, minute.getUpdatedAt().getTime());
+        Assertions.assertEquals(2.5, payloadValue(minute, 0));
+        Assertions.assertEquals(0, payloadValue(minute, 2));
+        Assertions.assertEquals(5, payloadValue(minute, 3));
+        Assertions.assertEquals(6, payloadValue(minute, 5));
+
+        // Stored and reloaded, already added statuses are ignored
+        rollups.store();
+        HistoryRollups reloaded = new HistoryRollups(file);
+        Assertions.assertEquals(721, reloaded.getLastId());
+        reloaded.add(items);
+        Assertions.assertEquals(360, payloadValue(reloaded.ancient(COMP_PATH, HistoryResolution.HOUR, 1).get(0), 5));
+    }
+
+    @Test
+    public void testTierTruncated() {
+        HistoryRollups rollups = new HistoryRollups(new File(tmpDir, "history.jru"));
+        List<JOSPHistory> items = new ArrayList<>();
+        for (int i = 0; i < HistoryRollups.MINUTE_MAX_BUCKETS + 10; i++)
+            items.add(rangeStatus(i + 1, i * MINUTE, i));
+        rollups.add(items);
+
+        Assertions.assertEquals(HistoryRollups.MINUTE_MAX_BUCKETS, rollups.all(COMP_PATH, HistoryResolution.MINUTE).size());
+        Assertions.assertFalse(rollups.covers(COMP_PATH, HistoryResolution.MINUTE, new Date(0)));
+        Assertions.assertTrue(rollups.covers(COMP_PATH, HistoryResolution.MINUTE, new Date(20 * MINUTE)));
+        Assertions.assertTrue(rollups.covers(COMP_PATH, HistoryResolution.HOUR, new Date(0)));
+    }
+
+    private static JOSPHistory rangeStatus(long id, long date, double value) {
+        String payload = String.format(JOSPMsgParams.KEY_VALUE_FORMAT, "new", value) + JOSPMsgParams.ITEMS_SEP + String.format(JOSPMsgParams.KEY_VALUE_FORMAT, "old", 0);
+        return new JOSPHistory(id, COMP_PATH, StructureDefinitions.TYPE_RANGE_STATE, new Date(date), payload);
+    }
+
+    private static double payloadValue(JOSPHistory status, int line) {
+        String value = status.getPayload().split(JOSPMsgParams.ITEMS_SEP)[line];
+        return Double.parseDouble(value.substring(value.indexOf(JOSPMsgParams.KEY_VALUE_SEP) + 1));
+    }
+
+}
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * The John Operating System Project is the collection of software and configurations
+ * to generate IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+
+package com.robypomper.josp.jod.history;
+
+import com.robypomper.josp.jod.structure.StructureDefinitions;
+import com.robypomper.josp.protocol.JOSPHistory;
+import com.robypomper.josp.protocol.JOSPMsgParams;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+public class StatusHistoryLogTest {
+
+    @TempDir
+    File tmpDir;
+
+    @Test
+    public void testCompactRecords() throws IOException {
+        File file = new File(tmpDir, "history.jbs");
+        StatusHistoryLog log = new StatusHistoryLog(file, 10, 10, 1000, 100, false);
+        List<JOSPHistory> statuses = new ArrayList<>();
+        for (int i = 1; i <= 30; i++) {
+            if (i % 3 == 0)
+                statuses.add(new JOSPHistory(i, "root>range", StructureDefinitions.TYPE_RANGE_STATE, new Date(i * 1000L), newOld(Double.toString(i + 0.5), Double.toString(i - 0.5))));
+            else if (i % 3 == 1)
+                statuses.add(new JOSPHistory(i, "root>switch", StructureDefinitions.TYPE_BOOL_STATE, new Date(i * 1000L), newOld(Boolean.toString(i % 2 == 0), "false")));
+            else
+                statuses.add(new JOSPHistory(i, "root>range", StructureDefinitions.TYPE_RANGE_STATE, new Date(i * 1000L), "not a range"));
+        }
+        for (JOSPHistory s : statuses)
+            log.append(s);
+        log.storeCache();
+
+        File dictionary = HistoryRecordCodec.getDictionaryFile(file);
+        Assertions.assertTrue(dictionary.exists());
+
+        StatusHistoryLog reloaded = new StatusHistoryLog(file, 10, 10, 1000, 100, false);
+        List<JOSPHistory> read = reloaded.getById(null, null);
+        Assertions.assertEquals(statuses.size(), read.size());
+        for (int i = 0; i < statuses.size(); i++) {
+            Assertions.assertEquals(statuses.get(i).getId(), read.get(i).getId());
+            Assertions.assertEquals(statuses.get(i).getCompPath(), read.get(i).getCompPath());
+            Assertions.assertEquals(statuses.get(i).getCompType(), read.get(i).getCompType());
+            Assertions.assertEquals(statuses.get(i).getUpdatedAt(), read.get(i).getUpdatedAt());
+            Assertions.assertEquals(statuses.get(i).getPayload(), read.get(i).getPayload());
+        }
+        // Decoded statuses share the dictionary's strings
+        Assertions.assertSame(read.get(0).getCompPath(), read.get(3).getCompPath());
+
+        Assertions.assertTrue(StatusHistoryLog.deleteSegments(file));
+        Assertions.assertTrue(StatusHistoryLog.deleteDictionary(file));
+        Assertions.assertFalse(dictionary.exists());
+    }
+
+    private static String newOld(String newValue, String oldValue) {
+        return String.format(JOSPMsgParams.KEY_VALUE_FORMAT, "new", newValue) + JOSPMsgParams.ITEMS_SEP + String.format(JOSPMsgParams.KEY_VALUE_FORMAT, "old", oldValue);
+    }
+
+}
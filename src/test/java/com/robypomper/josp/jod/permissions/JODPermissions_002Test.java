@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * The John Operating System Project is the collection of software and configurations
+ * to generate IoT EcoSystem, like the John Operating System Platform one.
+ * Copyright (C) 2024 Roberto Pompermaier
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package com.robypomper.josp.jod.permissions;
+
+import com.robypomper.josp.clients.JCPAPIsClientObj;
+import com.robypomper.josp.jod.JODSettings_002;
+import com.robypomper.josp.jod.comm.JODCommunication;
+import com.robypomper.josp.jod.comm.JODLocalClientInfo;
+import com.robypomper.josp.jod.objinfo.JODObjectInfo;
+import com.robypomper.josp.jod.structure.JODStructure;
+import com.robypomper.josp.protocol.JOSPPerm;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+@ExtendWith(MockitoExtension.class)
+public class JODPermissions_002Test {
+
+    @TempDir
+    File tmpDir;
+
+    @Test
+    public void testNullIds(@Mock JODObjectInfo jodObjectInfo, @Mock JCPAPIsClientObj jcpClient) throws JODPermissions.PermissionInvalidObjIdException {
+        Mockito.when(jodObjectInfo.getObjId()).thenReturn("objId");
+        Mockito.when(jodObjectInfo.getOwnerId()).thenReturn("ownerId");
+        Map<String, Object> props = new HashMap<>();
+        props.put(JODSettings_002.JODPERM_PATH, new File(tmpDir, "perms.jod").getPath());
+        JODPermissions_002 jodPerms = new JODPermissions_002(new JODSettings_002(props), jodObjectInfo, jcpClient);
+
+        // Null ids match only the wildcard permissions (all users, only local)
+        Assertions.assertEquals(JOSPPerm.Type.CoOwner, jodPerms.getServicePermission("srvId", null, JOSPPerm.Connection.OnlyLocal));
+        Assertions.assertEquals(JOSPPerm.Type.CoOwner, jodPerms.getServicePermission(null, null, JOSPPerm.Connection.OnlyLocal));
+        Assertions.assertEquals(JOSPPerm.Type.None, jodPerms.getServicePermission(null, null, JOSPPerm.Connection.LocalAndCloud));
+        Assertions.assertFalse(jodPerms.checkPermission(null, null, JOSPPerm.Type.State, JOSPPerm.Connection.LocalAndCloud));
+    }
+
+    @Test
+    public void testLocalClientsPermTypeRefreshed(@Mock JODObjectInfo jodObjectInfo, @Mock JCPAPIsClientObj jcpClient,
+                                                  @Mock JODCommunication jodComm, @Mock JODLocalClientInfo locConn)
+            throws JODPermissions.PermissionInvalidObjIdException, JODStructure.CommunicationSetException {
+        Mockito.when(jodObjectInfo.getObjId()).thenReturn("objId");
+        Mockito.when(jodObjectInfo.getOwnerId()).thenReturn("ownerId");
+        Mockito.when(locConn.getSrvId()).thenReturn("srvId");
+        Mockito.when(locConn.getUsrId()).thenReturn("usrId");
+        Mockito.when(jodComm.getAllLocalClientsInfo()).thenReturn(Collections.singletonList(locConn));
+        Map<String, Object> props = new HashMap<>();
+        props.put(JODSettings_002.JODPERM_PATH, new File(tmpDir, "perms.jod").getPath());
+        final JODPermissions_002 jodPerms = new JODPermissions_002(new JODSettings_002(props), jodObjectInfo, jcpClient);
+        jodPerms.setCommunication(jodComm);
+        // As JODCommunication_002, sync the object's permissions on each permission change
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                jodPerms.syncObjPermissions();
+                return null;
+            }
+        }).when(jodComm).syncObject();
+        InOrder inOrder = Mockito.inOrder(locConn);
+
+        // Default permissions: all users are CoOwner on local connections
+        jodPerms.updateLocalClientsPermissions();
+        inOrder.verify(locConn).setPermType(JOSPPerm.Type.CoOwner);
+
+        // Permission removed
+        String allUsrPermId = null;
+        for (JOSPPerm p : jodPerms.getPermissions())
+            if (p.getUsrId().equals(JOSPPerm.WildCards.USR_ALL.toString()))
+                allUsrPermId = p.getId();
+        Assertions.assertTrue(jodPerms.remPermissions(allUsrPermId));
+        inOrder.verify(locConn).setPermType(JOSPPerm.Type.None);
+
+        // Permission added
+        Assertions.assertTrue(jodPerms.addPermissions("srvId", "usrId", JOSPPerm.Type.State, JOSPPerm.Connection.OnlyLocal));
+        inOrder.verify(locConn).setPermType(JOSPPerm.Type.State);
+
+        // Permission updated
+        String usrPermId = null;
+        for (JOSPPerm p : jodPerms.getPermissions())
+            if (p.getUsrId().equals("usrId"))
+                usrPermId = p.getId();
+        Assertions.assertTrue(jodPerms.updPermissions(usrPermId, "srvId", "usrId", JOSPPerm.Type.Actions, JOSPPerm.Connection.OnlyLocal));
+        inOrder.verify(locConn).setPermType(JOSPPerm.Type.Actions);
+
+        // Owner changed, as JODObjectInfo_002.setOwnerId(): the client's user is the new owner
+        Mockito.when(jodObjectInfo.getOwnerId()).thenReturn("usrId");
+        jodPerms.updateLocalClientsPermissions();
+        inOrder.verify(locConn).setPermType(JOSPPerm.Type.CoOwner);
+    }
+
+}